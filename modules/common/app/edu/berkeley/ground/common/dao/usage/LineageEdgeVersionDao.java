@@ -13,6 +13,7 @@ package edu.berkeley.ground.common.dao.usage;
 
 import edu.berkeley.ground.common.dao.core.RichVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.usage.LineageAdjacency;
 import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
 import java.util.List;
 
@@ -24,6 +25,30 @@ public interface LineageEdgeVersionDao extends RichVersionDao<LineageEdgeVersion
   @Override
   LineageEdgeVersion retrieveFromDatabase(long id) throws GroundException;
 
+  /**
+   * Find everything a rich version was derived from, following lineage edges backwards.
+   *
+   * @param richVersionId the id of the rich version to start from
+   * @param maxDepth the maximum number of hops from the start
+   * @param maxFanOut the maximum number of edges followed out of any one rich version
+   * @param maxEdges the maximum number of edges visited in total
+   * @return the upstream lineage as an adjacency list
+   * @throws GroundException an error while traversing the lineage
+   */
+  LineageAdjacency getUpstream(long richVersionId, int maxDepth, int maxFanOut, int maxEdges) throws GroundException;
+
+  /**
+   * Find everything derived from a rich version, following lineage edges forwards.
+   *
+   * @param richVersionId the id of the rich version to start from
+   * @param maxDepth the maximum number of hops from the start
+   * @param maxFanOut the maximum number of edges followed out of any one rich version
+   * @param maxEdges the maximum number of edges visited in total
+   * @return the downstream lineage as an adjacency list
+   * @throws GroundException an error while traversing the lineage
+   */
+  LineageAdjacency getDownstream(long richVersionId, int maxDepth, int maxFanOut, int maxEdges) throws GroundException;
+
   @Override
   default Class<LineageEdgeVersion> getType() {
     return LineageEdgeVersion.class;
@@ -13,6 +13,7 @@ package edu.berkeley.ground.common.dao.version;
 
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.TagPredicate;
 import edu.berkeley.ground.common.util.DbStatements;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,28 @@ public interface TagDao {
 
   List<Long> getItemIdsByTag(String tag) throws GroundException;
 
+  /**
+   * Find the versions whose tags satisfy every predicate, in increasing id order.
+   *
+   * @param predicates the conditions on the versions' tags
+   * @param afterId only return ids greater than this one
+   * @param limit the maximum number of ids to return
+   * @return the matching version ids
+   * @throws GroundException an error while searching
+   */
+  List<Long> searchVersionIds(List<TagPredicate> predicates, long afterId, int limit) throws GroundException;
+
+  /**
+   * Find the items whose tags satisfy every predicate, in increasing id order.
+   *
+   * @param predicates the conditions on the items' tags
+   * @param afterId only return ids greater than this one
+   * @param limit the maximum number of ids to return
+   * @return the matching item ids
+   * @throws GroundException an error while searching
+   */
+  List<Long> searchItemIds(List<TagPredicate> predicates, long afterId, int limit) throws GroundException;
+
   Map<String, Tag> retrieveFromDatabaseByVersionId(long id) throws GroundException;
 
   Map<String, Tag> retrieveFromDatabaseByItemId(long id) throws GroundException;
@@ -35,7 +35,7 @@ public interface VersionHistoryDagDao {
   /**
    * Truncate the DAG to only have a certain number of levels, removing everything before that.
    *
-   * TODO: Once we have delta-encoded tags, this should also update the associated tags.
+   * <p>Tags stored as deltas against a removed version must be folded into the kept versions first.
    *
    * @param dag the DAG to truncate
    * @param numLevels the number of levels to keep
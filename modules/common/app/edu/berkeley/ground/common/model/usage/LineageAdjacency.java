@@ -0,0 +1,65 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.usage;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The part of the lineage graph reachable from one rich version, as an adjacency list. Every key is
+ * the id of a rich version and maps to the ids of the rich versions that were derived from it.
+ */
+public class LineageAdjacency {
+
+  // the id of the rich version the traversal started from
+  @JsonProperty("rootId")
+  private final long rootId;
+
+  // from id -> to ids, in the order the traversal reached them
+  @JsonProperty("adjacency")
+  private final Map<Long, List<Long>> adjacency;
+
+  // true if the traversal left edges out, at the edge limit or past a rich version's fan-out
+  @JsonProperty("truncated")
+  private final boolean truncated;
+
+  /**
+   * Create a lineage adjacency list.
+   *
+   * @param rootId the id of the rich version the traversal started from
+   * @param adjacency the ids of the rich versions derived from each rich version
+   * @param truncated whether the traversal stopped at its edge limit or cut a rich version's fan-out
+   */
+  @JsonCreator
+  public LineageAdjacency(@JsonProperty("rootId") long rootId,
+                          @JsonProperty("adjacency") Map<Long, List<Long>> adjacency,
+                          @JsonProperty("truncated") boolean truncated) {
+
+    this.rootId = rootId;
+    this.adjacency = adjacency;
+    this.truncated = truncated;
+  }
+
+  public long getRootId() {
+    return this.rootId;
+  }
+
+  public Map<Long, List<Long>> getAdjacency() {
+    return this.adjacency;
+  }
+
+  public boolean isTruncated() {
+    return this.truncated;
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.model.version;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import java.math.BigDecimal;
+
+/**
+ * A condition on one tag of a version or item. Equality compares the tag's value as written, while
+ * the range operators compare the numeric value of integer and long tags.
+ */
+public class TagPredicate {
+
+  public enum Operator {
+    EQ("eq", "="),
+    GT("gt", ">"),
+    GTE("gte", ">="),
+    LT("lt", "<"),
+    LTE("lte", "<=");
+
+    private final String name;
+    private final String symbol;
+
+    Operator(String name, String symbol) {
+      this.name = name;
+      this.symbol = symbol;
+    }
+
+    public String getSymbol() {
+      return this.symbol;
+    }
+
+    public boolean isRange() {
+      return this != EQ;
+    }
+  }
+
+  private final String key;
+  private final Operator operator;
+  private final Object value;
+
+  /**
+   * Create a new tag predicate.
+   *
+   * @param key the key of the tag
+   * @param operator how the tag's value is compared
+   * @param value the value to compare against; a Long for the range operators
+   */
+  public TagPredicate(String key, Operator operator, Object value) {
+    this.key = key;
+    this.operator = operator;
+    this.value = value;
+  }
+
+  /**
+   * Parse a predicate of the form {@code [op:]value}, such as {@code gt:1e6} or {@code tables}. A
+   * value without a recognized operator prefix is matched for equality; {@code eq:} can be used to
+   * match a value that itself starts with an operator prefix.
+   *
+   * @param key the key of the tag
+   * @param expression the operator and value
+   * @return the parsed predicate
+   * @throws GroundException a range operator whose value is not a whole number
+   */
+  public static TagPredicate parse(String key, String expression) throws GroundException {
+    int separator = expression.indexOf(':');
+
+    if (separator > 0) {
+      String prefix = expression.substring(0, separator);
+      String operand = expression.substring(separator + 1);
+
+      for (Operator operator : Operator.values()) {
+        if (operator.name.equals(prefix)) {
+          return new TagPredicate(key, operator, operator.isRange() ? TagPredicate.parseLong(key, operand) : operand);
+        }
+      }
+    }
+
+    return new TagPredicate(key, Operator.EQ, expression);
+  }
+
+  private static long parseLong(String key, String operand) throws GroundException {
+    try {
+      return new BigDecimal(operand).longValueExact();
+    } catch (ArithmeticException | NumberFormatException e) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Tag %s can only be compared to a whole number, not %s.", key, operand));
+    }
+  }
+
+  public String getKey() {
+    return this.key;
+  }
+
+  public Operator getOperator() {
+    return this.operator;
+  }
+
+  public Object getValue() {
+    return this.value;
+  }
+}
@@ -11,13 +11,13 @@
  */
 package edu.berkeley.ground.common.model.version;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 public class VersionHistoryDag {
 
@@ -25,10 +25,16 @@ public class VersionHistoryDag {
   private final long itemId;
 
   // list of VersionSuccessors that make up this DAG
-  private final List<Long> edgeIds;
+  private final LongArrayList edgeIds;
 
   // map of parents to children
-  private final Map<Long, List<Long>> parentChildMap;
+  private final Long2ObjectOpenHashMap<LongArrayList> parentChildMap;
+
+  // map of children to parents
+  private final Long2ObjectOpenHashMap<LongArrayList> childParentMap;
+
+  // versions that are not the parent of any other version, kept up to date by addEdge
+  private final LongOpenHashSet leaves;
 
   /**
    * Create a new version history DAG.
@@ -38,10 +44,25 @@ public class VersionHistoryDag {
    */
   public VersionHistoryDag(long itemId, List<VersionSuccessor> edges) {
     this.itemId = itemId;
-    this.edgeIds = edges.stream().map(VersionSuccessor::getId).collect(Collectors.toList());
-    this.parentChildMap = new HashMap<>();
+    this.edgeIds = new LongArrayList(edges.size());
+    this.parentChildMap = new Long2ObjectOpenHashMap<>();
+    this.childParentMap = new Long2ObjectOpenHashMap<>();
+    this.leaves = new LongOpenHashSet();
 
-    edges.forEach(edge -> this.addToParentChildMap(edge.getFromId(), edge.getToId()));
+    edges.forEach(edge -> this.addEdge(edge.getFromId(), edge.getToId(), edge.getId()));
+  }
+
+  /**
+   * Create a copy of a version history DAG that shares no state with the original.
+   *
+   * @param other the DAG to copy
+   */
+  public VersionHistoryDag(VersionHistoryDag other) {
+    this.itemId = other.itemId;
+    this.edgeIds = new LongArrayList(other.edgeIds);
+    this.parentChildMap = copy(other.parentChildMap);
+    this.childParentMap = copy(other.childParentMap);
+    this.leaves = new LongOpenHashSet(other.leaves);
   }
 
   public long getItemId() {
@@ -59,7 +80,7 @@ public class VersionHistoryDag {
    * @return true if id is in the DAG, false otherwise
    */
   public boolean checkItemInDag(long id) {
-    return this.parentChildMap.keySet().contains(id) || this.getLeaves().contains(id);
+    return this.parentChildMap.containsKey(id) || this.childParentMap.containsKey(id);
   }
 
   /**
@@ -70,7 +91,14 @@ public class VersionHistoryDag {
    */
   public void addEdge(long parentId, long childId, long successorId) {
     this.edgeIds.add(successorId);
-    this.addToParentChildMap(parentId, childId);
+
+    add(this.parentChildMap, parentId, childId);
+    add(this.childParentMap, childId, parentId);
+
+    this.leaves.remove(parentId);
+    if (!this.parentChildMap.containsKey(childId)) {
+      this.leaves.add(childId);
+    }
   }
 
   /**
@@ -80,24 +108,18 @@ public class VersionHistoryDag {
    * @return the list of parent version(s)
    */
   public List<Long> getParent(long childId) {
-    return this.parentChildMap
-             .entrySet()
-             .stream()
-             .filter(entry -> entry.getValue().contains(childId))
-             .map(Map.Entry::getKey)
-             .collect(Collectors.toList());
+    LongArrayList parents = this.childParentMap.get(childId);
+
+    return parents == null ? new ArrayList<>() : new LongArrayList(parents);
   }
 
   public Map<Long, Long> getParentChildPairs() {
     Map<Long, Long> result = new HashMap<>();
 
-    for (Long parent : this.parentChildMap.keySet()) {
-      List<Long> children = this.parentChildMap.get(parent);
-
-      for (Long child : children) {
-        result.put(parent, child);
-      }
-    }
+    this.parentChildMap.long2ObjectEntrySet().forEach(entry -> {
+      LongArrayList children = entry.getValue();
+      result.put(entry.getLongKey(), children.getLong(children.size() - 1));
+    });
 
     return result;
   }
@@ -109,15 +131,25 @@ public class VersionHistoryDag {
    * @return the list of the IDs of the leaves of this DAG
    */
   public List<Long> getLeaves() {
-    Set<Long> leaves = new HashSet<>();
-    this.parentChildMap.values().forEach(leaves::addAll);
-    leaves.removeAll(this.parentChildMap.keySet());
+    return new LongArrayList(this.leaves);
+  }
+
+  private static Long2ObjectOpenHashMap<LongArrayList> copy(Long2ObjectOpenHashMap<LongArrayList> map) {
+    Long2ObjectOpenHashMap<LongArrayList> result = new Long2ObjectOpenHashMap<>(map.size());
+    map.long2ObjectEntrySet().forEach(entry -> result.put(entry.getLongKey(), new LongArrayList(entry.getValue())));
 
-    return new ArrayList<>(leaves);
+    return result;
   }
 
-  private void addToParentChildMap(long parent, long child) {
-    List<Long> childList = this.parentChildMap.computeIfAbsent(parent, key -> new ArrayList<>());
-    childList.add(child);
+  private static void add(Long2ObjectOpenHashMap<LongArrayList> map, long key, long value) {
+    LongArrayList values = map.get(key);
+
+    if (values == null) {
+      // most versions have exactly one parent and one child
+      values = new LongArrayList(1);
+      map.put(key, values);
+    }
+
+    values.add(value);
   }
 }
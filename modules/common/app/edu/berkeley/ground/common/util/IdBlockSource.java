@@ -0,0 +1,31 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.common.util;
+
+import edu.berkeley.ground.common.exception.GroundException;
+
+/**
+ * A persistent record of the ids handed out so far. The IdGenerator leases blocks of ids from it,
+ * so that ids keep increasing across restarts instead of starting over at 1.
+ */
+public interface IdBlockSource {
+
+  /**
+   * Lease a block of ids for a counter. Two leases of the same counter never overlap.
+   *
+   * @param counter the name of the counter
+   * @param size the number of ids in the block
+   * @return the first id in the block
+   * @throws GroundException an error leasing the block
+   */
+  long lease(String counter, long size) throws GroundException;
+}
@@ -13,35 +13,58 @@
  */
 package edu.berkeley.ground.common.util;
 
+import edu.berkeley.ground.common.exception.GroundException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.inject.Singleton;
 
 @Singleton
 public class IdGenerator {
 
+  private static final String VERSION_COUNTER = "version";
+  private static final String SUCCESSOR_COUNTER = "successor";
+  private static final String ITEM_COUNTER = "item";
+
   private final long prefix;
-  private long versionCounter;
-  private long successorCounter;
-  private long itemCounter;
+  private final Counter versionCounter;
+  private final Counter successorCounter;
+  private final Counter itemCounter;
 
   // If true, only one counter will be used. If false, all three counters will be used.
   private final boolean globallyUnique;
 
   public IdGenerator() {
-    this.prefix = 0;
-    this.versionCounter = 1;
-    this.successorCounter = 1;
-    this.itemCounter = 1;
-    this.globallyUnique = true;
+    this(0, 1, true);
   }
 
   /**
-   * Create a unique id generator.
+   * Create a unique id generator whose counters live only in memory, and so start again at 1 every
+   * time the process starts.
    *
    * @param machineId the id of this machine
    * @param numMachines the total number of machines
    * @param globallyUnique if true, only one counter will be used for all version
    */
   public IdGenerator(long machineId, long numMachines, boolean globallyUnique) {
+    this(machineId, numMachines, globallyUnique, null, 0);
+  }
+
+  /**
+   * Create a unique id generator that leases its ids in blocks from a persistent source, so that
+   * ids are never reused across restarts. The next block is leased in the background once half of
+   * the current one has been handed out.
+   *
+   * @param machineId the id of this machine
+   * @param numMachines the total number of machines
+   * @param globallyUnique if true, only one counter will be used for all version
+   * @param source the source to lease blocks from, or null to keep the counters in memory
+   * @param blockSize the number of ids in each leased block
+   */
+  public IdGenerator(long machineId, long numMachines, boolean globallyUnique, IdBlockSource source, long blockSize) {
     long machineBits = 1;
     long fence = 2;
 
@@ -51,18 +74,46 @@ public class IdGenerator {
     }
 
     this.prefix = machineId << (64 - machineBits);
+    this.globallyUnique = globallyUnique;
 
     // NOTE: Do not change this. The version counter is set to start a 1 because 0 is the default
     // empty version.
-    this.versionCounter = 1;
-    this.successorCounter = 1;
-    this.itemCounter = 1;
+    if (source == null) {
+      this.versionCounter = new Counter();
+      this.successorCounter = new Counter();
+      this.itemCounter = new Counter();
+    } else {
+      ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ground-id-lease");
+        thread.setDaemon(true);
+        return thread;
+      });
 
-    this.globallyUnique = globallyUnique;
+      this.versionCounter = new Counter(VERSION_COUNTER, source, blockSize, executor);
+      this.successorCounter = globallyUnique ? this.versionCounter : new Counter(SUCCESSOR_COUNTER, source, blockSize, executor);
+      this.itemCounter = globallyUnique ? this.versionCounter : new Counter(ITEM_COUNTER, source, blockSize, executor);
+    }
   }
 
-  public synchronized long generateVersionId() {
-    return prefix | this.versionCounter++;
+  public long generateVersionId() {
+    return prefix | this.versionCounter.next();
+  }
+
+  /**
+   * Reserve a block of version ids. The ids are contiguous unless the reservation crosses the end
+   * of a leased block.
+   *
+   * @param count the number of ids to reserve
+   * @return the reserved ids, in ascending order
+   */
+  public long[] generateVersionIds(int count) {
+    long[] ids = this.versionCounter.next(count);
+
+    for (int i = 0; i < count; i++) {
+      ids[i] = prefix | ids[i];
+    }
+
+    return ids;
   }
 
   /**
@@ -70,11 +121,11 @@ public class IdGenerator {
    *
    * @return a new id
    */
-  public synchronized long generateSuccessorId() {
+  public long generateSuccessorId() {
     if (this.globallyUnique) {
-      return prefix | this.versionCounter++;
+      return prefix | this.versionCounter.next();
     } else {
-      return prefix | this.successorCounter++;
+      return prefix | this.successorCounter.next();
     }
   }
 
@@ -83,11 +134,128 @@ public class IdGenerator {
    *
    * @return a new id
    */
-  public synchronized long generateItemId() {
+  public long generateItemId() {
     if (this.globallyUnique) {
-      return prefix | this.versionCounter++;
+      return prefix | this.versionCounter.next();
     } else {
-      return prefix | this.itemCounter++;
+      return prefix | this.itemCounter.next();
+    }
+  }
+
+  /**
+   * A range of ids that is handed out with a single atomic increment per id.
+   */
+  private static final class Block {
+
+    private final AtomicLong next;
+    private final long end;
+    private final long refillAt;
+
+    private Block(long start, long end, long refillAt) {
+      this.next = new AtomicLong(start);
+      this.end = end;
+      this.refillAt = refillAt;
+    }
+  }
+
+  /**
+   * A counter that hands out the ids of its current block without locking. Threads only
+   * synchronize when a block runs out, and only wait on the block source if the block leased in
+   * the background has not arrived yet.
+   */
+  private static final class Counter {
+
+    private final String name;
+    private final IdBlockSource source;
+    private final long blockSize;
+    private final ExecutorService executor;
+    private final AtomicReference<Block> current;
+
+    // guarded by this
+    private CompletableFuture<Block> nextBlock;
+
+    private Counter() {
+      this.name = null;
+      this.source = null;
+      this.blockSize = 0;
+      this.executor = null;
+      this.current = new AtomicReference<>(new Block(1, Long.MAX_VALUE, -1));
+    }
+
+    private Counter(String name, IdBlockSource source, long blockSize, ExecutorService executor) {
+      this.name = name;
+      this.source = source;
+      this.blockSize = blockSize;
+      this.executor = executor;
+      this.current = new AtomicReference<>(this.lease());
+    }
+
+    private long next() {
+      while (true) {
+        Block block = this.current.get();
+        long id = block.next.getAndIncrement();
+
+        if (id < block.end) {
+          if (id == block.refillAt) {
+            this.prefetch();
+          }
+
+          return id;
+        }
+
+        this.advance(block);
+      }
+    }
+
+    private long[] next(int count) {
+      long[] ids = new long[count];
+      Block block = this.current.get();
+      long start = block.next.getAndAdd(count);
+      int reserved = (int) Math.max(0, Math.min(count, block.end - start));
+
+      for (int i = 0; i < reserved; i++) {
+        ids[i] = start + i;
+      }
+
+      if (block.refillAt >= start && block.refillAt < start + reserved) {
+        this.prefetch();
+      }
+
+      for (int i = reserved; i < count; i++) {
+        ids[i] = this.next();
+      }
+
+      return ids;
+    }
+
+    private synchronized void prefetch() {
+      if (this.nextBlock == null) {
+        this.nextBlock = CompletableFuture.supplyAsync(this::lease, this.executor);
+      }
+    }
+
+    private synchronized void advance(Block exhausted) {
+      if (this.current.get() != exhausted) {
+        // another thread has already moved on to the next block
+        return;
+      }
+
+      this.prefetch();
+
+      try {
+        this.current.set(this.nextBlock.join());
+      } finally {
+        this.nextBlock = null;
+      }
+    }
+
+    private Block lease() {
+      try {
+        long start = this.source.lease(this.name, this.blockSize);
+        return new Block(start, start + this.blockSize, start + this.blockSize / 2);
+      } catch (GroundException e) {
+        throw new CompletionException(e);
+      }
     }
   }
 }
@@ -0,0 +1,56 @@
+package edu.berkeley.ground.common.model.versions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.berkeley.ground.common.model.version.VersionHistoryDag;
+import edu.berkeley.ground.common.model.version.VersionSuccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+
+public class VersionHistoryDagTest {
+
+  @Test
+  public void testParentsAndLeaves() {
+    // 1 -> 2 -> 4, 1 -> 3 -> 4, 3 -> 5
+    List<VersionSuccessor> edges = Arrays.asList(new VersionSuccessor(10, 0, 1), new VersionSuccessor(11, 1, 2),
+      new VersionSuccessor(12, 1, 3), new VersionSuccessor(13, 2, 4), new VersionSuccessor(14, 3, 4));
+    VersionHistoryDag dag = new VersionHistoryDag(100, edges);
+
+    assertEquals(new HashSet<>(Arrays.asList(4L)), new HashSet<>(dag.getLeaves()));
+
+    dag.addEdge(3, 5, 15);
+
+    assertEquals(new HashSet<>(Arrays.asList(4L, 5L)), new HashSet<>(dag.getLeaves()));
+    assertEquals(new HashSet<>(Arrays.asList(2L, 3L)), new HashSet<>(dag.getParent(4)));
+    assertEquals(Arrays.asList(0L), dag.getParent(1));
+    assertTrue(dag.getParent(6).isEmpty());
+    assertEquals(6, dag.getEdgeIds().size());
+
+    assertTrue(dag.checkItemInDag(1));
+    assertTrue(dag.checkItemInDag(5));
+    assertFalse(dag.checkItemInDag(6));
+  }
+
+  @Test
+  public void testLongHistory() {
+    int numVersions = 100000;
+    VersionHistoryDag dag = new VersionHistoryDag(1, new ArrayList<>());
+
+    for (long id = 1; id <= numVersions; id++) {
+      dag.addEdge(id - 1, id, numVersions + id);
+    }
+
+    assertEquals(Arrays.asList((long) numVersions), dag.getLeaves());
+    assertEquals(numVersions, dag.getEdgeIds().size());
+
+    for (long id = 1; id <= numVersions; id++) {
+      assertEquals(id - 1, (long) dag.getParent(id).get(0));
+      assertTrue(dag.checkItemInDag(id));
+    }
+  }
+}
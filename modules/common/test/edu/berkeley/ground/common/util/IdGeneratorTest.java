@@ -1,7 +1,17 @@
 package edu.berkeley.ground.common.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import org.junit.Test;
 
 public class IdGeneratorTest {
@@ -15,4 +25,53 @@ public class IdGeneratorTest {
 
     assertEquals(expected, id);
   }
+
+  @Test
+  public void testVersionIdBlock() {
+    IdGenerator generator = new IdGenerator();
+    generator.generateVersionId();
+
+    assertArrayEquals(new long[] {2, 3, 4}, generator.generateVersionIds(3));
+    assertEquals(5, generator.generateVersionId());
+  }
+
+  @Test
+  public void testLeasedIdsSurviveRestart() {
+    AtomicLong highWaterMark = new AtomicLong(1);
+    IdBlockSource source = (counter, size) -> highWaterMark.getAndAdd(size);
+
+    long first = new IdGenerator(0, 1, true, source, 100).generateVersionId();
+    long second = new IdGenerator(0, 1, true, source, 100).generateVersionId();
+
+    assertEquals(1, first);
+    assertTrue(second > first);
+  }
+
+  @Test
+  public void testConcurrentLeasedIds() throws Exception {
+    int threads = 64;
+    int idsPerThread = 10000;
+
+    AtomicLong highWaterMark = new AtomicLong(1);
+    IdGenerator generator = new IdGenerator(0, 1, true, (counter, size) -> highWaterMark.getAndAdd(size), 100);
+
+    Set<Long> ids = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+
+    for (int i = 0; i < threads; i++) {
+      futures.add(executor.submit(() -> {
+        for (int j = 0; j < idsPerThread; j++) {
+          ids.add(generator.generateVersionId());
+        }
+      }));
+    }
+
+    for (Future<?> future : futures) {
+      future.get();
+    }
+
+    executor.shutdown();
+    assertEquals(threads * idsPerThread, ids.size());
+  }
 }
@@ -0,0 +1,44 @@
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import play.Configuration;
+import play.Environment;
+import play.api.OptionalSourceMapper;
+import play.api.routing.Router;
+import play.http.DefaultHttpErrorHandler;
+import play.mvc.Http.HeaderNames;
+import play.mvc.Http.RequestHeader;
+import play.mvc.Http.Status;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * Answers requests the database executor had no room for with a 503 and a Retry-After header, so
+ * clients back off instead of waiting for a timeout. Every other error is handled by Play.
+ */
+@Singleton
+public class ErrorHandler extends DefaultHttpErrorHandler {
+
+  @Inject
+  public ErrorHandler(Configuration configuration, Environment environment, OptionalSourceMapper sourceMapper,
+                      Provider<Router> routes) {
+    super(configuration, environment, sourceMapper, routes);
+  }
+
+  @Override
+  public CompletionStage<Result> onServerError(RequestHeader request, Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof DbExecutor.Saturated) {
+        long retryAfter = ((DbExecutor.Saturated) cause).getRetryAfterSecs();
+
+        return CompletableFuture.completedFuture(Results.status(Status.SERVICE_UNAVAILABLE, cause.getMessage())
+                                                   .withHeader(HeaderNames.RETRY_AFTER, Long.toString(retryAfter)));
+      }
+    }
+
+    return super.onServerError(request, exception);
+  }
+}
@@ -0,0 +1,21 @@
+import edu.berkeley.ground.postgres.filters.GroundFilter;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import play.http.HttpFilters;
+import play.mvc.EssentialFilter;
+
+@Singleton
+public class Filters implements HttpFilters {
+
+  private final GroundFilter groundFilter;
+
+  @Inject
+  public Filters(GroundFilter groundFilter) {
+    this.groundFilter = groundFilter;
+  }
+
+  @Override
+  public EssentialFilter[] filters() {
+    return new EssentialFilter[] {this.groundFilter};
+  }
+}
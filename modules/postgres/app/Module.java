@@ -1,6 +1,17 @@
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.typesafe.config.Config;
+import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.start.ApplicationStart;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.PostgresIdBlockSource;
 import java.time.Clock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Singleton;
+import play.api.Configuration;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
 
 public class Module extends AbstractModule {
 
@@ -9,4 +20,31 @@ public class Module extends AbstractModule {
     bind(Clock.class).toInstance(Clock.systemDefaultZone());
     bind(ApplicationStart.class).asEagerSingleton();
   }
+
+  @Provides
+  @Singleton
+  public IdGenerator provideIdGenerator(Configuration configuration, Database dbSource) {
+    Config config = configuration.underlying();
+
+    return new IdGenerator(config.getLong("ground.id.machine"), config.getLong("ground.id.machines"), true,
+      new PostgresIdBlockSource(dbSource), config.getLong("ground.id.block.size"));
+  }
+
+  @Provides
+  @Singleton
+  public DbExecutor provideDbExecutor(Configuration configuration, ApplicationLifecycle appLifecycle) {
+    Config config = configuration.underlying();
+
+    DbExecutor dbExecutor = new DbExecutor(config.getInt("ground.db.executor.threads"),
+      config.getInt("ground.db.executor.queue-size"),
+      config.getDuration("ground.db.executor.max-wait", TimeUnit.MILLISECONDS),
+      config.getDuration("ground.db.executor.retry-after", TimeUnit.SECONDS));
+
+    appLifecycle.addStopHook(() -> {
+      dbExecutor.shutdown();
+      return CompletableFuture.completedFuture(null);
+    });
+
+    return dbExecutor;
+  }
 }
@@ -1,6 +1,5 @@
 package edu.berkeley.ground.postgres.controllers;
 
-import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.berkeley.ground.common.exception.GroundException;
@@ -9,8 +8,12 @@ import edu.berkeley.ground.common.model.core.EdgeVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.core.PostgresEdgeDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresEdgeVersionDao;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.GroundBodyParser;
+import edu.berkeley.ground.postgres.util.GroundFormat;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -21,20 +24,20 @@ import play.db.Database;
 import play.libs.Json;
 import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
-import play.mvc.Results;
 
 public class EdgeController extends Controller {
 
   private CacheApi cache;
-  private ActorSystem actorSystem;
+  private DbExecutor dbExecutor;
 
   private PostgresEdgeDao postgresEdgeDao;
   private PostgresEdgeVersionDao postgresEdgeVersionDao;
 
   @Inject
-  final void injectUtils(final CacheApi cache, final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) {
-    this.actorSystem = actorSystem;
+  final void injectUtils(final CacheApi cache, final Database dbSource, final DbExecutor dbExecutor, final IdGenerator idGenerator) {
+    this.dbExecutor = dbExecutor;
     this.cache = cache;
 
     this.postgresEdgeDao = new PostgresEdgeDao(dbSource, idGenerator);
@@ -42,27 +45,20 @@ public class EdgeController extends Controller {
   }
 
   public final CompletionStage<Result> getEdge(final String sourceKey) {
-    return CompletableFuture.supplyAsync(
-      () -> {
-        try {
-          return this.cache.getOrElse(
-            "edges." + sourceKey,
-            () -> Json.toJson(this.postgresEdgeDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
-          throw new CompletionException(e);
-        }
-      },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "edges." + sourceKey,
+      () -> Json.toJson(this.postgresEdgeDao.retrieveFromDatabase(sourceKey)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> addEdge() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
         Edge edge = Json.fromJson(json, Edge.class);
 
         try {
@@ -72,34 +68,27 @@ public class EdgeController extends Controller {
         }
 
         return Json.toJson(edge);
-      },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::created)
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
   public final CompletionStage<Result> getEdgeVersion(Long id) {
-    return CompletableFuture.supplyAsync(
-      () -> {
-        try {
-          return this.cache.getOrElse(
-            "edge_versions." + id,
-            () -> Json.toJson(this.postgresEdgeVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
-          throw new CompletionException(e);
-        }
-      },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "edge_versions." + id,
+      () -> Json.toJson(this.postgresEdgeVersionDao.retrieveFromDatabase(id)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> addEdgeVersion() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
         List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
 
         ((ObjectNode) json).remove("parentIds");
@@ -112,9 +101,54 @@ public class EdgeController extends Controller {
         }
 
         return Json.toJson(edgeVersion);
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(BodyParser.TolerantText.class)
+  public final CompletionStage<Result> addEdgeVersions() {
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
+      () -> {
+        try {
+          return GroundUtils.createVersions(this.postgresEdgeVersionDao, request().body().asText());
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getEdgeVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getVersions(this.postgresEdgeVersionDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::created)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getLatestVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getLeaves(this.postgresEdgeDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -122,16 +156,13 @@ public class EdgeController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "edge_leaves." + sourceKey,
-            () -> Json.toJson(this.postgresEdgeDao.getLeaves(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresEdgeDao.getLeaves(sourceKey));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -139,16 +170,29 @@ public class EdgeController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "edge_history." + sourceKey,
-            () -> Json.toJson(this.postgresEdgeDao.getHistory(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresEdgeDao.getHistory(sourceKey));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> streamHistory(String sourceKey, Long after, Long limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          long itemId = this.postgresEdgeDao.retrieveFromDatabase(sourceKey).getId();
+
+          return this.postgresEdgeDao.streamHistory(itemId, after, GroundUtils.checkLimit("limit", limit, Long.MAX_VALUE));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(elements -> GroundUtils.stream(request(), elements))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 }
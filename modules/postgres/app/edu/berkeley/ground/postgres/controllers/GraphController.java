@@ -11,7 +11,6 @@
  */
 package edu.berkeley.ground.postgres.controllers;
 
-import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.berkeley.ground.common.exception.GroundException;
@@ -20,8 +19,12 @@ import edu.berkeley.ground.common.model.core.GraphVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.core.PostgresGraphDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresGraphVersionDao;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.GroundBodyParser;
+import edu.berkeley.ground.postgres.util.GroundFormat;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -32,20 +35,20 @@ import play.db.Database;
 import play.libs.Json;
 import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
-import play.mvc.Results;
 
 public class GraphController extends Controller {
 
   private CacheApi cache;
-  private ActorSystem actorSystem;
+  private DbExecutor dbExecutor;
 
   private PostgresGraphDao postgresGraphDao;
   private PostgresGraphVersionDao postgresGraphVersionDao;
 
   @Inject
-  final void injectUtils(final CacheApi cache, final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) {
-    this.actorSystem = actorSystem;
+  final void injectUtils(final CacheApi cache, final Database dbSource, final DbExecutor dbExecutor, final IdGenerator idGenerator) {
+    this.dbExecutor = dbExecutor;
     this.cache = cache;
 
     this.postgresGraphDao = new PostgresGraphDao(dbSource, idGenerator);
@@ -54,43 +57,54 @@ public class GraphController extends Controller {
   }
 
   public final CompletionStage<Result> getGraph(String sourceKey) {
-    return CompletableFuture.supplyAsync(
-      () -> {
-        try {
-          return this.cache.getOrElse(
-            "graphs." + sourceKey,
-            () -> Json.toJson(this.postgresGraphDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
-          throw new CompletionException(e);
-        }
-      },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "graphs." + sourceKey,
+      () -> Json.toJson(this.postgresGraphDao.retrieveFromDatabase(sourceKey)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  public final CompletionStage<Result> getGraphVersion(Long id) {
+  public final CompletionStage<Result> getGraphVersion(Long id, String expand) {
+    Http.Request request = request();
+
+    if (!expand.isEmpty()) {
+      return this.getGraphVersionExpanded(id, expand, request);
+    }
+
+    return GroundUtils.getCached(this.cache, "graph_versions." + id,
+      () -> Json.toJson(this.postgresGraphVersionDao.retrieveFromDatabase(id)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
+  }
+
+  /**
+   * Answer a read with ?expand=edges, which inlines the member edge versions. The version itself is
+   * usually cached, and its edges are streamed from a single query however many there are.
+   */
+  private CompletionStage<Result> getGraphVersionExpanded(long id, String expand, Http.Request request) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse("graph_versions." + id,
-            () -> Json.toJson(this.postgresGraphVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          GroundUtils.checkExpand(expand, "edges");
+          ObjectNode json = (ObjectNode) Json.toJson(this.postgresGraphVersionDao.retrieveFromDatabase(id));
+
+          return GroundUtils.stream(request, json, "edgeVersions", this.postgresGraphVersionDao.streamEdgeVersions(id));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> addGraph() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
         Graph graph = Json.fromJson(json, Graph.class);
 
         try {
@@ -100,17 +114,17 @@ public class GraphController extends Controller {
         }
 
         return Json.toJson(graph);
-      },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::created)
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> addGraphVersion() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
         List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
         ((ObjectNode) json).remove("parentIds");
         GraphVersion graphVersion = Json.fromJson(json, GraphVersion.class);
@@ -121,9 +135,54 @@ public class GraphController extends Controller {
           throw new CompletionException(e);
         }
         return Json.toJson(graphVersion);
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(BodyParser.TolerantText.class)
+  public final CompletionStage<Result> addGraphVersions() {
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
+      () -> {
+        try {
+          return GroundUtils.createVersions(this.postgresGraphVersionDao, request().body().asText());
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getGraphVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getVersions(this.postgresGraphVersionDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getLatestVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getLeaves(this.postgresGraphDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -131,16 +190,13 @@ public class GraphController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "graph_leaves." + sourceKey,
-            () -> Json.toJson(this.postgresGraphDao.getLeaves(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresGraphDao.getLeaves(sourceKey));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -148,16 +204,43 @@ public class GraphController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "graph_history." + sourceKey,
-            () -> Json.toJson(this.postgresGraphDao.getHistory(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresGraphDao.getHistory(sourceKey));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> streamHistory(String sourceKey, Long after, Long limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          long itemId = this.postgresGraphDao.retrieveFromDatabase(sourceKey).getId();
+
+          return this.postgresGraphDao.streamHistory(itemId, after, GroundUtils.checkLimit("limit", limit, Long.MAX_VALUE));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(elements -> GroundUtils.stream(request(), elements))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> streamGraphVersionEdges(Long id, Long after, Long limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return this.postgresGraphVersionDao.streamEdgeIds(id, after, GroundUtils.checkLimit("limit", limit, Long.MAX_VALUE));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(elements -> GroundUtils.stream(request(), elements))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 }
@@ -1,6 +1,5 @@
 package edu.berkeley.ground.postgres.controllers;
 
-import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.berkeley.ground.common.exception.GroundException;
@@ -9,8 +8,12 @@ import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeVersionDao;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.GroundBodyParser;
+import edu.berkeley.ground.postgres.util.GroundFormat;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -21,20 +24,24 @@ import play.db.Database;
 import play.libs.Json;
 import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
-import play.mvc.Results;
 
 public class LineageEdgeController extends Controller {
 
+  private static final int MAXIMUM_DEPTH = 100;
+  private static final int MAXIMUM_FAN_OUT = 1000;
+  private static final int MAXIMUM_EDGES = 100000;
+
   private CacheApi cache;
-  private ActorSystem actorSystem;
+  private DbExecutor dbExecutor;
 
   private PostgresLineageEdgeDao postgresLineageEdgeDao;
   private PostgresLineageEdgeVersionDao postgresLineageEdgeVersionDao;
 
   @Inject
-  final void injectUtils(final CacheApi cache, final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) {
-    this.actorSystem = actorSystem;
+  final void injectUtils(final CacheApi cache, final Database dbSource, final DbExecutor dbExecutor, final IdGenerator idGenerator) {
+    this.dbExecutor = dbExecutor;
     this.cache = cache;
 
     this.postgresLineageEdgeDao = new PostgresLineageEdgeDao(dbSource, idGenerator);
@@ -42,110 +49,185 @@ public class LineageEdgeController extends Controller {
   }
 
   public final CompletionStage<Result> getLineageEdge(String sourceKey) {
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "lineage_edges." + sourceKey,
+      () -> Json.toJson(this.postgresLineageEdgeDao.retrieveFromDatabase(sourceKey)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
+  }
+
+  public final CompletionStage<Result> getLineageEdgeVersion(Long id) {
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "lineage_edge_versions." + id,
+      () -> Json.toJson(this.postgresLineageEdgeVersionDao.retrieveFromDatabase(id)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> createLineageEdge() {
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
+      () -> {
+        JsonNode json = request().body().as(JsonNode.class);
+        LineageEdge lineageEdge = Json.fromJson(json, LineageEdge.class);
+        try {
+          lineageEdge = this.postgresLineageEdgeDao.create(lineageEdge);
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+        return Json.toJson(lineageEdge);
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> createLineageEdgeVersion() {
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
+      () -> {
+        JsonNode json = request().body().as(JsonNode.class);
+
+        List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
+        ((ObjectNode) json).remove("parentIds");
+
+        LineageEdgeVersion lineageEdgeVersion = Json.fromJson(json, LineageEdgeVersion.class);
+
+        try {
+          lineageEdgeVersion = this.postgresLineageEdgeVersionDao.create(lineageEdgeVersion, parentIds);
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+        return Json.toJson(lineageEdgeVersion);
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(BodyParser.TolerantText.class)
+  public final CompletionStage<Result> createLineageEdgeVersions() {
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
+      () -> {
+        try {
+          return GroundUtils.createVersions(this.postgresLineageEdgeVersionDao, request().body().asText());
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getLineageEdgeVersions() {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_edges." + sourceKey,
-            () -> Json.toJson(this.postgresLineageEdgeDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return GroundUtils.getVersions(this.postgresLineageEdgeVersionDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
-  public final CompletionStage<Result> getLineageEdgeVersion(Long id) {
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getLatestVersions() {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_edge_versions." + id,
-            () -> Json.toJson(this.postgresLineageEdgeVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return GroundUtils.getLeaves(this.postgresLineageEdgeDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
-  public final CompletionStage<Result> createLineageEdge() {
+  public final CompletionStage<Result> getLatest(String sourceKey) {
     return CompletableFuture.supplyAsync(
       () -> {
-        JsonNode json = request().body().asJson();
-        LineageEdge lineageEdge = Json.fromJson(json, LineageEdge.class);
         try {
-          lineageEdge = this.postgresLineageEdgeDao.create(lineageEdge);
+          return Json.toJson(this.postgresLineageEdgeDao.getLeaves(sourceKey));
         } catch (GroundException e) {
           throw new CompletionException(e);
         }
-        return Json.toJson(lineageEdge);
       },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::created)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
-  public final CompletionStage<Result> createLineageEdgeVersion() {
+  public final CompletionStage<Result> getHistory(String sourceKey) {
     return CompletableFuture.supplyAsync(
       () -> {
-        JsonNode json = request().body().asJson();
-
-        List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
-        ((ObjectNode) json).remove("parentIds");
-
-        LineageEdgeVersion lineageEdgeVersion = Json.fromJson(json, LineageEdgeVersion.class);
+        try {
+          return Json.toJson(this.postgresLineageEdgeDao.getHistory(sourceKey));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
 
+  public final CompletionStage<Result> getUpstream(Long richVersionId, Integer depth, Integer fanOut, Integer limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
         try {
-          lineageEdgeVersion = this.postgresLineageEdgeVersionDao.create(lineageEdgeVersion, parentIds);
+          return Json.toJson(this.postgresLineageEdgeVersionDao.getUpstream(richVersionId,
+            GroundUtils.checkLimit("depth", depth, MAXIMUM_DEPTH),
+            GroundUtils.checkLimit("fanOut", fanOut, MAXIMUM_FAN_OUT),
+            GroundUtils.checkLimit("limit", limit, MAXIMUM_EDGES)));
         } catch (GroundException e) {
           throw new CompletionException(e);
         }
-        return Json.toJson(lineageEdgeVersion);
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::created)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
-  public final CompletionStage<Result> getLatest(String sourceKey) {
+  public final CompletionStage<Result> getDownstream(Long richVersionId, Integer depth, Integer fanOut, Integer limit) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_edge_leaves." + sourceKey,
-            () -> Json.toJson(this.postgresLineageEdgeDao.getLeaves(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresLineageEdgeVersionDao.getDownstream(richVersionId,
+            GroundUtils.checkLimit("depth", depth, MAXIMUM_DEPTH),
+            GroundUtils.checkLimit("fanOut", fanOut, MAXIMUM_FAN_OUT),
+            GroundUtils.checkLimit("limit", limit, MAXIMUM_EDGES)));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
-  public final CompletionStage<Result> getHistory(String sourceKey) {
+  public final CompletionStage<Result> streamHistory(String sourceKey, Long after, Long limit) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_edge_history." + sourceKey,
-            () -> Json.toJson(this.postgresLineageEdgeDao.getHistory(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          long itemId = this.postgresLineageEdgeDao.retrieveFromDatabase(sourceKey).getId();
+
+          return this.postgresLineageEdgeDao.streamHistory(itemId, after, GroundUtils.checkLimit("limit", limit, Long.MAX_VALUE));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(elements -> GroundUtils.stream(request(), elements))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 }
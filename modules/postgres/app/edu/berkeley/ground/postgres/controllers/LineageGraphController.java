@@ -1,6 +1,5 @@
 package edu.berkeley.ground.postgres.controllers;
 
-import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.berkeley.ground.common.exception.GroundException;
@@ -9,8 +8,12 @@ import edu.berkeley.ground.common.model.usage.LineageGraphVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageGraphDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageGraphVersionDao;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.GroundBodyParser;
+import edu.berkeley.ground.postgres.util.GroundFormat;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -21,21 +24,21 @@ import play.db.Database;
 import play.libs.Json;
 import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
-import play.mvc.Results;
 
 public class LineageGraphController extends Controller {
 
   private CacheApi cache;
-  private ActorSystem actorSystem;
+  private DbExecutor dbExecutor;
 
   private PostgresLineageGraphDao postgresLineageGraphDao;
   private PostgresLineageGraphVersionDao postgresLineageGraphVersionDao;
 
   @Inject
   final void injectUtils(final CacheApi cache, final Database dbSource,
-                          final ActorSystem actorSystem, final IdGenerator idGenerator) {
-    this.actorSystem = actorSystem;
+                          final DbExecutor dbExecutor, final IdGenerator idGenerator) {
+    this.dbExecutor = dbExecutor;
     this.cache = cache;
 
     this.postgresLineageGraphDao = new PostgresLineageGraphDao(dbSource, idGenerator);
@@ -43,44 +46,53 @@ public class LineageGraphController extends Controller {
   }
 
   public final CompletionStage<Result> getLineageGraph(String sourceKey) {
-    return CompletableFuture.supplyAsync(
-      () -> {
-        try {
-          return this.cache.getOrElse(
-            "lineage_graphs." + sourceKey,
-            () -> Json.toJson(this.postgresLineageGraphDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
-          throw new CompletionException(e);
-        }
-      },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "lineage_graphs." + sourceKey,
+      () -> Json.toJson(this.postgresLineageGraphDao.retrieveFromDatabase(sourceKey)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  public final CompletionStage<Result> getLineageGraphVersion(Long id) {
+  public final CompletionStage<Result> getLineageGraphVersion(Long id, String expand) {
+    Http.Request request = request();
+
+    if (!expand.isEmpty()) {
+      return this.getLineageGraphVersionExpanded(id, expand, request);
+    }
+
+    return GroundUtils.getCached(this.cache, "lineage_graph_versions." + id,
+      () -> Json.toJson(this.postgresLineageGraphVersionDao.retrieveFromDatabase(id)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
+  }
+
+  /**
+   * Answer a read with ?expand=edges, which inlines the lineage edge versions as they are streamed.
+   */
+  private CompletionStage<Result> getLineageGraphVersionExpanded(long id, String expand, Http.Request request) {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_graph_versions." + id,
-            () -> Json.toJson(this.postgresLineageGraphVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          GroundUtils.checkExpand(expand, "edges");
+          ObjectNode json = (ObjectNode) Json.toJson(this.postgresLineageGraphVersionDao.retrieveFromDatabase(id));
+
+          return GroundUtils.stream(request, json, "lineageEdgeVersions", this.postgresLineageGraphVersionDao.streamLineageEdgeVersions(id));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> createLineageGraph() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
         LineageGraph lineageGraph = Json.fromJson(json, LineageGraph.class);
         try {
           lineageGraph = this.postgresLineageGraphDao.create(lineageGraph);
@@ -88,16 +100,16 @@ public class LineageGraphController extends Controller {
           throw new CompletionException(e);
         }
         return Json.toJson(lineageGraph);
-      },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::created)
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
   public final CompletionStage<Result> createLineageGraphVersion() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
 
         List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
         ((ObjectNode) json).remove("parentIds");
@@ -110,9 +122,39 @@ public class LineageGraphController extends Controller {
           throw new CompletionException(e);
         }
         return Json.toJson(lineageGraphVersion);
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getLineageGraphVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getVersions(this.postgresLineageGraphVersionDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getLatestVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getLeaves(this.postgresLineageGraphDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::created)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -120,16 +162,13 @@ public class LineageGraphController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_graph_leaves." + sourceKey,
-            () -> Json.toJson(this.postgresLineageGraphDao.getLeaves(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresLineageGraphDao.getLeaves(sourceKey));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -137,16 +176,43 @@ public class LineageGraphController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "lineage_graph_history." + sourceKey,
-            () -> Json.toJson(this.postgresLineageGraphDao.getHistory(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresLineageGraphDao.getHistory(sourceKey));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> streamHistory(String sourceKey, Long after, Long limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          long itemId = this.postgresLineageGraphDao.retrieveFromDatabase(sourceKey).getId();
+
+          return this.postgresLineageGraphDao.streamHistory(itemId, after, GroundUtils.checkLimit("limit", limit, Long.MAX_VALUE));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(elements -> GroundUtils.stream(request(), elements))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> streamLineageGraphVersionEdges(Long id, Long after, Long limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return this.postgresLineageGraphVersionDao.streamEdgeIds(id, after, GroundUtils.checkLimit("limit", limit, Long.MAX_VALUE));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(elements -> GroundUtils.stream(request(), elements))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 }
@@ -0,0 +1,100 @@
+package edu.berkeley.ground.postgres.controllers;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.CacheStats;
+import edu.berkeley.ground.postgres.dao.version.VersionHistoryDagCache;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.GroundCache;
+import edu.berkeley.ground.postgres.util.PrometheusWriter;
+import edu.berkeley.ground.postgres.util.QueryMetrics;
+import edu.berkeley.ground.postgres.util.RequestMetrics;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.inject.Inject;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+public class MetricsController extends Controller {
+
+  private DbExecutor dbExecutor;
+  private RequestMetrics requestMetrics;
+
+  @Inject
+  final void injectUtils(final DbExecutor dbExecutor, final RequestMetrics requestMetrics) {
+    this.dbExecutor = dbExecutor;
+    this.requestMetrics = requestMetrics;
+  }
+
+  /**
+   * Every metric, in the Prometheus text format.
+   */
+  public final Result getMetrics() {
+    PrometheusWriter writer = new PrometheusWriter();
+    this.requestMetrics.write(writer);
+    QueryMetrics.write(writer);
+
+    writer.declare("ground_db_executor_threads", "gauge", "Threads running database calls.")
+      .sample("ground_db_executor_threads", this.dbExecutor.getThreads());
+    writer.declare("ground_db_executor_active", "gauge", "Threads busy with a database call.")
+      .sample("ground_db_executor_active", this.dbExecutor.getActiveCount());
+    writer.declare("ground_db_executor_queue_depth", "gauge", "Database calls waiting for a thread.")
+      .sample("ground_db_executor_queue_depth", this.dbExecutor.getQueueDepth());
+    writer.declare("ground_db_executor_rejected_total", "counter", "Database calls rejected because the queue was saturated.")
+      .sample("ground_db_executor_rejected_total", this.dbExecutor.getRejectedCount());
+    writer.declare("ground_db_executor_wait_seconds", "summary", "Time database calls waited for a thread.")
+      .sample("ground_db_executor_wait_seconds_sum", this.dbExecutor.getTotalWaitNanos() / 1e9)
+      .sample("ground_db_executor_wait_seconds_count", this.dbExecutor.getWaitCount());
+
+    Map<String, CacheStats> cacheStats = MetricsController.getCacheStats();
+    writer.declare("ground_cache_hits_total", "counter", "Cache hits, by cache.");
+    cacheStats.forEach((name, stats) -> writer.sample("ground_cache_hits_total", stats.hitCount(), "cache", name));
+    writer.declare("ground_cache_misses_total", "counter", "Cache misses, by cache.");
+    cacheStats.forEach((name, stats) -> writer.sample("ground_cache_misses_total", stats.missCount(), "cache", name));
+
+    return ok(writer.toString()).as(PrometheusWriter.CONTENT_TYPE);
+  }
+
+  public final Result getCacheMetrics() {
+    ObjectNode metrics = Json.newObject();
+    metrics.set("version_history_dag", MetricsController.toJson(VersionHistoryDagCache.stats(), VersionHistoryDagCache.size()));
+    GroundCache.getNamespaces().forEach((name, cache) -> metrics.set(name, MetricsController.toJson(cache.stats(), cache.size())));
+
+    return ok(metrics);
+  }
+
+  public final Result getDbExecutorMetrics() {
+    long waitCount = this.dbExecutor.getWaitCount();
+
+    ObjectNode metrics = Json.newObject();
+    metrics.put("threads", this.dbExecutor.getThreads());
+    metrics.put("activeCount", this.dbExecutor.getActiveCount());
+    metrics.put("queueDepth", this.dbExecutor.getQueueDepth());
+    metrics.put("queueCapacity", this.dbExecutor.getQueueCapacity());
+    metrics.put("completedCount", this.dbExecutor.getCompletedCount());
+    metrics.put("rejectedCount", this.dbExecutor.getRejectedCount());
+    metrics.put("meanWaitMillis", waitCount == 0 ? 0.0 : this.dbExecutor.getTotalWaitNanos() / 1e6 / waitCount);
+    metrics.put("maxWaitMillis", this.dbExecutor.getMaxWaitNanos() / 1e6);
+
+    return ok(metrics);
+  }
+
+  private static Map<String, CacheStats> getCacheStats() {
+    Map<String, CacheStats> stats = new TreeMap<>();
+    stats.put("version_history_dag", VersionHistoryDagCache.stats());
+    GroundCache.getNamespaces().forEach((name, cache) -> stats.put(name, cache.stats()));
+
+    return stats;
+  }
+
+  private static ObjectNode toJson(CacheStats stats, long size) {
+    ObjectNode json = Json.newObject();
+    json.put("size", size);
+    json.put("hitCount", stats.hitCount());
+    json.put("missCount", stats.missCount());
+    json.put("hitRate", stats.hitRate());
+    json.put("evictionCount", stats.evictionCount());
+
+    return json;
+  }
+}
@@ -1,6 +1,5 @@
 package edu.berkeley.ground.postgres.controllers;
 
-import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.berkeley.ground.common.exception.GroundException;
@@ -9,8 +8,12 @@ import edu.berkeley.ground.common.model.core.NodeVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.core.PostgresNodeDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresNodeVersionDao;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.GroundBodyParser;
+import edu.berkeley.ground.postgres.util.GroundFormat;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -21,20 +24,20 @@ import play.db.Database;
 import play.libs.Json;
 import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
-import play.mvc.Results;
 
 public class NodeController extends Controller {
 
   private CacheApi cache;
-  private ActorSystem actorSystem;
+  private DbExecutor dbExecutor;
 
   private PostgresNodeDao postgresNodeDao;
   private PostgresNodeVersionDao postgresNodeVersionDao;
 
   @Inject
-  final void injectUtils(final CacheApi cache, final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) {
-    this.actorSystem = actorSystem;
+  final void injectUtils(final CacheApi cache, final Database dbSource, final DbExecutor dbExecutor, final IdGenerator idGenerator) {
+    this.dbExecutor = dbExecutor;
     this.cache = cache;
 
     this.postgresNodeDao = new PostgresNodeDao(dbSource, idGenerator);
@@ -42,27 +45,20 @@ public class NodeController extends Controller {
   }
 
   public final CompletionStage<Result> getNode(String sourceKey) {
-    return CompletableFuture.supplyAsync(
-      () -> {
-        try {
-          return this.cache.getOrElse(
-            "nodes." + sourceKey,
-            () -> Json.toJson(this.postgresNodeDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
-          throw new CompletionException(e);
-        }
-      },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "nodes." + sourceKey,
+      () -> Json.toJson(this.postgresNodeDao.retrieveFromDatabase(sourceKey)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> addNode() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
         Node node = Json.fromJson(json, Node.class);
         try {
           node = this.postgresNodeDao.create(node);
@@ -70,34 +66,27 @@ public class NodeController extends Controller {
           throw new CompletionException(e);
         }
         return Json.toJson(node);
-      },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::created)
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
   public final CompletionStage<Result> getNodeVersion(Long id) {
-    return CompletableFuture.supplyAsync(
-      () -> {
-        try {
-          return this.cache.getOrElse(
-            "node_versions." + id,
-            () -> Json.toJson(this.postgresNodeVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
-          throw new CompletionException(e);
-        }
-      },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "node_versions." + id,
+      () -> Json.toJson(this.postgresNodeVersionDao.retrieveFromDatabase(id)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> addNodeVersion() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
 
         List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
         ((ObjectNode) json).remove("parentIds");
@@ -110,9 +99,54 @@ public class NodeController extends Controller {
           throw new CompletionException(e);
         }
         return Json.toJson(nodeVersion);
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(BodyParser.TolerantText.class)
+  public final CompletionStage<Result> addNodeVersions() {
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
+      () -> {
+        try {
+          return GroundUtils.createVersions(this.postgresNodeVersionDao, request().body().asText());
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getNodeVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getVersions(this.postgresNodeVersionDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
       },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::created)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getLatestVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getLeaves(this.postgresNodeDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -120,16 +154,13 @@ public class NodeController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "node_leaves." + sourceKey,
-            () -> Json.toJson(this.postgresNodeDao.getLeaves(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresNodeDao.getLeaves(sourceKey));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -137,16 +168,29 @@ public class NodeController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "node_history." + sourceKey,
-            () -> Json.toJson(this.postgresNodeDao.getHistory(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresNodeDao.getHistory(sourceKey));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> streamHistory(String sourceKey, Long after, Long limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          long itemId = this.postgresNodeDao.retrieveFromDatabase(sourceKey).getId();
+
+          return this.postgresNodeDao.streamHistory(itemId, after, GroundUtils.checkLimit("limit", limit, Long.MAX_VALUE));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(elements -> GroundUtils.stream(request(), elements))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 }
@@ -11,7 +11,6 @@
  */
 package edu.berkeley.ground.postgres.controllers;
 
-import akka.actor.ActorSystem;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import edu.berkeley.ground.common.exception.GroundException;
@@ -20,8 +19,12 @@ import edu.berkeley.ground.common.model.core.StructureVersion;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.core.PostgresStructureDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresStructureVersionDao;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.GroundBodyParser;
+import edu.berkeley.ground.postgres.util.GroundFormat;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
@@ -32,20 +35,20 @@ import play.db.Database;
 import play.libs.Json;
 import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
-import play.mvc.Results;
 
 public class StructureController extends Controller {
 
   private CacheApi cache;
-  private ActorSystem actorSystem;
+  private DbExecutor dbExecutor;
 
   private PostgresStructureDao postgresStructureDao;
   private PostgresStructureVersionDao postgresStructureVersionDao;
 
   @Inject
-  final void injectUtils(final CacheApi cache, final Database dbSource, final ActorSystem actorSystem, final IdGenerator idGenerator) {
-    this.actorSystem = actorSystem;
+  final void injectUtils(final CacheApi cache, final Database dbSource, final DbExecutor dbExecutor, final IdGenerator idGenerator) {
+    this.dbExecutor = dbExecutor;
     this.cache = cache;
 
     this.postgresStructureDao = new PostgresStructureDao(dbSource, idGenerator);
@@ -53,42 +56,30 @@ public class StructureController extends Controller {
   }
 
   public final CompletionStage<Result> getStructure(String sourceKey) {
-    return CompletableFuture.supplyAsync(
-      () -> {
-        try {
-          return this.cache.getOrElse(
-            "structures." + sourceKey,
-            () -> Json.toJson(this.postgresStructureDao.retrieveFromDatabase(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
-          throw new CompletionException(e);
-        }
-      }, PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "structures." + sourceKey,
+      () -> Json.toJson(this.postgresStructureDao.retrieveFromDatabase(sourceKey)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
   public final CompletionStage<Result> getStructureVersion(Long id) {
-    return CompletableFuture.supplyAsync(
-      () -> {
-        try {
-          return this.cache.getOrElse(
-            "structure_versions." + id,
-            () -> Json.toJson(this.postgresStructureVersionDao.retrieveFromDatabase(id)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
-          throw new CompletionException(e);
-        }
-      }, PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::ok)
-             .exceptionally(e -> GroundUtils.handleException(e, request()));
+    Http.Request request = request();
+
+    return GroundUtils.getCached(this.cache, "structure_versions." + id,
+      () -> Json.toJson(this.postgresStructureVersionDao.retrieveFromDatabase(id)),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request, OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> addStructure() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
         Structure structure = Json.fromJson(json, Structure.class);
 
         try {
@@ -97,18 +88,18 @@ public class StructureController extends Controller {
           throw new CompletionException(e);
         }
         return Json.toJson(structure);
-      },
+      }),
 
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::created)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
-  @BodyParser.Of(BodyParser.Json.class)
+  @BodyParser.Of(GroundBodyParser.class)
   public final CompletionStage<Result> addStructureVersion() {
-    return CompletableFuture.supplyAsync(
+    return CompletableFuture.supplyAsync(UnitOfWork.transactional(
       () -> {
-        JsonNode json = request().body().asJson();
+        JsonNode json = request().body().as(JsonNode.class);
 
         List<Long> parentIds = GroundUtils.getListFromJson(json, "parentIds");
         ((ObjectNode) json).remove("parentIds");
@@ -121,9 +112,39 @@ public class StructureController extends Controller {
           throw new CompletionException(e);
         }
         return Json.toJson(structureVersion);
+      }),
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), CREATED, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getStructureVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getVersions(this.postgresStructureVersionDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  @BodyParser.Of(GroundBodyParser.class)
+  public final CompletionStage<Result> getLatestVersions() {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return GroundUtils.getLeaves(this.postgresStructureDao, request().body().as(JsonNode.class));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
       },
-      PostgresUtils.getDbSourceHttpContext(this.actorSystem))
-             .thenApply(Results::created)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -131,16 +152,13 @@ public class StructureController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "structure_leaves." + sourceKey,
-            () -> Json.toJson(this.postgresStructureDao.getLeaves(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresStructureDao.getLeaves(sourceKey));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 
@@ -148,16 +166,29 @@ public class StructureController extends Controller {
     return CompletableFuture.supplyAsync(
       () -> {
         try {
-          return this.cache.getOrElse(
-            "structure_history." + sourceKey,
-            () -> Json.toJson(this.postgresStructureDao.getHistory(sourceKey)),
-            Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
-        } catch (Exception e) {
+          return Json.toJson(this.postgresStructureDao.getHistory(sourceKey));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> streamHistory(String sourceKey, Long after, Long limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          long itemId = this.postgresStructureDao.retrieveFromDatabase(sourceKey).getId();
+
+          return this.postgresStructureDao.streamHistory(itemId, after, GroundUtils.checkLimit("limit", limit, Long.MAX_VALUE));
+        } catch (GroundException e) {
           throw new CompletionException(e);
         }
       },
-      PostgresUtils.getDbSourceHttpContext(actorSystem))
-             .thenApply(Results::ok)
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(elements -> GroundUtils.stream(request(), elements))
              .exceptionally(e -> GroundUtils.handleException(e, request()));
   }
 }
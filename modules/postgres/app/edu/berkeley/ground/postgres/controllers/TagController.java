@@ -0,0 +1,87 @@
+package edu.berkeley.ground.postgres.controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.version.TagPredicate;
+import edu.berkeley.ground.postgres.dao.version.PostgresTagDao;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.GroundFormat;
+import edu.berkeley.ground.postgres.util.GroundUtils;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+import play.db.Database;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+/**
+ * Searches for versions and items by their tags. Each tag.&lt;key&gt; query parameter adds a
+ * predicate, and a result has to satisfy all of them. Results are returned a page at a time in id
+ * order; the next page starts after the id returned as "next".
+ */
+public class TagController extends Controller {
+
+  private static final int MAXIMUM_PAGE_SIZE = 1000;
+
+  private DbExecutor dbExecutor;
+  private PostgresTagDao postgresTagDao;
+
+  @Inject
+  final void injectUtils(final Database dbSource, final DbExecutor dbExecutor) {
+    this.dbExecutor = dbExecutor;
+    this.postgresTagDao = new PostgresTagDao(dbSource);
+  }
+
+  public final CompletionStage<Result> searchVersions(Long after, Integer limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          List<TagPredicate> predicates = GroundUtils.getTagPredicates(request().queryString());
+          int pageSize = GroundUtils.checkLimit("limit", limit, MAXIMUM_PAGE_SIZE);
+
+          return TagController.toPage(this.postgresTagDao.searchVersionIds(predicates, after, pageSize), pageSize);
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  public final CompletionStage<Result> searchItems(Long after, Integer limit) {
+    return CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          List<TagPredicate> predicates = GroundUtils.getTagPredicates(request().queryString());
+          int pageSize = GroundUtils.checkLimit("limit", limit, MAXIMUM_PAGE_SIZE);
+
+          return TagController.toPage(this.postgresTagDao.searchItemIds(predicates, after, pageSize), pageSize);
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      },
+      PostgresUtils.getDbSourceHttpContext(this.dbExecutor))
+             .thenApply(json -> GroundFormat.render(request(), OK, json))
+             .exceptionally(e -> GroundUtils.handleException(e, request()));
+  }
+
+  private static JsonNode toPage(List<Long> ids, int pageSize) {
+    ObjectNode page = Json.newObject();
+    page.set("ids", Json.toJson(ids));
+
+    // a short page is the last one
+    if (ids.size() == pageSize) {
+      page.put("next", ids.get(ids.size() - 1));
+    } else {
+      page.putNull("next");
+    }
+
+    return page;
+  }
+}
@@ -3,87 +3,226 @@ package edu.berkeley.ground.postgres.dao;
 public class SqlConstants {
 
   /* General insert statements */
-  public static final String INSERT_GENERIC_ITEM_WITH_NAME = "INSERT INTO %s (item_id, source_key, name) VALUES (%d, \'%s\', \'%s\');";
-  public static final String INSERT_GENERIC_ITEM_WITHOUT_NAME = "INSERT INTO %s (item_id, source_key, name) VALUES (%d, \'%s\', null);";
+  public static final String INSERT_GENERIC_ITEM = "INSERT INTO %s (item_id, source_key, name) VALUES (?, ?, ?);";
 
   /* General select statements */
-  public static final String SELECT_STAR_BY_SOURCE_KEY = "SELECT * FROM %s WHERE source_key = \'%s\'";
-  public static final String SELECT_STAR_ITEM_BY_ID = "SELECT * FROM %s WHERE item_id = %d;";
-  public static final String SELECT_STAR_BY_ID = "SELECT * FROM %s WHERE id = %d;";
-  public static final String DELETE_BY_ID = "DELETE FROM %s WHERE id = %d";
+  public static final String SELECT_STAR_BY_SOURCE_KEY = "SELECT * FROM %s WHERE source_key = ?;";
+  public static final String SELECT_STAR_ITEM_BY_ID = "SELECT * FROM %s WHERE item_id = ?;";
+  public static final String SELECT_STAR_BY_ID = "SELECT * FROM %s WHERE id = ?;";
+  public static final String SELECT_STAR_BY_IDS = "SELECT * FROM %s WHERE id = ANY(?);";
+  public static final String SELECT_ITEM_IDS_BY_SOURCE_KEYS = "SELECT item_id, source_key FROM %s WHERE source_key = ANY(?);";
+  public static final String DELETE_BY_ID = "DELETE FROM %s WHERE id = ?;";
+
+  /* Id lease statements */
+  public static final String UPDATE_ID_LEASE = "UPDATE id_lease SET high_water_mark = high_water_mark + ? WHERE counter = ? "
+                                                  + "RETURNING high_water_mark;";
 
   /* Version-specific statements */
-  public static final String INSERT_VERSION = "INSERT INTO version (id) VALUES (%d);";
+  public static final String INSERT_VERSION = "INSERT INTO version (id) VALUES (?);";
 
   /* Version Successor-specific statements */
-  public static final String INSERT_VERSION_SUCCESSOR = "INSERT INTO version_successor (id, from_version_id, to_version_id) VALUES (%d, %d, %d);";
-  public static final String SELECT_VERSION_SUCCESSOR = "SELECT * FROM version_successor where id = %d;";
-  public static final String SELECT_VERSION_SUCCESSOR_BY_ENDPOINT = "SELECT * FROM version_successor WHERE to_version_id = %d;";
-  public static final String DELETE_VERSION_SUCCESSOR = "DELETE FROM version_successor WHERE id = %d;";
+  public static final String INSERT_VERSION_SUCCESSOR = "INSERT INTO version_successor (id, from_version_id, to_version_id) VALUES (?, ?, ?);";
+  public static final String SELECT_VERSION_SUCCESSOR = "SELECT * FROM version_successor where id = ?;";
+  public static final String SELECT_VERSION_SUCCESSOR_BY_ENDPOINT = "SELECT * FROM version_successor WHERE to_version_id = ?;";
+  public static final String DELETE_VERSION_SUCCESSOR = "DELETE FROM version_successor WHERE id = ?;";
 
   /* Version History DAG-specific statements */
-  public static final String INSERT_VERSION_HISTORY_DAG_EDGE = "INSERT INTO version_history_dag (item_id, version_successor_id) VALUES (%d, %d);";
-  public static final String SELECT_VERSION_HISTORY_DAG = "SELECT * FROM version_history_dag WHERE item_id = %d;";
-  public static final String DELETE_SUCCESSOR_FROM_DAG = "DELETE FROM version_history_dag WHERE version_successor_id = %d;";
+  public static final String INSERT_VERSION_HISTORY_DAG_EDGE = "INSERT INTO version_history_dag (item_id, version_successor_id) VALUES (?, ?);";
+  public static final String SELECT_VERSION_HISTORY_DAG_EDGES = "SELECT vs.id, vs.from_version_id, vs.to_version_id FROM version_history_dag vhd "
+                                                                   + "JOIN version_successor vs ON vs.id = vhd.version_successor_id "
+                                                                   + "WHERE vhd.item_id = ? ORDER BY vs.id;";
+  public static final String SELECT_VERSION_HISTORY_DAG_EDGES_PAGE = "SELECT vs.id, vs.from_version_id, vs.to_version_id "
+                                                                        + "FROM version_history_dag vhd "
+                                                                        + "JOIN version_successor vs ON vs.id = vhd.version_successor_id "
+                                                                        + "WHERE vhd.item_id = ? AND vhd.version_successor_id > ? "
+                                                                        + "ORDER BY vhd.version_successor_id LIMIT ?;";
+  public static final String DELETE_SUCCESSOR_FROM_DAG = "DELETE FROM version_history_dag WHERE version_successor_id = ?;";
+  public static final String SELECT_VERSION_HISTORY_DAG_LEAVES = "WITH edges AS (SELECT vhd.item_id, vs.from_version_id, vs.to_version_id "
+                                                                    + "FROM version_history_dag vhd JOIN version_successor vs "
+                                                                    + "ON vs.id = vhd.version_successor_id WHERE vhd.item_id = ANY(?)) "
+                                                                    + "SELECT DISTINCT e.item_id, e.to_version_id FROM edges e WHERE NOT EXISTS ("
+                                                                    + "SELECT 1 FROM edges c WHERE c.item_id = e.item_id "
+                                                                    + "AND c.from_version_id = e.to_version_id) "
+                                                                    + "ORDER BY e.to_version_id;";
 
   /* Item-specific statements */
-  public static final String INSERT_ITEM = "INSERT INTO ITEM (id) VALUES (%d);";
-  public static final String INSERT_ITEM_TAG_WITH_VALUE =
-    "INSERT INTO item_tag (item_id, key, value, type) VALUES (%d, " + "\'%s\', \'%s\', \'%s\');";
-  public static final String INSERT_ITEM_TAG_NO_VALUE = "INSERT INTO item_tag (item_id, key, value, type) VALUES (%d, \'%s\', null, null);";
-  public static final String SELECT_ITEM_TAGS = "SELECT * FROM item_tag WHERE item_id = %d;";
-  public static final String SELECT_ITEM_TAGS_BY_KEY = "SELECT * FROM item_tag WHERE key = \'%s\';";
+  public static final String INSERT_ITEM = "INSERT INTO ITEM (id) VALUES (?);";
+  public static final String INSERT_ITEM_TAG = "INSERT INTO item_tag (item_id, key, value, type, long_value) VALUES (?, ?, ?, ?::data_type, "
+                                                 + "?);";
+  public static final String SELECT_ITEM_TAGS = "SELECT * FROM item_tag WHERE item_id = ?;";
+  public static final String SELECT_ITEM_TAGS_BY_KEY = "SELECT item_id FROM item_tag WHERE key = ?;";
+
+  /* Tag search statements: the first predicate is on t0, every other one joins another copy of the tag table */
+  public static final String SEARCH_TAGS = "SELECT t0.%1$s FROM %2$s t0%3$s WHERE %4$s AND t0.%1$s > ? ORDER BY t0.%1$s LIMIT ?;";
+  public static final String SEARCH_TAGS_JOIN = " JOIN %1$s t%3$d ON t%3$d.%2$s = t0.%2$s AND %4$s";
+  public static final String SEARCH_TAGS_PREDICATE = "t%1$d.key = ? AND t%1$d.%2$s %3$s ?";
+
+  /*
+   * Rich version tag search. Tags are delta-encoded, so a version also holds every tag it inherits
+   * from the version its tags are based on, unless it changes or removes that key. m%1$d starts with
+   * the versions that store a tag matching the predicate %2$s on t0, and follows the deltas based on
+   * them that leave the key alone. A version is skipped, along with every delta based on it, once
+   * neither it nor any of those deltas is past the cursor.
+   */
+  public static final String SEARCH_RICH_VERSION_TAGS_HOLDERS = "m%1$d (id) AS (SELECT t0.rich_version_id FROM rich_version_tag t0 "
+                                                                + "JOIN rich_version s ON s.id = t0.rich_version_id "
+                                                                + "WHERE %2$s AND greatest(s.id, s.max_tag_delta_id) > ? "
+                                                                + "UNION SELECT r.id FROM m%1$d m JOIN rich_version r ON r.tag_base_id = m.id "
+                                                                + "WHERE greatest(r.id, r.max_tag_delta_id) > ? "
+                                                                + "AND NOT EXISTS (SELECT 1 FROM rich_version_tag o WHERE o.rich_version_id = r.id "
+                                                                + "AND o.key = ?) AND NOT EXISTS (SELECT 1 FROM rich_version_tag_removal x "
+                                                                + "WHERE x.rich_version_id = r.id AND x.key = ?))";
+  public static final String SEARCH_RICH_VERSION_TAGS = "WITH RECURSIVE %1$s SELECT m0.id FROM m0%2$s WHERE m0.id > ? ORDER BY m0.id LIMIT ?;";
+  public static final String SEARCH_RICH_VERSION_TAGS_JOIN = " JOIN m%1$d ON m%1$d.id = m0.id";
 
   /* Edge-specific statements */
-  public static final String INSERT_EDGE_WITH_NAME =
-    "INSERT INTO edge (item_id, source_key, from_node_id, to_node_id, name) VALUES (%d, \'%s\', %d, %d, \'%s\');";
-  public static final String INSERT_EDGE_WITHOUT_NAME =
-    "INSERT INTO edge (item_id, source_key, from_node_id, to_node_id, name) VALUES (%d, \'%s\', %d, %d, null);";
+  public static final String INSERT_EDGE = "INSERT INTO edge (item_id, source_key, from_node_id, to_node_id, name) VALUES (?, ?, ?, ?, ?);";
   public static final String INSERT_EDGE_VERSION = "INSERT INTO edge_version (id, edge_id, from_node_version_start_id, from_node_version_end_id, "
-                                                     + "to_node_version_start_id, to_node_version_end_id) VALUES (%d, %d, %d, %d, %d, %d);";
-  public static final String UPDATE_EDGE_VERSION = "UPDATE edge_version SET from_node_version_end_id = %d, to_node_version_end_id = %d WHERE id = "
-                                                     + "%d;";
+                                                     + "to_node_version_start_id, to_node_version_end_id) VALUES (?, ?, ?, ?, ?, ?);";
+  public static final String UPDATE_EDGE_VERSION = "UPDATE edge_version SET from_node_version_end_id = ?, to_node_version_end_id = ? WHERE id = ?;";
 
   /* Graph-specific statements */
-  public static final String INSERT_GRAPH_VERSION = "INSERT INTO graph_version (id, graph_id) VALUES (%d, %d);";
-  public static final String INSERT_GRAPH_VERSION_EDGE = "INSERT INTO graph_version_edge (graph_version_id, edge_version_id) VALUES (%d, %d);";
-  public static final String SELECT_GRAPH_VERSION_EDGES = "SELECT * FROM graph_version_edge WHERE graph_version_id = %d;";
-  public static final String DELETE_ALL_GRAPH_VERSION_EDGES = "DELETE FROM %s WHERE %s_version_id = %d";
+  public static final String INSERT_GRAPH_VERSION = "INSERT INTO graph_version (id, graph_id, delta_base_id, delta_depth) VALUES (?, ?, ?, ?);";
+  public static final String INSERT_GRAPH_VERSION_EDGE = "INSERT INTO graph_version_edge (graph_version_id, edge_version_id) VALUES (?, ?);";
+  public static final String INSERT_GRAPH_VERSION_EDGE_DELTA = "INSERT INTO graph_version_edge_delta (graph_version_id, edge_version_id, added) "
+                                                                  + "VALUES (?, ?, ?);";
+  public static final String SELECT_GRAPH_VERSION_DELTA_BASE = "SELECT g.delta_depth, ARRAY(SELECT e.edge_version_id "
+                                                                  + "FROM graph_version_edges(g.id) e) AS edge_ids FROM graph_version g "
+                                                                  + "WHERE g.id = ? AND g.graph_id = ?;";
+  public static final String SELECT_GRAPH_VERSION_DELTA_DEPTH = "SELECT delta_depth FROM graph_version WHERE id = ? AND graph_id = ?;";
+  public static final String SELECT_GRAPH_VERSION_EDGES_PAGE = "SELECT edge_version_id FROM graph_version_edge WHERE graph_version_id = ? "
+                                                                  + "AND edge_version_id > ? ORDER BY edge_version_id LIMIT ?;";
+
+  /* A page of a delta's edges: every change after the cursor in its chain, and only as many of its checkpoint's edges as the page could need */
+  public static final String SELECT_GRAPH_VERSION_DELTA_EDGES_PAGE = "WITH RECURSIVE chain (id, delta_base_id, depth) AS ("
+                                                                        + "SELECT id, delta_base_id, 0 FROM graph_version WHERE id = ? "
+                                                                        + "UNION ALL SELECT g.id, g.delta_base_id, c.depth + 1 FROM chain c "
+                                                                        + "JOIN graph_version g ON g.id = c.delta_base_id), "
+                                                                        + "deltas AS (SELECT d.edge_version_id, d.added, c.depth FROM chain c "
+                                                                        + "JOIN graph_version_edge_delta d ON d.graph_version_id = c.id "
+                                                                        + "WHERE d.edge_version_id > ?), "
+                                                                        + "changes AS (SELECT edge_version_id, added, depth FROM deltas "
+                                                                        + "UNION ALL SELECT e.edge_version_id, true, c.depth FROM chain c "
+                                                                        + "CROSS JOIN LATERAL (SELECT edge_version_id FROM graph_version_edge "
+                                                                        + "WHERE graph_version_id = c.id AND edge_version_id > ? "
+                                                                        + "ORDER BY edge_version_id "
+                                                                        + "LIMIT ? + (SELECT count(*) FROM deltas WHERE NOT deltas.added)) e "
+                                                                        + "WHERE c.delta_base_id IS NULL) "
+                                                                        + "SELECT edge_version_id FROM (SELECT DISTINCT ON (edge_version_id) "
+                                                                        + "edge_version_id, added FROM changes "
+                                                                        + "ORDER BY edge_version_id, depth) latest "
+                                                                        + "WHERE added ORDER BY edge_version_id LIMIT ?;";
+  public static final String DELETE_ALL_GRAPH_VERSION_EDGES = "DELETE FROM %s WHERE %s_version_id = ?;";
+
+  /* Turn the deltas based on a graph version into checkpoints, so the version can be deleted */
+  public static final String INSERT_GRAPH_VERSION_EDGES_OF_DELTAS = "INSERT INTO graph_version_edge (graph_version_id, edge_version_id) "
+                                                                       + "SELECT g.id, e.edge_version_id FROM graph_version g "
+                                                                       + "CROSS JOIN LATERAL graph_version_edges(g.id) e WHERE g.delta_base_id = ?;";
+  public static final String DELETE_GRAPH_VERSION_EDGE_DELTAS_OF_DELTAS = "DELETE FROM graph_version_edge_delta d USING graph_version g "
+                                                                             + "WHERE d.graph_version_id = g.id AND g.delta_base_id = ?;";
+  public static final String UPDATE_GRAPH_VERSION_DELTAS_TO_CHECKPOINTS = "UPDATE graph_version SET delta_base_id = NULL, delta_depth = 0 "
+                                                                             + "WHERE delta_base_id = ?;";
 
   /* Node-specific statements */
-  public static final String INSERT_NODE_VERSION = "INSERT INTO node_version (id, node_id) VALUES (%d, %d);";
+  public static final String INSERT_NODE_VERSION = "INSERT INTO node_version (id, node_id) VALUES (?, ?);";
 
   /* Rich Version-specific statements */
-  public static final String INSERT_RICH_VERSION_WITH_REFERENCE = "INSERT INTO rich_version (id, structure_version_id, reference) VALUES (%d, %d, "
-                                                                    + "\'%s\');";
-  public static final String INSERT_RICH_VERSION_WITHOUT_REFERENCE = "INSERT INTO rich_version (id, structure_version_id, reference) VALUES (%d, %d, "
-                                                                       + "null);";
-  public static final String INSERT_RICH_VERSION_TAG_WITH_VALUE = "INSERT INTO rich_version_tag (rich_version_id, key, value, type) VALUES (%d, "
-                                                                    + "\'%s\', \'%s\', \'%s\');";
-  public static final String INSERT_RICH_VERSION_TAG_NO_VALUE = "INSERT INTO rich_version_tag (rich_version_id, key, value, type) VALUES (%d, "
-                                                                  + "\'%s\', null, null);";
+  public static final String INSERT_RICH_VERSION = "INSERT INTO rich_version (id, structure_version_id, reference, tag_base_id, tag_depth) "
+                                                     + "VALUES (?, ?, ?, ?, ?);";
+  public static final String INSERT_RICH_VERSION_TAG = "INSERT INTO rich_version_tag (rich_version_id, key, value, type, long_value) "
+                                                         + "VALUES (?, ?, ?, ?::data_type, ?);";
   public static final String INSERT_RICH_VERSION_EXTERNAL_PARAMETER = "INSERT INTO rich_version_external_parameter (rich_version_id, key, value) "
-                                                                        + "VALUES (%d, \'%s\', \'%s\');";
-  public static final String SELECT_RICH_VERSION_EXTERNAL_PARAMETERS = "SELECT * FROM rich_version_external_parameter WHERE rich_version_id = %d;";
-  public static final String SELECT_RICH_VERSION_TAGS = "SELECT * FROM rich_version_tag WHERE rich_version_id = %d;";
-  public static final String SELECT_RICH_VERSION_TAGS_BY_KEY = "SELECT * FROM rich_version_tag WHERE key = \'%s\';";
-  public static final String DELETE_RICH_VERSION_TAGS = "DELETE FROM rich_version_tag WHERE rich_version_id = %d";
-  public static final String DELETE_RICH_EXTERNAL_PARAMETERS = "DELETE FROM rich_version_external_parameter WHERE rich_version_id = %d";
+                                                                        + "VALUES (?, ?, ?);";
+  public static final String UPDATE_RICH_VERSION_MAX_TAG_DELTA_IDS = "WITH RECURSIVE chain (id, tag_base_id) AS ("
+                                                                        + "SELECT id, tag_base_id FROM rich_version WHERE id = ? "
+                                                                        + "UNION ALL SELECT r.id, r.tag_base_id FROM chain c "
+                                                                        + "JOIN rich_version r ON r.id = c.tag_base_id) "
+                                                                        + "UPDATE rich_version v SET max_tag_delta_id = ? FROM chain "
+                                                                        + "WHERE v.id = chain.id "
+                                                                        + "AND (v.max_tag_delta_id IS NULL OR v.max_tag_delta_id < ?);";
+  public static final String INSERT_RICH_VERSION_TAG_REMOVAL = "INSERT INTO rich_version_tag_removal (rich_version_id, key) VALUES (?, ?);";
+  public static final String SELECT_RICH_VERSION_TAGS = "SELECT * FROM rich_version_tags(?);";
+  public static final String SELECT_RICH_VERSION_TAGS_BY_KEY = "WITH RECURSIVE " + String.format(SEARCH_RICH_VERSION_TAGS_HOLDERS, 0, "t0.key = ?")
+                                                                 + " SELECT id FROM m0;";
+  public static final String SELECT_RICH_VERSION_TAG_BASE = "SELECT r.tag_depth, t.tag_keys, t.tag_values, t.tag_types FROM rich_version r "
+                                                              + "CROSS JOIN LATERAL (SELECT array_agg(key) AS tag_keys, "
+                                                              + "array_agg(value) AS tag_values, array_agg(type::varchar) AS tag_types "
+                                                              + "FROM rich_version_tags(r.id)) t WHERE r.id = ?;";
+  public static final String DELETE_RICH_VERSION_TAGS = "DELETE FROM rich_version_tag WHERE rich_version_id = ?;";
+  public static final String DELETE_RICH_VERSION_TAG_REMOVALS = "DELETE FROM rich_version_tag_removal WHERE rich_version_id = ?;";
+
+  /* Turn the tag deltas based on any of a list of versions, other than those in a second list, into snapshots */
+  public static final String INSERT_RICH_VERSION_TAGS_OF_DELTAS = "INSERT INTO rich_version_tag (rich_version_id, key, value, type, long_value) "
+                                                                     + "SELECT t.rich_version_id, t.key, t.value, t.type, t.long_value "
+                                                                     + "FROM rich_version r CROSS JOIN LATERAL rich_version_tags(r.id) t "
+                                                                     + "WHERE r.tag_base_id = ANY(?) AND r.id <> ALL(?) "
+                                                                     + "ON CONFLICT (rich_version_id, key) DO NOTHING;";
+  public static final String DELETE_RICH_VERSION_TAG_REMOVALS_OF_DELTAS = "DELETE FROM rich_version_tag_removal x USING rich_version r "
+                                                                             + "WHERE x.rich_version_id = r.id AND r.tag_base_id = ANY(?) "
+                                                                             + "AND r.id <> ALL(?);";
+  public static final String UPDATE_RICH_VERSION_DELTAS_TO_SNAPSHOTS = "UPDATE rich_version SET tag_base_id = NULL, tag_depth = 0 "
+                                                                          + "WHERE tag_base_id = ANY(?) AND id <> ALL(?);";
+  public static final String DELETE_RICH_EXTERNAL_PARAMETERS = "DELETE FROM rich_version_external_parameter WHERE rich_version_id = ?;";
+
+  /*
+   * Rich version hydration: %1$s is the table of a rich version subtype, whose rows are read with
+   * their rich_version row, tags and external parameters in one round trip. The tags and parameters
+   * are aggregated into parallel arrays, which are null for a version that has none. %2$s adds
+   * columns to the select list and %3$s adds joins, such as a graph version's edge ids.
+   */
+  private static final String RICH_VERSION_COLUMNS = "SELECT s.*, rv.structure_version_id, rv.reference, t.tag_keys, t.tag_values, "
+                                                       + "t.tag_types, p.parameter_keys, p.parameter_values%2$s FROM %1$s s "
+                                                       + "JOIN rich_version rv ON rv.id = s.id ";
+  private static final String RICH_VERSION_AGGREGATES = "CROSS JOIN LATERAL (SELECT array_agg(key) AS tag_keys, array_agg(value) AS tag_values, "
+                                                          + "array_agg(type::varchar) AS tag_types FROM rich_version_tags(s.id)) t "
+                                                          + "CROSS JOIN LATERAL (SELECT array_agg(key) AS parameter_keys, "
+                                                          + "array_agg(value) AS parameter_values FROM rich_version_external_parameter "
+                                                          + "WHERE rich_version_id = s.id) p%3$s ";
+  public static final String SELECT_RICH_VERSIONS = RICH_VERSION_COLUMNS + RICH_VERSION_AGGREGATES + "WHERE s.id = ANY(?);";
+  /* The members of a graph: %4$s is the membership table, %5$s its graph column and %6$s its member column */
+  public static final String SELECT_RICH_VERSION_MEMBERS = RICH_VERSION_COLUMNS + "JOIN %4$s m ON m.%6$s = s.id " + RICH_VERSION_AGGREGATES
+                                                              + "WHERE m.%5$s = ? ORDER BY s.id;";
+
+  /* %1$s is the edge table, %2$s its graph version column and %3$s its edge version column */
+  public static final String SELECT_RICH_VERSIONS_EDGE_IDS = " CROSS JOIN LATERAL (SELECT array_agg(%3$s ORDER BY %3$s) AS edge_ids FROM %1$s "
+                                                                + "WHERE %2$s = s.id) e";
 
   /* Structure-specific statements */
-  public static final String INSERT_STRUCTURE_VERSION = "INSERT INTO structure_version (id, structure_id) VALUES (%d, %d);";
+  public static final String INSERT_STRUCTURE_VERSION = "INSERT INTO structure_version (id, structure_id) VALUES (?, ?);";
   public static final String INSERT_STRUCTURE_VERSION_ATTRIBUTE = "INSERT INTO structure_version_attribute (structure_version_id, key, type) "
-                                                                    + "VALUES (%d, \'%s\', \'%s\');";
-  public static final String SELECT_STRUCTURE_VERSION_ATTRIBUTES = "SELECT * FROM structure_version_attribute WHERE structure_version_id = %d;";
-  public static final String DELETE_STRUCTURE_VERSION_ATTRIBUTES = "DELETE FROM structure_version_attribute WHERE structure_version_id = %d";
+                                                                    + "VALUES (?, ?, ?);";
+  public static final String SELECT_STRUCTURE_VERSION_ATTRIBUTES = "SELECT * FROM structure_version_attribute WHERE structure_version_id = ?;";
+  public static final String SELECT_STRUCTURE_VERSION_ATTRIBUTES_BY_IDS = "SELECT * FROM structure_version_attribute "
+                                                                             + "WHERE structure_version_id = ANY(?);";
+  public static final String DELETE_STRUCTURE_VERSION_ATTRIBUTES = "DELETE FROM structure_version_attribute WHERE structure_version_id = ?;";
 
   /* Lineage Edge-specific statements */
   public static final String INSERT_LINEAGE_EDGE_VERSION = "INSERT INTO lineage_edge_version (id, lineage_edge_id, from_rich_version_id, "
-                                                             + "to_rich_version_id, principal_id) VALUES (%d, %d, %d, %d, %d);";
+                                                             + "to_rich_version_id, principal_id) VALUES (?, ?, ?, ?, ?);";
+
+  /*
+   * Lineage traversal: %1$s is the lineage_edge_version column matched against the current rich
+   * version, and %2$s is the column of the lineage row holding the next one. Postgres evaluates the
+   * recursion a level at a time and only as far as the rows are read, so a caller that stops
+   * reading stops a breadth-first walk early. Each rich version's edges are numbered, and one more
+   * than the fan-out is read so that a cut can be reported; that extra edge is not followed. An edge
+   * reached at more than one depth is returned once per depth.
+   */
+  public static final String SELECT_LINEAGE = "WITH RECURSIVE lineage(from_id, to_id, depth, rank) AS ("
+                                                + "(SELECT from_rich_version_id, to_rich_version_id, 1, row_number() OVER (ORDER BY id) "
+                                                + "FROM lineage_edge_version WHERE %1$s = ? ORDER BY id LIMIT ?) "
+                                                + "UNION "
+                                                + "SELECT e.from_rich_version_id, e.to_rich_version_id, l.depth + 1, e.rank FROM lineage l "
+                                                + "CROSS JOIN LATERAL (SELECT from_rich_version_id, to_rich_version_id, "
+                                                + "row_number() OVER (ORDER BY id) AS rank FROM lineage_edge_version "
+                                                + "WHERE %1$s = l.%2$s ORDER BY id LIMIT ?) e WHERE l.depth < ? AND l.rank <= ?) "
+                                                + "SELECT from_id, to_id, rank FROM lineage;";
 
   /* Lineage Graph-specific statements */
-  public static final String INSERT_LINEAGE_GRAPH_VERSION = "INSERT INTO lineage_graph_version (id, lineage_graph_id) VALUES (%d, %d);";
+  public static final String INSERT_LINEAGE_GRAPH_VERSION = "INSERT INTO lineage_graph_version (id, lineage_graph_id) VALUES (?, ?);";
   public static final String INSERT_LINEAGE_GRAPH_VERSION_EDGE = "INSERT INTO lineage_graph_version_edge (lineage_graph_version_id, "
-                                                                   + "lineage_edge_version_id) VALUES (%d, %d);";
-  public static final String SELECT_LINEAGE_GRAPH_VERSION_EDGES = "SELECT * FROM lineage_graph_version_edge WHERE lineage_graph_version_id = %d;";
+                                                                   + "lineage_edge_version_id) VALUES (?, ?);";
+  public static final String SELECT_LINEAGE_GRAPH_VERSION_EDGES_PAGE = "SELECT lineage_edge_version_id FROM lineage_graph_version_edge "
+                                                                          + "WHERE lineage_graph_version_id = ? AND lineage_edge_version_id > ? "
+                                                                          + "ORDER BY lineage_edge_version_id LIMIT ?;";
 }
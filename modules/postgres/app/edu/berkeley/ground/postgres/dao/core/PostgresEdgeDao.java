@@ -11,7 +11,6 @@
  */
 package edu.berkeley.ground.postgres.dao.core;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import edu.berkeley.ground.common.dao.core.EdgeDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
@@ -24,7 +23,6 @@ import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.List;
 import java.util.Map;
 import play.db.Database;
-import play.libs.Json;
 
 
 public class PostgresEdgeDao extends PostgresItemDao<Edge> implements EdgeDao {
@@ -48,16 +46,7 @@ public class PostgresEdgeDao extends PostgresItemDao<Edge> implements EdgeDao {
     Edge newEdge = new Edge(uniqueId, edge);
     try {
       postgresStatements = super.insert(newEdge);
-
-      String name = edge.getName();
-
-      if (name != null) {
-        postgresStatements.append(String.format(SqlConstants.INSERT_EDGE_WITH_NAME, uniqueId, edge.getSourceKey(), edge.getFromNodeId(),
-          edge.getToNodeId(), name));
-      } else {
-        postgresStatements.append(String.format(SqlConstants.INSERT_EDGE_WITHOUT_NAME, uniqueId, edge.getSourceKey(), edge.getFromNodeId(),
-          edge.getToNodeId()));
-      }
+      postgresStatements.append(SqlConstants.INSERT_EDGE, uniqueId, edge.getSourceKey(), edge.getFromNodeId(), edge.getToNodeId(), edge.getName());
 
     } catch (Exception e) {
       throw new GroundException(e);
@@ -68,13 +57,15 @@ public class PostgresEdgeDao extends PostgresItemDao<Edge> implements EdgeDao {
 
   @Override
   protected Edge retrieve(String sql, Object field) throws GroundException {
-    JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
+    List<Edge> edges = PostgresUtils.executeQuery(dbSource, sql, resultSet ->
+      new Edge(resultSet.getLong("item_id"), resultSet.getString("name"), resultSet.getString("source_key"), resultSet.getLong("from_node_id"),
+                resultSet.getLong("to_node_id"), null), field);
 
-    if (json.size() == 0) {
+    if (edges.isEmpty()) {
       throw new GroundException(ExceptionType.ITEM_NOT_FOUND, this.getType().getSimpleName(), field.toString());
     }
 
-    Edge edge = Json.fromJson(json.get(0), Edge.class);
+    Edge edge = edges.get(0);
     long id = edge.getId();
     return new Edge(id, edge.getName(), edge.getSourceKey(), edge.getFromNodeId(), edge.getToNodeId(),
                      super.postgresTagDao.retrieveFromDatabaseByItemId(id));
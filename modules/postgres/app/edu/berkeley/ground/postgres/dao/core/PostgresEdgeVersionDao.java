@@ -1,24 +1,30 @@
 package edu.berkeley.ground.postgres.dao.core;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import edu.berkeley.ground.common.dao.core.EdgeVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
-import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.Edge;
 import edu.berkeley.ground.common.model.core.EdgeVersion;
 import edu.berkeley.ground.common.model.core.RichVersion;
 import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
-import edu.berkeley.ground.postgres.dao.version.PostgresVersionHistoryDagDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import play.db.Database;
-import play.libs.Json;
 
 public class PostgresEdgeVersionDao extends PostgresRichVersionDao<EdgeVersion> implements EdgeVersionDao {
 
+  private static final String SELECT_EDGE_VERSIONS = String.format(SqlConstants.SELECT_RICH_VERSIONS, "edge_version", "", "");
+  private static final String SELECT_GRAPH_VERSION_EDGE_VERSIONS = String.format(SqlConstants.SELECT_RICH_VERSION_MEMBERS, "edge_version", "", "",
+    "graph_version_edge_set", "graph_version_id", "edge_version_id");
+
   private PostgresEdgeDao postgresEdgeDao;
 
   public PostgresEdgeVersionDao(Database dbSource, IdGenerator idGenerator) {
@@ -27,91 +33,101 @@ public class PostgresEdgeVersionDao extends PostgresRichVersionDao<EdgeVersion>
   }
 
   @Override
-  public EdgeVersion create(final EdgeVersion edgeVersion, List<Long> parentIds) throws GroundException {
-    final long uniqueId = this.idGenerator.generateVersionId();
-    EdgeVersion newEdgeVersion = new EdgeVersion(uniqueId, edgeVersion);
-
-    PostgresStatements updateVersionList = this.postgresEdgeDao.update(newEdgeVersion.getEdgeId(), newEdgeVersion.getId(), parentIds);
+  protected EdgeVersion instantiate(long id, EdgeVersion edgeVersion) {
+    return new EdgeVersion(id, edgeVersion);
+  }
 
-    for (long parentId : parentIds) {
-      if (parentId != 0) {
-        updateVersionList.merge(this.updatePreviousVersion(newEdgeVersion, newEdgeVersion.getEdgeId(), parentId));
-      }
-    }
+  @Override
+  protected PostgresStatements createStatements(EdgeVersion newEdgeVersion, List<Long> parentIds, Map<Long, VersionHistoryDag> dags,
+                                                Map<Long, EdgeVersion> batch)
+    throws GroundException {
 
-    try {
-      PostgresStatements statements = super.insert(newEdgeVersion);
-      Long fromEndId = edgeVersion.getFromNodeVersionEndId();
-      Long toEndId = edgeVersion.getToNodeVersionEndId();
+    PostgresStatements statements = super.insert(newEdgeVersion, parentIds);
+    Long fromEndId = newEdgeVersion.getFromNodeVersionEndId();
+    Long toEndId = newEdgeVersion.getToNodeVersionEndId();
 
-      if (fromEndId == -1) {
-        fromEndId = null;
-      }
+    if (fromEndId == -1) {
+      fromEndId = null;
+    }
 
-      if (toEndId == -1) {
-        toEndId = null;
-      }
+    if (toEndId == -1) {
+      toEndId = null;
+    }
 
-      statements.append(String.format(SqlConstants.INSERT_EDGE_VERSION, uniqueId, edgeVersion.getEdgeId(), edgeVersion.getFromNodeVersionStartId(),
-        fromEndId, edgeVersion.getToNodeVersionStartId(), toEndId));
+    statements.append(SqlConstants.INSERT_EDGE_VERSION, newEdgeVersion.getId(), newEdgeVersion.getEdgeId(),
+      newEdgeVersion.getFromNodeVersionStartId(), fromEndId, newEdgeVersion.getToNodeVersionStartId(), toEndId);
 
-      statements.merge(updateVersionList);
+    Map<Long, EdgeVersion> updatedParents = new HashMap<>();
 
-      PostgresUtils.executeSqlList(dbSource, statements);
-    } catch (Exception e) {
-      throw new GroundException(e);
+    for (long parentId : parentIds) {
+      if (parentId != 0) {
+        statements.merge(this.updatePreviousVersion(newEdgeVersion, parentId, dags, batch, updatedParents));
+      }
     }
 
-    return newEdgeVersion;
+    VersionHistoryDag dag = this.getDag(dags, newEdgeVersion.getEdgeId());
+    statements.merge(this.postgresEdgeDao.update(dag, newEdgeVersion.getId(), parentIds));
+
+    // later versions in the batch with the same parents must see their end versions as already set
+    batch.putAll(updatedParents);
+    return statements;
   }
 
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "edge_version", id));
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "edge_version"), id);
 
-    PostgresStatements superStatements = super.delete(id);
-    superStatements.merge(statements);
-    return superStatements;
+    statements.merge(super.delete(id));
+    return statements;
   }
 
   /**
    * Set the from and to end versions of a previous edge version.
    *
    * @param currentVersion the new version created
-   * @param edgeId the id of the edge we're updating
    * @param parentId the id of the parent we're updating
+   * @param dags the DAGs loaded so far, by item id
+   * @param batch the versions created or updated earlier in the same batch, which are not in the
+   *     database yet
+   * @param updatedParents receives the parent with its end versions set, if they changed
    * @return a set of statements to set the end versions
    */
-  private PostgresStatements updatePreviousVersion(EdgeVersion currentVersion, long edgeId, long parentId) throws GroundException {
+  private PostgresStatements updatePreviousVersion(EdgeVersion currentVersion, long parentId, Map<Long, VersionHistoryDag> dags,
+                                                   Map<Long, EdgeVersion> batch, Map<Long, EdgeVersion> updatedParents)
+    throws GroundException {
     PostgresStatements statements = new PostgresStatements();
 
-    PostgresVersionHistoryDagDao versionHistoryDagDao =
-      new PostgresVersionHistoryDagDao(this.dbSource, this.idGenerator);
-
-    EdgeVersion parentVersion = this.retrieveFromDatabase(parentId);
-    Edge edge = this.postgresEdgeDao.retrieveFromDatabase(edgeId);
+    EdgeVersion parentVersion = batch.containsKey(parentId) ? batch.get(parentId) : this.retrieveFromDatabase(parentId);
+    Edge edge = this.postgresEdgeDao.retrieveFromDatabase(currentVersion.getEdgeId());
 
     long fromNodeId = edge.getFromNodeId();
     long toNodeId = edge.getToNodeId();
 
-    long fromEndId = -1;
-    long toEndId = -1;
+    long fromEndId = parentVersion.getFromNodeVersionEndId();
+    long toEndId = parentVersion.getToNodeVersionEndId();
 
     if (parentVersion.getFromNodeVersionEndId() == -1) {
       // update from end id
-      VersionHistoryDag dag = versionHistoryDagDao.retrieveFromDatabase(fromNodeId);
+      VersionHistoryDag dag = this.getDag(dags, fromNodeId);
       fromEndId = dag.getParent(currentVersion.getFromNodeVersionStartId()).get(0);
     }
 
     if (parentVersion.getToNodeVersionEndId() == -1) {
       // update to end id
-      VersionHistoryDag dag = versionHistoryDagDao.retrieveFromDatabase(toNodeId);
+      VersionHistoryDag dag = this.getDag(dags, toNodeId);
       toEndId = dag.getParent(currentVersion.getToNodeVersionStartId()).get(0);
     }
 
-    if (fromEndId != -1 || toEndId != -1) {
-      statements.append(String.format(SqlConstants.UPDATE_EDGE_VERSION, fromEndId, toEndId, parentId));
+    if (fromEndId != parentVersion.getFromNodeVersionEndId() || toEndId != parentVersion.getToNodeVersionEndId()) {
+      // an end version that was already set is written back unchanged
+      statements.append(SqlConstants.UPDATE_EDGE_VERSION, fromEndId, toEndId, parentId);
+      updatedParents.put(parentId, new EdgeVersion(parentId, parentVersion.getTags(), parentVersion.getStructureVersionId(),
+        parentVersion.getReference(), parentVersion.getParameters(), parentVersion.getEdgeId(), parentVersion.getFromNodeVersionStartId(),
+        fromEndId, parentVersion.getToNodeVersionStartId(), toEndId));
+
+      // the only write that changes an existing version, so the cached copy has to go
+      statements.onCommit(() -> this.evict(parentId));
     }
 
     return statements;
@@ -119,17 +135,32 @@ public class PostgresEdgeVersionDao extends PostgresRichVersionDao<EdgeVersion>
 
   @Override
   public EdgeVersion retrieveFromDatabase(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_STAR_BY_ID, "edge_version", id);
-    JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
+    return this.versionCache.get(id, () -> this.load(id));
+  }
 
-    if (json.size() == 0) {
-      throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
-    }
+  @Override
+  protected Map<Long, EdgeVersion> loadAll(List<Long> ids) throws GroundException {
+    return this.hydrate(SELECT_EDGE_VERSIONS, this::getEdgeVersion, ids);
+  }
+
+  /**
+   * Stream the edge versions of a graph version in id order, with their tags and parameters. They
+   * are read with one query whose rows are fetched a page at a time as they are consumed, so the
+   * graph version can have any number of edges.
+   *
+   * @param graphVersionId the id of the graph version
+   * @return the graph version's edge versions
+   */
+  public Source<EdgeVersion, NotUsed> streamByGraphVersion(long graphVersionId) {
+    return PostgresUtils.streamQuery(dbSource, SELECT_GRAPH_VERSION_EDGE_VERSIONS, this::getEdgeVersion, graphVersionId);
+  }
 
-    json = json.get(0);
-    EdgeVersion edgeVersion = Json.fromJson(json, EdgeVersion.class);
-    RichVersion richVersion = super.retrieveFromDatabase(id);
+  private EdgeVersion getEdgeVersion(ResultSet resultSet) throws SQLException, GroundException {
+    RichVersion richVersion = this.getRichVersion(resultSet);
 
-    return new EdgeVersion(id, richVersion, edgeVersion);
+    return new EdgeVersion(richVersion.getId(), richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(),
+                            richVersion.getParameters(), resultSet.getLong("edge_id"), resultSet.getLong("from_node_version_start_id"),
+                            resultSet.getLong("from_node_version_end_id"), resultSet.getLong("to_node_version_start_id"),
+                            resultSet.getLong("to_node_version_end_id"));
   }
 }
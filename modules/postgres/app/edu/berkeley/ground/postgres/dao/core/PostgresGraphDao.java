@@ -45,13 +45,7 @@ public class PostgresGraphDao extends PostgresItemDao<Graph> implements GraphDao
 
     try {
       postgresStatements = super.insert(newGraph);
-
-      String name = graph.getName();
-      if (name != null) {
-        postgresStatements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM_WITH_NAME, "graph", uniqueId, graph.getSourceKey(), name));
-      } else {
-        postgresStatements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM_WITHOUT_NAME, "graph", uniqueId, graph.getSourceKey()));
-      }
+      postgresStatements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM, "graph"), uniqueId, graph.getSourceKey(), graph.getName());
     } catch (Exception e) {
       throw new GroundException(e);
     }
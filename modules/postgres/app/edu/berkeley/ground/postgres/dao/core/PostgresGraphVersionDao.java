@@ -1,86 +1,222 @@
 package edu.berkeley.ground.postgres.dao.core;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import edu.berkeley.ground.common.dao.core.GraphVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.model.core.EdgeVersion;
 import edu.berkeley.ground.common.model.core.GraphVersion;
 import edu.berkeley.ground.common.model.core.RichVersion;
+import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
-import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import play.db.Database;
-import play.libs.Json;
 
 public class PostgresGraphVersionDao extends PostgresRichVersionDao<GraphVersion> implements GraphVersionDao {
 
+  private static final String SELECT_GRAPH_VERSIONS = String.format(SqlConstants.SELECT_RICH_VERSIONS, "graph_version", ", e.edge_ids",
+    String.format(SqlConstants.SELECT_RICH_VERSIONS_EDGE_IDS, "graph_version_edge_set", "graph_version_id", "edge_version_id"));
+
+  // the most deltas between a graph version and the checkpoint its edges are rebuilt from
+  static final int CHECKPOINT_INTERVAL = 32;
+
   private PostgresGraphDao postgresGraphDao;
+  private PostgresEdgeVersionDao postgresEdgeVersionDao;
 
   public PostgresGraphVersionDao(Database dbSource, IdGenerator idGenerator) {
     super(dbSource, idGenerator);
     this.postgresGraphDao = new PostgresGraphDao(dbSource, idGenerator);
+    this.postgresEdgeVersionDao = new PostgresEdgeVersionDao(dbSource, idGenerator);
+  }
+
+  @Override
+  protected GraphVersion instantiate(long id, GraphVersion graphVersion) {
+    return new GraphVersion(id, graphVersion);
   }
 
+  /**
+   * A graph version is stored as a delta against its parent when it has exactly one parent, the
+   * delta is smaller than its edge set, and the parent is fewer than CHECKPOINT_INTERVAL deltas
+   * from a checkpoint. Otherwise, including when the parent is created in the same batch, it is
+   * stored as a checkpoint listing all of its edges.
+   */
   @Override
-  public GraphVersion create(final GraphVersion graphVersion, List<Long> parentIds)
+  protected PostgresStatements createStatements(GraphVersion newGraphVersion, List<Long> parentIds, Map<Long, VersionHistoryDag> dags,
+                                                Map<Long, GraphVersion> batch)
     throws GroundException {
 
-    final long uniqueId = idGenerator.generateVersionId();
-    GraphVersion newGraphVersion = new GraphVersion(uniqueId, graphVersion);
+    long id = newGraphVersion.getId();
+    DeltaBase base = parentIds.size() == 1 ? this.getDeltaBase(parentIds.get(0), newGraphVersion.getGraphId()) : null;
+
+    Set<Long> edgeVersionIds = new HashSet<>(newGraphVersion.getEdgeVersionIds());
+    Set<Long> added = new TreeSet<>(edgeVersionIds);
+    Set<Long> removed = new TreeSet<>();
+
+    if (base != null) {
+      added.removeAll(base.edgeVersionIds);
+      removed.addAll(base.edgeVersionIds);
+      removed.removeAll(edgeVersionIds);
+
+      if (base.depth + 1 >= CHECKPOINT_INTERVAL || added.size() + removed.size() >= edgeVersionIds.size()) {
+        base = null;
+      }
+    }
 
-    PostgresStatements updateVersionList = this.postgresGraphDao.update(newGraphVersion.getGraphId(), newGraphVersion.getId(), parentIds);
+    PostgresStatements statements = super.insert(newGraphVersion, parentIds);
+    statements.append(SqlConstants.INSERT_GRAPH_VERSION, id, newGraphVersion.getGraphId(), base == null ? null : parentIds.get(0),
+      base == null ? 0 : base.depth + 1);
 
-    try {
-      PostgresStatements statements = super.insert(newGraphVersion);
-      statements.append(String.format(SqlConstants.INSERT_GRAPH_VERSION, uniqueId, graphVersion.getGraphId()));
-      statements.merge(updateVersionList);
+    VersionHistoryDag dag = this.getDag(dags, newGraphVersion.getGraphId());
+    statements.merge(this.postgresGraphDao.update(dag, id, parentIds));
 
-      for (Long id : newGraphVersion.getEdgeVersionIds()) {
-        statements.append(String.format(SqlConstants.INSERT_GRAPH_VERSION_EDGE, newGraphVersion.getId(), id));
+    if (base == null) {
+      for (Long edgeVersionId : newGraphVersion.getEdgeVersionIds()) {
+        statements.append(SqlConstants.INSERT_GRAPH_VERSION_EDGE, id, edgeVersionId);
+      }
+    } else {
+      for (Long edgeVersionId : added) {
+        statements.append(SqlConstants.INSERT_GRAPH_VERSION_EDGE_DELTA, id, edgeVersionId, true);
       }
 
-      PostgresUtils.executeSqlList(dbSource, statements);
-    } catch (Exception e) {
-      throw new GroundException(e);
+      for (Long edgeVersionId : removed) {
+        statements.append(SqlConstants.INSERT_GRAPH_VERSION_EDGE_DELTA, id, edgeVersionId, false);
+      }
     }
-    return newGraphVersion;
+
+    return statements;
   }
 
   @Override
   public PostgresStatements delete(long id) {
+    PostgresStatements statements = this.rebaseDeltas(id);
+    statements.append(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "graph_version_edge_delta", "graph"), id);
+    statements.append(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "graph_version_edge", "graph"), id);
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "graph_version"), id);
+
+    statements.merge(super.delete(id));
+    return statements;
+  }
+
+  /**
+   * Turn the graph versions stored as deltas against a graph version into checkpoints, so that
+   * their edges no longer depend on it.
+   *
+   * @param id the id of the graph version
+   * @return the statements to execute
+   */
+  PostgresStatements rebaseDeltas(long id) {
     PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "graph_version_edge", "graph_version_id", id));
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "graph_version", id));
+    statements.append(SqlConstants.INSERT_GRAPH_VERSION_EDGES_OF_DELTAS, id);
+    statements.append(SqlConstants.DELETE_GRAPH_VERSION_EDGE_DELTAS_OF_DELTAS, id);
+    statements.append(SqlConstants.UPDATE_GRAPH_VERSION_DELTAS_TO_CHECKPOINTS, id);
 
-    PostgresStatements superStatements = super.delete(id);
-    superStatements.merge(statements);
-    return superStatements;
+    return statements;
   }
 
   @Override
   public GraphVersion retrieveFromDatabase(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_STAR_BY_ID, "graph_version", id);
-    JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
+    return this.versionCache.get(id, () -> this.load(id));
+  }
 
-    if (json.size() == 0) {
+  /**
+   * Stream the ids of a graph version's edge versions in id order. The ids are read a page at a time as
+   * they are consumed, so a graph version with any number of edges can be sent without loading it.
+   *
+   * <p>A checkpoint's page is read straight from its edges' index. A delta's page reads every change
+   * after afterId in its chain, but only as many of its checkpoint's edges as the page could need:
+   * the limit, plus one for each edge the deltas remove. Paging through a delta's edges therefore costs
+   * the size of its deltas per page, rather than the size of its whole edge set.
+   *
+   * @param id the id of the graph version
+   * @param afterId only ids greater than this one are returned
+   * @param limit the most ids to return
+   * @return the edge version ids
+   * @throws GroundException the graph version does not exist
+   */
+  public Source<Long, NotUsed> streamEdgeIds(long id, long afterId, long limit) throws GroundException {
+    String sql = String.format(SqlConstants.SELECT_STAR_BY_ID, "graph_version");
+    List<Boolean> isDelta = PostgresUtils.executeQuery(dbSource, sql, resultSet -> resultSet.getObject("delta_base_id") != null, id);
+
+    if (isDelta.isEmpty()) {
       throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
     }
 
-    GraphVersion graphVersion = Json.fromJson(json.get(0), GraphVersion.class);
-    List<Long> edgeIds = new ArrayList<>();
-    sql = String.format(SqlConstants.SELECT_GRAPH_VERSION_EDGES, id);
+    if (!isDelta.get(0)) {
+      return PostgresUtils.streamQuery(dbSource, SqlConstants.SELECT_GRAPH_VERSION_EDGES_PAGE, resultSet -> resultSet.getLong("edge_version_id"),
+        id, afterId, limit);
+    }
+
+    // capped so that adding the removed edges to the limit cannot overflow
+    long checkpointLimit = Math.min(limit, Long.MAX_VALUE / 2);
+
+    return PostgresUtils.streamQuery(dbSource, SqlConstants.SELECT_GRAPH_VERSION_DELTA_EDGES_PAGE,
+      resultSet -> resultSet.getLong("edge_version_id"), id, afterId, afterId, checkpointLimit, limit);
+  }
+
+  /**
+   * Stream a graph version's edge versions, with their tags, in id order. However many edges the
+   * graph version has, they are read with one query.
+   *
+   * @param id the id of the graph version
+   * @return the edge versions
+   * @throws GroundException the graph version does not exist
+   */
+  public Source<EdgeVersion, NotUsed> streamEdgeVersions(long id) throws GroundException {
+    this.retrieveFromDatabase(id);
+
+    return this.postgresEdgeVersionDao.streamByGraphVersion(id);
+  }
 
-    JsonNode edgeJson = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
-    for (JsonNode edge : edgeJson) {
-      edgeIds.add(edge.get("edgeVersionId").asLong());
+  /**
+   * Get the edge set and delta depth of the parent a new graph version may be stored as a delta
+   * against. A cached parent already holds its edge set, so only its depth is read; otherwise the
+   * edge set is rebuilt from the parent's chain of deltas.
+   */
+  private DeltaBase getDeltaBase(long parentId, long graphId) throws GroundException {
+    GraphVersion parent = this.versionCache.getIfPresent(parentId);
+
+    if (parent != null) {
+      if (parent.getGraphId() != graphId) {
+        return null;
+      }
+
+      List<Integer> depths = PostgresUtils.executeQuery(dbSource, SqlConstants.SELECT_GRAPH_VERSION_DELTA_DEPTH,
+        resultSet -> resultSet.getInt("delta_depth"), parentId, graphId);
+
+      return depths.isEmpty() ? null : new DeltaBase(depths.get(0), parent.getEdgeVersionIds());
     }
 
-    RichVersion richVersion = super.retrieveFromDatabase(id);
-    return new GraphVersion(id, richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(), richVersion.getParameters(),
-                             graphVersion.getGraphId(), edgeIds);
+    List<DeltaBase> bases = PostgresUtils.executeQuery(dbSource, SqlConstants.SELECT_GRAPH_VERSION_DELTA_BASE,
+      resultSet -> new DeltaBase(resultSet.getInt("delta_depth"), PostgresRichVersionDao.getIds(resultSet, "edge_ids")), parentId, graphId);
+
+    return bases.isEmpty() ? null : bases.get(0);
   }
-}
 
+  @Override
+  protected Map<Long, GraphVersion> loadAll(List<Long> ids) throws GroundException {
+    return this.hydrate(SELECT_GRAPH_VERSIONS, resultSet -> {
+      RichVersion richVersion = this.getRichVersion(resultSet);
+      return new GraphVersion(richVersion.getId(), richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(),
+                               richVersion.getParameters(), resultSet.getLong("graph_id"), PostgresRichVersionDao.getIds(resultSet, "edge_ids"));
+    }, ids);
+  }
+
+  private static final class DeltaBase {
+
+    private final int depth;
+    private final Set<Long> edgeVersionIds;
+
+    DeltaBase(int depth, List<Long> edgeVersionIds) {
+      this.depth = depth;
+      this.edgeVersionIds = new HashSet<>(edgeVersionIds);
+    }
+  }
+}
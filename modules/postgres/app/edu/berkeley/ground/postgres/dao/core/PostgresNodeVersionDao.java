@@ -1,21 +1,21 @@
 package edu.berkeley.ground.postgres.dao.core;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import edu.berkeley.ground.common.dao.core.NodeVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
-import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.NodeVersion;
 import edu.berkeley.ground.common.model.core.RichVersion;
+import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
-import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.List;
+import java.util.Map;
 import play.db.Database;
-import play.libs.Json;
 
 public class PostgresNodeVersionDao extends PostgresRichVersionDao<NodeVersion> implements NodeVersionDao {
 
+  private static final String SELECT_NODE_VERSIONS = String.format(SqlConstants.SELECT_RICH_VERSIONS, "node_version", "", "");
+
   private PostgresNodeDao postgresNodeDao;
 
   public PostgresNodeVersionDao(Database dbSource, IdGenerator idGenerator) {
@@ -24,49 +24,44 @@ public class PostgresNodeVersionDao extends PostgresRichVersionDao<NodeVersion>
   }
 
   @Override
-  public NodeVersion create(final NodeVersion nodeVersion, List<Long> parentIds)
-    throws GroundException {
+  protected NodeVersion instantiate(long id, NodeVersion nodeVersion) {
+    return new NodeVersion(id, nodeVersion);
+  }
 
-    final long uniqueId = idGenerator.generateVersionId();
-    NodeVersion newNodeVersion = new NodeVersion(uniqueId, nodeVersion);
+  @Override
+  protected PostgresStatements createStatements(NodeVersion newNodeVersion, List<Long> parentIds, Map<Long, VersionHistoryDag> dags,
+                                                Map<Long, NodeVersion> batch)
+    throws GroundException {
 
-    PostgresStatements updateVersionList = this.postgresNodeDao.update(newNodeVersion.getNodeId(), newNodeVersion.getId(), parentIds);
+    PostgresStatements statements = super.insert(newNodeVersion, parentIds);
+    statements.append(SqlConstants.INSERT_NODE_VERSION, newNodeVersion.getId(), newNodeVersion.getNodeId());
 
-    try {
-      PostgresStatements statements = super.insert(newNodeVersion);
-      statements.append(String.format(SqlConstants.INSERT_NODE_VERSION, uniqueId, nodeVersion.getNodeId()));
-      statements.merge(updateVersionList);
+    VersionHistoryDag dag = this.getDag(dags, newNodeVersion.getNodeId());
+    statements.merge(this.postgresNodeDao.update(dag, newNodeVersion.getId(), parentIds));
 
-      PostgresUtils.executeSqlList(dbSource, statements);
-    } catch (Exception e) {
-      e.printStackTrace();
-      throw new GroundException(e);
-    }
-    return newNodeVersion;
+    return statements;
   }
 
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "node_version", id));
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "node_version"), id);
 
-    PostgresStatements superStatements = super.delete(id);
-    superStatements.merge(statements);
-    return superStatements;
+    statements.merge(super.delete(id));
+    return statements;
   }
 
   @Override
   public NodeVersion retrieveFromDatabase(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_STAR_BY_ID, "node_version", id);
-    JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
-
-    if (json.size() == 0) {
-      throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
-    }
-
-    NodeVersion nodeVersion = Json.fromJson(json.get(0), NodeVersion.class);
-    RichVersion richVersion = super.retrieveFromDatabase(id);
+    return this.versionCache.get(id, () -> this.load(id));
+  }
 
-    return new NodeVersion(id, richVersion, nodeVersion);
+  @Override
+  protected Map<Long, NodeVersion> loadAll(List<Long> ids) throws GroundException {
+    return this.hydrate(SELECT_NODE_VERSIONS, resultSet -> {
+      RichVersion richVersion = this.getRichVersion(resultSet);
+      return new NodeVersion(richVersion.getId(), richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(),
+                              richVersion.getParameters(), resultSet.getLong("node_id"));
+    }, ids);
   }
 }
@@ -18,30 +18,178 @@ import edu.berkeley.ground.common.model.core.RichVersion;
 import edu.berkeley.ground.common.model.core.StructureVersion;
 import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.dao.version.PostgresTagDao;
 import edu.berkeley.ground.postgres.dao.version.PostgresVersionDao;
+import edu.berkeley.ground.postgres.dao.version.PostgresVersionHistoryDagDao;
+import edu.berkeley.ground.postgres.util.BulkResult;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
-import java.sql.Connection;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.RowMapper;
+import java.sql.Array;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import play.db.Database;
 
 public abstract class PostgresRichVersionDao<T extends RichVersion> extends PostgresVersionDao<T> implements RichVersionDao<T> {
 
+  // the most tag deltas between a version and the snapshot its tags are resolved from
+  private static volatile int tagSnapshotInterval = 32;
+
   private PostgresTagDao postgresTagDao;
+  private PostgresVersionHistoryDagDao postgresVersionHistoryDagDao;
 
   public PostgresRichVersionDao(Database dbSource, IdGenerator idGenerator) {
     super(dbSource, idGenerator);
     this.postgresTagDao = new PostgresTagDao(dbSource);
+    this.postgresVersionHistoryDagDao = new PostgresVersionHistoryDagDao(dbSource, idGenerator);
+  }
+
+  public static void setTagSnapshotInterval(int interval) {
+    tagSnapshotInterval = interval;
+  }
+
+  @Override
+  public T create(final T version, List<Long> parentIds) throws GroundException {
+    T newVersion = this.instantiate(this.idGenerator.generateVersionId(), version);
+
+    PostgresStatements statements = this.createStatements(newVersion, parentIds, new HashMap<>(), new HashMap<>());
+    PostgresUtils.executeSqlList(dbSource, statements);
+
+    return newVersion;
+  }
+
+  /**
+   * Create a batch of versions whose parents are all already in the database.
+   *
+   * @param versions the versions to create
+   * @param parentIds the parents of each version, by position
+   * @return the result for each version, by position
+   * @throws GroundException an error writing the batch
+   */
+  public List<BulkResult<T>> createAll(List<T> versions, List<List<Long>> parentIds) throws GroundException {
+    return this.createAll(versions, parentIds, Collections.nCopies(versions.size(), Collections.emptyList()));
+  }
+
+  /**
+   * Create a batch of versions in a single transaction. The ids are reserved as one block, each
+   * Item's DAG is loaded once and shared by all of that Item's versions in the batch, and every
+   * accepted version is written by one call to executeSqlList. A version that fails validation is
+   * reported in its result and left out of the batch.
+   *
+   * <p>A version's id is not known until the batch is created, so a version whose parent is created
+   * earlier in the same batch names it by its position instead.
+   *
+   * @param versions the versions to create
+   * @param parentIds the parents of each version, by position
+   * @param parentIndexes the positions of the earlier versions in the batch that are also parents
+   *     of each version, by position
+   * @return the result for each version, by position
+   * @throws GroundException an error writing the batch
+   */
+  public List<BulkResult<T>> createAll(List<T> versions, List<List<Long>> parentIds, List<List<Integer>> parentIndexes)
+    throws GroundException {
+    long[] ids = this.idGenerator.generateVersionIds(versions.size());
+
+    Map<Long, VersionHistoryDag> dags = new HashMap<>();
+    Map<Long, T> batch = new HashMap<>();
+    List<PostgresStatements> records = new ArrayList<>();
+    List<BulkResult<T>> results = new ArrayList<>();
+
+    for (int i = 0; i < versions.size(); i++) {
+      T newVersion = this.instantiate(ids[i], versions.get(i));
+      List<Long> parents = new ArrayList<>(parentIds.get(i));
+
+      try {
+        for (int index : parentIndexes.get(i)) {
+          if (index < 0 || index >= i || !results.get(index).isCreated()) {
+            throw new GroundException(ExceptionType.OTHER,
+              String.format("Parent index %d is not a version created earlier in the batch.", index));
+          }
+
+          parents.add(ids[index]);
+        }
+
+        records.add(this.createStatements(newVersion, parents, dags, batch));
+        batch.put(newVersion.getId(), newVersion);
+        results.add(BulkResult.created(newVersion));
+      } catch (GroundException e) {
+        results.add(BulkResult.failed(e.getMessage()));
+      }
+    }
+
+    PostgresUtils.executeSqlList(dbSource, PostgresStatements.groupBySql(records));
+    return results;
+  }
+
+  /**
+   * Copy a version under a newly generated id.
+   *
+   * @param id the new id
+   * @param version the version to copy
+   * @return the copied version
+   */
+  protected abstract T instantiate(long id, T version);
+
+  /**
+   * Build the statements that create a version and add it to its Item's history. Any validation
+   * must happen before the Item's DAG is updated, so a rejected version leaves the DAG untouched.
+   *
+   * @param newVersion the version to create, with its id already set
+   * @param parentIds the ids of the version's parents
+   * @param dags the DAGs loaded so far, by item id
+   * @param batch the versions created or changed earlier in the same batch, which are not in the
+   *     database yet, by id
+   * @return the statements to execute
+   * @throws GroundException the version is invalid
+   */
+  protected abstract PostgresStatements createStatements(T newVersion, List<Long> parentIds, Map<Long, VersionHistoryDag> dags,
+                                                         Map<Long, T> batch) throws GroundException;
+
+  /**
+   * Get an Item's DAG, loading it from the database the first time it is needed.
+   *
+   * @param dags the DAGs loaded so far, by item id
+   * @param itemId the id of the Item
+   * @return the Item's DAG
+   * @throws GroundException an error retrieving the DAG
+   */
+  protected VersionHistoryDag getDag(Map<Long, VersionHistoryDag> dags, long itemId) throws GroundException {
+    VersionHistoryDag dag = dags.get(itemId);
+
+    if (dag == null) {
+      dag = this.postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
+      dags.put(itemId, dag);
+    }
+
+    return dag;
   }
 
   @Override
   public PostgresStatements insert(final T richVersion) throws GroundException {
+    return this.insert(richVersion, new ArrayList<>());
+  }
+
+  /**
+   * Build the statements that insert a version. Its tags are stored as a delta against its first
+   * parent if that parent is in the database, fewer than the snapshot interval deltas from a
+   * snapshot, and the delta is smaller than the version's tags. Otherwise they are stored as a
+   * snapshot.
+   *
+   * @param richVersion the version to insert
+   * @param parentIds the ids of the version's parents
+   * @return the statements to execute
+   * @throws GroundException the version's tags do not match its structure version
+   */
+  protected PostgresStatements insert(final T richVersion, List<Long> parentIds) throws GroundException {
     long id = richVersion.getId();
     Long structureVersionId;
 
@@ -56,24 +204,33 @@ public abstract class PostgresRichVersionDao<T extends RichVersion> extends Post
 
     PostgresStatements statements = super.insert(richVersion);
 
-    String reference = richVersion.getReference();
-    if (reference != null) {
-      statements.append(String.format(SqlConstants.INSERT_RICH_VERSION_WITH_REFERENCE, id, structureVersionId, reference));
-    } else {
-      statements.append(String.format(SqlConstants.INSERT_RICH_VERSION_WITHOUT_REFERENCE, id, structureVersionId));
+    TagDelta delta = parentIds.isEmpty() ? null : this.getTagDelta(parentIds.get(0), richVersion.getTags());
+
+    statements.append(SqlConstants.INSERT_RICH_VERSION, id, structureVersionId, richVersion.getReference(),
+      delta == null ? null : parentIds.get(0), delta == null ? 0 : delta.depth);
+
+    if (delta != null) {
+      // lets tag searches tell which chains lead past their cursor
+      statements.append(SqlConstants.UPDATE_RICH_VERSION_MAX_TAG_DELTA_IDS, parentIds.get(0), id, id);
     }
 
-    final Map<String, Tag> tags = richVersion.getTags();
+    final Map<String, Tag> tags = delta == null ? richVersion.getTags() : delta.changed;
     for (String tagKey : tags.keySet()) {
       Tag tag = tags.get(tagKey);
 
       statements.merge(this.postgresTagDao.insertRichVersionTag(new Tag(id, tag.getKey(), tag.getValue(), tag.getValueType())));
     }
 
+    if (delta != null) {
+      for (String tagKey : delta.removed) {
+        statements.append(SqlConstants.INSERT_RICH_VERSION_TAG_REMOVAL, id, tagKey);
+      }
+    }
+
     Map<String, String> parameters = richVersion.getParameters();
     if (!parameters.isEmpty()) {
       for (String key : parameters.keySet()) {
-        statements.append(String.format(SqlConstants.INSERT_RICH_VERSION_EXTERNAL_PARAMETER, richVersion.getId(), key, parameters.get(key)));
+        statements.append(SqlConstants.INSERT_RICH_VERSION_EXTERNAL_PARAMETER, richVersion.getId(), key, parameters.get(key));
       }
     }
 
@@ -84,69 +241,139 @@ public abstract class PostgresRichVersionDao<T extends RichVersion> extends Post
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
 
-    statements.append(String.format(SqlConstants.DELETE_RICH_VERSION_TAGS, id));
-    statements.append(String.format(SqlConstants.DELETE_RICH_EXTERNAL_PARAMETERS, id));
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "rich_version", id));
+    statements.merge(this.postgresTagDao.snapshotRichVersionTags(Collections.singletonList(id), new ArrayList<>()));
+    statements.append(SqlConstants.DELETE_RICH_VERSION_TAGS, id);
+    statements.append(SqlConstants.DELETE_RICH_VERSION_TAG_REMOVALS, id);
+    statements.append(SqlConstants.DELETE_RICH_EXTERNAL_PARAMETERS, id);
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "rich_version"), id);
 
-    PostgresStatements superStatements = super.delete(id);
-    superStatements.merge(statements);
-    return superStatements;
+    statements.merge(super.delete(id));
+    return statements;
   }
 
 
   @Override
   public RichVersion retrieveFromDatabase(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_STAR_BY_ID, "rich_version", id);
+    String sql = String.format(SqlConstants.SELECT_RICH_VERSIONS, "rich_version", "", "");
+    List<RichVersion> richVersions = PostgresUtils.executeQuery(dbSource, sql, this::getRichVersion, Collections.singletonList(id));
 
-    ResultSet resultSet;
-    String reference;
-    long structureVersionId;
+    if (richVersions.isEmpty()) {
+      throw new GroundException(ExceptionType.VERSION_NOT_FOUND, RichVersion.class.getSimpleName(), String.format("%d", id));
+    }
 
-    try (Connection con = dbSource.getConnection()) {
-      Statement stmt = con.createStatement();
-      resultSet = stmt.executeQuery(sql);
+    return richVersions.get(0);
+  }
 
-      if (!resultSet.next()) {
-        throw new GroundException(ExceptionType.VERSION_NOT_FOUND, RichVersion.class.getSimpleName(), String.format("%d", id));
-      }
+  /**
+   * Load one version with loadAll, which reads it in a single round trip.
+   *
+   * @param id the id of the version
+   * @return the version
+   * @throws GroundException the version does not exist
+   */
+  protected T load(long id) throws GroundException {
+    T version = this.loadAll(Collections.singletonList(id)).get(id);
 
-      reference = resultSet.getString(3);
-      structureVersionId = resultSet.getLong(2);
-      stmt.close();
-      con.close();
-    } catch (SQLException e) {
-      throw new GroundException(e);
+    if (version == null) {
+      throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
     }
 
-    Map<String, Tag> tags = this.postgresTagDao.retrieveFromDatabaseByVersionId(id);
-    Map<String, String> referenceParams = getReferenceParameters(id);
-    structureVersionId = structureVersionId == 0 ? -1 : structureVersionId;
+    return version;
+  }
 
-    return new RichVersion(id, tags, structureVersionId, reference, referenceParams);
+  /**
+   * Load several versions with one hydration query, which returns each version's subtype row along
+   * with its rich version, tags and parameters.
+   *
+   * @param sql the hydration query, built from SqlConstants.SELECT_RICH_VERSIONS
+   * @param mapper builds a version from a row, using getRichVersion for the rich version part
+   * @param ids the ids of the versions
+   * @return the versions that exist, by id
+   * @throws GroundException an error loading the versions
+   */
+  protected Map<Long, T> hydrate(String sql, RowMapper<T> mapper, List<Long> ids) throws GroundException {
+    Map<Long, T> versions = new HashMap<>();
+    PostgresUtils.executeQuery(dbSource, sql, mapper, ids).forEach(version -> versions.put(version.getId(), version));
+
+    return versions;
   }
 
-  private Map<String, String> getReferenceParameters(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_RICH_VERSION_EXTERNAL_PARAMETERS, id);
-    Map<String, String> referenceParameters = new HashMap<>();
+  /**
+   * Read the rich version part of a row returned by a hydration query. The tags and parameters
+   * arrive as parallel arrays, so they are decoded straight from the row.
+   *
+   * @param resultSet the row
+   * @return the rich version
+   * @throws SQLException an error reading the row
+   * @throws GroundException a tag has an unknown type
+   */
+  protected RichVersion getRichVersion(ResultSet resultSet) throws SQLException, GroundException {
+    long id = resultSet.getLong("id");
+
+    Map<String, Tag> tags = this.postgresTagDao.getTags(id, PostgresRichVersionDao.getStrings(resultSet, "tag_keys"),
+      PostgresRichVersionDao.getStrings(resultSet, "tag_values"), PostgresRichVersionDao.getStrings(resultSet, "tag_types"));
 
-    try (Connection con = dbSource.getConnection()) {
-      Statement stmt = con.createStatement();
-      ResultSet parameterSet = stmt.executeQuery(sql);
-      if (!parameterSet.next()) {
-        return referenceParameters;
-      }
-      do {
-        referenceParameters.put(parameterSet.getString(2), parameterSet.getString(3));
-      } while (parameterSet.next());
-
-      stmt.close();
-      con.close();
-    } catch (Exception e) {
-      throw new GroundException(e);
+    String[] parameterKeys = PostgresRichVersionDao.getStrings(resultSet, "parameter_keys");
+    String[] parameterValues = PostgresRichVersionDao.getStrings(resultSet, "parameter_values");
+
+    Map<String, String> parameters = new HashMap<>();
+    for (int i = 0; i < parameterKeys.length; i++) {
+      parameters.put(parameterKeys[i], parameterValues[i]);
     }
-    return referenceParameters;
+
+    return new RichVersion(id, tags, resultSet.getLong("structure_version_id"), resultSet.getString("reference"), parameters);
   }
 
+  /**
+   * Read an aggregated array of strings, which is null when nothing was aggregated.
+   *
+   * @param resultSet the row
+   * @param column the array column
+   * @return the strings, or an empty array
+   * @throws SQLException an error reading the row
+   */
+  protected static String[] getStrings(ResultSet resultSet, String column) throws SQLException {
+    Array array = resultSet.getArray(column);
+    return array == null ? new String[0] : (String[]) array.getArray();
+  }
+
+  /**
+   * Read an aggregated array of ids, which is null when nothing was aggregated.
+   *
+   * @param resultSet the row
+   * @param column the array column
+   * @return the ids
+   * @throws SQLException an error reading the row
+   */
+  protected static List<Long> getIds(ResultSet resultSet, String column) throws SQLException {
+    Array array = resultSet.getArray(column);
+    return array == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList((Long[]) array.getArray()));
+  }
+
+  /**
+   * Work out how a version's tags differ from its parent's.
+   *
+   * @param parentId the id of the parent
+   * @param tags the version's tags
+   * @return the delta, or null if the tags should be stored as a snapshot
+   * @throws GroundException an error reading the parent's tags
+   */
+  private TagDelta getTagDelta(long parentId, Map<String, Tag> tags) throws GroundException {
+    List<TagDelta> bases = PostgresUtils.executeQuery(dbSource, SqlConstants.SELECT_RICH_VERSION_TAG_BASE, resultSet -> {
+      Map<String, Tag> parentTags = this.postgresTagDao.getTags(parentId, PostgresRichVersionDao.getStrings(resultSet, "tag_keys"),
+        PostgresRichVersionDao.getStrings(resultSet, "tag_values"), PostgresRichVersionDao.getStrings(resultSet, "tag_types"));
+
+      return new TagDelta(resultSet.getInt("tag_depth") + 1, parentTags, tags);
+    }, parentId);
+
+    // a parent created in the same batch is not in the database yet
+    if (bases.isEmpty()) {
+      return null;
+    }
+
+    TagDelta delta = bases.get(0);
+    return delta.depth >= tagSnapshotInterval || delta.changed.size() + delta.removed.size() >= tags.size() ? null : delta;
+  }
 
   /**
    * Validate that the given Tags satisfy the StructureVersion's requirements.
@@ -179,4 +406,23 @@ public abstract class PostgresRichVersionDao<T extends RichVersion> extends Post
       }
     }
   }
+
+  private static final class TagDelta {
+
+    private final int depth;
+    private final Map<String, Tag> changed = new HashMap<>();
+    private final List<String> removed = new ArrayList<>();
+
+    TagDelta(int depth, Map<String, Tag> parentTags, Map<String, Tag> tags) {
+      this.depth = depth;
+
+      tags.forEach((key, tag) -> {
+        if (!tag.equals(parentTags.get(key))) {
+          this.changed.put(key, tag);
+        }
+      });
+
+      parentTags.keySet().stream().filter(key -> !tags.containsKey(key)).forEach(this.removed::add);
+    }
+  }
 }
@@ -46,14 +46,7 @@ public class PostgresStructureDao extends PostgresItemDao<Structure> implements
 
     try {
       postgresStatements = super.insert(newStructure);
-
-      String name = structure.getName();
-
-      if (name != null) {
-        postgresStatements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM_WITH_NAME, "structure", uniqueId, structure.getSourceKey(), name));
-      } else {
-        postgresStatements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM_WITHOUT_NAME, "structure", uniqueId, structure.getSourceKey()));
-      }
+      postgresStatements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM, "structure"), uniqueId, structure.getSourceKey(), structure.getName());
     } catch (GroundException e) {
       throw e;
     } catch (Exception e) {
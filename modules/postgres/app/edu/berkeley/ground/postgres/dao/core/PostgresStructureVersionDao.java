@@ -11,7 +11,6 @@
  */
 package edu.berkeley.ground.postgres.dao.core;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import edu.berkeley.ground.common.dao.core.StructureVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
@@ -22,11 +21,11 @@ import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.dao.version.PostgresVersionDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import play.db.Database;
-import play.libs.Json;
 
 public class PostgresStructureVersionDao extends PostgresVersionDao<StructureVersion> implements StructureVersionDao {
 
@@ -47,10 +46,10 @@ public class PostgresStructureVersionDao extends PostgresVersionDao<StructureVer
 
     try {
       PostgresStatements statements = super.insert(newStructureVersion);
-      statements.append(String.format(SqlConstants.INSERT_STRUCTURE_VERSION, uniqueId, structureVersion.getStructureId()));
+      statements.append(SqlConstants.INSERT_STRUCTURE_VERSION, uniqueId, structureVersion.getStructureId());
 
       for (Map.Entry<String, GroundType> attribute : structureVersion.getAttributes().entrySet()) {
-        statements.append(String.format(SqlConstants.INSERT_STRUCTURE_VERSION_ATTRIBUTE, uniqueId, attribute.getKey(), attribute.getValue()));
+        statements.append(SqlConstants.INSERT_STRUCTURE_VERSION_ATTRIBUTE, uniqueId, attribute.getKey(), attribute.getValue().toString());
       }
 
       statements.merge(updateVersionList);
@@ -66,39 +65,56 @@ public class PostgresStructureVersionDao extends PostgresVersionDao<StructureVer
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_STRUCTURE_VERSION_ATTRIBUTES, id));
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "structure_version", id));
+    statements.append(SqlConstants.DELETE_STRUCTURE_VERSION_ATTRIBUTES, id);
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "structure_version"), id);
 
-    PostgresStatements superStatements = super.delete(id);
-    superStatements.merge(statements);
-    return superStatements;
+    statements.merge(super.delete(id));
+    return statements;
   }
 
   @Override
   public StructureVersion retrieveFromDatabase(final long id) throws GroundException {
-    HashMap<String, GroundType> attributes;
-    try {
-      String resultQuery = String.format(SqlConstants.SELECT_STAR_BY_ID, "structure_version", id);
-      JsonNode resultJson = Json.parse(PostgresUtils.executeQueryToJson(dbSource, resultQuery));
+    return this.versionCache.get(id, () -> this.load(id));
+  }
 
-      if (resultJson.size() == 0) {
-        throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
-      }
+  @Override
+  protected Map<Long, StructureVersion> loadAll(List<Long> ids) throws GroundException {
+    String sql = String.format(SqlConstants.SELECT_STAR_BY_IDS, "structure_version");
+    List<long[]> structureVersions = PostgresUtils.executeQuery(dbSource, sql, resultSet ->
+      new long[] {resultSet.getLong("id"), resultSet.getLong("structure_id")}, ids);
+
+    List<Object[]> attributeRows = PostgresUtils.executeQuery(dbSource, SqlConstants.SELECT_STRUCTURE_VERSION_ATTRIBUTES_BY_IDS, resultSet ->
+      new Object[] {resultSet.getLong("structure_version_id"), resultSet.getString("key"), GroundType.fromString(resultSet.getString("type"))}, ids);
+
+    Map<Long, Map<String, GroundType>> attributes = new HashMap<>();
+    attributeRows.forEach(row -> attributes.computeIfAbsent((Long) row[0], id -> new HashMap<>()).put((String) row[1], (GroundType) row[2]));
 
-      StructureVersion structureVersion = Json.fromJson(resultJson.get(0), StructureVersion.class);
+    Map<Long, StructureVersion> results = new HashMap<>();
 
-      String attributeQuery = String.format(SqlConstants.SELECT_STRUCTURE_VERSION_ATTRIBUTES, id);
-      JsonNode attributeJson = Json.parse(PostgresUtils.executeQueryToJson(dbSource, attributeQuery));
+    for (long[] structureVersion : structureVersions) {
+      long id = structureVersion[0];
+      results.put(id, new StructureVersion(id, structureVersion[1], attributes.getOrDefault(id, new HashMap<>())));
+    }
+
+    return results;
+  }
 
-      attributes = new HashMap<>();
+  private StructureVersion load(final long id) throws GroundException {
+    try {
+      String resultQuery = String.format(SqlConstants.SELECT_STAR_BY_ID, "structure_version");
+      List<Long> structureIds = PostgresUtils.executeQuery(dbSource, resultQuery, resultSet -> resultSet.getLong("structure_id"), id);
 
-      for (JsonNode attribute : attributeJson) {
-        GroundType type = GroundType.fromString(attribute.get("type").asText());
-        attributes.put(attribute.get("key").asText(), type);
+      if (structureIds.isEmpty()) {
+        throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
       }
 
-      structureVersion = new StructureVersion(structureVersion.getId(), structureVersion.getStructureId(), attributes);
-      return structureVersion;
+      List<Map.Entry<String, GroundType>> attributeRows = PostgresUtils.executeQuery(dbSource, SqlConstants.SELECT_STRUCTURE_VERSION_ATTRIBUTES,
+        resultSet -> new SimpleImmutableEntry<>(resultSet.getString("key"), GroundType.fromString(resultSet.getString("type"))), id);
+
+      Map<String, GroundType> attributes = new HashMap<>();
+      attributeRows.forEach(attribute -> attributes.put(attribute.getKey(), attribute.getValue()));
+
+      return new StructureVersion(id, structureIds.get(0), attributes);
     } catch (Exception e) {
       throw new GroundException(e);
     }
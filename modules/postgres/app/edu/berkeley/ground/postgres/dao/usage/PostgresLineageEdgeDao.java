@@ -41,16 +41,8 @@ public class PostgresLineageEdgeDao extends PostgresItemDao<LineageEdge> impleme
     long uniqueId = this.idGenerator.generateItemId();
     LineageEdge newLineageEdge = new LineageEdge(uniqueId, lineageEdge);
     PostgresStatements statements = super.insert(newLineageEdge);
-
-    String name = lineageEdge.getName();
-
-    if (name != null) {
-      statements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM_WITH_NAME, "lineage_edge", newLineageEdge.getId(),
-        newLineageEdge.getSourceKey(), name));
-    } else {
-      statements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM_WITHOUT_NAME, "lineage_edge", newLineageEdge.getId(),
-        newLineageEdge.getSourceKey()));
-    }
+    statements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM, "lineage_edge"), newLineageEdge.getId(), newLineageEdge.getSourceKey(),
+      lineageEdge.getName());
 
     try {
       PostgresUtils.executeSqlList(this.dbSource, statements);
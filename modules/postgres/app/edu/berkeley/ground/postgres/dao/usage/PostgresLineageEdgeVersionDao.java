@@ -11,23 +11,35 @@
  */
 package edu.berkeley.ground.postgres.dao.usage;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import edu.berkeley.ground.common.dao.usage.LineageEdgeVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
-import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.RichVersion;
+import edu.berkeley.ground.common.model.usage.LineageAdjacency;
 import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
+import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.dao.core.PostgresRichVersionDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import play.db.Database;
-import play.libs.Json;
 
 public class PostgresLineageEdgeVersionDao extends PostgresRichVersionDao<LineageEdgeVersion> implements LineageEdgeVersionDao {
 
+  private static final String SELECT_LINEAGE_EDGE_VERSIONS = String.format(SqlConstants.SELECT_RICH_VERSIONS, "lineage_edge_version", "", "");
+  private static final String SELECT_LINEAGE_GRAPH_VERSION_EDGE_VERSIONS = String.format(SqlConstants.SELECT_RICH_VERSION_MEMBERS,
+    "lineage_edge_version", "", "", "lineage_graph_version_edge", "lineage_graph_version_id", "lineage_edge_version_id");
+
   private PostgresLineageEdgeDao postgresLineageEdgeDao;
 
   public PostgresLineageEdgeVersionDao(Database dbSource, IdGenerator idGenerator) {
@@ -36,51 +48,113 @@ public class PostgresLineageEdgeVersionDao extends PostgresRichVersionDao<Lineag
   }
 
   @Override
-  public LineageEdgeVersion create(final LineageEdgeVersion lineageEdgeVersion,
-                                    List<Long> parentIds) throws GroundException {
-    final long uniqueId = idGenerator.generateVersionId();
-
-    LineageEdgeVersion newLineageEdgeVersion = new LineageEdgeVersion(uniqueId, lineageEdgeVersion);
-
-    PostgresStatements updateVersionList = this.postgresLineageEdgeDao
-                                             .update(newLineageEdgeVersion.getLineageEdgeId(), newLineageEdgeVersion.getId(), parentIds);
-
-    try {
-      PostgresStatements statements = super.insert(newLineageEdgeVersion);
-      statements.append(String.format(SqlConstants.INSERT_LINEAGE_EDGE_VERSION, uniqueId, newLineageEdgeVersion.getLineageEdgeId(),
-        newLineageEdgeVersion.getFromId(), newLineageEdgeVersion.getToId(), null));
-      statements.merge(updateVersionList);
-
-      PostgresUtils.executeSqlList(dbSource, statements);
-    } catch (Exception e) {
-      throw new GroundException(e);
-    }
-    return newLineageEdgeVersion;
+  protected LineageEdgeVersion instantiate(long id, LineageEdgeVersion lineageEdgeVersion) {
+    return new LineageEdgeVersion(id, lineageEdgeVersion);
+  }
+
+  @Override
+  protected PostgresStatements createStatements(LineageEdgeVersion newLineageEdgeVersion, List<Long> parentIds,
+                                                Map<Long, VersionHistoryDag> dags, Map<Long, LineageEdgeVersion> batch)
+    throws GroundException {
+
+    PostgresStatements statements = super.insert(newLineageEdgeVersion, parentIds);
+    statements.append(SqlConstants.INSERT_LINEAGE_EDGE_VERSION, newLineageEdgeVersion.getId(), newLineageEdgeVersion.getLineageEdgeId(),
+      newLineageEdgeVersion.getFromId(), newLineageEdgeVersion.getToId(), null);
+
+    VersionHistoryDag dag = this.getDag(dags, newLineageEdgeVersion.getLineageEdgeId());
+    statements.merge(this.postgresLineageEdgeDao.update(dag, newLineageEdgeVersion.getId(), parentIds));
+
+    return statements;
   }
 
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "lineage_edge_version", id));
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "lineage_edge_version"), id);
 
-    PostgresStatements superStatements = super.delete(id);
-    superStatements.merge(statements);
-    return superStatements;
+    statements.merge(super.delete(id));
+    return statements;
   }
 
 
   @Override
   public LineageEdgeVersion retrieveFromDatabase(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_STAR_BY_ID, "lineage_edge_version", id);
-    JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
+    return this.versionCache.get(id, () -> this.load(id));
+  }
+
+  @Override
+  protected Map<Long, LineageEdgeVersion> loadAll(List<Long> ids) throws GroundException {
+    return this.hydrate(SELECT_LINEAGE_EDGE_VERSIONS, this::getLineageEdgeVersion, ids);
+  }
+
+  /**
+   * Stream the lineage edge versions of a lineage graph version in id order, with their tags and
+   * parameters, using one query that is read a page at a time.
+   *
+   * @param lineageGraphVersionId the id of the lineage graph version
+   * @return the lineage graph version's lineage edge versions
+   */
+  public Source<LineageEdgeVersion, NotUsed> streamByLineageGraphVersion(long lineageGraphVersionId) {
+    return PostgresUtils.streamQuery(dbSource, SELECT_LINEAGE_GRAPH_VERSION_EDGE_VERSIONS, this::getLineageEdgeVersion, lineageGraphVersionId);
+  }
+
+  private LineageEdgeVersion getLineageEdgeVersion(ResultSet resultSet) throws SQLException, GroundException {
+    RichVersion richVersion = this.getRichVersion(resultSet);
+
+    return new LineageEdgeVersion(richVersion.getId(), richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(),
+                                   richVersion.getParameters(), resultSet.getLong("from_rich_version_id"), resultSet.getLong("to_rich_version_id"),
+                                   resultSet.getLong("lineage_edge_id"));
+  }
 
-    if (json.size() == 0) {
-      throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
-    }
+  @Override
+  public LineageAdjacency getUpstream(long richVersionId, int maxDepth, int maxFanOut, int maxEdges) throws GroundException {
+    return this.traverse(richVersionId, "to_rich_version_id", "from_id", maxDepth, maxFanOut, maxEdges);
+  }
 
-    LineageEdgeVersion lineageEdgeVersion = Json.fromJson(json.get(0), LineageEdgeVersion.class);
-    RichVersion richVersion = super.retrieveFromDatabase(id);
+  @Override
+  public LineageAdjacency getDownstream(long richVersionId, int maxDepth, int maxFanOut, int maxEdges) throws GroundException {
+    return this.traverse(richVersionId, "from_rich_version_id", "to_id", maxDepth, maxFanOut, maxEdges);
+  }
 
-    return new LineageEdgeVersion(id, richVersion, lineageEdgeVersion);
+  /**
+   * Walk the lineage graph from a rich version in one recursive query. An edge reached at more than
+   * one depth is returned once per depth, so the rows are deduplicated here, and the query is read
+   * only until one distinct edge more than the limit is found, so that a walk that ends exactly at
+   * the limit is not reported as truncated. A rich version with more edges than the fan-out also
+   * marks the walk as truncated.
+   */
+  private LineageAdjacency traverse(long richVersionId, String matchColumn, String nextColumn, int maxDepth, int maxFanOut, int maxEdges)
+    throws GroundException {
+
+    String sql = String.format(SqlConstants.SELECT_LINEAGE, matchColumn, nextColumn);
+    Map<Long, Set<Long>> edges = new LinkedHashMap<>();
+    int[] count = {0};
+    boolean[] truncated = {false};
+
+    PostgresUtils.scanQuery(dbSource, sql, resultSet -> {
+      if (resultSet.getLong(3) > maxFanOut) {
+        truncated[0] = true;
+        return true;
+      }
+
+      Set<Long> toIds = edges.get(resultSet.getLong(1));
+      if (toIds != null && toIds.contains(resultSet.getLong(2))) {
+        return true;
+      }
+
+      if (count[0] == maxEdges) {
+        truncated[0] = true;
+        return false;
+      }
+
+      edges.computeIfAbsent(resultSet.getLong(1), fromId -> new LinkedHashSet<>()).add(resultSet.getLong(2));
+      count[0]++;
+      return true;
+    }, richVersionId, maxFanOut + 1, maxFanOut + 1, maxDepth, maxFanOut);
+
+    Map<Long, List<Long>> adjacency = new LinkedHashMap<>();
+    edges.forEach((fromId, toIds) -> adjacency.put(fromId, new ArrayList<>(toIds)));
+
+    return new LineageAdjacency(richVersionId, adjacency, truncated[0]);
   }
 }
@@ -42,15 +42,8 @@ public class PostgresLineageGraphDao extends PostgresItemDao<LineageGraph> imple
     LineageGraph newLineageGraph = new LineageGraph(uniqueId, lineageGraph);
 
     PostgresStatements statements = super.insert(newLineageGraph);
-
-    String name = lineageGraph.getName();
-    if (name != null) {
-      statements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM_WITH_NAME, "lineage_graph", newLineageGraph.getId(),
-        newLineageGraph.getSourceKey(), name));
-    } else {
-      statements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM_WITHOUT_NAME, "lineage_graph", newLineageGraph.getId(),
-        newLineageGraph.getSourceKey()));
-    }
+    statements.append(String.format(SqlConstants.INSERT_GENERIC_ITEM, "lineage_graph"), newLineageGraph.getId(), newLineageGraph.getSourceKey(),
+      lineageGraph.getName());
 
     try {
       PostgresUtils.executeSqlList(dbSource, statements);
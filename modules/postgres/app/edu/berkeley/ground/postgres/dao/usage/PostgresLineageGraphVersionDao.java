@@ -11,91 +11,119 @@
  */
 package edu.berkeley.ground.postgres.dao.usage;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import edu.berkeley.ground.common.dao.usage.LineageGraphVersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.RichVersion;
+import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
 import edu.berkeley.ground.common.model.usage.LineageGraphVersion;
+import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.dao.core.PostgresRichVersionDao;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import play.db.Database;
-import play.libs.Json;
 
 public class PostgresLineageGraphVersionDao extends PostgresRichVersionDao<LineageGraphVersion> implements LineageGraphVersionDao {
 
+  private static final String SELECT_LINEAGE_GRAPH_VERSIONS = String.format(SqlConstants.SELECT_RICH_VERSIONS, "lineage_graph_version",
+    ", e.edge_ids", String.format(SqlConstants.SELECT_RICH_VERSIONS_EDGE_IDS, "lineage_graph_version_edge", "lineage_graph_version_id",
+      "lineage_edge_version_id"));
+
   private PostgresLineageGraphDao postgresLineageGraphDao;
+  private PostgresLineageEdgeVersionDao postgresLineageEdgeVersionDao;
 
   public PostgresLineageGraphVersionDao(Database dbSource, IdGenerator idGenerator) {
     super(dbSource, idGenerator);
     this.postgresLineageGraphDao = new PostgresLineageGraphDao(dbSource, idGenerator);
+    this.postgresLineageEdgeVersionDao = new PostgresLineageEdgeVersionDao(dbSource, idGenerator);
   }
 
   @Override
-  public LineageGraphVersion create(LineageGraphVersion lineageGraphVersion, List<Long> parentIds)
-    throws GroundException {
-    final long uniqueId = idGenerator.generateVersionId();
-    LineageGraphVersion newLineageGraphVersion = new LineageGraphVersion(uniqueId, lineageGraphVersion);
-
-    PostgresStatements updateVersionList = this.postgresLineageGraphDao
-                                             .update(newLineageGraphVersion.getLineageGraphId(), newLineageGraphVersion.getId(),
-                                               parentIds);
+  protected LineageGraphVersion instantiate(long id, LineageGraphVersion lineageGraphVersion) {
+    return new LineageGraphVersion(id, lineageGraphVersion);
+  }
 
-    try {
-      PostgresStatements statements = super.insert(newLineageGraphVersion);
-      statements.append(String.format(SqlConstants.INSERT_LINEAGE_GRAPH_VERSION, uniqueId, newLineageGraphVersion.getLineageGraphId()));
+  @Override
+  protected PostgresStatements createStatements(LineageGraphVersion newLineageGraphVersion, List<Long> parentIds,
+                                                Map<Long, VersionHistoryDag> dags, Map<Long, LineageGraphVersion> batch)
+    throws GroundException {
 
-      statements.merge(updateVersionList);
+    PostgresStatements statements = super.insert(newLineageGraphVersion, parentIds);
+    statements.append(SqlConstants.INSERT_LINEAGE_GRAPH_VERSION, newLineageGraphVersion.getId(), newLineageGraphVersion.getLineageGraphId());
 
-      for (Long id : newLineageGraphVersion.getLineageEdgeVersionIds()) {
-        statements.append(String.format(SqlConstants.INSERT_LINEAGE_GRAPH_VERSION_EDGE, newLineageGraphVersion.getId(), id));
-      }
+    VersionHistoryDag dag = this.getDag(dags, newLineageGraphVersion.getLineageGraphId());
+    statements.merge(this.postgresLineageGraphDao.update(dag, newLineageGraphVersion.getId(), parentIds));
 
-      PostgresUtils.executeSqlList(dbSource, statements);
-    } catch (Exception e) {
-      throw new GroundException(e);
+    for (Long id : newLineageGraphVersion.getLineageEdgeVersionIds()) {
+      statements.append(SqlConstants.INSERT_LINEAGE_GRAPH_VERSION_EDGE, newLineageGraphVersion.getId(), id);
     }
 
-    return newLineageGraphVersion;
+    return statements;
   }
 
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "lineage_graph_version_edge", "lineage_graph_version_id", id));
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "graph_version", id));
+    statements.append(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "lineage_graph_version_edge", "lineage_graph"), id);
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "lineage_graph_version"), id);
 
-    PostgresStatements superStatements = super.delete(id);
-    superStatements.merge(statements);
-    return superStatements;
+    statements.merge(super.delete(id));
+    return statements;
   }
 
   @Override
   public LineageGraphVersion retrieveFromDatabase(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_STAR_BY_ID, "lineage_graph_version", id);
-    JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
+    return this.versionCache.get(id, () -> this.load(id));
+  }
 
-    if (json.size() == 0) {
+  /**
+   * Stream the ids of a lineage graph version's lineage edge versions in id order. The ids are read a page at a time as
+   * they are consumed, so a lineage graph version with any number of edges can be sent without loading it.
+   *
+   * @param id the id of the lineage graph version
+   * @param afterId only ids greater than this one are returned
+   * @param limit the most ids to return
+   * @return the lineage edge version ids
+   * @throws GroundException the lineage graph version does not exist
+   */
+  public Source<Long, NotUsed> streamEdgeIds(long id, long afterId, long limit) throws GroundException {
+    String sql = String.format(SqlConstants.SELECT_STAR_BY_ID, "lineage_graph_version");
+
+    if (PostgresUtils.executeQuery(dbSource, sql, resultSet -> resultSet.getLong("lineage_graph_id"), id).isEmpty()) {
       throw new GroundException(ExceptionType.VERSION_NOT_FOUND, this.getType().getSimpleName(), String.format("%d", id));
     }
 
-    LineageGraphVersion lineageGraphVersion = Json.fromJson(json.get(0), LineageGraphVersion.class);
-
-    List<Long> edgeIds = new ArrayList<>();
-    sql = String.format(SqlConstants.SELECT_LINEAGE_GRAPH_VERSION_EDGES, id);
+    return PostgresUtils.streamQuery(dbSource, SqlConstants.SELECT_LINEAGE_GRAPH_VERSION_EDGES_PAGE,
+      resultSet -> resultSet.getLong("lineage_edge_version_id"), id, afterId, limit);
+  }
 
-    JsonNode edgeJson = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
-    for (JsonNode edge : edgeJson) {
-      edgeIds.add(edge.get("lineageEdgeVersionId").asLong());
-    }
+  /**
+   * Stream a lineage graph version's lineage edge versions, with their tags, in id order. However
+   * many edges the lineage graph version has, they are read with one query.
+   *
+   * @param id the id of the lineage graph version
+   * @return the lineage edge versions
+   * @throws GroundException the lineage graph version does not exist
+   */
+  public Source<LineageEdgeVersion, NotUsed> streamLineageEdgeVersions(long id) throws GroundException {
+    this.retrieveFromDatabase(id);
+
+    return this.postgresLineageEdgeVersionDao.streamByLineageGraphVersion(id);
+  }
 
-    RichVersion richVersion = super.retrieveFromDatabase(id);
-    return new LineageGraphVersion(id, richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(),
-                                    richVersion.getParameters(), lineageGraphVersion.getLineageGraphId(), edgeIds);
+  @Override
+  protected Map<Long, LineageGraphVersion> loadAll(List<Long> ids) throws GroundException {
+    return this.hydrate(SELECT_LINEAGE_GRAPH_VERSIONS, resultSet -> {
+      RichVersion richVersion = this.getRichVersion(resultSet);
+      return new LineageGraphVersion(richVersion.getId(), richVersion.getTags(), richVersion.getStructureVersionId(), richVersion.getReference(),
+                                      richVersion.getParameters(), resultSet.getLong("lineage_graph_id"),
+                                      PostgresRichVersionDao.getIds(resultSet, "edge_ids"));
+    }, ids);
   }
 }
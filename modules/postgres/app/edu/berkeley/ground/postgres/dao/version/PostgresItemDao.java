@@ -11,7 +11,8 @@
  */
 package edu.berkeley.ground.postgres.dao.version;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import com.google.common.base.CaseFormat;
 import edu.berkeley.ground.common.dao.version.ItemDao;
 import edu.berkeley.ground.common.exception.GroundException;
@@ -19,17 +20,19 @@ import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.version.Item;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.common.model.version.VersionHistoryDag;
+import edu.berkeley.ground.common.model.version.VersionSuccessor;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.util.GroundCache;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import play.db.Database;
-import play.libs.Json;
 
 public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
 
@@ -38,22 +41,34 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
   protected Database dbSource;
   protected IdGenerator idGenerator;
 
+  // items never change once created, so they and their source keys stay cached
+  private final GroundCache<Long, T> itemCache;
+  private final GroundCache<String, Long> sourceKeyCache;
+
+  // the leaves and history of each item, by item id; invalidated whenever a write to the item commits
+  private final GroundCache<Long, List<Long>> leavesCache;
+  private final GroundCache<Long, Map<Long, Long>> historyCache;
+
   public PostgresItemDao(Database dbSource, IdGenerator idGenerator) {
     this.dbSource = dbSource;
     this.idGenerator = idGenerator;
     this.postgresVersionHistoryDagDao = new PostgresVersionHistoryDagDao(dbSource, idGenerator);
     this.postgresTagDao = new PostgresTagDao(dbSource);
+
+    String type = CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, this.getType().getSimpleName());
+    this.itemCache = GroundCache.namespace(type);
+    this.sourceKeyCache = GroundCache.namespace(type + "_source_key");
+    this.leavesCache = GroundCache.namespace(type + "_leaves");
+    this.historyCache = GroundCache.namespace(type + "_history");
   }
 
   @Override
   public PostgresStatements insert(final T item) throws GroundException {
     long id = item.getId();
 
-    final List<String> sqlList = new ArrayList<>();
-    sqlList.add(String.format(SqlConstants.INSERT_ITEM, id));
-
     final Map<String, Tag> tags = item.getTags();
-    PostgresStatements postgresStatements = new PostgresStatements(sqlList);
+    PostgresStatements postgresStatements = new PostgresStatements();
+    postgresStatements.append(SqlConstants.INSERT_ITEM, id);
 
     if (tags != null) {
       for (String key : tags.keySet()) {
@@ -62,49 +77,115 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
       }
     }
 
-    return new PostgresStatements(sqlList);
+    return postgresStatements;
   }
 
   @Override
   public T retrieveFromDatabase(String sourceKey) throws GroundException {
-    return this.retrieve(String.format(SqlConstants.SELECT_STAR_BY_SOURCE_KEY, CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE,
-      this.getType().getSimpleName()), sourceKey), sourceKey);
+    long id = this.sourceKeyCache.get(sourceKey, () -> {
+      T item = this.retrieve(String.format(SqlConstants.SELECT_STAR_BY_SOURCE_KEY, CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE,
+        this.getType().getSimpleName())), sourceKey);
+      this.itemCache.put(item.getId(), item);
+
+      return item.getId();
+    });
+
+    return this.retrieveFromDatabase(id);
   }
 
   @Override
   public T retrieveFromDatabase(long id) throws GroundException {
-    return this.retrieve(String.format(SqlConstants.SELECT_STAR_ITEM_BY_ID, CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE,
-      this.getType().getSimpleName()), id), id);
+    return this.itemCache.get(id, () -> this.retrieve(String.format(SqlConstants.SELECT_STAR_ITEM_BY_ID,
+      CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, this.getType().getSimpleName())), id));
   }
 
   @Override
   public List<Long> getLeaves(long itemId) throws GroundException {
-    try {
-      VersionHistoryDag dag = this.postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
+    return this.leavesCache.get(itemId, () -> {
+      try {
+        VersionHistoryDag dag = this.postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
 
-      return dag.getLeaves();
-    } catch (GroundException e) {
-      if (!e.getMessage().contains("No results found for query:")) {
-        throw e;
+        return Collections.unmodifiableList(dag.getLeaves());
+      } catch (GroundException e) {
+        if (!e.getMessage().contains("No results found for query:")) {
+          throw e;
+        }
+
+        return Collections.emptyList();
       }
+    });
+  }
 
-      return new ArrayList<>();
-    }
+  /**
+   * Get the leaves of several items at once. Source keys and leaves that are not cached are
+   * resolved with one query each, however many items are asked for.
+   *
+   * @param sourceKeys the source keys of the items
+   * @return the leaves of each item that exists, by source key
+   * @throws GroundException an error retrieving the leaves
+   */
+  public Map<String, List<Long>> getLeaves(List<String> sourceKeys) throws GroundException {
+    Map<String, Long> itemIds = this.sourceKeyCache.getAll(sourceKeys, missing -> {
+      String sql = String.format(SqlConstants.SELECT_ITEM_IDS_BY_SOURCE_KEYS, CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE,
+        this.getType().getSimpleName()));
+
+      List<Object[]> rows = PostgresUtils.executeQuery(dbSource, sql, resultSet ->
+        new Object[] {resultSet.getString("source_key"), resultSet.getLong("item_id")}, missing);
+
+      Map<String, Long> found = new HashMap<>();
+      rows.forEach(row -> found.put((String) row[0], (Long) row[1]));
+
+      return found;
+    });
+
+    Map<Long, List<Long>> leaves = this.leavesCache.getAll(itemIds.values(), missing -> {
+      List<long[]> rows = PostgresUtils.executeQuery(dbSource, SqlConstants.SELECT_VERSION_HISTORY_DAG_LEAVES, resultSet ->
+        new long[] {resultSet.getLong(1), resultSet.getLong(2)}, missing);
+
+      // an item without any versions has no rows, and keeps an empty list
+      Map<Long, List<Long>> found = new HashMap<>();
+      missing.forEach(itemId -> found.put(itemId, new ArrayList<>()));
+      rows.forEach(row -> found.get(row[0]).add(row[1]));
+
+      found.replaceAll((itemId, itemLeaves) -> Collections.unmodifiableList(itemLeaves));
+      return found;
+    });
+
+    Map<String, List<Long>> results = new HashMap<>();
+    itemIds.forEach((sourceKey, itemId) -> results.put(sourceKey, leaves.get(itemId)));
+
+    return results;
   }
 
   @Override
   public Map<Long, Long> getHistory(long itemId) throws GroundException {
-    try {
-      VersionHistoryDag dag = this.postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
+    return this.historyCache.get(itemId, () -> {
+      try {
+        VersionHistoryDag dag = this.postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
 
-      return dag.getParentChildPairs();
-    } catch (GroundException e) {
-      if (!e.getMessage().contains("No results found for query:")) {
-        throw e;
+        return Collections.unmodifiableMap(dag.getParentChildPairs());
+      } catch (GroundException e) {
+        if (!e.getMessage().contains("No results found for query:")) {
+          throw e;
+        }
+
+        return Collections.emptyMap();
       }
+    });
+  }
 
-      return new HashMap<>();
-    }
+  /**
+   * Stream every edge of an item's version history in successor id order, including every child of
+   * a version with more than one. The edges are read a page at a time as they are consumed.
+   *
+   * @param itemId the id of the item
+   * @param afterId only edges whose successor id is greater than this one are returned
+   * @param limit the most edges to return
+   * @return the edges of the item's history
+   */
+  public Source<VersionSuccessor, NotUsed> streamHistory(long itemId, long afterId, long limit) {
+    return PostgresUtils.streamQuery(dbSource, SqlConstants.SELECT_VERSION_HISTORY_DAG_EDGES_PAGE, resultSet ->
+      new VersionSuccessor(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3)), itemId, afterId, limit);
   }
 
   /**
@@ -118,22 +199,38 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
    */
   @Override
   public PostgresStatements update(long itemId, long childId, List<Long> parentIds) throws GroundException {
+    VersionHistoryDag dag = this.postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
+
+    return this.update(dag, childId, parentIds);
+  }
+
+  /**
+   * Add a new Version to an Item whose DAG has already been loaded. Every parent is checked before
+   * the DAG is modified, so a rejected version leaves the DAG as it was.
+   *
+   * @param dag the DAG of the Item we're updating
+   * @param childId the new version's id
+   * @param parentIds the ids of the parents of the child
+   */
+  public PostgresStatements update(VersionHistoryDag dag, long childId, List<Long> parentIds) throws GroundException {
 
     if (parentIds.isEmpty()) {
       parentIds.add(0L);
     }
 
-    VersionHistoryDag dag = this.postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
-    PostgresStatements statements = new PostgresStatements();
-
     for (long parentId : parentIds) {
       if (parentId != 0L && !dag.checkItemInDag(parentId)) {
-        throw new GroundException(ExceptionType.OTHER, String.format("Parent %d is not in Item %d.", parentId, itemId));
+        throw new GroundException(ExceptionType.OTHER, String.format("Parent %d is not in Item %d.", parentId, dag.getItemId()));
       }
+    }
 
-      statements.merge(this.postgresVersionHistoryDagDao.addEdge(dag, parentId, childId, itemId));
+    PostgresStatements statements = new PostgresStatements();
+
+    for (long parentId : parentIds) {
+      statements.merge(this.postgresVersionHistoryDagDao.addEdge(dag, parentId, childId, dag.getItemId()));
     }
 
+    statements.onCommit(() -> this.invalidate(dag.getItemId()));
     return statements;
   }
 
@@ -147,23 +244,30 @@ public abstract class PostgresItemDao<T extends Item> implements ItemDao<T> {
   public void truncate(long itemId, int numLevels) throws GroundException {
     VersionHistoryDag dag;
     dag = postgresVersionHistoryDagDao.retrieveFromDatabase(itemId);
-    this.postgresVersionHistoryDagDao.truncate(dag, numLevels, this.getType());
+
+    try {
+      this.postgresVersionHistoryDagDao.truncate(dag, numLevels, this.getType());
+    } finally {
+      this.invalidate(itemId);
+    }
+  }
+
+  private void invalidate(long itemId) {
+    this.leavesCache.invalidate(itemId);
+    this.historyCache.invalidate(itemId);
   }
 
   protected T retrieve(String sql, Object field) throws GroundException {
-    JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
+    List<Object[]> rows = PostgresUtils.executeQuery(dbSource, sql, resultSet ->
+      new Object[] {resultSet.getLong("item_id"), resultSet.getString("name"), resultSet.getString("source_key"), null}, field);
 
-    if (json.size() == 0) {
+    if (rows.isEmpty()) {
       throw new GroundException(ExceptionType.ITEM_NOT_FOUND, this.getType().getSimpleName(), field.toString());
     }
 
     Class<T> type = this.getType();
-    JsonNode itemJson = json.get(0);
-    long id = itemJson.get("itemId").asLong();
-    String name = itemJson.get("name").asText();
-    String sourceKey = itemJson.get("sourceKey").asText();
-
-    Object[] args = {id, name, sourceKey, this.postgresTagDao.retrieveFromDatabaseByItemId(id)};
+    Object[] args = rows.get(0);
+    args[3] = this.postgresTagDao.retrieveFromDatabaseByItemId((long) args[0]);
 
     Constructor<T> constructor;
     try {
@@ -16,12 +16,12 @@ import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.TagPredicate;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
-import java.sql.Connection;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -38,100 +38,196 @@ public class PostgresTagDao implements TagDao {
 
   @Override
   public PostgresStatements insertItemTag(final Tag tag) {
-    List<String> sqlList = new ArrayList<>();
-    if (tag.getValue() != null) {
-      sqlList.add(String.format(SqlConstants.INSERT_ITEM_TAG_WITH_VALUE, tag.getId(), tag.getKey(), tag.getValue(), tag.getValueType()));
-    } else {
-      sqlList.add(
-        String.format(SqlConstants.INSERT_ITEM_TAG_NO_VALUE, tag.getId(), tag.getKey()));
-    }
-    return new PostgresStatements(sqlList);
+    return this.insertTag(SqlConstants.INSERT_ITEM_TAG, tag);
   }
 
   @Override
   public PostgresStatements insertRichVersionTag(final Tag tag) {
-    List<String> sqlList = new ArrayList<>();
+    return this.insertTag(SqlConstants.INSERT_RICH_VERSION_TAG, tag);
+  }
+
+  private PostgresStatements insertTag(String sql, Tag tag) {
+    PostgresStatements statements = new PostgresStatements();
+
     if (tag.getValue() != null) {
-      sqlList.add(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_WITH_VALUE, tag.getId(), tag.getKey(), tag.getValue(), tag.getValueType()));
+      // integer and long values are also stored as a bigint so they can be searched by range
+      Long longValue = tag.getValue() instanceof Number ? ((Number) tag.getValue()).longValue() : null;
+
+      statements.append(sql, tag.getId(), tag.getKey(), tag.getValue().toString(), tag.getValueType().toString(), longValue);
     } else {
-      sqlList.add(String.format(SqlConstants.INSERT_RICH_VERSION_TAG_NO_VALUE, tag.getId(), tag.getKey()));
+      statements.append(sql, tag.getId(), tag.getKey(), null, null, null);
     }
 
-    return new PostgresStatements(sqlList);
+    return statements;
+  }
+
+  /**
+   * Turn the rich versions whose tags are deltas against any of the given versions into snapshots,
+   * so that their tags no longer depend on those versions.
+   *
+   * @param baseIds the versions the deltas are based on
+   * @param excludedIds versions to leave as they are, such as ones that are about to be deleted
+   * @return the statements to execute
+   */
+  public PostgresStatements snapshotRichVersionTags(List<Long> baseIds, List<Long> excludedIds) {
+    PostgresStatements statements = new PostgresStatements();
+    statements.append(SqlConstants.INSERT_RICH_VERSION_TAGS_OF_DELTAS, baseIds, excludedIds);
+    statements.append(SqlConstants.DELETE_RICH_VERSION_TAG_REMOVALS_OF_DELTAS, baseIds, excludedIds);
+    statements.append(SqlConstants.UPDATE_RICH_VERSION_DELTAS_TO_SNAPSHOTS, baseIds, excludedIds);
+
+    return statements;
   }
 
   @Override
   public Map<String, Tag> retrieveFromDatabaseByVersionId(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_RICH_VERSION_TAGS, id);
-    return this.retrieveFromDatabaseById(id, sql);
+    return this.retrieveFromDatabaseById(id, SqlConstants.SELECT_RICH_VERSION_TAGS);
   }
 
   @Override
   public Map<String, Tag> retrieveFromDatabaseByItemId(long id) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_ITEM_TAGS, id);
-    return this.retrieveFromDatabaseById(id, sql);
+    return this.retrieveFromDatabaseById(id, SqlConstants.SELECT_ITEM_TAGS);
   }
 
   private Map<String, Tag> retrieveFromDatabaseById(long id, String sql) throws GroundException {
-    Map<String, Tag> results = new HashMap<>();
-
-    try {
-      Connection con = this.dbSource.getConnection();
-      Statement stmt = con.createStatement();
+    List<Tag> tags = PostgresUtils.executeQuery(this.dbSource, sql, resultSet -> this.getTag(id, resultSet), id);
 
-      ResultSet resultSet = stmt.executeQuery(sql);
+    Map<String, Tag> results = new HashMap<>();
+    tags.forEach(tag -> results.put(tag.getKey(), tag));
 
-      while (resultSet.next()) {
-        String key = resultSet.getString(2);
+    return results;
+  }
 
-        // these methods will return null if the input is null, so there's no need to check
-        GroundType type = GroundType.fromString(resultSet.getString(4));
-        Object value = this.getValue(type, resultSet, 3);
+  /**
+   * Build a rich version's tags from the parallel arrays a hydration query aggregates them into.
+   *
+   * @param id the id of the rich version
+   * @param keys the tags' keys
+   * @param values the tags' values, as stored
+   * @param types the tags' types, as stored
+   * @return the tags, by key
+   * @throws GroundException a tag has an unknown type
+   */
+  public Map<String, Tag> getTags(long id, String[] keys, String[] values, String[] types) throws GroundException {
+    Map<String, Tag> results = new HashMap<>();
 
-        results.put(key, new Tag(id, key, value, type));
-      }
+    for (int i = 0; i < keys.length; i++) {
+      // a tag without a value has no type either
+      GroundType type = GroundType.fromString(types[i]);
+      Object value = type == null ? null : type.parse(values[i]);
 
-      stmt.close();
-      con.close();
-    } catch (SQLException e) {
-      throw new GroundException(e);
+      results.put(keys[i], new Tag(id, keys[i], value, type));
     }
 
     return results;
   }
 
+  private Tag getTag(long id, ResultSet resultSet) throws GroundException, SQLException {
+    String key = resultSet.getString("key");
+
+    // these methods will return null if the input is null, so there's no need to check
+    GroundType type = GroundType.fromString(resultSet.getString("type"));
+    Object value = this.getValue(type, resultSet, "value");
+
+    return new Tag(id, key, value, type);
+  }
+
   @Override
   public List<Long> getVersionIdsByTag(String tag) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_RICH_VERSION_TAGS_BY_KEY, tag);
-    return this.getIdsByTag(sql);
+    // the key is bound once to find the versions that store it, and twice to follow their deltas;
+    // every version is past the smallest cursor
+    return PostgresUtils.executeQuery(this.dbSource, SqlConstants.SELECT_RICH_VERSION_TAGS_BY_KEY, resultSet -> resultSet.getLong(1), tag,
+      Long.MIN_VALUE, Long.MIN_VALUE, tag, tag);
   }
 
   @Override
   public List<Long> getItemIdsByTag(String tag) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_ITEM_TAGS_BY_KEY, tag);
-    return this.getIdsByTag(sql);
+    return this.getIdsByTag(SqlConstants.SELECT_ITEM_TAGS_BY_KEY, tag);
+  }
+
+  private List<Long> getIdsByTag(String sql, String tag) throws GroundException {
+    return PostgresUtils.executeQuery(this.dbSource, sql, resultSet -> resultSet.getLong(1), tag);
   }
 
-  private List<Long> getIdsByTag(String sql) throws GroundException {
-    List<Long> result = new ArrayList<>();
+  @Override
+  public List<Long> searchVersionIds(List<TagPredicate> predicates, long afterId, int limit) throws GroundException {
+    if (predicates.isEmpty()) {
+      throw new GroundException(ExceptionType.OTHER, "A search needs at least one tag predicate.");
+    }
+
+    // a version can inherit a matching tag, so each predicate finds its versions with a recursive
+    // query of its own, and the first is joined to the rest on the id
+    List<String> holders = new ArrayList<>();
+    StringBuilder joins = new StringBuilder();
+    List<Object> args = new ArrayList<>();
 
-    try {
-      Connection con = this.dbSource.getConnection();
-      Statement stmt = con.createStatement();
-      ResultSet resultSet = stmt.executeQuery(sql);
+    for (int i = 0; i < predicates.size(); i++) {
+      TagPredicate predicate = predicates.get(i);
+      holders.add(String.format(SqlConstants.SEARCH_RICH_VERSION_TAGS_HOLDERS, i, PostgresTagDao.toSql(0, predicate)));
 
-      while (resultSet.next()) {
-        result.add(resultSet.getLong(1));
+      if (i > 0) {
+        joins.append(String.format(SqlConstants.SEARCH_RICH_VERSION_TAGS_JOIN, i));
       }
 
-    } catch (SQLException e) {
-      throw new GroundException(e);
+      args.add(predicate.getKey());
+      args.add(predicate.getValue());
+      args.add(afterId);
+      args.add(afterId);
+      args.add(predicate.getKey());
+      args.add(predicate.getKey());
     }
 
-    return result;
+    String sql = String.format(SqlConstants.SEARCH_RICH_VERSION_TAGS, String.join(", ", holders), joins);
+    args.add(afterId);
+    args.add(limit);
+
+    return PostgresUtils.executeQuery(this.dbSource, sql, resultSet -> resultSet.getLong(1), args.toArray());
+  }
+
+  @Override
+  public List<Long> searchItemIds(List<TagPredicate> predicates, long afterId, int limit) throws GroundException {
+    return this.search("item_tag", "item_id", predicates, afterId, limit);
+  }
+
+  /**
+   * Find the ids that satisfy every predicate with a single query. Each predicate after the first
+   * joins another copy of the tag table on the id, so the database intersects them using the (key,
+   * value) and (key, long_value) indexes, and the page after afterId is read in id order.
+   */
+  private List<Long> search(String table, String idColumn, List<TagPredicate> predicates, long afterId, int limit)
+    throws GroundException {
+
+    if (predicates.isEmpty()) {
+      throw new GroundException(ExceptionType.OTHER, "A search needs at least one tag predicate.");
+    }
+
+    StringBuilder joins = new StringBuilder();
+    List<Object> joinArgs = new ArrayList<>();
+
+    for (int i = 1; i < predicates.size(); i++) {
+      joins.append(String.format(SqlConstants.SEARCH_TAGS_JOIN, table, idColumn, i, PostgresTagDao.toSql(i, predicates.get(i))));
+      joinArgs.add(predicates.get(i).getKey());
+      joinArgs.add(predicates.get(i).getValue());
+    }
+
+    TagPredicate first = predicates.get(0);
+    String sql = String.format(SqlConstants.SEARCH_TAGS, idColumn, table, joins, PostgresTagDao.toSql(0, first));
+
+    List<Object> args = new ArrayList<>(joinArgs);
+    args.add(first.getKey());
+    args.add(first.getValue());
+    args.add(afterId);
+    args.add(limit);
+
+    return PostgresUtils.executeQuery(this.dbSource, sql, resultSet -> resultSet.getLong(1), args.toArray());
+  }
+
+  private static String toSql(int alias, TagPredicate predicate) {
+    String column = predicate.getOperator().isRange() ? "long_value" : "value";
+
+    return String.format(SqlConstants.SEARCH_TAGS_PREDICATE, alias, column, predicate.getOperator().getSymbol());
   }
 
-  private Object getValue(GroundType type, ResultSet resultSet, int index)
+  private Object getValue(GroundType type, ResultSet resultSet, String column)
     throws GroundException, SQLException {
 
     if (type == null) {
@@ -140,13 +236,13 @@ public class PostgresTagDao implements TagDao {
 
     switch (type) {
       case STRING:
-        return resultSet.getString(index);
+        return resultSet.getString(column);
       case INTEGER:
-        return resultSet.getInt(index);
+        return resultSet.getInt(column);
       case LONG:
-        return resultSet.getLong(index);
+        return resultSet.getLong(column);
       case BOOLEAN:
-        return resultSet.getBoolean(index);
+        return resultSet.getBoolean(column);
       default:
         // this should never happen because we've listed all types
         throw new GroundException(ExceptionType.OTHER, String.format("Unidentified type: %s", type));
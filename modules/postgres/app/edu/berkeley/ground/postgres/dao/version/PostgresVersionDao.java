@@ -11,12 +11,18 @@
  */
 package edu.berkeley.ground.postgres.dao.version;
 
+import com.google.common.base.CaseFormat;
 import edu.berkeley.ground.common.dao.version.VersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.version.Version;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.util.GroundCache;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import play.db.Database;
 
 public abstract class PostgresVersionDao<T extends Version> implements VersionDao<T> {
@@ -24,24 +30,74 @@ public abstract class PostgresVersionDao<T extends Version> implements VersionDa
   protected Database dbSource;
   protected IdGenerator idGenerator;
 
+  // versions do not change once written, so they stay cached until they are deleted
+  protected final GroundCache<Long, T> versionCache;
+
   public PostgresVersionDao(Database dbSource, IdGenerator idGenerator) {
     this.dbSource = dbSource;
     this.idGenerator = idGenerator;
+    this.versionCache = GroundCache.namespace(CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, this.getType().getSimpleName()));
   }
 
   @Override
   public PostgresStatements insert(T version) throws GroundException {
     PostgresStatements statements = new PostgresStatements();
 
-    statements.append(String.format(SqlConstants.INSERT_VERSION, version.getId()));
+    statements.append(SqlConstants.INSERT_VERSION, version.getId());
     return statements;
   }
 
   @Override
   public PostgresStatements delete(long id) {
     PostgresStatements statements = new PostgresStatements();
-    statements.append(String.format(SqlConstants.DELETE_BY_ID, "version", id));
+    statements.append(String.format(SqlConstants.DELETE_BY_ID, "version"), id);
+    statements.onCommit(() -> this.evict(id));
 
     return statements;
   }
+
+  /**
+   * Retrieve several versions at once. Cached versions are reused and all of the others are loaded
+   * together, so the number of queries does not depend on the number of ids.
+   *
+   * @param ids the ids of the versions
+   * @return the versions that exist, by id; ids with no version are left out
+   * @throws GroundException an error loading the versions
+   */
+  public Map<Long, T> retrieveAll(List<Long> ids) throws GroundException {
+    return this.versionCache.getAll(ids, this::loadAll);
+  }
+
+  /**
+   * Load several versions that are not cached. By default they are loaded one at a time, so
+   * subclasses override this to load them with set-based queries.
+   *
+   * @param ids the ids of the versions, with no duplicates
+   * @return the versions that exist, by id
+   * @throws GroundException an error loading the versions
+   */
+  protected Map<Long, T> loadAll(List<Long> ids) throws GroundException {
+    Map<Long, T> versions = new HashMap<>();
+
+    for (long id : ids) {
+      try {
+        versions.put(id, this.getType().cast(this.retrieveFromDatabase(id)));
+      } catch (GroundException e) {
+        if (e.getExceptionType() != ExceptionType.VERSION_NOT_FOUND) {
+          throw e;
+        }
+      }
+    }
+
+    return versions;
+  }
+
+  /**
+   * Drop a deleted version from the cache.
+   *
+   * @param id the id of the deleted version
+   */
+  public void evict(long id) {
+    this.versionCache.invalidate(id);
+  }
 }
@@ -13,6 +13,7 @@
  */
 package edu.berkeley.ground.postgres.dao.version;
 
+import edu.berkeley.ground.common.dao.version.VersionDao;
 import edu.berkeley.ground.common.dao.version.VersionHistoryDagDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.version.Item;
@@ -23,9 +24,12 @@ import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.util.GroundUtils;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.QueryMetrics;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.Statement;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -34,7 +38,10 @@ import play.db.Database;
 
 public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
 
+  private static final int DAG_FETCH_SIZE = 1000;
+
   private PostgresVersionSuccessorDao postgresVersionSuccessorDao;
+  private PostgresTagDao postgresTagDao;
   private Database dbSource;
   private IdGenerator idGenerator;
 
@@ -43,6 +50,7 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
     this.idGenerator = idGenerator;
 
     this.postgresVersionSuccessorDao = new PostgresVersionSuccessorDao(this.dbSource, this.idGenerator);
+    this.postgresTagDao = new PostgresTagDao(this.dbSource);
   }
 
   @Override
@@ -51,7 +59,8 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
   }
 
   /**
-   * Retrieve a DAG from the database.
+   * Retrieve a DAG, from the shared VersionHistoryDagCache if it holds the item and otherwise from
+   * the database. The returned DAG is a private copy that the caller may modify.
    *
    * @param itemId the id of the item whose dag we are retrieving
    * @return the retrieved DAG
@@ -59,30 +68,52 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
    */
   @Override
   public VersionHistoryDag retrieveFromDatabase(long itemId) throws GroundException {
-    String sql = String.format(SqlConstants.SELECT_VERSION_HISTORY_DAG, itemId);
+    return VersionHistoryDagCache.get(itemId, () -> this.load(itemId));
+  }
 
-    List<VersionSuccessor> edges = new ArrayList<>();
-    try (Connection con = dbSource.getConnection()) {
+  /**
+   * Load a DAG from the database. All of the item's version successors are read with a single
+   * join, and the rows are streamed into the DAG through a cursor rather than buffered first.
+   *
+   * @param itemId the id of the item whose dag we are loading
+   * @return the loaded DAG
+   * @throws GroundException an error loading the DAG
+   */
+  private VersionHistoryDag load(long itemId) throws GroundException {
+    VersionHistoryDag dag = new VersionHistoryDag(itemId, new ArrayList<>());
 
-      Statement stmt = con.createStatement();
-      final ResultSet resultSet = stmt.executeQuery(sql);
+    try (UnitOfWork.Lease lease = UnitOfWork.lease(dbSource)) {
+      Connection con = lease.getConnection();
+      long executeStart = System.nanoTime();
+      int rows = 0;
 
-      List<Long> successors = new ArrayList<>();
-      while (resultSet.next()) {
-        successors.add(resultSet.getLong("version_successor_id"));
-      }
+      boolean autoCommit = con.getAutoCommit();
+
+      // the Postgres driver only honors the fetch size outside of autocommit mode
+      con.setAutoCommit(false);
 
-      stmt.close();
-      con.close();
+      try (PreparedStatement stmt = con.prepareStatement(SqlConstants.SELECT_VERSION_HISTORY_DAG_EDGES)) {
+        stmt.setLong(1, itemId);
+        stmt.setFetchSize(DAG_FETCH_SIZE);
 
-      for (Long versionSuccessorId : successors) {
-        VersionSuccessor versionSuccessor = postgresVersionSuccessorDao.retrieveFromDatabase(versionSuccessorId);
-        edges.add(versionSuccessor);
+        try (ResultSet resultSet = stmt.executeQuery()) {
+          while (resultSet.next()) {
+            dag.addEdge(resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(1));
+            rows++;
+          }
+        }
+      } finally {
+        // the connection may be shared with the rest of a unit of work, or be in its transaction
+        con.setAutoCommit(autoCommit);
       }
-    } catch (Exception e) {
+
+      QueryMetrics.record(SqlConstants.SELECT_VERSION_HISTORY_DAG_EDGES, new Object[] {itemId}, lease.getConnectionWait(),
+        System.nanoTime() - executeStart, rows);
+    } catch (SQLException e) {
       throw new GroundException(e);
     }
-    return new VersionHistoryDag(itemId, edges);
+
+    return dag;
   }
 
   /**
@@ -100,13 +131,16 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
     dag.addEdge(parentId, childId, successor.getId());
 
     PostgresStatements statements = postgresVersionSuccessorDao.insert(successor);
-    statements.append(String.format(SqlConstants.INSERT_VERSION_HISTORY_DAG_EDGE, itemId, successor.getId()));
+    statements.append(SqlConstants.INSERT_VERSION_HISTORY_DAG_EDGE, itemId, successor.getId());
+    statements.onCommit(() -> VersionHistoryDagCache.addEdge(itemId, parentId, childId, successor.getId()));
     return statements;
   }
 
 
   /**
-   * Truncate the DAG to only have a certain number of levels, removing everything before that.
+   * Truncate the DAG to only have a certain number of levels, removing everything before that. The
+   * kept versions whose tags are deltas against a removed version are first turned into snapshots,
+   * and the removed versions are deleted only once every successor pointing at them is gone.
    *
    * @param dag the DAG to truncate
    * @param numLevels the number of levels to keep
@@ -131,13 +165,14 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
 
     List<Long> deleteQueue = new ArrayList<>(new HashSet<>(previousLevel));
     Set<Long> deleted = new HashSet<>();
+    VersionDao<?> versionDao = GroundUtils.getVersionDaoFromItemType(itemType, this.dbSource, this.idGenerator);
 
     PostgresStatements statements = new PostgresStatements();
+    PostgresStatements versionDeletes = new PostgresStatements();
 
     // delete the version successors between the last kept level and the first deleted level
     for (long id : lastLevel) {
       this.postgresVersionSuccessorDao.deleteFromDestination(statements, id, dag.getItemId());
-      this.addEdge(dag, 0, id, dag.getItemId());
     }
 
     while (deleteQueue.size() > 0) {
@@ -145,7 +180,7 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
 
       if (id != 0) {
         this.postgresVersionSuccessorDao.deleteFromDestination(statements, id, dag.getItemId());
-        GroundUtils.getVersionDaoFromItemType(itemType, this.dbSource, this.idGenerator).delete(id);
+        versionDeletes.merge(versionDao.delete(id));
 
         deleted.add(id);
         List<Long> parents = dag.getParent(id);
@@ -164,6 +199,17 @@ public class PostgresVersionHistoryDagDao implements VersionHistoryDagDao {
       statements.merge(this.addEdge(dag, 0, id, dag.getItemId()));
     }
 
-    PostgresUtils.executeSqlList(dbSource, statements);
+    // deleting a version also evicts it from its DAO's cache once the deletion commits
+    statements.merge(versionDeletes);
+
+    List<Long> deletedIds = new ArrayList<>(deleted);
+    PostgresStatements truncateStatements = this.postgresTagDao.snapshotRichVersionTags(deletedIds, deletedIds);
+    truncateStatements.merge(statements);
+
+    try {
+      PostgresUtils.executeSqlList(dbSource, truncateStatements);
+    } finally {
+      VersionHistoryDagCache.invalidate(dag.getItemId());
+    }
   }
 }
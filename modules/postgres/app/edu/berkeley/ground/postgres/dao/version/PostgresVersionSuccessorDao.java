@@ -14,7 +14,6 @@
 
 package edu.berkeley.ground.postgres.dao.version;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import edu.berkeley.ground.common.dao.version.VersionSuccessorDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
@@ -24,11 +23,15 @@ import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.SqlConstants;
 import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.RowMapper;
+import java.util.List;
 import play.db.Database;
-import play.libs.Json;
 
 public class PostgresVersionSuccessorDao implements VersionSuccessorDao {
 
+  private static final RowMapper<VersionSuccessor> SUCCESSOR_MAPPER = resultSet ->
+    new VersionSuccessor(resultSet.getLong("id"), resultSet.getLong("from_version_id"), resultSet.getLong("to_version_id"));
+
   private final IdGenerator idGenerator;
   private final Database dbSource;
 
@@ -46,8 +49,7 @@ public class PostgresVersionSuccessorDao implements VersionSuccessorDao {
   @Override
   public PostgresStatements insert(VersionSuccessor successor) {
     PostgresStatements statements = new PostgresStatements();
-    String sql = String.format(SqlConstants.INSERT_VERSION_SUCCESSOR, successor.getId(), successor.getFromId(), successor.getToId());
-    statements.append(sql);
+    statements.append(SqlConstants.INSERT_VERSION_SUCCESSOR, successor.getId(), successor.getFromId(), successor.getToId());
 
     return statements;
   }
@@ -74,15 +76,13 @@ public class PostgresVersionSuccessorDao implements VersionSuccessorDao {
   @Override
   public VersionSuccessor retrieveFromDatabase(long dbId) throws GroundException {
     try {
-      String sql = String.format(SqlConstants.SELECT_VERSION_SUCCESSOR, dbId);
-      JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
+      List<VersionSuccessor> successors = PostgresUtils.executeQuery(dbSource, SqlConstants.SELECT_VERSION_SUCCESSOR, SUCCESSOR_MAPPER, dbId);
 
-      if (json.size() == 0) {
+      if (successors.isEmpty()) {
         throw new GroundException(ExceptionType.OTHER, String.format("Version Successor with id %d does not exist.", dbId));
       }
 
-      json = json.get(0);
-      return new VersionSuccessor(dbId, json.get("fromVersionId").asLong(), json.get("toVersionId").asLong());
+      return successors.get(0);
     } catch (Exception e) {
       throw new GroundException(e);
     }
@@ -102,14 +102,14 @@ public class PostgresVersionSuccessorDao implements VersionSuccessorDao {
     PostgresStatements statements = (PostgresStatements) statementsPointer;
 
     try {
-      String sql = String.format(SqlConstants.SELECT_VERSION_SUCCESSOR_BY_ENDPOINT, toId);
-      JsonNode json = Json.parse(PostgresUtils.executeQueryToJson(dbSource, sql));
+      List<VersionSuccessor> successors = PostgresUtils.executeQuery(dbSource, SqlConstants.SELECT_VERSION_SUCCESSOR_BY_ENDPOINT, SUCCESSOR_MAPPER,
+        toId);
 
-      for (JsonNode result : json) {
-        Long dbId = result.get("id").asLong();
+      for (VersionSuccessor successor : successors) {
+        long dbId = successor.getId();
 
-        statements.append(String.format(SqlConstants.DELETE_SUCCESSOR_FROM_DAG, dbId));
-        statements.append(String.format(SqlConstants.DELETE_VERSION_SUCCESSOR, dbId));
+        statements.append(SqlConstants.DELETE_SUCCESSOR_FROM_DAG, dbId);
+        statements.append(SqlConstants.DELETE_VERSION_SUCCESSOR, dbId);
       }
     } catch (Exception e) {
       throw new GroundException(e);
@@ -0,0 +1,153 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.dao.version;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.version.VersionHistoryDag;
+import edu.berkeley.ground.postgres.util.KeyGenerations;
+import edu.berkeley.ground.postgres.util.SingleFlight;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
+
+/**
+ * A process-wide cache of version history DAGs, keyed by item id and bounded by the total number
+ * of edges it holds.
+ *
+ * <p>Cached DAGs are never handed out directly; callers get a copy they are free to modify. New
+ * edges are applied to the cached DAG only once the transaction that wrote them has committed, so a
+ * rolled back write never shows up in the cache. A DAG loaded from the database while a write to
+ * the same item commits may be missing that write, so it is only cached if no write to the item has
+ * committed since the load began. Concurrent misses of the same item share one load.
+ */
+public final class VersionHistoryDagCache {
+
+  private static final long MAXIMUM_EDGES = 10_000_000L;
+
+  private static final Cache<Long, VersionHistoryDag> cache = CacheBuilder.newBuilder()
+                                                                .maximumWeight(MAXIMUM_EDGES)
+                                                                .weigher((Long itemId, VersionHistoryDag dag) -> dag.getEdgeIds().size() + 1)
+                                                                .recordStats()
+                                                                .build();
+
+  // moved on every time a committed write changes a DAG; guarded by the class lock
+  private static final KeyGenerations<Long> generations = new KeyGenerations<>();
+
+  // the DAGs shared between concurrent loads are never handed out either, only copies of them
+  private static final SingleFlight<Long, VersionHistoryDag> flights = new SingleFlight<>();
+
+  private VersionHistoryDagCache() {
+  }
+
+  @FunctionalInterface
+  interface Loader {
+
+    VersionHistoryDag load() throws GroundException;
+  }
+
+  /**
+   * Get a copy of an item's DAG, loading it on a miss. A transaction that has written always loads
+   * the DAG, since the cache does not have its uncommitted edges yet.
+   *
+   * @param itemId the id of the item
+   * @param loader reads the DAG from the database
+   * @return a copy of the DAG
+   * @throws GroundException an error loading the DAG
+   */
+  static VersionHistoryDag get(long itemId, Loader loader) throws GroundException {
+    if (UnitOfWork.hasUncommittedWrites()) {
+      return loader.load();
+    }
+
+    VersionHistoryDag cached = cache.getIfPresent(itemId);
+
+    if (cached != null) {
+      synchronized (cached) {
+        return new VersionHistoryDag(cached);
+      }
+    }
+
+    return new VersionHistoryDag(flights.get(itemId, () -> VersionHistoryDagCache.load(itemId, loader)));
+  }
+
+  private static VersionHistoryDag load(long itemId, Loader loader) throws GroundException {
+    long loadGeneration;
+
+    synchronized (VersionHistoryDagCache.class) {
+      loadGeneration = generations.begin(itemId);
+    }
+
+    VersionHistoryDag dag = null;
+
+    try {
+      dag = loader.load();
+    } finally {
+      synchronized (VersionHistoryDagCache.class) {
+        if (generations.end(itemId, loadGeneration) && dag != null) {
+          cache.put(itemId, new VersionHistoryDag(dag));
+        }
+      }
+    }
+
+    return dag;
+  }
+
+  /**
+   * Apply a committed edge to the cached copy of an item's DAG, if there is one.
+   *
+   * @param itemId the id of the item
+   * @param parentId the parent's id
+   * @param childId the child's id
+   * @param successorId the id of the version successor
+   */
+  static void addEdge(long itemId, long parentId, long childId, long successorId) {
+    synchronized (VersionHistoryDagCache.class) {
+      generations.invalidate(itemId);
+      flights.forget(itemId);
+      VersionHistoryDag cached = cache.getIfPresent(itemId);
+
+      if (cached != null) {
+        synchronized (cached) {
+          cached.addEdge(parentId, childId, successorId);
+        }
+
+        // a DAG is only weighed when it is put, so it is put again to count the new edge
+        cache.put(itemId, cached);
+      }
+    }
+  }
+
+  public static void invalidate(long itemId) {
+    synchronized (VersionHistoryDagCache.class) {
+      generations.invalidate(itemId);
+      flights.forget(itemId);
+      cache.invalidate(itemId);
+    }
+  }
+
+  public static void invalidateAll() {
+    synchronized (VersionHistoryDagCache.class) {
+      generations.invalidateAll();
+      flights.forgetAll();
+      cache.invalidateAll();
+    }
+  }
+
+  public static long size() {
+    return cache.size();
+  }
+
+  public static CacheStats stats() {
+    return cache.stats();
+  }
+}
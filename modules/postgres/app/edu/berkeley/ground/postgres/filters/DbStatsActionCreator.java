@@ -0,0 +1,38 @@
+package edu.berkeley.ground.postgres.filters;
+
+import edu.berkeley.ground.postgres.util.DbStats;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionStage;
+import play.http.ActionCreator;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+
+/**
+ * Reports the database work a request caused when the request asks for it with an
+ * X-Ground-Db-Stats: true header. The counts come back as the X-Ground-Db-Statements,
+ * X-Ground-Db-Connections and X-Ground-Db-Rows response headers.
+ */
+public class DbStatsActionCreator implements ActionCreator {
+
+  public static final String REQUEST_HEADER = "X-Ground-Db-Stats";
+
+  @Override
+  public Action.Simple createAction(Http.Request request, Method actionMethod) {
+    return new Action.Simple() {
+      @Override
+      public CompletionStage<Result> call(Http.Context context) {
+        if (!"true".equalsIgnoreCase(context.request().getHeader(REQUEST_HEADER))) {
+          return this.delegate.call(context);
+        }
+
+        DbStats stats = DbStats.attach(context);
+
+        return this.delegate.call(context).thenApply(result ->
+          result.withHeader("X-Ground-Db-Statements", Long.toString(stats.getStatements()))
+            .withHeader("X-Ground-Db-Connections", Long.toString(stats.getConnections()))
+            .withHeader("X-Ground-Db-Rows", Long.toString(stats.getRows())));
+      }
+    };
+  }
+}
@@ -1,37 +1,57 @@
 package edu.berkeley.ground.postgres.filters;
 
 import akka.stream.Materializer;
+import edu.berkeley.ground.postgres.util.DbExecutor;
+import edu.berkeley.ground.postgres.util.RequestMetrics;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.Executor;
 import java.util.function.Function;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import play.mvc.Filter;
+import play.mvc.Http;
 import play.mvc.Http.RequestHeader;
 import play.mvc.Result;
+import play.routing.Router;
 
 /**
- * This is a simple filter that adds a header to all requests.
+ * Records the count, status and latency of every request by the route that matched it. The
+ * latency is the time until the response's headers are ready, so streamed bodies are not included.
  */
 @Singleton
 public class GroundFilter extends Filter {
 
-  private final Executor exec;
+  private final RequestMetrics requestMetrics;
 
   /**
    * @param mat This object is needed to handle streaming of requests and responses.
-   * @param exec This class is needed to execute code asynchronously. It is used below by the <code> thenAsyncApply</code> method.
+   * @param requestMetrics The metrics every request is recorded in.
    */
   @Inject
-  public GroundFilter(Materializer mat, Executor exec) {
+  public GroundFilter(Materializer mat, RequestMetrics requestMetrics) {
     super(mat);
-    this.exec = exec;
+    this.requestMetrics = requestMetrics;
   }
 
   @Override
   public CompletionStage<Result> apply(
                                         Function<RequestHeader, CompletionStage<Result>> next, RequestHeader requestHeader) {
 
-    return next.apply(requestHeader).thenApplyAsync(result -> result.withHeader("X-ExampleFilter", "foo"), exec);
+    long start = System.nanoTime();
+    String routePattern = requestHeader.tags().get(Router.Tags.ROUTE_PATTERN);
+
+    // recorded on whichever thread completes the result, so no executor hop is needed
+    return next.apply(requestHeader).whenComplete((result, e) -> this.requestMetrics.record(requestHeader.method(), routePattern,
+      e == null ? result.status() : GroundFilter.getErrorStatus(e), System.nanoTime() - start));
+  }
+
+  // a failed request is answered by the error handler after it leaves the filter
+  private static int getErrorStatus(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof DbExecutor.Saturated) {
+        return Http.Status.SERVICE_UNAVAILABLE;
+      }
+    }
+
+    return Http.Status.INTERNAL_SERVER_ERROR;
   }
 }
@@ -1,9 +1,12 @@
 package edu.berkeley.ground.postgres.start;
 
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.postgres.dao.core.PostgresRichVersionDao;
+import edu.berkeley.ground.postgres.util.QueryMetrics;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import play.Logger;
@@ -26,6 +29,9 @@ public class ApplicationStart {
     Logger.info("Queries will Cache for {} seconds.", configuration.underlying().getString("ground.cache.expire.secs"));
     System.setProperty("ground.cache.expire.secs", configuration.underlying().getString("ground.cache.expire.secs"));
 
+    QueryMetrics.setSlowQueryThreshold(configuration.underlying().getDuration("ground.db.slow-query-threshold", TimeUnit.MILLISECONDS));
+    PostgresRichVersionDao.setTagSnapshotInterval(configuration.underlying().getInt("ground.db.tag-snapshot-interval"));
+
     appLifecycle.addStopHook(
       () -> {
         Instant stop = clock.instant();
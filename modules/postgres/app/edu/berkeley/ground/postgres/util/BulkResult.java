@@ -0,0 +1,36 @@
+package edu.berkeley.ground.postgres.util;
+
+/**
+ * The outcome of one record in a bulk create: either the created version or the reason the record
+ * was rejected.
+ */
+public class BulkResult<T> {
+
+  private final T version;
+  private final String error;
+
+  private BulkResult(T version, String error) {
+    this.version = version;
+    this.error = error;
+  }
+
+  public static <T> BulkResult<T> created(T version) {
+    return new BulkResult<>(version, null);
+  }
+
+  public static <T> BulkResult<T> failed(String error) {
+    return new BulkResult<>(null, error);
+  }
+
+  public boolean isCreated() {
+    return this.error == null;
+  }
+
+  public T getVersion() {
+    return this.version;
+  }
+
+  public String getError() {
+    return this.error;
+  }
+}
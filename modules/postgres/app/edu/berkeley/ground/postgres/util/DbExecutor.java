@@ -0,0 +1,184 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The executor every blocking database call runs on. It has one thread per pooled connection, so a
+ * task never holds a thread while it waits for a connection, and a bounded queue in front of them.
+ *
+ * <p>Every task runs as a {@link UnitOfWork}, so all of a request's statements share one connection.
+ * The tasks of write requests are also {@link UnitOfWork#transactional}, so each one commits all of
+ * its writes or none of them.
+ *
+ * <p>A task is rejected with a {@link Saturated} exception instead of being queued if the queue is
+ * full, or if the oldest queued task has already waited longer than the maximum wait: at that
+ * point a new task would wait even longer, and the client is better off retrying later than timing
+ * out.
+ */
+public final class DbExecutor implements Executor {
+
+  private final ThreadPoolExecutor executor;
+  private final BlockingQueue<Runnable> queue;
+  private final long maxWaitNanos;
+  private final long retryAfterSecs;
+
+  private final LongAdder waitCount = new LongAdder();
+  private final LongAdder waitNanos = new LongAdder();
+  private final LongAccumulator maxWaitSeenNanos = new LongAccumulator(Math::max, 0L);
+  private final LongAdder rejectedCount = new LongAdder();
+
+  /**
+   * Thrown when a task is submitted to a saturated executor.
+   */
+  public static final class Saturated extends RejectedExecutionException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSecs;
+
+    Saturated(String message, long retryAfterSecs) {
+      super(message);
+      this.retryAfterSecs = retryAfterSecs;
+    }
+
+    public long getRetryAfterSecs() {
+      return this.retryAfterSecs;
+    }
+  }
+
+  /**
+   * Create a database executor.
+   *
+   * @param threads the number of threads, which should be the size of the connection pool
+   * @param queueSize the maximum number of tasks waiting for a thread
+   * @param maxWaitMillis the longest a queued task may wait before new tasks are rejected
+   * @param retryAfterSecs the number of seconds rejected clients are asked to wait
+   */
+  public DbExecutor(int threads, int queueSize, long maxWaitMillis, long retryAfterSecs) {
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    this.retryAfterSecs = retryAfterSecs;
+
+    this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, this.queue, new DbThreadFactory(),
+      (task, ignored) -> {
+        throw this.reject("The database queue is full.");
+      });
+    this.executor.prestartAllCoreThreads();
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    Runnable head = this.queue.peek();
+
+    if (head instanceof QueuedTask && System.nanoTime() - ((QueuedTask) head).enqueued > this.maxWaitNanos) {
+      throw this.reject("Queued database requests are waiting longer than the maximum wait.");
+    }
+
+    this.executor.execute(new QueuedTask(command));
+  }
+
+  public void shutdown() {
+    this.executor.shutdown();
+  }
+
+  public int getThreads() {
+    return this.executor.getMaximumPoolSize();
+  }
+
+  public int getActiveCount() {
+    return this.executor.getActiveCount();
+  }
+
+  public int getQueueDepth() {
+    return this.queue.size();
+  }
+
+  public int getQueueCapacity() {
+    return this.queue.size() + this.queue.remainingCapacity();
+  }
+
+  public long getCompletedCount() {
+    return this.executor.getCompletedTaskCount();
+  }
+
+  public long getRejectedCount() {
+    return this.rejectedCount.sum();
+  }
+
+  public long getWaitCount() {
+    return this.waitCount.sum();
+  }
+
+  public long getTotalWaitNanos() {
+    return this.waitNanos.sum();
+  }
+
+  public long getMaxWaitNanos() {
+    return this.maxWaitSeenNanos.get();
+  }
+
+  public long getRetryAfterSecs() {
+    return this.retryAfterSecs;
+  }
+
+  private Saturated reject(String message) {
+    this.rejectedCount.increment();
+    return new Saturated(message, this.retryAfterSecs);
+  }
+
+  private final class QueuedTask implements Runnable {
+
+    private final Runnable task;
+    private final long enqueued = System.nanoTime();
+
+    QueuedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      long wait = System.nanoTime() - this.enqueued;
+      DbExecutor.this.waitCount.increment();
+      DbExecutor.this.waitNanos.add(wait);
+      DbExecutor.this.maxWaitSeenNanos.accumulate(wait);
+
+      UnitOfWork.run(this.task);
+    }
+  }
+
+  private static final class DbThreadFactory implements ThreadFactory {
+
+    private static final AtomicLong pools = new AtomicLong();
+
+    private final long pool = pools.incrementAndGet();
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, String.format("ground-db-%d-%d", this.pool, this.threads.incrementAndGet()));
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
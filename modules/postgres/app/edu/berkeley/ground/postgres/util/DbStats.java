@@ -0,0 +1,124 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import java.util.concurrent.atomic.LongAdder;
+import play.mvc.Http;
+
+/**
+ * Counts the statements, connections and rows of the database work done on behalf of one request
+ * or one block of code. Work is counted against the stats of the block running on the current
+ * thread, or else against those of the HTTP request whose context the thread is running in; the
+ * database executor carries a request's context onto the thread that does its work.
+ *
+ * <p>Rows read through a streamed query are not counted, since they are read after the response
+ * has started.
+ */
+public final class DbStats {
+
+  private static final String CONTEXT_KEY = "ground.db.stats";
+
+  private static final ThreadLocal<DbStats> current = new ThreadLocal<>();
+
+  private final LongAdder statements = new LongAdder();
+  private final LongAdder connections = new LongAdder();
+  private final LongAdder rows = new LongAdder();
+
+  @FunctionalInterface
+  public interface DbOperation {
+
+    void run() throws GroundException;
+  }
+
+  /**
+   * Start counting the database work done for a request.
+   *
+   * @param context the request's context
+   * @return the request's stats
+   */
+  public static DbStats attach(Http.Context context) {
+    DbStats stats = new DbStats();
+    context.args.put(CONTEXT_KEY, stats);
+
+    return stats;
+  }
+
+  /**
+   * Run a block of code, counting the database work it does on this thread.
+   *
+   * @param operation the code to run
+   * @return the work the code did
+   * @throws GroundException an error thrown by the code
+   */
+  public static DbStats collect(DbOperation operation) throws GroundException {
+    DbStats stats = new DbStats();
+    DbStats previous = current.get();
+    current.set(stats);
+
+    try {
+      operation.run();
+    } finally {
+      current.set(previous);
+    }
+
+    return stats;
+  }
+
+  static void recordConnection() {
+    DbStats stats = DbStats.current();
+
+    if (stats != null) {
+      stats.connections.increment();
+    }
+  }
+
+  static void recordStatement(long rows) {
+    DbStats stats = DbStats.current();
+
+    if (stats != null) {
+      stats.statements.increment();
+      stats.rows.add(rows);
+    }
+  }
+
+  public long getStatements() {
+    return this.statements.sum();
+  }
+
+  public long getConnections() {
+    return this.connections.sum();
+  }
+
+  public long getRows() {
+    return this.rows.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d statements, %d connections, %d rows", this.getStatements(), this.getConnections(), this.getRows());
+  }
+
+  private static DbStats current() {
+    DbStats stats = current.get();
+
+    if (stats == null) {
+      Http.Context context = Http.Context.current.get();
+
+      if (context != null) {
+        stats = (DbStats) context.args.get(CONTEXT_KEY);
+      }
+    }
+
+    return stats;
+  }
+}
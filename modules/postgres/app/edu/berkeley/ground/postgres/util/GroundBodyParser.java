@@ -0,0 +1,37 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.JsonNode;
+import javax.inject.Inject;
+import play.api.http.HttpConfiguration;
+import play.http.HttpErrorHandler;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+
+/**
+ * Parses a request body in any of the formats in {@link GroundFormat}, chosen by the request's
+ * Content-Type, into the same tree JSON bodies are parsed into.
+ */
+public class GroundBodyParser extends BodyParser.BufferingBodyParser<JsonNode> {
+
+  @Inject
+  public GroundBodyParser(HttpConfiguration httpConfiguration, HttpErrorHandler errorHandler) {
+    super(httpConfiguration.parser().maxMemoryBuffer(), errorHandler, "Error decoding request body");
+  }
+
+  @Override
+  protected JsonNode parse(Http.RequestHeader request, ByteString bytes) throws Exception {
+    return GroundFormat.fromContentType(request).read(bytes.toArray());
+  }
+}
@@ -0,0 +1,227 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import edu.berkeley.ground.common.exception.GroundException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * A named, process-wide cache whose entries never expire on their own. The DAOs invalidate entries
+ * when they commit a write that changes them, so cached values stay exact for as long as they are
+ * held. Every namespace keeps its own hit and miss counts.
+ *
+ * <p>A value loaded from the database while a write commits may be missing that write, so it is
+ * only cached if its key has not been invalidated since the load began. Concurrent misses of the
+ * same key share one load.
+ */
+public final class GroundCache<K, V> {
+
+  private static final long MAXIMUM_SIZE = 100_000L;
+
+  private static final Map<String, GroundCache<?, ?>> namespaces = new ConcurrentHashMap<>();
+
+  private final Cache<K, V> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).recordStats().build();
+
+  // moved on by every invalidation; guarded by this
+  private final KeyGenerations<K> generations = new KeyGenerations<>();
+
+  private final SingleFlight<K, V> flights = new SingleFlight<>();
+
+  private GroundCache() {
+  }
+
+  @FunctionalInterface
+  public interface Loader<V> {
+
+    V load() throws GroundException;
+  }
+
+  @FunctionalInterface
+  public interface BulkLoader<K, V> {
+
+    Map<K, V> load(List<K> keys) throws GroundException;
+  }
+
+  /**
+   * Get the cache for a namespace, creating it the first time it is asked for.
+   *
+   * @param name the name of the namespace
+   * @return the namespace's cache
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> GroundCache<K, V> namespace(String name) {
+    return (GroundCache<K, V>) namespaces.computeIfAbsent(name, ignored -> new GroundCache<K, V>());
+  }
+
+  /**
+   * Get a value, loading it on a miss. Cached values are shared between callers, so they should be
+   * immutable. A transaction that has written loads the value without caching it.
+   *
+   * @param key the key of the value
+   * @param loader reads the value from the database
+   * @return the value
+   * @throws GroundException an error loading the value
+   */
+  public V get(K key, Loader<V> loader) throws GroundException {
+    if (UnitOfWork.hasUncommittedWrites()) {
+      return loader.load();
+    }
+
+    V cached = this.cache.getIfPresent(key);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    return this.flights.get(key, () -> this.load(key, loader));
+  }
+
+  private V load(K key, Loader<V> loader) throws GroundException {
+    long loadGeneration;
+
+    synchronized (this) {
+      loadGeneration = this.generations.begin(key);
+    }
+
+    V value = null;
+
+    try {
+      value = loader.load();
+    } finally {
+      synchronized (this) {
+        if (this.generations.end(key, loadGeneration) && value != null) {
+          this.cache.put(key, value);
+        }
+      }
+    }
+
+    return value;
+  }
+
+  /**
+   * Get a value only if it is cached.
+   *
+   * @param key the key of the value
+   * @return the value, or null if it is not cached
+   */
+  public V getIfPresent(K key) {
+    return UnitOfWork.hasUncommittedWrites() ? null : this.cache.getIfPresent(key);
+  }
+
+  /**
+   * Get several values at once, loading every miss with a single call to the loader. Keys the
+   * loader returns no value for are left out of the result and are not cached. A transaction that
+   * has written loads every value without caching them.
+   *
+   * @param keys the keys of the values
+   * @param loader reads the missing values from the database
+   * @return the values that were found, by key
+   * @throws GroundException an error loading the values
+   */
+  public Map<K, V> getAll(Collection<K> keys, BulkLoader<K, V> loader) throws GroundException {
+    if (UnitOfWork.hasUncommittedWrites()) {
+      return new HashMap<>(loader.load(keys.stream().distinct().collect(Collectors.toList())));
+    }
+
+    Map<K, V> values = new HashMap<>(this.cache.getAllPresent(keys));
+    List<K> missing = keys.stream().filter(key -> !values.containsKey(key)).distinct().collect(Collectors.toList());
+
+    if (missing.isEmpty()) {
+      return values;
+    }
+
+    Map<K, Long> loadGenerations = new HashMap<>();
+
+    synchronized (this) {
+      missing.forEach(key -> loadGenerations.put(key, this.generations.begin(key)));
+    }
+
+    Map<K, V> loaded = Collections.emptyMap();
+
+    try {
+      loaded = loader.load(missing);
+    } finally {
+      synchronized (this) {
+        for (K key : missing) {
+          V value = loaded.get(key);
+
+          if (this.generations.end(key, loadGenerations.get(key)) && value != null) {
+            this.cache.put(key, value);
+          }
+        }
+      }
+    }
+
+    values.putAll(loaded);
+    return values;
+  }
+
+  /**
+   * Cache a value directly. Only safe for values that never change once written, since nothing
+   * stops a stale value from replacing one put by a concurrent invalidation. Nothing is cached by a
+   * transaction that has written.
+   *
+   * @param key the key of the value
+   * @param value the value
+   */
+  public void put(K key, V value) {
+    if (!UnitOfWork.hasUncommittedWrites()) {
+      this.cache.put(key, value);
+    }
+  }
+
+  public synchronized void invalidate(K key) {
+    this.generations.invalidate(key);
+    this.flights.forget(key);
+    this.cache.invalidate(key);
+  }
+
+  public synchronized void invalidateAll() {
+    this.generations.invalidateAll();
+    this.flights.forgetAll();
+    this.cache.invalidateAll();
+  }
+
+  public long size() {
+    return this.cache.size();
+  }
+
+  public CacheStats stats() {
+    return this.cache.stats();
+  }
+
+  /**
+   * Empty every namespace.
+   */
+  public static void invalidateAllNamespaces() {
+    namespaces.values().forEach(GroundCache::invalidateAll);
+  }
+
+  /**
+   * Get every namespace created so far.
+   *
+   * @return the namespaces by name, in name order
+   */
+  public static Map<String, GroundCache<?, ?>> getNamespaces() {
+    return Collections.unmodifiableMap(new TreeMap<>(namespaces));
+  }
+}
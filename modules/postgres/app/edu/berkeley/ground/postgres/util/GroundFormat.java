@@ -0,0 +1,198 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import play.api.http.MediaRange;
+import play.libs.Json;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+
+/**
+ * The encodings requests and responses can be sent in. Smile and CBOR are binary encodings of the
+ * same data model as JSON, so every model class is written and read exactly as it is in JSON, but
+ * without the cost of formatting and parsing numbers and strings as text.
+ */
+public enum GroundFormat {
+  JSON("application/json", null),
+  SMILE("application/x-jackson-smile", new ObjectMapper(new SmileFactory())),
+  CBOR("application/cbor", new ObjectMapper(new CBORFactory()));
+
+  private final String mediaType;
+  private final ObjectMapper mapper;
+
+  GroundFormat(String mediaType, ObjectMapper mapper) {
+    this.mediaType = mediaType;
+    this.mapper = mapper;
+  }
+
+  public String getMediaType() {
+    return this.mediaType;
+  }
+
+  /**
+   * Pick the format a response should be sent in, by the request's Accept header. The first
+   * accepted media type that matches a format wins, and JSON is used if none does.
+   *
+   * @param request the request being answered
+   * @return the format of the response
+   */
+  public static GroundFormat fromAccept(Http.RequestHeader request) {
+    for (MediaRange range : request.acceptedTypes()) {
+      for (GroundFormat format : GroundFormat.values()) {
+        if (range.accepts(format.mediaType)) {
+          return format;
+        }
+      }
+    }
+
+    return JSON;
+  }
+
+  /**
+   * Get the format a request body was sent in, by its Content-Type header. A body without a
+   * recognized content type is read as JSON.
+   *
+   * @param request the request
+   * @return the format of the request body
+   */
+  public static GroundFormat fromContentType(Http.RequestHeader request) {
+    String contentType = request.contentType().orElse(JSON.mediaType);
+
+    for (GroundFormat format : GroundFormat.values()) {
+      if (format.mediaType.equalsIgnoreCase(contentType)) {
+        return format;
+      }
+    }
+
+    return JSON;
+  }
+
+  public JsonNode read(byte[] bytes) throws IOException {
+    return this == JSON ? Json.parse(bytes) : this.mapper.readTree(bytes);
+  }
+
+  public byte[] write(JsonNode json) throws IOException {
+    return this == JSON ? Json.stringify(json).getBytes(StandardCharsets.UTF_8) : this.mapper.writeValueAsBytes(json);
+  }
+
+  /**
+   * Encode the elements of a Source in this format as they are produced. Without a field, the
+   * elements are written as a sequence of documents, one per line in JSON. With one, they are
+   * written as that array field of the object, after the object's own fields. A single generator
+   * writes the whole sequence, so the binary formats' back references to repeated names span it.
+   *
+   * @param object the object's other fields, or null to write a sequence
+   * @param field the name of the array field, or null to write a sequence
+   * @param elements the elements to write
+   * @return the encoded chunks
+   */
+  public Source<ByteString, NotUsed> stream(ObjectNode object, String field, Source<?, ?> elements) {
+    return Source.single(this).flatMapConcat(format -> {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      JsonGenerator generator = (format == JSON ? Json.mapper() : format.mapper).getFactory().createGenerator(buffer);
+
+      if (format == JSON) {
+        // the documents of a sequence are separated by newlines instead
+        generator.setRootValueSeparator(new SerializedString(""));
+      }
+
+      if (object != null) {
+        generator.writeStartObject();
+
+        for (Iterator<Map.Entry<String, JsonNode>> fields = object.fields(); fields.hasNext(); ) {
+          Map.Entry<String, JsonNode> entry = fields.next();
+          generator.writeFieldName(entry.getKey());
+          generator.writeTree(entry.getValue());
+        }
+
+        generator.writeArrayFieldStart(field);
+      }
+
+      ByteString start = GroundFormat.drain(generator, buffer);
+
+      // concat pulls ahead of its output, so the end is marked by an empty value rather than written by a source of its own
+      Source<Optional<Object>, ?> values = elements.map(element -> Optional.<Object>of(element)).concat(Source.single(Optional.empty()));
+
+      return Source.single(start).concat(values.map(value -> {
+        if (value.isPresent()) {
+          generator.writeTree(Json.toJson(value.get()));
+
+          if (object == null && format == JSON) {
+            generator.writeRaw('\n');
+          }
+        } else {
+          if (object != null) {
+            generator.writeEndArray();
+            generator.writeEndObject();
+          }
+
+          generator.close();
+        }
+
+        return GroundFormat.drain(generator, buffer);
+
+        // an empty chunk would end a chunked response
+      })).filter(bytes -> !bytes.isEmpty());
+    });
+  }
+
+  private static ByteString drain(JsonGenerator generator, ByteArrayOutputStream buffer) throws IOException {
+    if (!generator.isClosed()) {
+      generator.flush();
+    }
+
+    ByteString bytes = ByteString.fromArray(buffer.toByteArray());
+    buffer.reset();
+
+    return bytes;
+  }
+
+  /**
+   * Create a response with the given status, in the format the request asked for. The response
+   * varies with the Accept header, so caches are told to key on it.
+   *
+   * @param request the request being answered
+   * @param status the HTTP status of the response
+   * @param json the body of the response
+   * @return the response
+   */
+  public static Result render(Http.RequestHeader request, int status, JsonNode json) {
+    GroundFormat format = GroundFormat.fromAccept(request);
+
+    if (format == JSON) {
+      return Results.status(status, json).withHeader(Http.HeaderNames.VARY, Http.HeaderNames.ACCEPT);
+    }
+
+    try {
+      return Results.status(status, format.write(json)).as(format.mediaType).withHeader(Http.HeaderNames.VARY, Http.HeaderNames.ACCEPT);
+    } catch (IOException e) {
+      throw new IllegalStateException(String.format("Unable to write %s response.", format.mediaType), e);
+    }
+  }
+}
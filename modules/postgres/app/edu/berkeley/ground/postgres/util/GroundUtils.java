@@ -2,45 +2,95 @@ package edu.berkeley.ground.postgres.util;
 
 import static play.mvc.Results.badRequest;
 import static play.mvc.Results.internalServerError;
+import static play.mvc.Results.ok;
+import static play.mvc.Results.status;
 
+import akka.stream.javadsl.Source;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import edu.berkeley.ground.common.dao.version.VersionDao;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.Edge;
 import edu.berkeley.ground.common.model.core.Graph;
 import edu.berkeley.ground.common.model.core.Node;
+import edu.berkeley.ground.common.model.core.RichVersion;
 import edu.berkeley.ground.common.model.core.Structure;
 import edu.berkeley.ground.common.model.usage.LineageEdge;
 import edu.berkeley.ground.common.model.usage.LineageGraph;
+import edu.berkeley.ground.common.model.version.TagPredicate;
+import edu.berkeley.ground.common.model.version.Version;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.core.PostgresEdgeVersionDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresGraphVersionDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresNodeVersionDao;
+import edu.berkeley.ground.postgres.dao.core.PostgresRichVersionDao;
 import edu.berkeley.ground.postgres.dao.core.PostgresStructureVersionDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageEdgeVersionDao;
 import edu.berkeley.ground.postgres.dao.usage.PostgresLineageGraphVersionDao;
-import java.io.IOException;
+import edu.berkeley.ground.postgres.dao.version.PostgresItemDao;
+import edu.berkeley.ground.postgres.dao.version.PostgresVersionDao;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 import play.Logger;
+import play.cache.CacheApi;
 import play.db.Database;
 import play.libs.Json;
+import play.mvc.Http;
 import play.mvc.Http.Request;
 import play.mvc.Result;
 
 public final class GroundUtils {
 
+  private static final int MAXIMUM_MULTI_GET_SIZE = 10000;
+
+  private static final SingleFlight<String, JsonNode> cachedReads = new SingleFlight<>();
+
   private GroundUtils() {
   }
 
+  /**
+   * Read a value through the Play cache. Concurrent requests for the same key share one read, so
+   * when a popular entry expires only one of them goes to the database to load it again. Stages
+   * chained on the result may run on the thread of another request's read, so they should use a
+   * request captured by the caller rather than calling request() themselves.
+   *
+   * @param cache the cache to read through
+   * @param key the cache key of the value
+   * @param loader loads the value on a cache miss
+   * @param executor the executor the read runs on
+   * @return the value
+   */
+  public static CompletionStage<JsonNode> getCached(CacheApi cache, String key, Callable<JsonNode> loader, Executor executor) {
+    return cachedReads.load(key, () -> CompletableFuture.supplyAsync(
+      () -> {
+        try {
+          return cache.getOrElse(key, loader, Integer.parseInt(System.getProperty("ground.cache.expire.secs")));
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        }
+      },
+      executor));
+  }
+
   public static Result handleException(Throwable e, Request request) {
-    if (e.getCause().getCause() instanceof GroundException) {
+    // a read shared with a request the database executor rejected fails the same way
+    if (e.getCause() instanceof DbExecutor.Saturated) {
+      return status(Http.Status.SERVICE_UNAVAILABLE, e.getCause().getMessage())
+               .withHeader(Http.HeaderNames.RETRY_AFTER, Long.toString(((DbExecutor.Saturated) e.getCause()).getRetryAfterSecs()));
+    } else if (e.getCause().getCause() instanceof GroundException) {
       return badRequest(GroundUtils.getClientError(request, e.getCause().getCause(), ExceptionType.ITEM_NOT_FOUND));
     } else {
       return internalServerError(GroundUtils.getServerError(request, e.getCause().getCause()));
@@ -71,14 +121,6 @@ public final class GroundUtils {
     return result;
   }
 
-  static String listToJson(final List<Map<String, Object>> objList) {
-    try {
-      return new ObjectMapper().writeValueAsString(objList);
-    } catch (IOException e) {
-      throw new RuntimeException("ERROR : listToJson Converting List to JSON." + e.getMessage(), e);
-    }
-  }
-
   public static List<Long> getListFromJson(JsonNode jsonNode, String fieldName) {
     List<Long> parents = new ArrayList<>();
     JsonNode listNode = jsonNode.get(fieldName);
@@ -90,6 +132,272 @@ public final class GroundUtils {
     return parents;
   }
 
+  /**
+   * Parse the body of a bulk request, which is either a JSON array of records or newline-delimited
+   * JSON with one record per line. A line that is not valid JSON is kept as a text node holding the
+   * line, so that only that record is rejected.
+   *
+   * @param body the request body
+   * @return the records in the body
+   */
+  public static List<JsonNode> getRecordsFromBody(String body) {
+    List<JsonNode> records = new ArrayList<>();
+    String trimmed = body.trim();
+
+    if (trimmed.startsWith("[")) {
+      Json.parse(trimmed).forEach(records::add);
+    } else {
+      for (String line : trimmed.split("\n")) {
+        if (!line.trim().isEmpty()) {
+          try {
+            records.add(Json.parse(line));
+          } catch (RuntimeException e) {
+            records.add(TextNode.valueOf(line));
+          }
+        }
+      }
+    }
+
+    return records;
+  }
+
+  /**
+   * Create every version in a bulk request in one transaction, and describe the outcome of each
+   * record by its position in the request. A record can name earlier records of the same request
+   * as parents by their positions in a "parentIndexes" array. A malformed record is rejected on its
+   * own, along with any record that names it as a parent.
+   *
+   * @param dao the DAO for the versions' type
+   * @param body the request body
+   * @return an array with one result per record
+   * @throws GroundException an error writing the batch
+   */
+  public static <T extends RichVersion> JsonNode createVersions(PostgresRichVersionDao<T> dao, String body) throws GroundException {
+    List<JsonNode> records = GroundUtils.getRecordsFromBody(body);
+    List<BulkResult<T>> results = new ArrayList<>(Collections.nCopies(records.size(), null));
+
+    List<T> versions = new ArrayList<>();
+    List<List<Long>> parentIds = new ArrayList<>();
+    List<List<Integer>> parentIndexes = new ArrayList<>();
+
+    // the position in the batch of each well-formed record, by its position in the request
+    Map<Integer, Integer> positions = new HashMap<>();
+
+    for (int i = 0; i < records.size(); i++) {
+      JsonNode record = records.get(i);
+
+      try {
+        if (!record.isObject()) {
+          throw new GroundException(ExceptionType.OTHER, String.format("Record %d is not a JSON object.", i));
+        }
+
+        List<Integer> indexes = new ArrayList<>();
+
+        for (long index : GroundUtils.getListFromJson(record, "parentIndexes")) {
+          if (!positions.containsKey((int) index)) {
+            throw new GroundException(ExceptionType.OTHER, String.format("Parent index %d is not a well-formed earlier record.", index));
+          }
+
+          indexes.add(positions.get((int) index));
+        }
+
+        List<Long> parents = GroundUtils.getListFromJson(record, "parentIds");
+        ((ObjectNode) record).remove("parentIds");
+        ((ObjectNode) record).remove("parentIndexes");
+
+        versions.add(Json.fromJson(record, dao.getType()));
+        parentIds.add(parents);
+        parentIndexes.add(indexes);
+        positions.put(i, versions.size() - 1);
+      } catch (GroundException | RuntimeException e) {
+        results.set(i, BulkResult.failed(e.getMessage()));
+      }
+    }
+
+    List<BulkResult<T>> created = dao.createAll(versions, parentIds, parentIndexes);
+    positions.forEach((index, position) -> results.set(index, created.get(position)));
+
+    ArrayNode resultsJson = Json.newArray();
+
+    for (int i = 0; i < results.size(); i++) {
+      BulkResult<T> result = results.get(i);
+      ObjectNode resultJson = resultsJson.addObject();
+      resultJson.put("index", i);
+
+      if (result.isCreated()) {
+        resultJson.set("version", Json.toJson(result.getVersion()));
+      } else {
+        resultJson.put("error", result.getError());
+      }
+    }
+
+    return resultsJson;
+  }
+
+  /**
+   * Retrieve the versions in a multi-get request, whose body holds an "ids" array. Each id gets an
+   * entry in the response, in request order, holding either its version or why it was not found.
+   *
+   * @param dao the DAO for the versions' type
+   * @param body the request body
+   * @return an array with one entry per id
+   * @throws GroundException too many ids, or an error retrieving the versions
+   */
+  public static <T extends Version> JsonNode getVersions(PostgresVersionDao<T> dao, JsonNode body) throws GroundException {
+    List<Long> ids = GroundUtils.getListFromJson(body, "ids");
+    GroundUtils.checkLimit("number of ids", ids.size(), MAXIMUM_MULTI_GET_SIZE);
+
+    Map<Long, T> versions = dao.retrieveAll(ids);
+    ArrayNode resultsJson = Json.newArray();
+
+    for (long id : ids) {
+      ObjectNode resultJson = resultsJson.addObject();
+      resultJson.put("id", id);
+
+      if (versions.containsKey(id)) {
+        resultJson.set("version", Json.toJson(versions.get(id)));
+      } else {
+        resultJson.put("error", new GroundException(ExceptionType.VERSION_NOT_FOUND, dao.getType().getSimpleName(), Long.toString(id)).getMessage());
+      }
+    }
+
+    return resultsJson;
+  }
+
+  /**
+   * Retrieve the leaves of the items in a multi-get request, whose body holds a "sourceKeys" array.
+   * Each source key gets an entry in the response, in request order, holding either the item's
+   * leaves or why it was not found.
+   *
+   * @param dao the DAO for the items' type
+   * @param body the request body
+   * @return an array with one entry per source key
+   * @throws GroundException too many source keys, or an error retrieving the leaves
+   */
+  public static JsonNode getLeaves(PostgresItemDao<?> dao, JsonNode body) throws GroundException {
+    List<String> sourceKeys = new ArrayList<>();
+    JsonNode sourceKeysJson = body.get("sourceKeys");
+
+    if (sourceKeysJson != null) {
+      sourceKeysJson.forEach(node -> sourceKeys.add(node.asText()));
+    }
+
+    GroundUtils.checkLimit("number of source keys", sourceKeys.size(), MAXIMUM_MULTI_GET_SIZE);
+
+    Map<String, List<Long>> leaves = dao.getLeaves(sourceKeys);
+    ArrayNode resultsJson = Json.newArray();
+
+    for (String sourceKey : sourceKeys) {
+      ObjectNode resultJson = resultsJson.addObject();
+      resultJson.put("sourceKey", sourceKey);
+
+      if (leaves.containsKey(sourceKey)) {
+        resultJson.set("leaves", Json.toJson(leaves.get(sourceKey)));
+      } else {
+        resultJson.put("error", new GroundException(ExceptionType.ITEM_NOT_FOUND, dao.getType().getSimpleName(), sourceKey).getMessage());
+      }
+    }
+
+    return resultsJson;
+  }
+
+  /**
+   * Collect the tag predicates in a search's query string. Every parameter named tag.&lt;key&gt; is a
+   * predicate on the tag with that key; all other parameters are ignored.
+   *
+   * @param queryString the request's query parameters
+   * @return the predicates, in no particular order
+   * @throws GroundException a malformed predicate
+   */
+  public static List<TagPredicate> getTagPredicates(Map<String, String[]> queryString) throws GroundException {
+    List<TagPredicate> predicates = new ArrayList<>();
+
+    for (Map.Entry<String, String[]> parameter : queryString.entrySet()) {
+      if (parameter.getKey().startsWith("tag.")) {
+        String key = parameter.getKey().substring("tag.".length());
+
+        for (String expression : parameter.getValue()) {
+          predicates.add(TagPredicate.parse(key, expression));
+        }
+      }
+    }
+
+    return predicates;
+  }
+
+  /**
+   * Check that a numeric query parameter is between 1 and its maximum.
+   *
+   * @param name the name of the parameter
+   * @param value the value given in the request
+   * @param maximum the largest allowed value
+   * @return the value
+   * @throws GroundException the value is out of range
+   */
+  public static long checkLimit(String name, long value, long maximum) throws GroundException {
+    if (value < 1 || value > maximum) {
+      throw new GroundException(ExceptionType.OTHER, String.format("The %s must be between 1 and %d.", name, maximum));
+    }
+
+    return value;
+  }
+
+  public static int checkLimit(String name, int value, int maximum) throws GroundException {
+    return (int) GroundUtils.checkLimit(name, (long) value, (long) maximum);
+  }
+
+  /**
+   * Send the elements of a Source in a chunked response, in the format the request asked for. JSON
+   * is sent as newline-delimited JSON, one element per line, and Smile and CBOR as a sequence of
+   * documents. Each element is written as soon as it is produced, so the response is never held in
+   * memory as a whole.
+   *
+   * @param request the request being answered
+   * @param elements the elements to send
+   * @return the chunked response
+   */
+  public static Result stream(Http.RequestHeader request, Source<?, ?> elements) {
+    GroundFormat format = GroundFormat.fromAccept(request);
+    String mediaType = format == GroundFormat.JSON ? "application/x-ndjson" : format.getMediaType();
+
+    return ok().chunked(format.stream(null, null, elements)).as(mediaType).withHeader(Http.HeaderNames.VARY, Http.HeaderNames.ACCEPT);
+  }
+
+  /**
+   * Check that an expand query parameter names the one expansion a route supports.
+   *
+   * @param expand the value given in the request
+   * @param supported the expansion the route supports
+   * @return the value
+   * @throws GroundException the expansion is not supported
+   */
+  public static String checkExpand(String expand, String supported) throws GroundException {
+    if (!expand.equals(supported)) {
+      throw new GroundException(ExceptionType.OTHER, String.format("Unknown expansion %s; only %s is supported.", expand, supported));
+    }
+
+    return expand;
+  }
+
+  /**
+   * Send an object with one more array field, whose elements come from a Source, as a single
+   * document in a chunked response, in the format the request asked for. The object's own fields
+   * are written first and each element as soon as it is produced, so a large array is never held in
+   * memory as a whole.
+   *
+   * @param request the request being answered
+   * @param object the object's other fields
+   * @param field the name of the streamed array field
+   * @param elements the elements of the array
+   * @return the chunked response
+   */
+  public static Result stream(Http.RequestHeader request, ObjectNode object, String field, Source<?, ?> elements) {
+    GroundFormat format = GroundFormat.fromAccept(request);
+
+    return ok().chunked(format.stream(object, field, elements)).as(format.getMediaType())
+             .withHeader(Http.HeaderNames.VARY, Http.HeaderNames.ACCEPT);
+  }
+
   public static VersionDao<?> getVersionDaoFromItemType(Class<?> klass, Database dbSource, IdGenerator idGenerator) throws GroundException {
     if (klass.equals(Node.class)) {
       return new PostgresNodeVersionDao(dbSource, idGenerator);
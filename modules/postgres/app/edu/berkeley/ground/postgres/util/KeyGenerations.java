@@ -0,0 +1,77 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tells a cache whether a value it loaded from the database may be cached. A load records its
+ * key's generation when it begins, and invalidating the key moves the generation on, so a load
+ * that may have missed a write to its key is not cached, while loads of other keys are unaffected.
+ * Only keys with a load in flight are tracked.
+ *
+ * <p>Not thread safe: the cache guards it with the lock it holds while changing its entries, so
+ * that checking a load and caching its value cannot be split by an invalidation.
+ */
+public final class KeyGenerations<K> {
+
+  private final Map<K, Generation> generations = new HashMap<>();
+
+  private static final class Generation {
+
+    private long value = 0;
+    private int loads = 0;
+  }
+
+  /**
+   * Record that a load of a key has begun. Every call must be matched by a call to end.
+   *
+   * @param key the key being loaded
+   * @return the key's generation when the load began
+   */
+  public long begin(K key) {
+    Generation generation = this.generations.computeIfAbsent(key, ignored -> new Generation());
+    generation.loads++;
+
+    return generation.value;
+  }
+
+  /**
+   * Record that a load of a key has ended.
+   *
+   * @param key the key that was loaded
+   * @param loadGeneration the generation begin returned
+   * @return true if the key has not been invalidated since the load began
+   */
+  public boolean end(K key, long loadGeneration) {
+    Generation generation = this.generations.get(key);
+
+    if (--generation.loads == 0) {
+      this.generations.remove(key);
+    }
+
+    return generation.value == loadGeneration;
+  }
+
+  public void invalidate(K key) {
+    Generation generation = this.generations.get(key);
+
+    if (generation != null) {
+      generation.value++;
+    }
+  }
+
+  public void invalidateAll() {
+    this.generations.values().forEach(generation -> generation.value++);
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.berkeley.ground.postgres.util;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import edu.berkeley.ground.common.util.IdBlockSource;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import java.util.List;
+import play.db.Database;
+
+/**
+ * Leases id blocks by advancing a high-water mark in the id_lease table. The update takes a row
+ * lock, so concurrent leases from several machines never receive overlapping blocks.
+ */
+public class PostgresIdBlockSource implements IdBlockSource {
+
+  private final Database dbSource;
+
+  public PostgresIdBlockSource(Database dbSource) {
+    this.dbSource = dbSource;
+  }
+
+  @Override
+  public long lease(String counter, long size) throws GroundException {
+    List<Long> highWaterMarks = PostgresUtils.executeQuery(this.dbSource, SqlConstants.UPDATE_ID_LEASE,
+      resultSet -> resultSet.getLong("high_water_mark"), size, counter);
+
+    if (highWaterMarks.isEmpty()) {
+      throw new GroundException(ExceptionType.OTHER, String.format("No id lease exists for counter %s.", counter));
+    }
+
+    return highWaterMarks.get(0) - size;
+  }
+}
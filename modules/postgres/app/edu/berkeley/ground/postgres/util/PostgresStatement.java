@@ -0,0 +1,31 @@
+package edu.berkeley.ground.postgres.util;
+
+import java.util.Arrays;
+
+/**
+ * A single parameterized SQL statement: a template using ? placeholders and the values bound to
+ * them, in order.
+ */
+public class PostgresStatement {
+
+  private final String sql;
+  private final Object[] args;
+
+  public PostgresStatement(String sql, Object... args) {
+    this.sql = sql;
+    this.args = args;
+  }
+
+  public String getSql() {
+    return this.sql;
+  }
+
+  public Object[] getArgs() {
+    return this.args;
+  }
+
+  @Override
+  public String toString() {
+    return this.sql + " " + Arrays.toString(this.args);
+  }
+}
@@ -2,32 +2,132 @@ package edu.berkeley.ground.postgres.util;
 
 import edu.berkeley.ground.common.util.DbStatements;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-public class PostgresStatements implements DbStatements<String> {
+public class PostgresStatements implements DbStatements<PostgresStatement> {
 
-  List<String> statements;
+  List<PostgresStatement> statements;
+
+  // run by executeSqlList once the statements have been committed
+  List<Runnable> commitHooks;
 
   public PostgresStatements() {
     this.statements = new ArrayList<>();
+    this.commitHooks = new ArrayList<>();
   }
 
-  public PostgresStatements(List<String> statements) {
+  public PostgresStatements(List<PostgresStatement> statements) {
     this.statements = statements;
+    this.commitHooks = new ArrayList<>();
   }
 
   @Override
-  public void append(String statement) {
+  public void append(PostgresStatement statement) {
     this.statements.add(statement);
   }
 
+  public void append(String sql, Object... args) {
+    this.statements.add(new PostgresStatement(sql, args));
+  }
+
+  /**
+   * Register an action to run after these statements commit. Nothing is run if the transaction
+   * rolls back.
+   *
+   * @param hook the action to run
+   */
+  public void onCommit(Runnable hook) {
+    this.commitHooks.add(hook);
+  }
+
   @Override
   public void merge(DbStatements other) {
     this.statements.addAll(other.getAllStatements());
+
+    if (other instanceof PostgresStatements) {
+      this.commitHooks.addAll(((PostgresStatements) other).commitHooks);
+    }
   }
 
   @Override
-  public List<String> getAllStatements() {
+  public List<PostgresStatement> getAllStatements() {
     return this.statements;
   }
+
+  /**
+   * Combine the statements of several records so that all statements with the same SQL are
+   * adjacent, which lets executeSqlList send each SQL as a single batch. The SQL is ordered so that
+   * every record's statements still run in the order the record appended them, and a statement
+   * runs after every statement of an earlier record whose SQL comes before its own in any record.
+   * If the records append their SQL in conflicting orders, or a record goes back to SQL it used
+   * before another, no order satisfies them all and the statements are left as they were.
+   *
+   * @param records the statements of each record, in order
+   * @return the combined statements
+   */
+  public static PostgresStatements groupBySql(List<PostgresStatements> records) {
+    PostgresStatements combined = new PostgresStatements();
+    records.forEach(combined::merge);
+
+    // the SQL that must run before each SQL, in the order each SQL first appears
+    Map<String, Set<String>> predecessors = new LinkedHashMap<>();
+
+    for (PostgresStatements record : records) {
+      Set<String> seen = new HashSet<>();
+      String previous = null;
+
+      for (PostgresStatement statement : record.statements) {
+        String sql = statement.getSql();
+        predecessors.computeIfAbsent(sql, ignored -> new HashSet<>());
+
+        if (!sql.equals(previous)) {
+          if (!seen.add(sql)) {
+            return combined;
+          }
+
+          if (previous != null) {
+            predecessors.get(sql).add(previous);
+          }
+
+          previous = sql;
+        }
+      }
+    }
+
+    // repeatedly take the first SQL whose predecessors have all been taken
+    List<String> order = new ArrayList<>();
+
+    while (order.size() < predecessors.size()) {
+      String next = predecessors.entrySet().stream()
+                      .filter(entry -> !order.contains(entry.getKey()) && order.containsAll(entry.getValue()))
+                      .map(Map.Entry::getKey)
+                      .findFirst()
+                      .orElse(null);
+
+      if (next == null) {
+        return combined;
+      }
+
+      order.add(next);
+    }
+
+    Map<String, List<PostgresStatement>> groups = new HashMap<>();
+
+    for (PostgresStatement statement : combined.statements) {
+      groups.computeIfAbsent(statement.getSql(), sql -> new ArrayList<>()).add(statement);
+    }
+
+    List<PostgresStatement> grouped = new ArrayList<>();
+    order.forEach(sql -> grouped.addAll(groups.get(sql)));
+
+    PostgresStatements result = new PostgresStatements(grouped);
+    result.commitHooks.addAll(combined.commitHooks);
+
+    return result;
+  }
 }
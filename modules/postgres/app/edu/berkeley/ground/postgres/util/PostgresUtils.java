@@ -12,17 +12,19 @@
 
 package edu.berkeley.ground.postgres.util;
 
-import akka.actor.ActorSystem;
-import com.google.common.base.CaseFormat;
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Executor;
 import play.Logger;
 import play.db.Database;
@@ -30,70 +32,315 @@ import play.libs.concurrent.HttpExecution;
 
 public final class PostgresUtils {
 
+  private static final int STREAM_FETCH_SIZE = 1000;
+
   private PostgresUtils() {
   }
 
-  public static Executor getDbSourceHttpContext(final ActorSystem actorSystem) {
-    return HttpExecution.fromThread((Executor) actorSystem.dispatchers().lookup("ground.db.context"));
+  public static Executor getDbSourceHttpContext(final DbExecutor dbExecutor) {
+    return HttpExecution.fromThread((Executor) dbExecutor);
   }
 
-  public static String executeQueryToJson(Database dbSource, String sql) throws GroundException {
-    Logger.debug("executeQueryToJson: {}", sql);
+  /**
+   * Run a query and map every row of its result with the given mapper.
+   *
+   * @param dbSource the database to query
+   * @param sql the query to run, using ? placeholders for its arguments
+   * @param mapper the mapper applied to each row
+   * @param args the values bound to the query's placeholders
+   * @param <T> the type each row is mapped to
+   * @return the mapped rows, in the order they were returned
+   * @throws GroundException an error while running the query
+   */
+  public static <T> List<T> executeQuery(Database dbSource, String sql, RowMapper<T> mapper, Object... args) throws GroundException {
+    Logger.debug("executeQuery: {} {}", sql, Arrays.toString(args));
 
-    try {
-      Connection con = dbSource.getConnection();
-      Statement stmt = con.createStatement();
+    try (UnitOfWork.Lease lease = UnitOfWork.lease(dbSource);
+         PreparedStatement stmt = lease.getConnection().prepareStatement(sql)) {
 
-      final ResultSet resultSet = stmt.executeQuery(sql);
-      final long columnCount = resultSet.getMetaData().getColumnCount();
-      final List<Map<String, Object>> objList = new ArrayList<>();
+      long executeStart = System.nanoTime();
 
-      while (resultSet.next()) {
-        final Map<String, Object> rowData = new HashMap<>();
+      PostgresUtils.bind(stmt, args);
+      final List<T> results = new ArrayList<>();
 
-        for (int column = 1; column <= columnCount; column++) {
-          String key = CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, resultSet.getMetaData().getColumnLabel(column));
-          rowData.put(key, resultSet.getObject(column));
+      try (ResultSet resultSet = stmt.executeQuery()) {
+        while (resultSet.next()) {
+          results.add(mapper.map(resultSet));
         }
-
-        objList.add(rowData);
       }
 
-      stmt.close();
-      con.close();
-      return GroundUtils.listToJson(objList);
+      QueryMetrics.record(sql, args, lease.getConnectionWait(), System.nanoTime() - executeStart, results.size());
+      return results;
     } catch (SQLException e) {
-      Logger.error("ERROR:  executeQueryToJson  SQL : {} Message: {} Trace: {}", sql, e.getMessage(), e.getStackTrace());
+      Logger.error("ERROR:  executeQuery  SQL : {} Message: {} Trace: {}", sql, e.getMessage(), e.getStackTrace());
       throw new GroundException(e);
     }
   }
 
-  public static void executeSqlList(final Database dbSource, final PostgresStatements statements) throws GroundException {
-    try {
-      Connection con = dbSource.getConnection();
+  /**
+   * Run a query and pass its rows to the given scanner until it returns false. Rows are fetched
+   * through a cursor a page at a time, so a query whose result is only partly read is only partly
+   * computed.
+   *
+   * @param dbSource the database to query
+   * @param sql the query to run, using ? placeholders for its arguments
+   * @param scanner called with each row in turn, returning whether to read the next one
+   * @param args the values bound to the query's placeholders
+   * @throws GroundException an error while running the query
+   */
+  public static void scanQuery(Database dbSource, String sql, RowMapper<Boolean> scanner, Object... args) throws GroundException {
+    Logger.debug("scanQuery: {} {}", sql, Arrays.toString(args));
+
+    try (UnitOfWork.Lease lease = UnitOfWork.lease(dbSource)) {
+      Connection con = lease.getConnection();
+      boolean autoCommit = con.getAutoCommit();
+
+      // the Postgres driver only honors the fetch size outside of autocommit mode
       con.setAutoCommit(false);
-      Statement stmt = con.createStatement();
 
-      for (final String sql : statements.getAllStatements()) {
-        Logger.debug("executeSqlList sql : {}", sql);
+      try (PreparedStatement stmt = con.prepareStatement(sql)) {
+        long executeStart = System.nanoTime();
+        long rows = 0;
 
-        try {
-          stmt.execute(sql);
-        } catch (final SQLException e) {
-          con.rollback();
-          Logger.error("error:  Message: {} Trace: {}", e.getMessage(), e.getStackTrace());
+        stmt.setFetchSize(STREAM_FETCH_SIZE);
+        PostgresUtils.bind(stmt, args);
 
-          throw new GroundException(e);
+        try (ResultSet resultSet = stmt.executeQuery()) {
+          while (resultSet.next()) {
+            rows++;
+
+            if (!scanner.map(resultSet)) {
+              break;
+            }
+          }
         }
+
+        QueryMetrics.record(sql, args, lease.getConnectionWait(), System.nanoTime() - executeStart, rows);
+      } finally {
+        con.setAutoCommit(autoCommit);
       }
+    } catch (SQLException e) {
+      Logger.error("ERROR:  scanQuery  SQL : {} Message: {} Trace: {}", sql, e.getMessage(), e.getStackTrace());
+      throw new GroundException(e);
+    }
+  }
+
+  /**
+   * Run a query lazily, as a Source of its mapped rows. Nothing is read until the Source is run, and
+   * rows are then fetched through a cursor a page at a time as downstream demands them, so memory
+   * use does not depend on the size of the result. The connection is held until the Source
+   * completes, fails or is cancelled.
+   *
+   * @param dbSource the database to query
+   * @param sql the query to run, using ? placeholders for its arguments
+   * @param mapper the mapper applied to each row
+   * @param args the values bound to the query's placeholders
+   * @param <T> the type each row is mapped to
+   * @return the mapped rows, in the order they are returned
+   */
+  public static <T> Source<T, NotUsed> streamQuery(Database dbSource, String sql, RowMapper<T> mapper, Object... args) {
+    return Source.unfoldResource(() -> new Cursor(dbSource, sql, args),
+      cursor -> cursor.next() ? Optional.of(mapper.map(cursor.resultSet)) : Optional.empty(),
+      Cursor::close);
+  }
+
+  /**
+   * Execute a list of statements in a single transaction. Consecutive statements that share a SQL
+   * template are sent together as one JDBC batch, so the number of round trips depends on the
+   * number of distinct templates rather than on the number of statements. Statements are never
+   * reordered, so foreign key dependencies between them are preserved. The statements' commit hooks
+   * run only after the transaction commits. Inside a unit of work, the transaction runs on the
+   * unit's connection, and inside a {@link UnitOfWork#transactional} task, the statements join the
+   * task's transaction and their hooks wait for it to commit.
+   *
+   * @param dbSource the database to write to
+   * @param statements the statements to execute
+   * @throws GroundException an error while executing the statements; the transaction is rolled back
+   */
+  public static void executeSqlList(final Database dbSource, final PostgresStatements statements) throws GroundException {
+    List<PostgresStatement> allStatements = statements.getAllStatements();
+    UnitOfWork.Transaction transaction = UnitOfWork.currentTransaction();
 
-      stmt.close();
-      con.commit();
-      con.close();
+    if (transaction != null && transaction.isRollbackOnly()) {
+      throw new GroundException(ExceptionType.OTHER, "An earlier write in this transaction failed.");
+    }
+
+    try (UnitOfWork.Lease lease = UnitOfWork.lease(dbSource)) {
+      Connection con = lease.getConnection();
+
+      // the wait for the connection is charged to the first batch
+      long connectionWait = lease.getConnectionWait();
+      con.setAutoCommit(false);
+
+      if (transaction != null) {
+        transaction.join(con);
+      }
+
+      try {
+        int start = 0;
+
+        while (start < allStatements.size()) {
+          String sql = allStatements.get(start).getSql();
+          int end = start + 1;
+
+          while (end < allStatements.size() && allStatements.get(end).getSql().equals(sql)) {
+            end++;
+          }
+
+          PostgresUtils.executeBatch(con, allStatements.subList(start, end), connectionWait);
+          connectionWait = 0;
+          start = end;
+        }
+
+        if (transaction == null) {
+          con.commit();
+        }
+      } catch (SQLException e) {
+        PostgresUtils.rollback(con, transaction);
+
+        SQLException cause = e.getNextException() == null ? e : e.getNextException();
+        Logger.error("error:  executeSqlList SQL : {} Message: {} Trace: {}", allStatements, cause.getMessage(), cause.getStackTrace());
+
+        throw new GroundException(cause);
+      } catch (RuntimeException e) {
+        // restoring autocommit would commit the statements that already ran
+        PostgresUtils.rollback(con, transaction);
+        throw e;
+      } finally {
+        // the connection may be shared with the rest of a unit of work; a transaction restores it itself
+        if (transaction == null) {
+          con.setAutoCommit(true);
+        }
+      }
     } catch (SQLException e) {
-      Logger.error("error:  executeSqlList SQL : {} Message: {} Trace: {}", statements.getAllStatements(), e.getMessage(), e.getStackTrace());
+      Logger.error("error:  executeSqlList SQL : {} Message: {} Trace: {}", allStatements, e.getMessage(), e.getStackTrace());
 
       throw new GroundException(e);
     }
+
+    if (transaction == null) {
+      statements.commitHooks.forEach(Runnable::run);
+    } else {
+      transaction.onCommit(statements.commitHooks);
+    }
+  }
+
+  private static void rollback(Connection con, UnitOfWork.Transaction transaction) throws SQLException {
+    // a failed statement aborts the whole transaction, so nothing else it writes may commit
+    if (transaction != null) {
+      transaction.setRollbackOnly();
+    }
+
+    con.rollback();
+  }
+
+  private static void executeBatch(Connection con, List<PostgresStatement> batch, long connectionWait) throws SQLException {
+    String sql = batch.get(0).getSql();
+    long start = System.nanoTime();
+
+    try (PreparedStatement stmt = con.prepareStatement(sql)) {
+      if (batch.size() == 1) {
+        Logger.debug("executeSqlList sql : {}", batch.get(0));
+
+        PostgresUtils.bind(stmt, batch.get(0).getArgs());
+        stmt.execute();
+
+        QueryMetrics.record(sql, batch.get(0).getArgs(), connectionWait, System.nanoTime() - start, Math.max(stmt.getUpdateCount(), 0));
+        return;
+      }
+
+      for (PostgresStatement statement : batch) {
+        Logger.debug("executeSqlList batched sql : {}", statement);
+
+        PostgresUtils.bind(stmt, statement.getArgs());
+        stmt.addBatch();
+      }
+
+      // rewritten batches report SUCCESS_NO_INFO instead of a count, so those count as one row each
+      long rows = Arrays.stream(stmt.executeBatch()).mapToLong(count -> count < 0 ? 1 : count).sum();
+      QueryMetrics.record(sql, null, connectionWait, System.nanoTime() - start, rows);
+    }
+  }
+
+  /**
+   * Bind arguments to a statement's placeholders. A collection is bound as a Postgres array of
+   * bigints, or of varchars if it holds strings, so a set of values can be matched with a single =
+   * ANY(?) placeholder.
+   */
+  private static void bind(PreparedStatement stmt, Object[] args) throws SQLException {
+    for (int i = 0; i < args.length; i++) {
+      if (args[i] instanceof Collection) {
+        Object[] values = ((Collection<?>) args[i]).toArray();
+        String type = values.length > 0 && values[0] instanceof String ? "varchar" : "bigint";
+
+        stmt.setArray(i + 1, stmt.getConnection().createArrayOf(type, values));
+      } else {
+        stmt.setObject(i + 1, args[i]);
+      }
+    }
+  }
+
+  private static final class Cursor {
+
+    private final String sql;
+    private final Object[] args;
+    private final Connection con;
+    private final PreparedStatement stmt;
+    private final ResultSet resultSet;
+    private final long connectionWait;
+
+    // time spent in the database, not counting the time rows spend waiting for downstream demand
+    private long executeNanos = 0;
+    private long rows = 0;
+
+    Cursor(Database dbSource, String sql, Object[] args) throws SQLException {
+      Logger.debug("streamQuery: {} {}", sql, Arrays.toString(args));
+      this.sql = sql;
+      this.args = args;
+
+      long start = System.nanoTime();
+      this.con = dbSource.getConnection();
+      this.connectionWait = QueryMetrics.recordConnectionWait(start);
+
+      try {
+        long executeStart = System.nanoTime();
+
+        // the Postgres driver only honors the fetch size outside of autocommit mode
+        this.con.setAutoCommit(false);
+        this.stmt = this.con.prepareStatement(sql);
+        this.stmt.setFetchSize(STREAM_FETCH_SIZE);
+
+        PostgresUtils.bind(this.stmt, args);
+        this.resultSet = this.stmt.executeQuery();
+        this.executeNanos += System.nanoTime() - executeStart;
+      } catch (SQLException e) {
+        this.con.close();
+        throw e;
+      }
+    }
+
+    boolean next() throws SQLException {
+      long start = System.nanoTime();
+      boolean hasNext = this.resultSet.next();
+      this.executeNanos += System.nanoTime() - start;
+
+      if (hasNext) {
+        this.rows++;
+      }
+
+      return hasNext;
+    }
+
+    void close() throws SQLException {
+      QueryMetrics.record(this.sql, this.args, this.connectionWait, this.executeNanos, this.rows);
+
+      try {
+        this.resultSet.close();
+        this.stmt.close();
+        this.con.rollback();
+      } finally {
+        this.con.close();
+      }
+    }
   }
 }
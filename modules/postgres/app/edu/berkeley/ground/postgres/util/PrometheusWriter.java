@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+/**
+ * Builds a page of metrics in the Prometheus text exposition format. Every metric is declared once
+ * with {@link #declare} and followed by its samples; labels are given as alternating names and
+ * values.
+ */
+public final class PrometheusWriter {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final StringBuilder text = new StringBuilder();
+
+  /**
+   * Start a metric.
+   *
+   * @param name the name of the metric
+   * @param type counter, gauge or summary
+   * @param help a description of the metric
+   * @return this writer
+   */
+  public PrometheusWriter declare(String name, String type, String help) {
+    this.text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    this.text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    return this;
+  }
+
+  /**
+   * Write one sample of a metric.
+   *
+   * @param name the name of the sample, which may add a suffix like _sum to the metric's name
+   * @param value the value of the sample
+   * @param labels the sample's labels, as alternating names and values
+   * @return this writer
+   */
+  public PrometheusWriter sample(String name, double value, String... labels) {
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be given as name and value pairs.");
+    }
+
+    this.text.append(name);
+
+    for (int i = 0; i < labels.length; i += 2) {
+      this.text.append(i == 0 ? '{' : ',').append(labels[i]).append("=\"");
+      PrometheusWriter.escape(labels[i + 1], this.text);
+      this.text.append('"');
+    }
+
+    if (labels.length > 0) {
+      this.text.append('}');
+    }
+
+    this.text.append(' ');
+
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      this.text.append((long) value);
+    } else {
+      this.text.append(value);
+    }
+
+    this.text.append('\n');
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return this.text.toString();
+  }
+
+  private static void escape(String value, StringBuilder text) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+
+      if (c == '\\' || c == '"') {
+        text.append('\\').append(c);
+      } else if (c == '\n') {
+        text.append("\\n");
+      } else {
+        text.append(c);
+      }
+    }
+  }
+}
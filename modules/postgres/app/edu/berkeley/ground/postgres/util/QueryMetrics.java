@@ -0,0 +1,171 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import play.Logger;
+
+/**
+ * Process-wide counts and latencies of every SQL statement run against Postgres, by statement
+ * template, so the statements that dominate the load on the database can be found. A template is
+ * a statement's SQL with its arguments left as placeholders.
+ *
+ * <p>Statements that take longer than the slow query threshold are also written to the
+ * "slow-queries" log, with their arguments.
+ */
+public final class QueryMetrics {
+
+  private static final Logger.ALogger slowQueryLog = Logger.of("slow-queries");
+
+  private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+  private static final int SIGNIFICANT_DIGITS = 2;
+
+  // statements built at runtime could otherwise add templates without bound
+  private static final int MAXIMUM_TEMPLATES = 1000;
+  private static final String OTHER_TEMPLATE = "other";
+
+  private static final Map<String, StatementMetrics> templates = new ConcurrentHashMap<>();
+  private static final ConcurrentHistogram connectionWaits = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+  private static final LongAdder totalConnectionWaitNanos = new LongAdder();
+
+  private static volatile long slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private QueryMetrics() {
+  }
+
+  public static void setSlowQueryThreshold(long millis) {
+    slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  /**
+   * Record the time taken to get a connection from the pool, once the caller has it.
+   *
+   * @param startNanos the value of System.nanoTime() when the caller asked for the connection
+   * @return how long the caller waited for the connection
+   */
+  public static long recordConnectionWait(long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    connectionWaits.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+    totalConnectionWaitNanos.add(nanos);
+    DbStats.recordConnection();
+
+    return nanos;
+  }
+
+  /**
+   * Record a statement that was run.
+   *
+   * @param sql the statement's template
+   * @param args the statement's arguments, only used in the slow query log; may be null
+   * @param connectionWaitNanos how long the statement waited for its connection, or 0 if it reused
+   *     one that another statement waited for
+   * @param executeNanos how long the statement took to run and return its rows
+   * @param rows the number of rows the statement returned or changed
+   */
+  public static void record(String sql, Object[] args, long connectionWaitNanos, long executeNanos, long rows) {
+    StatementMetrics metrics = templates.get(sql);
+
+    if (metrics == null) {
+      String template = templates.size() < MAXIMUM_TEMPLATES ? sql : OTHER_TEMPLATE;
+      metrics = templates.computeIfAbsent(template, ignored -> new StatementMetrics());
+    }
+
+    metrics.latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(executeNanos));
+    metrics.executeNanos.add(executeNanos);
+    metrics.connectionWaitNanos.add(connectionWaitNanos);
+    metrics.rows.add(rows);
+    DbStats.recordStatement(rows);
+
+    if (executeNanos >= slowQueryNanos) {
+      slowQueryLog.warn("{} ms, {} rows, {} ms waiting for a connection: {} {}", TimeUnit.NANOSECONDS.toMillis(executeNanos), rows,
+        TimeUnit.NANOSECONDS.toMillis(connectionWaitNanos), sql, args == null ? "" : Arrays.toString(args));
+    }
+  }
+
+  /**
+   * Get the number of times a statement template has run.
+   *
+   * @param sql the statement's template
+   * @return the number of times it ran
+   */
+  public static long getCount(String sql) {
+    StatementMetrics metrics = templates.get(sql);
+    return metrics == null ? 0 : metrics.latencies.getTotalCount();
+  }
+
+  /**
+   * Get the number of rows a statement template has returned or changed.
+   *
+   * @param sql the statement's template
+   * @return the number of rows
+   */
+  public static long getRows(String sql) {
+    StatementMetrics metrics = templates.get(sql);
+    return metrics == null ? 0 : metrics.rows.sum();
+  }
+
+  /**
+   * Write every statement template's metrics.
+   *
+   * @param writer the page to write them to
+   */
+  public static void write(PrometheusWriter writer) {
+    Map<String, StatementMetrics> templates = new TreeMap<>(QueryMetrics.templates);
+
+    writer.declare("ground_db_statement_duration_seconds", "summary", "Time taken to run statements, by template.");
+    templates.forEach((sql, metrics) -> {
+      Histogram histogram = metrics.latencies.copy();
+
+      for (double quantile : QUANTILES) {
+        writer.sample("ground_db_statement_duration_seconds", histogram.getValueAtPercentile(quantile * 100) / 1e6,
+          "statement", sql, "quantile", Double.toString(quantile));
+      }
+
+      writer.sample("ground_db_statement_duration_seconds_sum", metrics.executeNanos.sum() / 1e9, "statement", sql);
+      writer.sample("ground_db_statement_duration_seconds_count", histogram.getTotalCount(), "statement", sql);
+    });
+
+    writer.declare("ground_db_statement_rows_total", "counter", "Rows returned or changed by statements, by template.");
+    templates.forEach((sql, metrics) -> writer.sample("ground_db_statement_rows_total", metrics.rows.sum(), "statement", sql));
+
+    writer.declare("ground_db_statement_connection_wait_seconds_total", "counter",
+      "Time statements spent waiting for a pooled connection, by template.");
+    templates.forEach((sql, metrics) -> writer.sample("ground_db_statement_connection_wait_seconds_total",
+      metrics.connectionWaitNanos.sum() / 1e9, "statement", sql));
+
+    Histogram histogram = connectionWaits.copy();
+    writer.declare("ground_db_connection_wait_seconds", "summary", "Time spent waiting for a pooled connection.");
+
+    for (double quantile : QUANTILES) {
+      writer.sample("ground_db_connection_wait_seconds", histogram.getValueAtPercentile(quantile * 100) / 1e6,
+        "quantile", Double.toString(quantile));
+    }
+
+    writer.sample("ground_db_connection_wait_seconds_sum", totalConnectionWaitNanos.sum() / 1e9);
+    writer.sample("ground_db_connection_wait_seconds_count", histogram.getTotalCount());
+  }
+
+  private static final class StatementMetrics {
+
+    private final ConcurrentHistogram latencies = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final LongAdder executeNanos = new LongAdder();
+    private final LongAdder connectionWaitNanos = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import javax.inject.Singleton;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Request counts and latencies for every route, kept since the application started. Latencies are
+ * recorded in an HDR histogram per route, which takes well under a microsecond per request and
+ * needs no locks, so it is cheap enough to leave on. Quantiles are accurate to within 1%.
+ */
+@Singleton
+public final class RequestMetrics {
+
+  public static final String UNMATCHED_ROUTE = "unmatched";
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  // latencies are recorded in microseconds; two significant digits keeps each histogram small
+  private static final int SIGNIFICANT_DIGITS = 2;
+
+  // Play's route patterns spell a path parameter as $name<regex>, but the routes file says :name
+  private static final Pattern PATH_PARAMETER = Pattern.compile("\\$(\\w+)<[^>]*>");
+
+  private final Map<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+
+  /**
+   * Record a request that was answered.
+   *
+   * @param method the request's HTTP method
+   * @param routePattern the pattern of the route that matched the request, or null if none did
+   * @param status the HTTP status of the response
+   * @param nanos how long the request took
+   */
+  public void record(String method, String routePattern, int status, long nanos) {
+    String route = routePattern == null ? UNMATCHED_ROUTE : routePattern;
+    RouteMetrics metrics = this.routes.get(method + ' ' + route);
+
+    if (metrics == null) {
+      metrics = this.routes.computeIfAbsent(method + ' ' + route, ignored -> new RouteMetrics(method, route));
+    }
+
+    metrics.record(status, nanos);
+  }
+
+  /**
+   * Write every route's metrics.
+   *
+   * @param writer the page to write them to
+   */
+  public void write(PrometheusWriter writer) {
+    Map<String, RouteMetrics> routes = new TreeMap<>(this.routes);
+
+    writer.declare("ground_http_requests_total", "counter", "Requests answered, by route and status class.");
+    routes.values().forEach(metrics -> {
+      for (int i = 0; i < metrics.statusClasses.length; i++) {
+        long count = metrics.statusClasses[i].sum();
+
+        if (count > 0) {
+          writer.sample("ground_http_requests_total", count, "method", metrics.method, "route", metrics.route,
+            "status", (i + 1) + "xx");
+        }
+      }
+    });
+
+    writer.declare("ground_http_request_duration_seconds", "summary", "Time taken to answer requests, by route.");
+    routes.values().forEach(metrics -> {
+      Histogram histogram = metrics.latencies.copy();
+
+      for (double quantile : QUANTILES) {
+        writer.sample("ground_http_request_duration_seconds", RequestMetrics.toSeconds(histogram.getValueAtPercentile(quantile * 100)),
+          "method", metrics.method, "route", metrics.route, "quantile", Double.toString(quantile));
+      }
+
+      writer.sample("ground_http_request_duration_seconds_sum", metrics.totalNanos.sum() / 1e9,
+        "method", metrics.method, "route", metrics.route);
+      writer.sample("ground_http_request_duration_seconds_count", histogram.getTotalCount(),
+        "method", metrics.method, "route", metrics.route);
+    });
+  }
+
+  private static double toSeconds(long micros) {
+    return micros / 1e6;
+  }
+
+  private static final class RouteMetrics {
+
+    private final String method;
+    private final String route;
+
+    // indexed by the first digit of the status, less one
+    private final LongAdder[] statusClasses = new LongAdder[5];
+    private final ConcurrentHistogram latencies = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+    private final LongAdder totalNanos = new LongAdder();
+
+    RouteMetrics(String method, String routePattern) {
+      this.method = method;
+      this.route = PATH_PARAMETER.matcher(routePattern).replaceAll(":$1");
+
+      for (int i = 0; i < this.statusClasses.length; i++) {
+        this.statusClasses[i] = new LongAdder();
+      }
+    }
+
+    void record(int status, long nanos) {
+      int statusClass = Math.min(Math.max(status / 100, 1), 5);
+
+      this.statusClasses[statusClass - 1].increment();
+      this.latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+      this.totalNanos.add(nanos);
+    }
+  }
+}
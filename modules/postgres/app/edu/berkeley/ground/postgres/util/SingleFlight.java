@@ -0,0 +1,124 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key. While a load is in flight, every other caller asking
+ * for the same key shares its result instead of starting a load of its own, so a popular entry
+ * falling out of a cache costs one round of queries rather than one per waiting request.
+ *
+ * <p>Nothing is kept once a load completes; the next caller starts a new load. A cache forgets the
+ * load of a key it invalidates, so callers that come after a write never share a load that may
+ * have started before it.
+ */
+public final class SingleFlight<K, V> {
+
+  private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Load the value of a key, or join the load of it that is already in flight.
+   *
+   * @param key the key of the value
+   * @param loader starts loading the value; only called if no load of the key is in flight
+   * @return the value, once it is loaded
+   */
+  public CompletionStage<V> load(K key, Supplier<? extends CompletionStage<V>> loader) {
+    CompletableFuture<V> flight = new CompletableFuture<>();
+    CompletableFuture<V> existing = this.inFlight.putIfAbsent(key, flight);
+
+    if (existing != null) {
+      return existing.thenApply(value -> value);
+    }
+
+    try {
+      loader.get().whenComplete((value, e) -> {
+        // forget the load before anyone sees its result, so a caller that saw it starts a new one
+        this.inFlight.remove(key, flight);
+
+        if (e == null) {
+          flight.complete(value);
+        } else {
+          flight.completeExceptionally(e);
+        }
+      });
+    } catch (RuntimeException e) {
+      this.inFlight.remove(key, flight);
+      flight.completeExceptionally(e);
+      throw e;
+    }
+
+    // callers get their own stage, so none of them can complete the shared one
+    return flight.thenApply(value -> value);
+  }
+
+  /**
+   * Load the value of a key on the calling thread, or wait for the load of it already in flight.
+   *
+   * @param key the key of the value
+   * @param loader reads the value; only called if no load of the key is in flight
+   * @return the value
+   * @throws GroundException an error loading the value
+   */
+  public V get(K key, GroundCache.Loader<V> loader) throws GroundException {
+    try {
+      return this.load(key, () -> {
+        CompletableFuture<V> result = new CompletableFuture<>();
+
+        try {
+          result.complete(loader.load());
+        } catch (Throwable e) {
+          result.completeExceptionally(e);
+        }
+
+        return result;
+      }).toCompletableFuture().join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof GroundException) {
+        throw (GroundException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw e;
+    }
+  }
+
+  /**
+   * Stop sharing the load of a key that is in flight. It still completes for the callers already
+   * waiting on it, but the next caller starts a new load.
+   *
+   * @param key the key of the value
+   */
+  public void forget(K key) {
+    this.inFlight.remove(key);
+  }
+
+  public void forgetAll() {
+    this.inFlight.clear();
+  }
+
+  public int size() {
+    return this.inFlight.size();
+  }
+}
@@ -0,0 +1,291 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.berkeley.ground.postgres.util;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import play.Logger;
+import play.db.Database;
+
+/**
+ * A block of database work that shares one pooled connection per database. The connection is
+ * checked out the first time the block needs it and returned when the block ends, so a request
+ * that reads a version, its tags and its parameters holds one connection rather than checking out
+ * three. Every task run by the {@link DbExecutor} is a unit of work.
+ *
+ * <p>A unit of work is not a transaction by itself: outside of one, every call to
+ * {@link PostgresUtils#executeSqlList} commits on its own. A task wrapped by
+ * {@link #transactional} runs as one transaction instead, so a write request that creates an item
+ * and then a version either commits both or neither. The statement lists' commit hooks, which keep
+ * the DAOs' caches exact, are deferred until the transaction commits, and once it has written,
+ * the caches are read around rather than through, so they never see or keep uncommitted rows.
+ *
+ * <p>Outside of a unit of work, every lease checks out a connection of its own.
+ */
+public final class UnitOfWork implements AutoCloseable {
+
+  private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+  private final UnitOfWork previous;
+  private final Map<Database, Connection> connections = new IdentityHashMap<>();
+
+  // the transaction the unit's writes join, if it is running a transactional task
+  private Transaction transaction;
+
+  private UnitOfWork(UnitOfWork previous) {
+    this.previous = previous;
+  }
+
+  /**
+   * A connection leased for one statement or transaction. Closing the lease returns the connection
+   * to the pool, unless it belongs to a unit of work.
+   */
+  public static final class Lease implements AutoCloseable {
+
+    private final Connection connection;
+    private final long connectionWait;
+    private final boolean shared;
+
+    private Lease(Connection connection, long connectionWait, boolean shared) {
+      this.connection = connection;
+      this.connectionWait = connectionWait;
+      this.shared = shared;
+    }
+
+    public Connection getConnection() {
+      return this.connection;
+    }
+
+    /**
+     * Get how long this lease waited for a pooled connection.
+     *
+     * @return the wait in nanoseconds, or 0 if the lease reused its unit of work's connection
+     */
+    public long getConnectionWait() {
+      return this.connectionWait;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      if (!this.shared) {
+        this.connection.close();
+      }
+    }
+  }
+
+  /**
+   * The writes of one transactional task. Every connection a write runs on joins the transaction,
+   * and is committed, or rolled back, when the task ends.
+   *
+   * <p>There are no savepoints: once a write fails, the transaction can only roll back, even if the
+   * task catches the failure.
+   */
+  static final class Transaction {
+
+    private final Set<Connection> connections = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Runnable> commitHooks = new ArrayList<>();
+    private boolean rollbackOnly = false;
+
+    void join(Connection connection) {
+      this.connections.add(connection);
+    }
+
+    void onCommit(List<Runnable> hooks) {
+      this.commitHooks.addAll(hooks);
+    }
+
+    void setRollbackOnly() {
+      this.rollbackOnly = true;
+    }
+
+    boolean isRollbackOnly() {
+      return this.rollbackOnly;
+    }
+
+    private void commit() throws SQLException {
+      for (Connection connection : this.connections) {
+        connection.commit();
+        connection.setAutoCommit(true);
+      }
+    }
+
+    private void rollback() {
+      for (Connection connection : this.connections) {
+        try {
+          connection.rollback();
+          connection.setAutoCommit(true);
+        } catch (SQLException e) {
+          Logger.error("Unable to roll back a transaction: {}", e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Start a unit of work on this thread. It lasts until it is closed.
+   *
+   * @return the unit of work
+   */
+  public static UnitOfWork begin() {
+    UnitOfWork unit = new UnitOfWork(current.get());
+    current.set(unit);
+
+    return unit;
+  }
+
+  /**
+   * Run a task as a unit of work.
+   *
+   * @param task the task
+   */
+  public static void run(Runnable task) {
+    UnitOfWork unit = UnitOfWork.begin();
+
+    try {
+      task.run();
+    } finally {
+      unit.close();
+    }
+  }
+
+  /**
+   * Wrap a task so that it runs as one transaction, in the current unit of work or in one of its
+   * own. A task that is already running in a transaction joins it. The transaction is rolled back if
+   * the task throws, or if any of its writes failed; otherwise it is committed, and then the commit
+   * hooks of its writes are run.
+   *
+   * @param task the task
+   * @return the transactional task
+   * @throws CompletionException wrapping a GroundException, if the transaction fails to commit
+   */
+  public static <T> Supplier<T> transactional(Supplier<T> task) {
+    return () -> {
+      UnitOfWork unit = current.get();
+
+      if (unit != null && unit.transaction != null) {
+        return task.get();
+      }
+
+      UnitOfWork owned = unit == null ? UnitOfWork.begin() : null;
+      UnitOfWork scope = unit == null ? owned : unit;
+      Transaction transaction = new Transaction();
+      boolean committed = false;
+      T result;
+
+      scope.transaction = transaction;
+
+      try {
+        result = task.get();
+
+        if (transaction.isRollbackOnly()) {
+          throw new CompletionException(new GroundException(ExceptionType.OTHER,
+            "The transaction was rolled back because one of its writes failed."));
+        }
+
+        transaction.commit();
+        committed = true;
+      } catch (SQLException e) {
+        throw new CompletionException(new GroundException(e));
+      } finally {
+        scope.transaction = null;
+
+        if (!committed) {
+          transaction.rollback();
+        }
+
+        if (owned != null) {
+          owned.close();
+        }
+      }
+
+      transaction.commitHooks.forEach(Runnable::run);
+      return result;
+    };
+  }
+
+  /**
+   * Get the transaction the current task's writes join.
+   *
+   * @return the transaction, or null if the task is not transactional
+   */
+  static Transaction currentTransaction() {
+    UnitOfWork unit = current.get();
+    return unit == null ? null : unit.transaction;
+  }
+
+  /**
+   * Check whether the current task has written rows that are not committed yet. Caches must not be
+   * read or filled while it has, since they would serve rows from before the writes, or keep rows
+   * that may still be rolled back.
+   *
+   * @return true if the current transaction has written
+   */
+  public static boolean hasUncommittedWrites() {
+    Transaction transaction = UnitOfWork.currentTransaction();
+    return transaction != null && !transaction.connections.isEmpty();
+  }
+
+  /**
+   * Lease a connection to a database, sharing the current unit of work's connection if there is
+   * one.
+   *
+   * @param dbSource the database
+   * @return the lease
+   */
+  public static Lease lease(Database dbSource) {
+    UnitOfWork unit = current.get();
+
+    if (unit != null) {
+      Connection connection = unit.connections.get(dbSource);
+
+      if (connection != null) {
+        return new Lease(connection, 0, true);
+      }
+    }
+
+    long start = System.nanoTime();
+    Connection connection = dbSource.getConnection();
+    long connectionWait = QueryMetrics.recordConnectionWait(start);
+
+    if (unit == null) {
+      return new Lease(connection, connectionWait, false);
+    }
+
+    unit.connections.put(dbSource, connection);
+    return new Lease(connection, connectionWait, true);
+  }
+
+  @Override
+  public void close() {
+    current.set(this.previous);
+
+    for (Connection connection : this.connections.values()) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        Logger.error("Unable to return a connection to the pool: {}", e.getMessage());
+      }
+    }
+
+    this.connections.clear();
+  }
+}
@@ -0,0 +1,277 @@
+package edu.berkeley.ground.postgres.dao;
+
+import static org.junit.Assert.assertFalse;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.postgres.util.PostgresStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the plan Postgres picks for each DAO query on a large seeded dataset, so that a query that
+ * stops matching an index fails here rather than in production. Seeding takes minutes, so the test
+ * only runs when the ground.queryPlans system property is set, as in {@code sbt
+ * -Dground.queryPlans=true test}.
+ *
+ * <p>The plan of a query that calls a SQL function only shows the function's body if Postgres
+ * inlines it, so the body of every SQL function in the schema is explained on its own as well.
+ */
+public class PostgresQueryPlanTest extends PostgresTest {
+
+  // rows in the version, item and tag tables, which grow with every new version
+  private static final int NUM_VERSIONS = 1000000;
+
+  // rows in each of the model tables
+  private static final int NUM_MODELS = 100000;
+
+  // deltas and checkpoints alternate like this many versions at a time, as they do in the DAOs
+  private static final int CHAIN_LENGTH = 32;
+
+  // the id every query reads, which is in every seeded table
+  private static final long QUERY_ID = 42;
+
+  private static final List<String> ITEM_TABLES = Arrays.asList("node", "edge", "graph", "structure", "lineage_edge", "lineage_graph");
+  private static final List<String> VERSION_TABLES = Arrays.asList("rich_version", "node_version", "edge_version", "graph_version",
+    "structure_version", "lineage_edge_version", "lineage_graph_version");
+  private static final List<String> RICH_VERSION_TABLES = Arrays.asList("rich_version", "node_version", "edge_version",
+    "lineage_edge_version");
+
+  // the SQL functions' queries, which refer to their only argument as $1
+  private static final String SELECT_FUNCTION_BODIES = "SELECT p.prosrc FROM pg_proc p JOIN pg_namespace n ON n.oid = p.pronamespace "
+                                                         + "JOIN pg_language l ON l.oid = p.prolang WHERE n.nspname = current_schema() "
+                                                         + "AND l.lanname = 'sql' AND p.pronargs = 1;";
+
+  public PostgresQueryPlanTest() throws GroundException {
+    super();
+  }
+
+  @BeforeClass
+  public static void checkEnabled() {
+    Assume.assumeTrue(Boolean.getBoolean("ground.queryPlans"));
+  }
+
+  @Test
+  public void testQueriesUseIndexes() throws SQLException {
+    this.seed();
+
+    List<PostgresStatement> queries = PostgresQueryPlanTest.getQueries();
+    queries.addAll(PostgresQueryPlanTest.getFunctionBodies(QUERY_ID));
+    assertFalse(queries.isEmpty());
+
+    for (PostgresStatement query : queries) {
+      String plan = PostgresQueryPlanTest.explain(query);
+
+      assertFalse(String.format("%s scans a whole table:\n%s", query.getSql(), plan), plan.contains("Seq Scan"));
+    }
+  }
+
+  private static List<PostgresStatement> getQueries() {
+    long id = QUERY_ID;
+    List<Long> ids = Arrays.asList(id, id + 1, id + 2);
+    List<PostgresStatement> queries = new ArrayList<>();
+
+    for (String table : ITEM_TABLES) {
+      queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_STAR_BY_SOURCE_KEY, table), table + id));
+      queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_STAR_ITEM_BY_ID, table), id));
+      queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_ITEM_IDS_BY_SOURCE_KEYS, table),
+        Arrays.asList(table + id, table + (id + 1))));
+    }
+
+    for (String table : VERSION_TABLES) {
+      queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_STAR_BY_ID, table), id));
+      queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_STAR_BY_IDS, table), ids));
+      queries.add(new PostgresStatement(String.format(SqlConstants.DELETE_BY_ID, table), id));
+    }
+
+    for (String table : RICH_VERSION_TABLES) {
+      queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_RICH_VERSIONS, table, "", ""), ids));
+    }
+
+    queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_RICH_VERSIONS, "graph_version", ", e.edge_ids",
+      String.format(SqlConstants.SELECT_RICH_VERSIONS_EDGE_IDS, "graph_version_edge_set", "graph_version_id", "edge_version_id")), ids));
+    queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_RICH_VERSIONS, "lineage_graph_version", ", e.edge_ids",
+      String.format(SqlConstants.SELECT_RICH_VERSIONS_EDGE_IDS, "lineage_graph_version_edge", "lineage_graph_version_id",
+        "lineage_edge_version_id")), ids));
+
+    queries.add(new PostgresStatement(SqlConstants.SELECT_VERSION_SUCCESSOR, id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_VERSION_SUCCESSOR_BY_ENDPOINT, id));
+    queries.add(new PostgresStatement(SqlConstants.DELETE_VERSION_SUCCESSOR, id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_VERSION_HISTORY_DAG_EDGES, id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_VERSION_HISTORY_DAG_EDGES_PAGE, id, 0L, 1000L));
+    queries.add(new PostgresStatement(SqlConstants.DELETE_SUCCESSOR_FROM_DAG, id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_VERSION_HISTORY_DAG_LEAVES, ids));
+
+    queries.addAll(PostgresQueryPlanTest.getSearchQueries(id));
+
+    queries.add(new PostgresStatement(SqlConstants.SELECT_ITEM_TAGS, id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_ITEM_TAGS_BY_KEY, "key" + id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_RICH_VERSION_TAGS, id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_RICH_VERSION_TAGS_BY_KEY, "key" + id, Long.MIN_VALUE, Long.MIN_VALUE, "key" + id,
+      "key" + id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_RICH_VERSION_TAG_BASE, id));
+    queries.add(new PostgresStatement(SqlConstants.DELETE_RICH_VERSION_TAGS, id));
+    queries.add(new PostgresStatement(SqlConstants.DELETE_RICH_VERSION_TAG_REMOVALS, id));
+    queries.add(new PostgresStatement(SqlConstants.INSERT_RICH_VERSION_TAGS_OF_DELTAS, ids, ids));
+    queries.add(new PostgresStatement(SqlConstants.DELETE_RICH_VERSION_TAG_REMOVALS_OF_DELTAS, ids, ids));
+    queries.add(new PostgresStatement(SqlConstants.UPDATE_RICH_VERSION_DELTAS_TO_SNAPSHOTS, ids, ids));
+    queries.add(new PostgresStatement(SqlConstants.UPDATE_RICH_VERSION_MAX_TAG_DELTA_IDS, id, id + 1, id + 1));
+    queries.add(new PostgresStatement(SqlConstants.DELETE_RICH_EXTERNAL_PARAMETERS, id));
+
+    queries.add(new PostgresStatement(SqlConstants.UPDATE_EDGE_VERSION, id + 1, id + 2, id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_GRAPH_VERSION_EDGES_PAGE, id, 0L, 1000L));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_GRAPH_VERSION_DELTA_EDGES_PAGE, id, 0L, 0L, 1000L, 1000L));
+    queries.add(new PostgresStatement(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "graph_version_edge", "graph"), id));
+    queries.add(new PostgresStatement(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "graph_version_edge_delta", "graph"), id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_GRAPH_VERSION_DELTA_BASE, id, id));
+    queries.add(new PostgresStatement(SqlConstants.INSERT_GRAPH_VERSION_EDGES_OF_DELTAS, id));
+    queries.add(new PostgresStatement(SqlConstants.DELETE_GRAPH_VERSION_EDGE_DELTAS_OF_DELTAS, id));
+    queries.add(new PostgresStatement(SqlConstants.UPDATE_GRAPH_VERSION_DELTAS_TO_CHECKPOINTS, id));
+    queries.add(new PostgresStatement(String.format(SqlConstants.DELETE_ALL_GRAPH_VERSION_EDGES, "lineage_graph_version_edge", "lineage_graph"),
+      id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_LINEAGE_GRAPH_VERSION_EDGES_PAGE, id, 0L, 1000L));
+    queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_LINEAGE, "from_rich_version_id", "to_id"), id, 11, 11, 10, 10));
+    queries.add(new PostgresStatement(String.format(SqlConstants.SELECT_LINEAGE, "to_rich_version_id", "from_id"), id, 11, 11, 10, 10));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_STRUCTURE_VERSION_ATTRIBUTES, id));
+    queries.add(new PostgresStatement(SqlConstants.SELECT_STRUCTURE_VERSION_ATTRIBUTES_BY_IDS, ids));
+    queries.add(new PostgresStatement(SqlConstants.DELETE_STRUCTURE_VERSION_ATTRIBUTES, id));
+
+    return queries;
+  }
+
+  /**
+   * Build the tag searches the way PostgresTagDao does: a search on one tag, and one on two tags
+   * whose second predicate is a range.
+   */
+  private static List<PostgresStatement> getSearchQueries(long id) {
+    String equals = String.format(SqlConstants.SEARCH_TAGS_PREDICATE, 0, "value", "=");
+    String range = String.format(SqlConstants.SEARCH_TAGS_PREDICATE, 0, "long_value", ">");
+    String key = "key" + id;
+    String value = Long.toString(id);
+    List<PostgresStatement> queries = new ArrayList<>();
+
+    for (String[] tables : new String[][] {{"item_tag", "item_id"}, {"rich_version_tag", "rich_version_id"}}) {
+      String join = String.format(SqlConstants.SEARCH_TAGS_JOIN, tables[0], tables[1], 1,
+        String.format(SqlConstants.SEARCH_TAGS_PREDICATE, 1, "long_value", ">"));
+
+      queries.add(new PostgresStatement(String.format(SqlConstants.SEARCH_TAGS, tables[1], tables[0], "", equals), key, value, 0L, 100));
+      queries.add(new PostgresStatement(String.format(SqlConstants.SEARCH_TAGS, tables[1], tables[0], join, equals), key, id, key, value,
+        0L, 100));
+    }
+
+    String holders = String.format(SqlConstants.SEARCH_RICH_VERSION_TAGS_HOLDERS, 0, equals) + ", "
+                       + String.format(SqlConstants.SEARCH_RICH_VERSION_TAGS_HOLDERS, 1, range);
+    queries.add(new PostgresStatement(String.format(SqlConstants.SEARCH_RICH_VERSION_TAGS, holders,
+      String.format(SqlConstants.SEARCH_RICH_VERSION_TAGS_JOIN, 1)), key, value, 0L, 0L, key, key, key, id, 0L, 0L, key, key, 0L, 100));
+
+    return queries;
+  }
+
+  /**
+   * Get the queries of the schema's SQL functions, with their argument bound to the given id.
+   */
+  private static List<PostgresStatement> getFunctionBodies(long id) throws SQLException {
+    List<PostgresStatement> bodies = new ArrayList<>();
+
+    try (Connection con = PostgresTest.dbSource.getConnection();
+         Statement stmt = con.createStatement();
+         ResultSet resultSet = stmt.executeQuery(SELECT_FUNCTION_BODIES)) {
+
+      while (resultSet.next()) {
+        String body = resultSet.getString(1).trim().replace("$1", "?::bigint");
+        long placeholders = body.chars().filter(c -> c == '?').count();
+
+        bodies.add(new PostgresStatement(body, Collections.nCopies((int) placeholders, id).toArray()));
+      }
+    }
+
+    return bodies;
+  }
+
+  private static String explain(PostgresStatement query) throws SQLException {
+    try (Connection con = PostgresTest.dbSource.getConnection();
+         PreparedStatement stmt = con.prepareStatement("EXPLAIN " + query.getSql())) {
+
+      Object[] args = query.getArgs();
+      for (int i = 0; i < args.length; i++) {
+        if (args[i] instanceof Collection) {
+          Object[] values = ((Collection<?>) args[i]).toArray();
+          String type = values.length > 0 && values[0] instanceof String ? "varchar" : "bigint";
+
+          stmt.setArray(i + 1, con.createArrayOf(type, values));
+        } else {
+          stmt.setObject(i + 1, args[i]);
+        }
+      }
+
+      StringBuilder plan = new StringBuilder();
+      try (ResultSet resultSet = stmt.executeQuery()) {
+        while (resultSet.next()) {
+          plan.append(resultSet.getString(1)).append('\n');
+        }
+      }
+
+      return plan.toString();
+    }
+  }
+
+  /**
+   * Fill every table the DAOs query. Version ids, item ids and successor ids are all drawn from
+   * 1..NUM_VERSIONS, and each model table uses the first NUM_MODELS of them. Rich versions' tags
+   * and graph versions' edges are stored as chains of deltas, CHAIN_LENGTH versions long.
+   */
+  private void seed() throws SQLException {
+    String versions = " FROM generate_series(1, " + NUM_VERSIONS + ") i;";
+    String models = " FROM generate_series(1, " + NUM_MODELS + ") i;";
+    String next = "(i % " + NUM_MODELS + ") + 1";
+    String base = "CASE WHEN i % " + CHAIN_LENGTH + " = 1 THEN NULL ELSE i - 1 END, (i - 1) % " + CHAIN_LENGTH;
+    String chainEnd = "CASE WHEN i % " + CHAIN_LENGTH + " = 0 THEN NULL ELSE ((i - 1) / " + CHAIN_LENGTH + " + 1) * " + CHAIN_LENGTH + " END";
+
+    List<String> statements = Arrays.asList(
+      "INSERT INTO version (id) SELECT i" + versions,
+      "INSERT INTO item (id) SELECT i" + versions,
+      "INSERT INTO version_successor (id, from_version_id, to_version_id) SELECT i, i - 1, i" + versions,
+      "INSERT INTO version_history_dag (item_id, version_successor_id) SELECT i, i" + versions,
+      "INSERT INTO item_tag (item_id, key, value, type, long_value) SELECT i, 'key' || (i % 1000), i, 'long', i" + versions,
+      "INSERT INTO rich_version (id, tag_base_id, tag_depth, max_tag_delta_id) SELECT i, " + base + ", " + chainEnd + versions,
+      "INSERT INTO rich_version_tag (rich_version_id, key, value, type, long_value) SELECT i, 'key' || (i % 1000), i, 'long', i" + versions,
+      "INSERT INTO rich_version_tag_removal (rich_version_id, key) SELECT i, 'removed'" + models,
+      "INSERT INTO rich_version_external_parameter (rich_version_id, key, value) SELECT i, 'http', 'GET'" + models,
+
+      "INSERT INTO structure (item_id, source_key, name) SELECT i, 'structure' || i, 'structure'" + models,
+      "INSERT INTO structure_version (id, structure_id) SELECT i, i" + models,
+      "INSERT INTO structure_version_attribute (structure_version_id, key, type) SELECT i, 'key', 'string'" + models,
+      "INSERT INTO node (item_id, source_key, name) SELECT i, 'node' || i, 'node'" + models,
+      "INSERT INTO node_version (id, node_id) SELECT i, i" + models,
+      "INSERT INTO edge (item_id, source_key, from_node_id, to_node_id, name) SELECT i, 'edge' || i, i, " + next + ", 'edge'" + models,
+      "INSERT INTO edge_version (id, edge_id, from_node_version_start_id, to_node_version_start_id) SELECT i, i, i, " + next + models,
+      "INSERT INTO graph (item_id, source_key, name) SELECT i, 'graph' || i, 'graph'" + models,
+      "INSERT INTO graph_version (id, graph_id, delta_base_id, delta_depth) SELECT i, i, " + base + models,
+      "INSERT INTO graph_version_edge (graph_version_id, edge_version_id) SELECT i, i" + models,
+      "INSERT INTO graph_version_edge_delta (graph_version_id, edge_version_id, added) SELECT i, i, true" + models,
+      "INSERT INTO lineage_edge (item_id, source_key, name) SELECT i, 'lineage_edge' || i, 'lineage_edge'" + models,
+      "INSERT INTO lineage_edge_version (id, lineage_edge_id, from_rich_version_id, to_rich_version_id) SELECT i, i, i, " + next + models,
+      "INSERT INTO lineage_graph (item_id, source_key, name) SELECT i, 'lineage_graph' || i, 'lineage_graph'" + models,
+      "INSERT INTO lineage_graph_version (id, lineage_graph_id) SELECT i, i" + models,
+      "INSERT INTO lineage_graph_version_edge (lineage_graph_version_id, lineage_edge_version_id) SELECT i, i" + models,
+      "ANALYZE;");
+
+    try (Connection con = PostgresTest.dbSource.getConnection();
+         Statement stmt = con.createStatement()) {
+
+      for (String statement : statements) {
+        stmt.execute(statement);
+      }
+    }
+  }
+}
@@ -1,5 +1,11 @@
 package edu.berkeley.ground.postgres.dao;
 
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
 import com.google.common.collect.ImmutableMap;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.util.IdGenerator;
@@ -18,13 +24,22 @@ import edu.berkeley.ground.postgres.dao.usage.PostgresLineageGraphVersionDao;
 import edu.berkeley.ground.postgres.dao.version.PostgresTagDao;
 import edu.berkeley.ground.postgres.dao.version.PostgresVersionHistoryDagDao;
 import edu.berkeley.ground.postgres.dao.version.PostgresVersionSuccessorDao;
+import edu.berkeley.ground.postgres.dao.version.VersionHistoryDagCache;
 import edu.berkeley.ground.postgres.dao.version.mock.TestPostgresItemDao;
 import edu.berkeley.ground.postgres.dao.version.mock.TestPostgresRichVersionDao;
 import edu.berkeley.ground.postgres.dao.version.mock.TestPostgresVersionDao;
+import edu.berkeley.ground.postgres.util.DbStats;
+import edu.berkeley.ground.postgres.util.GroundCache;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
 import org.junit.After;
 import org.junit.Before;
 import play.db.Database;
@@ -35,6 +50,7 @@ public class PostgresTest extends DaoTest {
 
   private static final String DROP_SCRIPT = "../../resources/scripts/postgres/drop_postgres.sql";
   private static final String CREATE_SCHEMA_SCRIPT = "../../resources/scripts/postgres/postgres.sql";
+  private static final String MIGRATIONS_DIRECTORY = "../../resources/scripts/postgres/migrations";
 
   public PostgresTest() throws GroundException {
 
@@ -44,7 +60,7 @@ public class PostgresTest extends DaoTest {
   public void setup() throws IOException, InterruptedException, GroundException {
     Database dbSource = Databases.createFrom(
       "org.postgresql.Driver",
-      "jdbc:postgresql://localhost:5432/test",
+      "jdbc:postgresql://localhost:5432/test?reWriteBatchedInserts=true",
       ImmutableMap.of(
         "username", "test",
         "password", "test"
@@ -77,6 +93,11 @@ public class PostgresTest extends DaoTest {
 
     runScript(DROP_SCRIPT);
     runScript(CREATE_SCHEMA_SCRIPT);
+    runMigrations();
+
+    // every test starts from an empty database, so nothing cached by an earlier test is valid
+    VersionHistoryDagCache.invalidateAll();
+    GroundCache.invalidateAllNamespaces();
   }
 
   @After
@@ -84,13 +105,49 @@ public class PostgresTest extends DaoTest {
     dbSource.shutdown();
   }
 
-  private static void runScript(String script) {
+  /**
+   * Run a Source to completion and collect everything it produced.
+   */
+  protected static <T> List<T> collect(Source<T, ?> source) throws ExecutionException, InterruptedException {
+    ActorSystem actorSystem = ActorSystem.create();
+
     try {
-      boolean autoCommitState = dbSource.getConnection().getAutoCommit();
-      dbSource.getConnection().setAutoCommit(false);
-      StatementExecutor exec = new StatementExecutor(dbSource.getConnection());
+      return source.runWith(Sink.seq(), ActorMaterializer.create(actorSystem)).toCompletableFuture().get();
+    } finally {
+      actorSystem.terminate();
+    }
+  }
+
+  /**
+   * Run an operation and fail if it runs more than the given number of statements, so that an
+   * operation that starts issuing a query per row fails the build.
+   *
+   * @param maxStatements the most statements the operation may run
+   * @param operation the operation
+   * @return the database work the operation did
+   */
+  protected static DbStats assertStatementsAtMost(long maxStatements, DbStats.DbOperation operation) throws GroundException {
+    DbStats stats = DbStats.collect(operation);
+    assertTrue(String.format("Expected at most %d statements, but ran %s.", maxStatements, stats), stats.getStatements() <= maxStatements);
+
+    return stats;
+  }
+
+  private static void runMigrations() throws IOException {
+    try (Stream<Path> migrations = Files.list(Paths.get(MIGRATIONS_DIRECTORY))) {
+      migrations.map(Path::toString)
+        .filter(migration -> migration.endsWith(".sql"))
+        .sorted()
+        .forEach(PostgresTest::runScript);
+    }
+  }
+
+  private static void runScript(String script) {
+    // one connection per script, returned to the pool afterwards, so running every migration does
+    // not exhaust the pool before the test starts
+    try (Connection connection = dbSource.getConnection()) {
+      StatementExecutor exec = new StatementExecutor(connection);
       PostgresTest.runScript(script, exec::execute);
-      dbSource.getConnection().setAutoCommit(autoCommitState);
     } catch (SQLException ex) {
       throw new RuntimeException(ex);
     }
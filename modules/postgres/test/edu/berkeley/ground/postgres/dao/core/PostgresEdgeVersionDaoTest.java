@@ -15,12 +15,15 @@ package edu.berkeley.ground.postgres.dao.core;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.EdgeVersion;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.util.BulkResult;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -151,6 +154,76 @@ public class PostgresEdgeVersionDaoTest extends PostgresTest {
     assertEquals(toEndId, parent.getToNodeVersionEndId());
   }
 
+  @Test
+  public void testBulkParentInSameBatch() throws GroundException {
+    long firstTestNodeId = PostgresTest.createNode("firstTestNode").getId();
+    long firstNodeVersionId = PostgresTest.createNodeVersion(firstTestNodeId).getId();
+    long newFirstNodeVersionId = PostgresTest.createNodeVersion(firstTestNodeId, new ArrayList<>(Arrays.asList(firstNodeVersionId))).getId();
+
+    long secondTestNodeId = PostgresTest.createNode("secondTestNode").getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(secondTestNodeId).getId();
+    long newSecondNodeVersionId = PostgresTest.createNodeVersion(secondTestNodeId, new ArrayList<>(Arrays.asList(secondNodeVersionId)))
+                                    .getId();
+
+    long edgeId = PostgresTest.createEdge("testEdge", "firstTestNode", "secondTestNode").getId();
+
+    // the second version's parent is the first one, which is not in the database until the batch is
+    List<EdgeVersion> edgeVersions = Arrays.asList(
+      new EdgeVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), edgeId, firstNodeVersionId, -1, secondNodeVersionId, -1),
+      new EdgeVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), edgeId, newFirstNodeVersionId, -1, newSecondNodeVersionId, -1));
+
+    PostgresEdgeVersionDao postgresEdgeVersionDao = (PostgresEdgeVersionDao) PostgresTest.edgeVersionDao;
+    List<BulkResult<EdgeVersion>> results = postgresEdgeVersionDao.createAll(edgeVersions,
+      Arrays.asList(new ArrayList<>(), new ArrayList<>()), Arrays.asList(new ArrayList<>(), Arrays.asList(0)));
+
+    assertTrue(results.get(0).isCreated());
+    assertTrue(results.get(1).isCreated());
+
+    long parentId = results.get(0).getVersion().getId();
+    long childId = results.get(1).getVersion().getId();
+
+    EdgeVersion parent = PostgresTest.edgeVersionDao.retrieveFromDatabase(parentId);
+    assertEquals(firstNodeVersionId, parent.getFromNodeVersionEndId());
+    assertEquals(secondNodeVersionId, parent.getToNodeVersionEndId());
+
+    assertEquals(Arrays.asList(childId), PostgresTest.edgeDao.getLeaves("testEdge"));
+  }
+
+  @Test
+  public void testBulkSiblingsOfParentInSameBatch() throws GroundException {
+    long firstTestNodeId = PostgresTest.createNode("firstTestNode").getId();
+    long secondTestNodeId = PostgresTest.createNode("secondTestNode").getId();
+    long[] firstNodeVersionIds = new long[3];
+    long[] secondNodeVersionIds = new long[3];
+
+    for (int i = 0; i < 3; i++) {
+      List<Long> firstParents = i == 0 ? new ArrayList<>() : new ArrayList<>(Arrays.asList(firstNodeVersionIds[i - 1]));
+      List<Long> secondParents = i == 0 ? new ArrayList<>() : new ArrayList<>(Arrays.asList(secondNodeVersionIds[i - 1]));
+
+      firstNodeVersionIds[i] = PostgresTest.createNodeVersion(firstTestNodeId, firstParents).getId();
+      secondNodeVersionIds[i] = PostgresTest.createNodeVersion(secondTestNodeId, secondParents).getId();
+    }
+
+    long edgeId = PostgresTest.createEdge("testEdge", "firstTestNode", "secondTestNode").getId();
+
+    // both children name the first version as their parent, so only the first child sets its end versions
+    List<EdgeVersion> edgeVersions = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      edgeVersions.add(new EdgeVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), edgeId, firstNodeVersionIds[i], -1,
+        secondNodeVersionIds[i], -1));
+    }
+
+    PostgresEdgeVersionDao postgresEdgeVersionDao = (PostgresEdgeVersionDao) PostgresTest.edgeVersionDao;
+    List<BulkResult<EdgeVersion>> results = postgresEdgeVersionDao.createAll(edgeVersions,
+      Arrays.asList(new ArrayList<>(), new ArrayList<>(), new ArrayList<>()), Arrays.asList(new ArrayList<>(), Arrays.asList(0), Arrays.asList(0)));
+
+    results.forEach(result -> assertTrue(result.isCreated()));
+
+    EdgeVersion parent = PostgresTest.edgeVersionDao.retrieveFromDatabase(results.get(0).getVersion().getId());
+    assertEquals(firstNodeVersionIds[0], parent.getFromNodeVersionEndId());
+    assertEquals(secondNodeVersionIds[0], parent.getToNodeVersionEndId());
+  }
+
   @Test(expected = GroundException.class)
   public void testBadEdgeVersion() throws GroundException {
     long id = 1;
@@ -17,15 +17,24 @@ package edu.berkeley.ground.postgres.dao.core;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.core.EdgeVersion;
 import edu.berkeley.ground.common.model.core.GraphVersion;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import edu.berkeley.ground.postgres.dao.version.mock.TestCountingDatabase;
+import edu.berkeley.ground.postgres.util.GroundCache;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.junit.Test;
+import play.libs.Json;
 
 public class PostgresGraphVersionDaoTest extends PostgresTest {
 
@@ -103,6 +112,137 @@ public class PostgresGraphVersionDaoTest extends PostgresTest {
     assertTrue(retrieved.getEdgeVersionIds().isEmpty());
   }
 
+  @Test
+  public void testCreateIsBatched() throws GroundException {
+    long fromNodeId = PostgresTest.createNode("fromNode").getId();
+    long fromNodeVersionId = PostgresTest.createNodeVersion(fromNodeId).getId();
+    long toNodeId = PostgresTest.createNode("toNode").getId();
+    long toNodeVersionId = PostgresTest.createNodeVersion(toNodeId).getId();
+    long edgeId = PostgresTest.createEdge("edge", "fromNode", "toNode").getId();
+
+    List<Long> edgeVersionIds = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      edgeVersionIds.add(PostgresTest.createEdgeVersion(edgeId, fromNodeVersionId, toNodeVersionId).getId());
+    }
+
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+
+    TestCountingDatabase countingDatabase = new TestCountingDatabase(PostgresTest.dbSource);
+    PostgresGraphVersionDao graphVersionDao = new PostgresGraphVersionDao(countingDatabase, PostgresTest.idGenerator);
+
+    // the first version of the graph loads its version history DAG into the cache, so it is not counted
+    graphVersionDao.create(new GraphVersion(0L, PostgresTest.createTags(), -1, null, new HashMap<>(), graphId, edgeVersionIds.subList(0, 1)),
+      new ArrayList<>());
+
+    countingDatabase.resetStatementCount();
+    graphVersionDao.create(new GraphVersion(0L, PostgresTest.createTags(), -1, null, new HashMap<>(), graphId, edgeVersionIds.subList(0, 1)),
+      new ArrayList<>());
+    int singleEdgeStatements = countingDatabase.getStatementCount();
+
+    countingDatabase.resetStatementCount();
+    long graphVersionId = graphVersionDao.create(new GraphVersion(0L, PostgresTest.createTags(), -1, null, new HashMap<>(), graphId,
+      edgeVersionIds), new ArrayList<>()).getId();
+
+    assertEquals(singleEdgeStatements, countingDatabase.getStatementCount());
+    assertEquals(edgeVersionIds.size(), PostgresTest.graphVersionDao.retrieveFromDatabase(graphVersionId).getEdgeVersionIds().size());
+  }
+
+  @Test
+  public void testDeltasRebuildEdgeSets() throws Exception {
+    PostgresGraphVersionDaoTest.assertDeltasRebuildEdgeSets(false);
+  }
+
+  @Test
+  public void testDeltasAgainstCachedParents() throws Exception {
+    PostgresGraphVersionDaoTest.assertDeltasRebuildEdgeSets(true);
+  }
+
+  private static void assertDeltasRebuildEdgeSets(boolean readParents) throws Exception {
+    int setSize = 20;
+    int numVersions = 2 * PostgresGraphVersionDao.CHECKPOINT_INTERVAL + 1;
+    List<Long> edgeVersionIds = PostgresGraphVersionDaoTest.createEdgeVersions(setSize + numVersions);
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+
+    // each version drops the oldest edge of its parent and adds a new one
+    List<Long> graphVersionIds = PostgresGraphVersionDaoTest.createChain(graphId, edgeVersionIds, setSize, numVersions, readParents);
+
+    assertEquals(3, PostgresGraphVersionDaoTest.count("SELECT count(*) FROM graph_version WHERE delta_base_id IS NULL"));
+    assertEquals(3 * setSize, PostgresGraphVersionDaoTest.count("SELECT count(*) FROM graph_version_edge"));
+    assertEquals(2 * (numVersions - 3), PostgresGraphVersionDaoTest.count("SELECT count(*) FROM graph_version_edge_delta"));
+
+    GroundCache.invalidateAllNamespaces();
+
+    for (int i = 0; i < numVersions; i++) {
+      assertEquals(edgeVersionIds.subList(i, i + setSize),
+        PostgresTest.graphVersionDao.retrieveFromDatabase(graphVersionIds.get(i)).getEdgeVersionIds());
+    }
+
+    PostgresGraphVersionDao postgresGraphVersionDao = (PostgresGraphVersionDao) PostgresTest.graphVersionDao;
+    long lastId = graphVersionIds.get(numVersions - 1);
+    assertEquals(edgeVersionIds.subList(numVersions - 1, numVersions - 1 + setSize),
+      PostgresTest.collect(postgresGraphVersionDao.streamEdgeIds(lastId, 0, Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testLargeChangesAreCheckpoints() throws GroundException {
+    List<Long> edgeVersionIds = PostgresGraphVersionDaoTest.createEdgeVersions(4);
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+
+    long firstId = PostgresTest.graphVersionDao.create(new GraphVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), graphId,
+      edgeVersionIds.subList(0, 2)), new ArrayList<>()).getId();
+    long secondId = PostgresTest.graphVersionDao.create(new GraphVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), graphId,
+      edgeVersionIds.subList(2, 4)), Collections.singletonList(firstId)).getId();
+
+    assertEquals(0, PostgresGraphVersionDaoTest.count("SELECT count(*) FROM graph_version WHERE delta_base_id IS NOT NULL"));
+
+    GroundCache.invalidateAllNamespaces();
+    assertEquals(edgeVersionIds.subList(2, 4), PostgresTest.graphVersionDao.retrieveFromDatabase(secondId).getEdgeVersionIds());
+  }
+
+  @Test
+  public void testRebaseDeltas() throws GroundException {
+    List<Long> edgeVersionIds = PostgresGraphVersionDaoTest.createEdgeVersions(10);
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    List<Long> graphVersionIds = PostgresGraphVersionDaoTest.createChain(graphId, edgeVersionIds, 5, 3);
+
+    PostgresGraphVersionDao postgresGraphVersionDao = (PostgresGraphVersionDao) PostgresTest.graphVersionDao;
+    PostgresUtils.executeSqlList(PostgresTest.dbSource, postgresGraphVersionDao.rebaseDeltas(graphVersionIds.get(0)));
+
+    // the second version is now a checkpoint, and the third is still a delta against it
+    assertEquals(2, PostgresGraphVersionDaoTest.count("SELECT count(*) FROM graph_version WHERE delta_base_id IS NULL"));
+    assertEquals(2, PostgresGraphVersionDaoTest.count("SELECT count(*) FROM graph_version_edge_delta"));
+
+    GroundCache.invalidateAllNamespaces();
+
+    for (int i = 0; i < graphVersionIds.size(); i++) {
+      assertEquals(edgeVersionIds.subList(i, i + 5), PostgresTest.graphVersionDao.retrieveFromDatabase(graphVersionIds.get(i))
+                                                        .getEdgeVersionIds());
+    }
+  }
+
+  @Test
+  public void testDeltasStoreFewerRows() throws GroundException {
+    int setSize = 200;
+    int numVersions = 100;
+    List<Long> edgeVersionIds = PostgresGraphVersionDaoTest.createEdgeVersions(setSize + numVersions);
+
+    // the same versions written as deltas against their parents, and as checkpoints without parents
+    long deltaGraphId = PostgresTest.createGraph("deltaGraph").getId();
+    PostgresGraphVersionDaoTest.createChain(deltaGraphId, edgeVersionIds, setSize, numVersions);
+    long deltaRows = PostgresGraphVersionDaoTest.countEdgeRows();
+
+    long checkpointGraphId = PostgresTest.createGraph("checkpointGraph").getId();
+
+    for (int i = 0; i < numVersions; i++) {
+      PostgresTest.graphVersionDao.create(new GraphVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), checkpointGraphId,
+        edgeVersionIds.subList(i, i + setSize)), new ArrayList<>());
+    }
+
+    long checkpointRows = PostgresGraphVersionDaoTest.countEdgeRows() - deltaRows;
+
+    assertTrue(deltaRows * 5 < checkpointRows);
+  }
+
   @Test(expected = GroundException.class)
   public void testBadGraphVersion() throws GroundException {
     long id = 1;
@@ -115,4 +255,169 @@ public class PostgresGraphVersionDaoTest extends PostgresTest {
       throw e;
     }
   }
+
+  @Test
+  public void testStreamEdgeIds() throws Exception {
+    long firstEdgeVersionId = PostgresTest.createTwoNodesAndEdge();
+    EdgeVersion firstEdgeVersion = PostgresTest.edgeVersionDao.retrieveFromDatabase(firstEdgeVersionId);
+    long secondEdgeVersionId = PostgresTest.createEdgeVersion(firstEdgeVersion.getEdgeId(), firstEdgeVersion.getFromNodeVersionStartId(),
+      firstEdgeVersion.getToNodeVersionStartId()).getId();
+
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    List<Long> edgeVersionIds = Arrays.asList(firstEdgeVersionId, secondEdgeVersionId);
+    long graphVersionId = PostgresTest.createGraphVersion(graphId, edgeVersionIds).getId();
+
+    PostgresGraphVersionDao postgresGraphVersionDao = (PostgresGraphVersionDao) PostgresTest.graphVersionDao;
+
+    assertEquals(edgeVersionIds, PostgresTest.collect(postgresGraphVersionDao.streamEdgeIds(graphVersionId, 0, Long.MAX_VALUE)));
+    assertEquals(Arrays.asList(secondEdgeVersionId),
+      PostgresTest.collect(postgresGraphVersionDao.streamEdgeIds(graphVersionId, firstEdgeVersionId, 1)));
+  }
+
+  @Test
+  public void testPageDeepDeltaChain() throws Exception {
+    int setSize = 200;
+    int pageSize = 16;
+    int numVersions = PostgresGraphVersionDao.CHECKPOINT_INTERVAL;
+    List<Long> edgeVersionIds = PostgresGraphVersionDaoTest.createEdgeVersions(setSize + numVersions);
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+
+    // the last version is as many deltas from its checkpoint as a version can be, each removing an edge
+    List<Long> graphVersionIds = PostgresGraphVersionDaoTest.createChain(graphId, edgeVersionIds, setSize, numVersions);
+    long lastId = graphVersionIds.get(numVersions - 1);
+    assertEquals(numVersions - 1, PostgresGraphVersionDaoTest.count("SELECT delta_depth FROM graph_version WHERE id = " + lastId));
+
+    PostgresGraphVersionDao postgresGraphVersionDao = (PostgresGraphVersionDao) PostgresTest.graphVersionDao;
+    List<Long> paged = new ArrayList<>();
+    List<Long> page;
+    long afterId = 0;
+
+    do {
+      // no page reads more of the checkpoint than a page's worth plus the edges the deltas remove
+      assertTrue(PostgresGraphVersionDaoTest.countCheckpointRowsRead(lastId, afterId, pageSize) <= pageSize + numVersions - 1);
+
+      page = PostgresTest.collect(postgresGraphVersionDao.streamEdgeIds(lastId, afterId, pageSize));
+      paged.addAll(page);
+      afterId = page.isEmpty() ? afterId : page.get(page.size() - 1);
+    } while (page.size() == pageSize);
+
+    assertEquals(edgeVersionIds.subList(numVersions - 1, numVersions - 1 + setSize), paged);
+  }
+
+  @Test
+  public void testStreamEdgeVersions() throws Exception {
+    long fromNodeId = PostgresTest.createNode("fromNode").getId();
+    long fromNodeVersionId = PostgresTest.createNodeVersion(fromNodeId).getId();
+    long toNodeId = PostgresTest.createNode("toNode").getId();
+    long toNodeVersionId = PostgresTest.createNodeVersion(toNodeId).getId();
+    long edgeId = PostgresTest.createEdge("edge", "fromNode", "toNode").getId();
+
+    List<Long> edgeVersionIds = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      EdgeVersion edgeVersion = new EdgeVersion(0L, PostgresTest.createTags(), -1, null, new HashMap<>(), edgeId, fromNodeVersionId, -1,
+                                                 toNodeVersionId, -1);
+      edgeVersionIds.add(PostgresTest.edgeVersionDao.create(edgeVersion, new ArrayList<>()).getId());
+    }
+
+    long graphId = PostgresTest.createGraph("testGraph").getId();
+    long graphVersionId = PostgresTest.createGraphVersion(graphId, edgeVersionIds).getId();
+
+    TestCountingDatabase countingDatabase = new TestCountingDatabase(PostgresTest.dbSource);
+    PostgresGraphVersionDao graphVersionDao = new PostgresGraphVersionDao(countingDatabase, PostgresTest.idGenerator);
+    graphVersionDao.retrieveFromDatabase(graphVersionId);
+    countingDatabase.resetStatementCount();
+
+    List<EdgeVersion> edgeVersions = PostgresTest.collect(graphVersionDao.streamEdgeVersions(graphVersionId));
+
+    // the graph version was cached, and every edge version comes from one query
+    assertEquals(1, countingDatabase.getStatementCount());
+    assertEquals(edgeVersionIds.size(), edgeVersions.size());
+
+    for (int i = 0; i < edgeVersionIds.size(); i++) {
+      assertEquals((long) edgeVersionIds.get(i), edgeVersions.get(i).getId());
+      assertEquals(edgeId, edgeVersions.get(i).getEdgeId());
+      assertEquals(PostgresTest.createTags(), edgeVersions.get(i).getTags());
+    }
+  }
+
+  @Test(expected = GroundException.class)
+  public void testStreamEdgeVersionsOfBadGraphVersion() throws GroundException {
+    ((PostgresGraphVersionDao) PostgresTest.graphVersionDao).streamEdgeVersions(10);
+  }
+
+  @Test(expected = GroundException.class)
+  public void testStreamEdgeIdsOfBadGraphVersion() throws GroundException {
+    ((PostgresGraphVersionDao) PostgresTest.graphVersionDao).streamEdgeIds(10, 0, Long.MAX_VALUE);
+  }
+
+  private static List<Long> createEdgeVersions(int count) throws GroundException {
+    long fromNodeId = PostgresTest.createNode("fromNode").getId();
+    long fromNodeVersionId = PostgresTest.createNodeVersion(fromNodeId).getId();
+    long toNodeId = PostgresTest.createNode("toNode").getId();
+    long toNodeVersionId = PostgresTest.createNodeVersion(toNodeId).getId();
+    long edgeId = PostgresTest.createEdge("edge", "fromNode", "toNode").getId();
+
+    List<Long> edgeVersionIds = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      edgeVersionIds.add(PostgresTest.createEdgeVersion(edgeId, fromNodeVersionId, toNodeVersionId).getId());
+    }
+
+    return edgeVersionIds;
+  }
+
+  /**
+   * Create a chain of graph versions, each the child of the last, where version i has the edges
+   * i to i + setSize.
+   */
+  private static List<Long> createChain(long graphId, List<Long> edgeVersionIds, int setSize, int numVersions) throws GroundException {
+    return PostgresGraphVersionDaoTest.createChain(graphId, edgeVersionIds, setSize, numVersions, false);
+  }
+
+  /**
+   * @param readParents whether to read each parent before writing its child, so that the parent is cached
+   */
+  private static List<Long> createChain(long graphId, List<Long> edgeVersionIds, int setSize, int numVersions, boolean readParents)
+    throws GroundException {
+
+    List<Long> graphVersionIds = new ArrayList<>();
+
+    for (int i = 0; i < numVersions; i++) {
+      List<Long> parentIds = i == 0 ? new ArrayList<>() : Collections.singletonList(graphVersionIds.get(i - 1));
+
+      if (readParents && i > 0) {
+        PostgresTest.graphVersionDao.retrieveFromDatabase(graphVersionIds.get(i - 1));
+      }
+
+      graphVersionIds.add(PostgresTest.graphVersionDao.create(new GraphVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), graphId,
+        edgeVersionIds.subList(i, i + setSize)), parentIds).getId());
+    }
+
+    return graphVersionIds;
+  }
+
+  private static long count(String sql) throws GroundException {
+    return PostgresUtils.executeQuery(PostgresTest.dbSource, sql, resultSet -> resultSet.getLong(1)).get(0);
+  }
+
+  private static long countCheckpointRowsRead(long id, long afterId, long limit) throws GroundException {
+    String sql = "EXPLAIN (ANALYZE, FORMAT JSON) " + SqlConstants.SELECT_GRAPH_VERSION_DELTA_EDGES_PAGE;
+    String plan = PostgresUtils.executeQuery(PostgresTest.dbSource, sql, resultSet -> resultSet.getString(1), id, afterId, afterId, limit, limit)
+                    .get(0);
+
+    return PostgresGraphVersionDaoTest.countRowsRead(Json.parse(plan).get(0).get("Plan"), "graph_version_edge");
+  }
+
+  private static long countRowsRead(JsonNode node, String relation) {
+    long rows = relation.equals(node.path("Relation Name").asText()) ? node.get("Actual Rows").asLong() * node.get("Actual Loops").asLong() : 0;
+
+    for (JsonNode child : node.path("Plans")) {
+      rows += PostgresGraphVersionDaoTest.countRowsRead(child, relation);
+    }
+
+    return rows;
+  }
+
+  private static long countEdgeRows() throws GroundException {
+    return PostgresGraphVersionDaoTest.count("SELECT (SELECT count(*) FROM graph_version_edge) + (SELECT count(*) FROM graph_version_edge_delta)");
+  }
 }
@@ -19,12 +19,16 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.exception.GroundException.ExceptionType;
 import edu.berkeley.ground.common.model.core.Node;
+import edu.berkeley.ground.common.model.core.NodeVersion;
 import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.model.version.VersionSuccessor;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.util.GroundCache;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -70,6 +74,74 @@ public class PostgresNodeDaoTest extends PostgresTest {
     assertTrue(leaves.contains(secondNodeVersionId));
   }
 
+  @Test
+  public void testCachedLeavesFollowNewVersions() throws GroundException {
+    String sourceKey = "testNode1";
+    long nodeId = PostgresTest.createNode(sourceKey).getId();
+    GroundCache<Long, List<Long>> cache = GroundCache.namespace("node_leaves");
+
+    assertTrue(PostgresTest.nodeDao.getLeaves(sourceKey).isEmpty());
+
+    long nodeVersionId = PostgresTest.createNodeVersion(nodeId).getId();
+    assertEquals(Arrays.asList(nodeVersionId), PostgresTest.nodeDao.getLeaves(sourceKey));
+
+    long hits = cache.stats().hitCount();
+    assertEquals(Arrays.asList(nodeVersionId), PostgresTest.nodeDao.getLeaves(sourceKey));
+    assertEquals(hits + 1, cache.stats().hitCount());
+
+    long childId = PostgresTest.createNodeVersion(nodeId, Arrays.asList(nodeVersionId)).getId();
+    assertEquals(Arrays.asList(childId), PostgresTest.nodeDao.getLeaves(sourceKey));
+  }
+
+  @Test
+  public void testRetrieveManyLeaves() throws GroundException {
+    long firstNodeId = PostgresTest.createNode("firstNode").getId();
+    long parentId = PostgresTest.createNodeVersion(firstNodeId).getId();
+    long firstChildId = PostgresTest.createNodeVersion(firstNodeId, new ArrayList<>(Arrays.asList(parentId))).getId();
+    long secondChildId = PostgresTest.createNodeVersion(firstNodeId, new ArrayList<>(Arrays.asList(parentId))).getId();
+
+    PostgresTest.createNode("secondNode");
+
+    PostgresNodeDao postgresNodeDao = (PostgresNodeDao) PostgresTest.nodeDao;
+    Map<String, List<Long>> leaves = postgresNodeDao.getLeaves(Arrays.asList("firstNode", "missingNode", "secondNode"));
+
+    assertEquals(2, leaves.size());
+    assertEquals(Arrays.asList(firstChildId, secondChildId), leaves.get("firstNode"));
+    assertTrue(leaves.get("secondNode").isEmpty());
+    assertEquals(new HashSet<>(leaves.get("firstNode")), new HashSet<>(PostgresTest.nodeDao.getLeaves("firstNode")));
+
+    // a version merging both children has two incoming edges, but is only one leaf
+    long mergeId = PostgresTest.createNodeVersion(firstNodeId, new ArrayList<>(Arrays.asList(firstChildId, secondChildId))).getId();
+    GroundCache.invalidateAllNamespaces();
+
+    assertEquals(Arrays.asList(mergeId), postgresNodeDao.getLeaves(Arrays.asList("firstNode")).get("firstNode"));
+  }
+
+  @Test
+  public void testStreamHistory() throws Exception {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long parentId = PostgresTest.createNodeVersion(nodeId).getId();
+    long firstChildId = PostgresTest.createNodeVersion(nodeId, new ArrayList<>(Arrays.asList(parentId))).getId();
+    long secondChildId = PostgresTest.createNodeVersion(nodeId, new ArrayList<>(Arrays.asList(parentId))).getId();
+
+    PostgresNodeDao postgresNodeDao = (PostgresNodeDao) PostgresTest.nodeDao;
+    List<VersionSuccessor> history = PostgresTest.collect(postgresNodeDao.streamHistory(nodeId, 0, Long.MAX_VALUE));
+
+    // both children of the parent are returned, unlike in getHistory
+    assertEquals(3, history.size());
+    assertEquals(parentId, history.get(0).getToId());
+    assertEquals(firstChildId, history.get(1).getToId());
+    assertEquals(secondChildId, history.get(2).getToId());
+    assertEquals(parentId, history.get(2).getFromId());
+
+    List<VersionSuccessor> firstPage = PostgresTest.collect(postgresNodeDao.streamHistory(nodeId, 0, 2));
+    List<VersionSuccessor> secondPage = PostgresTest.collect(postgresNodeDao.streamHistory(nodeId, firstPage.get(1).getId(), 2));
+
+    assertEquals(2, firstPage.size());
+    assertEquals(1, secondPage.size());
+    assertEquals(secondChildId, secondPage.get(0).getToId());
+  }
+
   @Test(expected = GroundException.class)
   public void testRetrieveBadNode() throws GroundException {
     String sourceKey = "test";
@@ -106,6 +178,7 @@ public class PostgresNodeDaoTest extends PostgresTest {
     List<Long> parents = new ArrayList<>();
     parents.add(firstNodeVersionId);
     long newNodeVersionId = PostgresTest.createNodeVersion(testNodeId, parents).getId();
+    PostgresTest.nodeVersionDao.retrieveFromDatabase(firstNodeVersionId);
 
     PostgresTest.nodeDao.truncate(testNodeId, 1);
 
@@ -118,6 +191,37 @@ public class PostgresNodeDaoTest extends PostgresTest {
 
     assertEquals(0, successor.getFromId());
     assertEquals(newNodeVersionId, successor.getToId());
+
+    // the truncated version is deleted, and is no longer served from the cache either
+    try {
+      PostgresTest.nodeVersionDao.retrieveFromDatabase(firstNodeVersionId);
+      fail("Expected the truncated version to be deleted.");
+    } catch (GroundException e) {
+      assertEquals(ExceptionType.VERSION_NOT_FOUND, e.getExceptionType());
+    }
+  }
+
+  @Test
+  public void testTruncationSnapshotsTags() throws GroundException {
+    long testNodeId = PostgresTest.createNode("testNode").getId();
+
+    Map<String, Tag> tags = PostgresTest.createTags();
+    long firstNodeVersionId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), testNodeId),
+      new ArrayList<>()).getId();
+
+    tags.put("intfield", new Tag(-1, "intfield", 2, GroundType.INTEGER));
+    long newNodeVersionId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), testNodeId),
+      Arrays.asList(firstNodeVersionId)).getId();
+
+    PostgresTest.nodeDao.truncate(testNodeId, 1);
+
+    // the kept version no longer depends on the truncated one for its tags
+    List<Long> tagBaseIds = PostgresUtils.executeQuery(PostgresTest.dbSource, "SELECT tag_base_id FROM rich_version WHERE id = ?",
+      resultSet -> (Long) resultSet.getObject(1), newNodeVersionId);
+    assertEquals(null, tagBaseIds.get(0));
+
+    GroundCache.invalidateAllNamespaces();
+    assertEquals(tags, PostgresTest.nodeVersionDao.retrieveFromDatabase(newNodeVersionId).getTags());
   }
 
   @Test
@@ -15,13 +15,22 @@
 package edu.berkeley.ground.postgres.dao.core;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.NodeVersion;
+import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.version.mock.TestCountingDatabase;
+import edu.berkeley.ground.postgres.util.BulkResult;
+import edu.berkeley.ground.postgres.util.DbStats;
+import edu.berkeley.ground.postgres.util.GroundCache;
+import edu.berkeley.ground.postgres.util.GroundUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -79,6 +88,84 @@ public class PostgresNodeVersionDaoTest extends PostgresTest {
     assertTrue(1 == leaves.size());
   }
 
+  @Test
+  public void testBulkNodeVersionCreation() throws GroundException {
+    String nodeName = "testNode";
+    long nodeId = PostgresTest.createNode(nodeName).getId();
+    long parentId = PostgresTest.createNodeVersion(nodeId).getId();
+
+    List<NodeVersion> nodeVersions = new ArrayList<>();
+    List<List<Long>> parentIds = new ArrayList<>();
+
+    // two children of the existing version, and one version whose parent is not in the node
+    for (long parent : Arrays.asList(parentId, parentId, 12345L)) {
+      nodeVersions.add(new NodeVersion(0L, new HashMap<>(), -1, null, new HashMap<>(), nodeId));
+      parentIds.add(new ArrayList<>(Arrays.asList(parent)));
+    }
+
+    PostgresNodeVersionDao postgresNodeVersionDao = (PostgresNodeVersionDao) PostgresTest.nodeVersionDao;
+    List<BulkResult<NodeVersion>> results = postgresNodeVersionDao.createAll(nodeVersions, parentIds);
+
+    assertEquals(3, results.size());
+    assertTrue(results.get(0).isCreated());
+    assertTrue(results.get(1).isCreated());
+    assertFalse(results.get(2).isCreated());
+
+    long firstId = results.get(0).getVersion().getId();
+    long secondId = results.get(1).getVersion().getId();
+
+    assertEquals(firstId + 1, secondId);
+    assertEquals(nodeId, PostgresTest.nodeVersionDao.retrieveFromDatabase(secondId).getNodeId());
+
+    List<Long> leaves = PostgresTest.nodeDao.getLeaves(nodeName);
+
+    assertEquals(2, leaves.size());
+    assertTrue(leaves.contains(firstId));
+    assertTrue(leaves.contains(secondId));
+  }
+
+  @Test
+  public void testBulkNodeVersionCreationStatements() throws GroundException {
+    long firstNodeId = PostgresTest.createNode("firstNode").getId();
+    long secondNodeId = PostgresTest.createNode("secondNode").getId();
+
+    PostgresNodeVersionDao postgresNodeVersionDao = (PostgresNodeVersionDao) PostgresTest.nodeVersionDao;
+
+    DbStats single = DbStats.collect(() -> postgresNodeVersionDao.createAll(
+      PostgresNodeVersionDaoTest.createNodeVersions(firstNodeId, 1), PostgresNodeVersionDaoTest.createParentIds(1)));
+
+    // a batch ten times the size takes no more round trips
+    PostgresTest.assertStatementsAtMost(single.getStatements(), () -> postgresNodeVersionDao.createAll(
+      PostgresNodeVersionDaoTest.createNodeVersions(secondNodeId, 10), PostgresNodeVersionDaoTest.createParentIds(10)));
+  }
+
+  @Test
+  public void testBulkMalformedRecordsAreRejectedAlone() throws GroundException {
+    String nodeName = "testNode";
+    long nodeId = PostgresTest.createNode(nodeName).getId();
+
+    String record = String.format("{\"tags\": {}, \"structureVersionId\": -1, \"referenceParameters\": {}, \"nodeId\": %d", nodeId);
+    String body = String.join("\n",
+      record + "}",
+      "{\"nodeId\": ",
+      record + ", \"parentIndexes\": [0]}",
+      record + ", \"parentIndexes\": [1]}",
+      "[]");
+
+    JsonNode results = GroundUtils.createVersions((PostgresNodeVersionDao) PostgresTest.nodeVersionDao, body);
+
+    assertEquals(5, results.size());
+    assertTrue(results.get(0).has("version"));
+    assertTrue(results.get(1).has("error"));
+    assertTrue(results.get(2).has("version"));
+    assertTrue(results.get(3).has("error"));
+    assertTrue(results.get(4).has("error"));
+
+    // the third record is a child of the first, so it is the only leaf
+    long childId = results.get(2).get("version").get("id").asLong();
+    assertEquals(Arrays.asList(childId), PostgresTest.nodeDao.getLeaves(nodeName));
+  }
+
   @Test(expected = GroundException.class)
   public void testBadNodeVersion() throws GroundException {
     long id = 1;
@@ -91,4 +178,127 @@ public class PostgresNodeVersionDaoTest extends PostgresTest {
       throw e;
     }
   }
+
+  @Test
+  public void testImmutableReadsAreCached() throws GroundException {
+    String nodeName = "testNode";
+    long nodeId = PostgresTest.createNode(nodeName).getId();
+
+    long structureId = PostgresTest.createStructure("testStructure").getId();
+    long structureVersionId = PostgresTest.createStructureVersion(structureId).getId();
+    NodeVersion nodeVersion = new NodeVersion(0L, PostgresTest.createTags(), structureVersionId, null, new HashMap<>(), nodeId);
+    long nodeVersionId = PostgresTest.nodeVersionDao.create(nodeVersion, new ArrayList<>()).getId();
+
+    TestCountingDatabase countingDatabase = new TestCountingDatabase(PostgresTest.dbSource);
+    PostgresNodeDao countingNodeDao = new PostgresNodeDao(countingDatabase, PostgresTest.idGenerator);
+    PostgresNodeVersionDao countingNodeVersionDao = new PostgresNodeVersionDao(countingDatabase, PostgresTest.idGenerator);
+    PostgresStructureVersionDao countingStructureVersionDao = new PostgresStructureVersionDao(countingDatabase, PostgresTest.idGenerator);
+
+    // creating the version already loaded its structure version
+    assertEquals(structureVersionId, countingStructureVersionDao.retrieveFromDatabase(structureVersionId).getId());
+    assertEquals(0, countingDatabase.getStatementCount());
+
+    countingNodeVersionDao.retrieveFromDatabase(nodeVersionId);
+    countingNodeDao.retrieveFromDatabase(nodeName);
+    assertTrue(countingDatabase.getStatementCount() > 0);
+
+    countingDatabase.resetStatementCount();
+    assertEquals(nodeVersionId, countingNodeVersionDao.retrieveFromDatabase(nodeVersionId).getId());
+    assertEquals(nodeId, countingNodeDao.retrieveFromDatabase(nodeName).getId());
+    assertEquals(nodeId, countingNodeDao.retrieveFromDatabase(nodeId).getId());
+    assertEquals(0, countingDatabase.getStatementCount());
+  }
+
+  @Test
+  public void testRetrieveAll() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    List<Long> ids = new ArrayList<>();
+
+    for (int i = 0; i < 3; i++) {
+      NodeVersion nodeVersion = new NodeVersion(0L, PostgresTest.createTags(), -1, null, new HashMap<>(), nodeId);
+      ids.add(PostgresTest.nodeVersionDao.create(nodeVersion, new ArrayList<>()).getId());
+    }
+
+    TestCountingDatabase countingDatabase = new TestCountingDatabase(PostgresTest.dbSource);
+    PostgresNodeVersionDao countingNodeVersionDao = new PostgresNodeVersionDao(countingDatabase, PostgresTest.idGenerator);
+
+    long missingId = ids.get(2) + 1000;
+    List<Long> requestedIds = Arrays.asList(ids.get(2), missingId, ids.get(0), ids.get(1), ids.get(0));
+    Map<Long, NodeVersion> nodeVersions = countingNodeVersionDao.retrieveAll(requestedIds);
+
+    // the node versions are read with their rich versions, tags and parameters in one query
+    assertEquals(1, countingDatabase.getStatementCount());
+    assertEquals(3, nodeVersions.size());
+    assertFalse(nodeVersions.containsKey(missingId));
+
+    for (long id : ids) {
+      NodeVersion nodeVersion = nodeVersions.get(id);
+
+      assertEquals(nodeId, nodeVersion.getNodeId());
+      assertEquals(PostgresTest.createTags().size(), nodeVersion.getTags().size());
+    }
+
+    // everything that was found is now cached
+    countingDatabase.resetStatementCount();
+    assertEquals(3, countingNodeVersionDao.retrieveAll(ids).size());
+    assertEquals(0, countingDatabase.getStatementCount());
+  }
+
+  @Test
+  public void testRetrieveHydratesInOneStatement() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+
+    Map<String, Tag> tags = PostgresTest.createTags();
+    tags.put("longfield", new Tag(-1, "longfield", 1L << 40, GroundType.LONG));
+    tags.put("emptyfield", new Tag(-1, "emptyfield", null, null));
+
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("http", "GET");
+    parameters.put("header", "Accept");
+
+    NodeVersion nodeVersion = new NodeVersion(0L, tags, -1, "http://www.google.com", parameters, nodeId);
+    long nodeVersionId = PostgresTest.nodeVersionDao.create(nodeVersion, new ArrayList<>()).getId();
+    long bareNodeVersionId = PostgresTest.createNodeVersion(nodeId).getId();
+
+    PostgresNodeVersionDao uncachedNodeVersionDao = new PostgresNodeVersionDao(PostgresTest.dbSource, PostgresTest.idGenerator);
+    GroundCache.invalidateAllNamespaces();
+
+    NodeVersion[] retrieved = new NodeVersion[2];
+    PostgresTest.assertStatementsAtMost(1, () -> retrieved[0] = uncachedNodeVersionDao.retrieveFromDatabase(nodeVersionId));
+    PostgresTest.assertStatementsAtMost(1, () -> retrieved[1] = uncachedNodeVersionDao.retrieveFromDatabase(bareNodeVersionId));
+
+    assertEquals(nodeId, retrieved[0].getNodeId());
+    assertEquals("http://www.google.com", retrieved[0].getReference());
+    assertEquals(parameters, retrieved[0].getParameters());
+    assertEquals(tags.size(), retrieved[0].getTags().size());
+
+    for (String key : tags.keySet()) {
+      assertEquals(tags.get(key).getValue(), retrieved[0].getTags().get(key).getValue());
+      assertEquals(tags.get(key).getValueType(), retrieved[0].getTags().get(key).getValueType());
+    }
+
+    // a version without tags or parameters gets empty maps rather than null
+    assertTrue(retrieved[1].getTags().isEmpty());
+    assertTrue(retrieved[1].getParameters().isEmpty());
+  }
+
+  private static List<NodeVersion> createNodeVersions(long nodeId, int count) throws GroundException {
+    List<NodeVersion> nodeVersions = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      nodeVersions.add(new NodeVersion(0L, PostgresTest.createTags(), -1, null, new HashMap<>(), nodeId));
+    }
+
+    return nodeVersions;
+  }
+
+  private static List<List<Long>> createParentIds(int count) {
+    List<List<Long>> parentIds = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      parentIds.add(new ArrayList<>());
+    }
+
+    return parentIds;
+  }
 }
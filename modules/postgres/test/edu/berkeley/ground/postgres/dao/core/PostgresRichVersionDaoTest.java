@@ -18,12 +18,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.core.NodeVersion;
 import edu.berkeley.ground.common.model.core.RichVersion;
 import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.util.GroundCache;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.Test;
 
@@ -83,6 +88,69 @@ public class PostgresRichVersionDaoTest extends PostgresTest {
     }
   }
 
+  @Test
+  public void testTagsAreStoredAsDeltas() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+
+    Map<String, Tag> tags = new HashMap<>();
+    for (int i = 0; i < 20; i++) {
+      tags.put("key" + i, new Tag(-1, "key" + i, i, GroundType.INTEGER));
+    }
+
+    long parentId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), nodeId), new ArrayList<>())
+                      .getId();
+
+    // change one tag, remove one and add one
+    Map<String, Tag> childTags = new HashMap<>(tags);
+    childTags.put("key0", new Tag(-1, "key0", "changed", GroundType.STRING));
+    childTags.remove("key1");
+    childTags.put("justkey", new Tag(-1, "justkey", null, null));
+
+    long childId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, childTags, -1, null, new HashMap<>(), nodeId),
+      Collections.singletonList(parentId)).getId();
+
+    assertEquals(2, PostgresRichVersionDaoTest.count("SELECT count(*) FROM rich_version_tag WHERE rich_version_id = " + childId));
+    assertEquals(1, PostgresRichVersionDaoTest.count("SELECT count(*) FROM rich_version_tag_removal WHERE rich_version_id = " + childId));
+
+    GroundCache.invalidateAllNamespaces();
+
+    assertEquals(tags, PostgresTest.nodeVersionDao.retrieveFromDatabase(parentId).getTags());
+    assertEquals(childTags, PostgresTest.nodeVersionDao.retrieveFromDatabase(childId).getTags());
+    assertEquals(childTags, PostgresTest.tagDao.retrieveFromDatabaseByVersionId(childId));
+  }
+
+  @Test
+  public void testTagSnapshotInterval() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    List<Long> ids = new ArrayList<>();
+    List<Map<String, Tag>> versionTags = new ArrayList<>();
+
+    PostgresRichVersionDao.setTagSnapshotInterval(4);
+
+    try {
+      for (int i = 0; i < 9; i++) {
+        Map<String, Tag> tags = PostgresTest.createTags();
+        tags.put("version", new Tag(-1, "version", i, GroundType.INTEGER));
+
+        List<Long> parentIds = i == 0 ? new ArrayList<>() : Collections.singletonList(ids.get(i - 1));
+        ids.add(PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tags, -1, null, new HashMap<>(), nodeId), parentIds).getId());
+        versionTags.add(tags);
+      }
+    } finally {
+      PostgresRichVersionDao.setTagSnapshotInterval(32);
+    }
+
+    // versions 0, 4 and 8 are snapshots, and every other version stores only its version tag
+    assertEquals(3, PostgresRichVersionDaoTest.count("SELECT count(*) FROM rich_version WHERE tag_base_id IS NULL"));
+    assertEquals(3 * 4 + 6, PostgresRichVersionDaoTest.count("SELECT count(*) FROM rich_version_tag"));
+
+    GroundCache.invalidateAllNamespaces();
+
+    for (int i = 0; i < ids.size(); i++) {
+      assertEquals(versionTags.get(i), PostgresTest.nodeVersionDao.retrieveFromDatabase(ids.get(i)).getTags());
+    }
+  }
+
   @Test
   public void testStructureVersionConformation() throws GroundException {
     long id = 10;
@@ -125,4 +193,8 @@ public class PostgresRichVersionDaoTest extends PostgresTest {
                                                new HashMap<>());
     PostgresTest.postgresRichVersionDao.create(richVersion, new ArrayList<>());
   }
+
+  private static long count(String sql) throws GroundException {
+    return PostgresUtils.executeQuery(PostgresTest.dbSource, sql, resultSet -> resultSet.getLong(1)).get(0);
+  }
 }
@@ -13,6 +13,7 @@
  */
 package edu.berkeley.ground.postgres.dao.core;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import edu.berkeley.ground.common.exception.GroundException;
@@ -20,8 +21,12 @@ import edu.berkeley.ground.common.model.core.Node;
 import edu.berkeley.ground.common.model.core.NodeVersion;
 import edu.berkeley.ground.common.model.version.GroundType;
 import edu.berkeley.ground.common.model.version.Tag;
+import edu.berkeley.ground.common.model.version.TagPredicate;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -66,4 +71,123 @@ public class PostgresTagDaoTest extends PostgresTest {
     assertTrue(ids.contains(nodeVersionId1));
     assertTrue(ids.contains(nodeVersionId2));
   }
+
+  @Test
+  public void testSearchVersionIds() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    List<Long> large = new ArrayList<>();
+
+    for (long rows = 0; rows < 5_000_000; rows += 1_000_000) {
+      Map<String, Tag> tagsMap = new HashMap<>();
+      tagsMap.put("format", new Tag(1, "format", "parquet", GroundType.STRING));
+      tagsMap.put("rows", new Tag(1, "rows", rows, GroundType.LONG));
+
+      long id = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId), new ArrayList<>()).getId();
+
+      if (rows > 1_000_000) {
+        large.add(id);
+      }
+    }
+
+    List<TagPredicate> predicates = Arrays.asList(TagPredicate.parse("format", "parquet"), TagPredicate.parse("rows", "gt:1e6"));
+
+    assertEquals(large, PostgresTest.tagDao.searchVersionIds(predicates, 0, 10));
+
+    // page through the same results one id at a time
+    List<Long> first = PostgresTest.tagDao.searchVersionIds(predicates, 0, 1);
+    List<Long> second = PostgresTest.tagDao.searchVersionIds(predicates, first.get(0), 1);
+
+    assertEquals(large.subList(0, 1), first);
+    assertEquals(large.subList(1, 2), second);
+
+    assertTrue(PostgresTest.tagDao.searchVersionIds(Arrays.asList(TagPredicate.parse("format", "csv")), 0, 10).isEmpty());
+  }
+
+  @Test
+  public void testSearchFindsInheritedTags() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+
+    Map<String, Tag> tagsMap = new HashMap<>();
+    tagsMap.put("format", new Tag(1, "format", "parquet", GroundType.STRING));
+    tagsMap.put("rows", new Tag(1, "rows", 2_000_000L, GroundType.LONG));
+    tagsMap.put("owner", new Tag(1, "owner", "ground", GroundType.STRING));
+    long firstId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId), new ArrayList<>())
+                     .getId();
+
+    // the second version only stores its new row count, and the third only that it dropped the format
+    tagsMap.put("rows", new Tag(1, "rows", 3_000_000L, GroundType.LONG));
+    long secondId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId),
+      Collections.singletonList(firstId)).getId();
+
+    tagsMap.remove("format");
+    long thirdId = PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId),
+      Collections.singletonList(secondId)).getId();
+
+    assertEquals(Arrays.asList(firstId, secondId),
+      PostgresTest.tagDao.searchVersionIds(Arrays.asList(TagPredicate.parse("format", "parquet")), 0, 10));
+    assertEquals(Arrays.asList(secondId, thirdId),
+      PostgresTest.tagDao.searchVersionIds(Arrays.asList(TagPredicate.parse("rows", "gt:2e6")), 0, 10));
+    assertEquals(Arrays.asList(secondId),
+      PostgresTest.tagDao.searchVersionIds(Arrays.asList(TagPredicate.parse("format", "parquet"), TagPredicate.parse("rows", "gt:2e6")), 0, 10));
+
+    List<Long> ids = PostgresTest.tagDao.getVersionIdsByTag("format");
+    assertEquals(2, ids.size());
+    assertTrue(ids.contains(firstId));
+    assertTrue(ids.contains(secondId));
+  }
+
+  @Test
+  public void testSearchPagesThroughInheritedTags() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+
+    Map<String, Tag> tagsMap = new HashMap<>();
+    tagsMap.put("format", new Tag(1, "format", "parquet", GroundType.STRING));
+    tagsMap.put("owner", new Tag(1, "owner", "ground", GroundType.STRING));
+
+    // only the first version stores the format; every later one is a delta that changes the row count
+    List<Long> versionIds = new ArrayList<>();
+
+    for (int i = 0; i < 5; i++) {
+      tagsMap.put("rows", new Tag(1, "rows", (long) i, GroundType.LONG));
+      List<Long> parentIds = versionIds.isEmpty() ? new ArrayList<>() : Collections.singletonList(versionIds.get(i - 1));
+      versionIds.add(PostgresTest.nodeVersionDao.create(new NodeVersion(0L, tagsMap, -1, null, new HashMap<>(), nodeId), parentIds).getId());
+    }
+
+    List<TagPredicate> predicates = Arrays.asList(TagPredicate.parse("format", "parquet"));
+    List<Long> paged = new ArrayList<>();
+    long afterId = 0;
+
+    for (List<Long> page = PostgresTest.tagDao.searchVersionIds(predicates, afterId, 2); !page.isEmpty();
+         page = PostgresTest.tagDao.searchVersionIds(predicates, afterId, 2)) {
+      paged.addAll(page);
+      afterId = page.get(page.size() - 1);
+    }
+
+    assertEquals(versionIds, paged);
+    assertEquals(Arrays.asList(versionIds.get(3), versionIds.get(4)), PostgresTest.tagDao.searchVersionIds(predicates, versionIds.get(2), 10));
+
+    // the version storing the tag records the largest id among the deltas based on it
+    assertEquals(versionIds.get(4), PostgresUtils.executeQuery(PostgresTest.dbSource, "SELECT max_tag_delta_id FROM rich_version WHERE id = ?",
+      resultSet -> resultSet.getLong(1), versionIds.get(0)).get(0));
+  }
+
+  @Test
+  public void testSearchItemIds() throws GroundException {
+    Map<String, Tag> small = new HashMap<>();
+    small.put("size", new Tag(1, "size", 10, GroundType.INTEGER));
+    Map<String, Tag> big = new HashMap<>();
+    big.put("size", new Tag(1, "size", 1000, GroundType.INTEGER));
+
+    PostgresTest.nodeDao.create(new Node(0L, null, "small", small));
+    long bigId = PostgresTest.nodeDao.create(new Node(0L, null, "big", big)).getId();
+
+    List<TagPredicate> predicates = Arrays.asList(TagPredicate.parse("size", "gte:100"), TagPredicate.parse("size", "lt:1e4"));
+
+    assertEquals(Arrays.asList(bigId), PostgresTest.tagDao.searchItemIds(predicates, 0, 10));
+  }
+
+  @Test(expected = GroundException.class)
+  public void testRangeOnNonNumericValue() throws GroundException {
+    TagPredicate.parse("rows", "gt:many");
+  }
 }
@@ -1,13 +1,18 @@
 package edu.berkeley.ground.postgres.dao.usage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.usage.LineageAdjacency;
 import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.Test;
 
@@ -85,4 +90,94 @@ public class PostgresLineageEdgeVersionDaoTest extends PostgresTest {
       throw e;
     }
   }
+
+  @Test
+  public void testLineageTraversal() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long first = PostgresTest.createNodeVersion(nodeId).getId();
+    long second = PostgresTest.createNodeVersion(nodeId).getId();
+    long third = PostgresTest.createNodeVersion(nodeId).getId();
+    long other = PostgresTest.createNodeVersion(nodeId).getId();
+
+    // first -> second -> third <- other
+    long lineageEdgeId = PostgresTest.createLineageEdge("testLineageEdge").getId();
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, first, second);
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, second, third);
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, other, third);
+
+    LineageAdjacency upstream = PostgresTest.lineageEdgeVersionDao.getUpstream(third, 10, 10, 100);
+
+    assertEquals(third, upstream.getRootId());
+    assertEquals(3, upstream.getAdjacency().size());
+    assertEquals(Arrays.asList(second), upstream.getAdjacency().get(first));
+    assertEquals(Arrays.asList(third), upstream.getAdjacency().get(second));
+    assertEquals(Arrays.asList(third), upstream.getAdjacency().get(other));
+    assertFalse(upstream.isTruncated());
+
+    LineageAdjacency downstream = PostgresTest.lineageEdgeVersionDao.getDownstream(first, 10, 10, 100);
+
+    assertEquals(2, downstream.getAdjacency().size());
+    assertEquals(Arrays.asList(second), downstream.getAdjacency().get(first));
+    assertEquals(Arrays.asList(third), downstream.getAdjacency().get(second));
+
+    // only the direct parents are within one hop, and only one of them fits in a fan-out of one
+    assertEquals(2, PostgresTest.lineageEdgeVersionDao.getUpstream(third, 1, 10, 100).getAdjacency().size());
+    assertEquals(1, PostgresTest.lineageEdgeVersionDao.getUpstream(third, 1, 1, 100).getAdjacency().size());
+
+    LineageAdjacency truncated = PostgresTest.lineageEdgeVersionDao.getUpstream(third, 10, 10, 1);
+    assertEquals(1, truncated.getAdjacency().size());
+    assertTrue(truncated.isTruncated());
+
+    // a walk that reaches every edge exactly at the limit is not truncated
+    LineageAdjacency complete = PostgresTest.lineageEdgeVersionDao.getUpstream(third, 10, 10, 3);
+    assertEquals(3, complete.getAdjacency().size());
+    assertFalse(complete.isTruncated());
+  }
+
+  @Test
+  public void testLineageDiamond() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long[] ids = new long[5];
+
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = PostgresTest.createNodeVersion(nodeId).getId();
+    }
+
+    // 0 -> 1 -> 2 -> 3 -> 4, and 0 -> 3, so 3 and the edge out of it are reached at two depths
+    long lineageEdgeId = PostgresTest.createLineageEdge("testLineageEdge").getId();
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, ids[0], ids[1]);
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, ids[1], ids[2]);
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, ids[2], ids[3]);
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, ids[0], ids[3]);
+    PostgresTest.createLineageEdgeVersion(lineageEdgeId, ids[3], ids[4]);
+
+    LineageAdjacency complete = PostgresTest.lineageEdgeVersionDao.getDownstream(ids[0], 10, 10, 5);
+    assertEquals(Arrays.asList(ids[1], ids[3]), complete.getAdjacency().get(ids[0]));
+    assertEquals(Arrays.asList(ids[4]), complete.getAdjacency().get(ids[3]));
+    assertEquals(4, complete.getAdjacency().size());
+    assertFalse(complete.isTruncated());
+
+    LineageAdjacency truncated = PostgresTest.lineageEdgeVersionDao.getDownstream(ids[0], 10, 10, 4);
+    assertEquals(4, truncated.getAdjacency().values().stream().mapToInt(List::size).sum());
+    assertTrue(truncated.isTruncated());
+  }
+
+  @Test
+  public void testLineageFanOutCut() throws GroundException {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long root = PostgresTest.createNodeVersion(nodeId).getId();
+    long lineageEdgeId = PostgresTest.createLineageEdge("testLineageEdge").getId();
+
+    for (int i = 0; i < 3; i++) {
+      PostgresTest.createLineageEdgeVersion(lineageEdgeId, root, PostgresTest.createNodeVersion(nodeId).getId());
+    }
+
+    LineageAdjacency cut = PostgresTest.lineageEdgeVersionDao.getDownstream(root, 10, 2, 100);
+    assertEquals(2, cut.getAdjacency().get(root).size());
+    assertTrue(cut.isTruncated());
+
+    LineageAdjacency complete = PostgresTest.lineageEdgeVersionDao.getDownstream(root, 10, 3, 100);
+    assertEquals(3, complete.getAdjacency().get(root).size());
+    assertFalse(complete.isTruncated());
+  }
 }
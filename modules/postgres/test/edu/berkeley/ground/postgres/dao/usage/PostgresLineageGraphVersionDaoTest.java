@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
 import edu.berkeley.ground.common.model.usage.LineageGraphVersion;
 import edu.berkeley.ground.common.model.version.Tag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
@@ -100,6 +101,32 @@ public class PostgresLineageGraphVersionDaoTest extends PostgresTest {
     }
   }
 
+  @Test
+  public void testStreamLineageEdgeVersions() throws Exception {
+    long firstNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("firstTestNode").getId()).getId();
+    long secondNodeVersionId = PostgresTest.createNodeVersion(PostgresTest.createNode("secondTestNode").getId()).getId();
+    long lineageEdgeId = PostgresTest.createLineageEdge("testLineageEdge").getId();
+
+    List<Long> lineageEdgeVersionIds = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      lineageEdgeVersionIds.add(PostgresTest.createLineageEdgeVersion(lineageEdgeId, firstNodeVersionId, secondNodeVersionId).getId());
+    }
+
+    long lineageGraphId = PostgresTest.createLineageGraph("testLineageGraph").getId();
+    long lineageGraphVersionId = PostgresTest.createLineageGraphVersion(lineageGraphId, lineageEdgeVersionIds).getId();
+
+    List<LineageEdgeVersion> lineageEdgeVersions = PostgresTest.collect(
+      ((PostgresLineageGraphVersionDao) PostgresTest.lineageGraphVersionDao).streamLineageEdgeVersions(lineageGraphVersionId));
+
+    assertEquals(lineageEdgeVersionIds.size(), lineageEdgeVersions.size());
+
+    for (int i = 0; i < lineageEdgeVersionIds.size(); i++) {
+      assertEquals((long) lineageEdgeVersionIds.get(i), lineageEdgeVersions.get(i).getId());
+      assertEquals(firstNodeVersionId, lineageEdgeVersions.get(i).getFromId());
+      assertEquals(secondNodeVersionId, lineageEdgeVersions.get(i).getToId());
+    }
+  }
+
   @Test
   public void testCreateEmptyLineageGraph() throws GroundException {
     String lineageGraphName = "testGraph";
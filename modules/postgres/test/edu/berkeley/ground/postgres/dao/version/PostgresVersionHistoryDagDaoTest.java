@@ -15,10 +15,20 @@ package edu.berkeley.ground.postgres.dao.version;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.version.Item;
+import edu.berkeley.ground.common.model.version.Version;
 import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.version.mock.TestCountingDatabase;
+import edu.berkeley.ground.postgres.util.PostgresStatements;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import org.junit.Test;
 
 public class PostgresVersionHistoryDagDaoTest extends PostgresTest {
@@ -36,4 +46,87 @@ public class PostgresVersionHistoryDagDaoTest extends PostgresTest {
 
     assertEquals(0, dag.getEdgeIds().size());
   }
+
+  @Test
+  public void testRetrievalIsSingleQuery() throws GroundException {
+    this.assertSingleQueryRetrieval(1, 5);
+    this.assertSingleQueryRetrieval(10, 200);
+  }
+
+  private void assertSingleQueryRetrieval(long itemId, int numVersions) throws GroundException {
+    PostgresTest.postgresItemDao.create(new Item(itemId, new HashMap<>()));
+
+    List<Long> parentIds = new ArrayList<>();
+
+    for (int i = 1; i <= numVersions; i++) {
+      long versionId = itemId * 1000 + i;
+
+      PostgresUtils.executeSqlList(PostgresTest.dbSource, (PostgresStatements) PostgresTest.postgresVersionDao.insert(new Version(versionId)));
+      PostgresUtils.executeSqlList(PostgresTest.dbSource, (PostgresStatements) PostgresTest.postgresItemDao.update(itemId, versionId, parentIds));
+
+      parentIds.clear();
+      parentIds.add(versionId);
+    }
+
+    VersionHistoryDagCache.invalidate(itemId);
+
+    TestCountingDatabase countingDatabase = new TestCountingDatabase(PostgresTest.dbSource);
+    PostgresVersionHistoryDagDao countingDagDao = new PostgresVersionHistoryDagDao(countingDatabase, PostgresTest.idGenerator);
+    VersionHistoryDag dag = countingDagDao.retrieveFromDatabase(itemId);
+
+    assertEquals(numVersions, dag.getEdgeIds().size());
+    assertEquals(itemId * 1000 + numVersions, (long) dag.getLeaves().get(0));
+    assertEquals(1, countingDatabase.getStatementCount());
+
+    // the second retrieval is served from the cache
+    countingDatabase.resetStatementCount();
+    dag = countingDagDao.retrieveFromDatabase(itemId);
+
+    assertEquals(numVersions, dag.getEdgeIds().size());
+    assertEquals(0, countingDatabase.getStatementCount());
+  }
+
+  @Test
+  public void testCacheIgnoresRolledBackEdges() throws GroundException {
+    long itemId = 1;
+    PostgresTest.postgresItemDao.create(new Item(itemId, new HashMap<>()));
+
+    PostgresUtils.executeSqlList(PostgresTest.dbSource, (PostgresStatements) PostgresTest.postgresVersionDao.insert(new Version(1001)));
+    PostgresUtils.executeSqlList(PostgresTest.dbSource, (PostgresStatements) PostgresTest.postgresItemDao.update(itemId, 1001, new ArrayList<>()));
+
+    // version 1002 was never inserted, so this write violates a foreign key and is rolled back
+    VersionHistoryDag dag = PostgresTest.versionHistoryDagDao.retrieveFromDatabase(itemId);
+
+    try {
+      PostgresUtils.executeSqlList(PostgresTest.dbSource, (PostgresStatements) PostgresTest.versionHistoryDagDao.addEdge(dag, 1001, 1002, itemId));
+      fail("Expected the write to fail.");
+    } catch (GroundException e) {
+      // expected
+    }
+
+    TestCountingDatabase countingDatabase = new TestCountingDatabase(PostgresTest.dbSource);
+    VersionHistoryDag cached = new PostgresVersionHistoryDagDao(countingDatabase, PostgresTest.idGenerator).retrieveFromDatabase(itemId);
+
+    assertEquals(Arrays.asList(1001L), cached.getLeaves());
+    assertEquals(0, countingDatabase.getStatementCount());
+  }
+
+  @Test
+  public void testWritesOnlyStopLoadsOfTheirOwnItem() throws GroundException {
+    VersionHistoryDagCache.invalidateAll();
+
+    // a write to another item commits while item 1 loads, so item 1's DAG is still cached
+    VersionHistoryDagCache.get(1, () -> {
+      VersionHistoryDagCache.addEdge(2, 0, 2001, 3001);
+      return new VersionHistoryDag(1, new ArrayList<>());
+    });
+    assertEquals(1, VersionHistoryDagCache.size());
+
+    // a write to item 3 commits while item 3 loads, so the load may be missing it and is not cached
+    VersionHistoryDagCache.get(3, () -> {
+      VersionHistoryDagCache.addEdge(3, 0, 2003, 3003);
+      return new VersionHistoryDag(3, new ArrayList<>());
+    });
+    assertEquals(1, VersionHistoryDagCache.size());
+  }
 }
@@ -0,0 +1,132 @@
+package edu.berkeley.ground.postgres.dao.version.mock;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import play.db.ConnectionCallable;
+import play.db.ConnectionRunnable;
+import play.db.Database;
+
+/**
+ * A Database that delegates to another one and counts the statements executed against it, so that
+ * tests can check how many round trips a DAO operation takes.
+ */
+public class TestCountingDatabase implements Database {
+
+  private final Database delegate;
+  private final AtomicInteger statementCount;
+
+  public TestCountingDatabase(Database delegate) {
+    this.delegate = delegate;
+    this.statementCount = new AtomicInteger();
+  }
+
+  public int getStatementCount() {
+    return this.statementCount.get();
+  }
+
+  public void resetStatementCount() {
+    this.statementCount.set(0);
+  }
+
+  @Override
+  public String getName() {
+    return this.delegate.getName();
+  }
+
+  @Override
+  public DataSource getDataSource() {
+    return this.delegate.getDataSource();
+  }
+
+  @Override
+  public String getUrl() {
+    return this.delegate.getUrl();
+  }
+
+  @Override
+  public Connection getConnection() {
+    return this.count(this.delegate.getConnection());
+  }
+
+  @Override
+  public Connection getConnection(boolean autocommit) {
+    return this.count(this.delegate.getConnection(autocommit));
+  }
+
+  @Override
+  public void withConnection(ConnectionRunnable block) {
+    this.delegate.withConnection((ConnectionRunnable) connection -> block.run(this.count(connection)));
+  }
+
+  @Override
+  public <A> A withConnection(ConnectionCallable<A> block) {
+    return this.delegate.withConnection((ConnectionCallable<A>) connection -> block.call(this.count(connection)));
+  }
+
+  @Override
+  public void withConnection(boolean autocommit, ConnectionRunnable block) {
+    this.delegate.withConnection(autocommit, (ConnectionRunnable) connection -> block.run(this.count(connection)));
+  }
+
+  @Override
+  public <A> A withConnection(boolean autocommit, ConnectionCallable<A> block) {
+    return this.delegate.withConnection(autocommit, (ConnectionCallable<A>) connection -> block.call(this.count(connection)));
+  }
+
+  @Override
+  public void withTransaction(ConnectionRunnable block) {
+    this.delegate.withTransaction((ConnectionRunnable) connection -> block.run(this.count(connection)));
+  }
+
+  @Override
+  public <A> A withTransaction(ConnectionCallable<A> block) {
+    return this.delegate.withTransaction((ConnectionCallable<A>) connection -> block.call(this.count(connection)));
+  }
+
+  @Override
+  public void shutdown() {
+    this.delegate.shutdown();
+  }
+
+  @Override
+  public play.api.db.Database toScala() {
+    return this.delegate.toScala();
+  }
+
+  private Connection count(Connection connection) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+      (proxy, method, args) -> {
+        Object result = invoke(connection, method, args);
+
+        if (result instanceof Statement) {
+          return this.count((Statement) result, method.getReturnType());
+        }
+
+        return result;
+      });
+  }
+
+  private Statement count(Statement statement, Class<?> statementType) {
+    return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[] {statementType},
+      (proxy, method, args) -> {
+        if (method.getName().startsWith("execute")) {
+          this.statementCount.incrementAndGet();
+        }
+
+        return invoke(statement, method, args);
+      });
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
@@ -2,10 +2,13 @@ package edu.berkeley.ground.postgres.dao.version.mock;
 
 import edu.berkeley.ground.common.exception.GroundException;
 import edu.berkeley.ground.common.model.core.RichVersion;
+import edu.berkeley.ground.common.model.version.VersionHistoryDag;
 import edu.berkeley.ground.common.util.IdGenerator;
 import edu.berkeley.ground.postgres.dao.core.PostgresRichVersionDao;
+import edu.berkeley.ground.postgres.util.PostgresStatements;
 import edu.berkeley.ground.postgres.util.PostgresUtils;
 import java.util.List;
+import java.util.Map;
 import play.db.Database;
 
 public class TestPostgresRichVersionDao extends PostgresRichVersionDao<RichVersion> {
@@ -21,6 +24,18 @@ public class TestPostgresRichVersionDao extends PostgresRichVersionDao<RichVersi
     return richVersion;
   }
 
+  @Override
+  protected RichVersion instantiate(long id, RichVersion richVersion) {
+    return new RichVersion(id, richVersion);
+  }
+
+  @Override
+  protected PostgresStatements createStatements(RichVersion newVersion, List<Long> parentIds, Map<Long, VersionHistoryDag> dags,
+                                                Map<Long, RichVersion> batch)
+    throws GroundException {
+    return super.insert(newVersion);
+  }
+
   @Override
   public Class<RichVersion> getType() {
     return RichVersion.class;
@@ -0,0 +1,86 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class DbExecutorTest {
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private DbExecutor dbExecutor;
+
+  @After
+  public void tearDown() {
+    this.release.countDown();
+    this.dbExecutor.shutdown();
+  }
+
+  @Test
+  public void testRejectWhenQueueIsFull() throws Exception {
+    this.dbExecutor = new DbExecutor(1, 2, TimeUnit.MINUTES.toMillis(1), 1);
+    this.blockThread();
+
+    this.dbExecutor.execute(() -> { });
+    this.dbExecutor.execute(() -> { });
+    assertEquals(2, this.dbExecutor.getQueueDepth());
+
+    try {
+      this.dbExecutor.execute(() -> { });
+      fail("A full queue accepted a task.");
+    } catch (DbExecutor.Saturated e) {
+      assertEquals(1, e.getRetryAfterSecs());
+    }
+
+    assertEquals(1, this.dbExecutor.getRejectedCount());
+    assertEquals(2, this.dbExecutor.getQueueDepth());
+  }
+
+  @Test
+  public void testRejectWhenQueuedTaskWaitedTooLong() throws Exception {
+    this.dbExecutor = new DbExecutor(1, 100, 10, 1);
+    this.blockThread();
+
+    this.dbExecutor.execute(() -> { });
+    Thread.sleep(50);
+
+    try {
+      this.dbExecutor.execute(() -> { });
+      fail("A task was queued behind one that had waited longer than the maximum wait.");
+    } catch (DbExecutor.Saturated e) {
+      assertEquals(1, this.dbExecutor.getRejectedCount());
+    }
+
+    // once the queue drains, tasks are accepted again
+    this.release.countDown();
+    CountDownLatch ran = new CountDownLatch(1);
+
+    while (this.dbExecutor.getQueueDepth() > 0) {
+      Thread.sleep(1);
+    }
+
+    this.dbExecutor.execute(ran::countDown);
+    assertTrue(ran.await(10, TimeUnit.SECONDS));
+    assertTrue(this.dbExecutor.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  private void blockThread() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+
+    this.dbExecutor.execute(() -> {
+      started.countDown();
+
+      try {
+        this.release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,43 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class GroundCacheTest {
+
+  @Test
+  public void testInvalidationsOnlyStopLoadsOfTheirOwnKey() throws GroundException {
+    GroundCache<String, String> cache = GroundCache.namespace("groundCacheTest");
+    cache.invalidateAll();
+
+    // another key is invalidated while "a" loads, so "a" is still cached
+    cache.get("a", () -> {
+      cache.invalidate("b");
+      return "a";
+    });
+    assertEquals(1, cache.size());
+
+    // "c" is invalidated while it loads, so the load may be stale and is not cached
+    cache.get("c", () -> {
+      cache.invalidate("c");
+      return "c";
+    });
+    assertEquals(1, cache.size());
+
+    // only the invalidated key of a bulk load is left out of the cache
+    cache.getAll(Arrays.asList("d", "e"), keys -> {
+      cache.invalidate("e");
+
+      Map<String, String> values = new HashMap<>();
+      keys.forEach(key -> values.put(key, key));
+      return values;
+    });
+    assertEquals(2, cache.size());
+    assertEquals("d", cache.get("d", () -> null));
+  }
+}
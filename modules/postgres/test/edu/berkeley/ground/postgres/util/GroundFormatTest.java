@@ -0,0 +1,168 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import edu.berkeley.ground.common.model.core.GraphVersion;
+import edu.berkeley.ground.common.model.core.NodeVersion;
+import edu.berkeley.ground.common.model.usage.LineageEdgeVersion;
+import edu.berkeley.ground.common.model.version.GroundType;
+import edu.berkeley.ground.common.model.version.Tag;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import play.libs.Json;
+
+/**
+ * Checks that every format reads back what it wrote, and that the binary formats are smaller than
+ * JSON. Their speed is measured by resources/scripts/postgres/benchmarks/GroundFormatBenchmark.java.
+ */
+public class GroundFormatTest {
+
+  // ids handed out by the IdGenerator are large, so the tests use ids of the same size
+  private static final long FIRST_ID = 1L << 50;
+
+  // the binary formats may read a number back as a different node type than JSON, e.g. an int as a long
+  private static final Comparator<JsonNode> NUMERIC_VALUE = (first, second) -> {
+    if (first.equals(second)) {
+      return 0;
+    }
+
+    return first.isNumber() && second.isNumber() && first.decimalValue().compareTo(second.decimalValue()) == 0 ? 0 : 1;
+  };
+
+  private static ActorSystem system;
+  private static Materializer materializer;
+
+  @BeforeClass
+  public static void startMaterializer() {
+    system = ActorSystem.create();
+    materializer = ActorMaterializer.create(system);
+  }
+
+  @AfterClass
+  public static void stopMaterializer() {
+    system.terminate();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Map<String, Tag> tags = new HashMap<>();
+    tags.put("rows", new Tag(1, "rows", 42, GroundType.INTEGER));
+    tags.put("owner", new Tag(1, "owner", "ground", GroundType.STRING));
+
+    Map<String, String> parameters = new HashMap<>();
+    parameters.put("http", "GET");
+
+    List<Object> models = new ArrayList<>();
+    models.add(new NodeVersion(FIRST_ID, tags, -1, "http://www.google.com", parameters, FIRST_ID + 1));
+    models.add(new LineageEdgeVersion(FIRST_ID, tags, -1L, null, parameters, FIRST_ID + 2, FIRST_ID + 3, FIRST_ID + 4));
+    models.add(GroundFormatTest.createGraphVersion(10));
+
+    for (GroundFormat format : GroundFormat.values()) {
+      for (Object model : models) {
+        JsonNode json = Json.toJson(model);
+        JsonNode read = format.read(format.write(json));
+
+        assertTrue(String.format("%s read back %s as %s", format, json, read), json.equals(NUMERIC_VALUE, read));
+        assertEquals(json, Json.toJson(Json.fromJson(read, model.getClass())));
+      }
+    }
+  }
+
+  @Test
+  public void testStreamObject() throws Exception {
+    List<NodeVersion> nodeVersions = GroundFormatTest.createNodeVersions(3);
+
+    for (GroundFormat format : GroundFormat.values()) {
+      for (List<NodeVersion> elements : Arrays.asList(nodeVersions, Collections.<NodeVersion>emptyList())) {
+        ObjectNode object = Json.newObject().put("id", FIRST_ID);
+        byte[] bytes = GroundFormatTest.collect(format.stream(object, "nodeVersions", Source.from(elements)));
+
+        JsonNode expected = object.deepCopy().set("nodeVersions", Json.toJson(elements));
+        JsonNode read = format.read(bytes);
+
+        assertTrue(String.format("%s streamed %s as %s", format, expected, read), expected.equals(NUMERIC_VALUE, read));
+      }
+    }
+  }
+
+  @Test
+  public void testStreamSequence() throws Exception {
+    List<NodeVersion> elements = GroundFormatTest.createNodeVersions(3);
+
+    for (GroundFormat format : GroundFormat.values()) {
+      byte[] bytes = GroundFormatTest.collect(format.stream(null, null, Source.from(elements)));
+      List<JsonNode> read = new ArrayList<>();
+
+      if (format == GroundFormat.JSON) {
+        for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+          read.add(Json.parse(line));
+        }
+      } else {
+        ObjectMapper mapper = new ObjectMapper(format == GroundFormat.SMILE ? new SmileFactory() : new CBORFactory());
+        read.addAll(mapper.readValues(mapper.getFactory().createParser(bytes), JsonNode.class).readAll());
+      }
+
+      assertEquals(elements.size(), read.size());
+      for (int i = 0; i < elements.size(); i++) {
+        assertTrue(format.toString(), Json.toJson(elements.get(i)).equals(NUMERIC_VALUE, read.get(i)));
+      }
+    }
+  }
+
+  @Test
+  public void testBinaryFormatsAreSmaller() throws Exception {
+    JsonNode json = Json.toJson(GroundFormatTest.createGraphVersion(1000));
+    int jsonSize = GroundFormat.JSON.write(json).length;
+
+    for (GroundFormat format : GroundFormat.values()) {
+      if (format != GroundFormat.JSON) {
+        assertTrue(String.format("%s is not smaller than JSON", format), format.write(json).length < jsonSize);
+      }
+    }
+  }
+
+  private static byte[] collect(Source<ByteString, ?> chunks) throws Exception {
+    return chunks.runWith(Sink.fold(ByteString.empty(), ByteString::concat), materializer).toCompletableFuture().get().toArray();
+  }
+
+  private static List<NodeVersion> createNodeVersions(int count) {
+    List<NodeVersion> nodeVersions = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      nodeVersions.add(new NodeVersion(FIRST_ID + i, new HashMap<>(), -1, null, new HashMap<>(), FIRST_ID + count));
+    }
+
+    return nodeVersions;
+  }
+
+  private static GraphVersion createGraphVersion(int numEdges) {
+    List<Long> edgeVersionIds = new ArrayList<>();
+
+    for (int i = 0; i < numEdges; i++) {
+      edgeVersionIds.add(FIRST_ID + i);
+    }
+
+    return new GraphVersion(FIRST_ID, new HashMap<>(), -1, null, new HashMap<>(), FIRST_ID + numEdges, edgeVersionIds);
+  }
+}
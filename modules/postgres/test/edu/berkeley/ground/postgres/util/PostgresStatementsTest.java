@@ -0,0 +1,49 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class PostgresStatementsTest {
+
+  @Test
+  public void testGroupingKeepsEveryRecordsOrder() {
+    // the second record needs B before A, even though A is seen first
+    PostgresStatements grouped = PostgresStatements.groupBySql(Arrays.asList(
+      PostgresStatementsTest.record("A", "C"),
+      PostgresStatementsTest.record("B", "A", "C"),
+      PostgresStatementsTest.record("A", "A", "C")));
+
+    assertEquals(Arrays.asList("B", "A", "A", "A", "A", "C", "C", "C"), PostgresStatementsTest.getSql(grouped));
+  }
+
+  @Test
+  public void testConflictingOrdersAreNotGrouped() {
+    PostgresStatements grouped = PostgresStatements.groupBySql(Arrays.asList(
+      PostgresStatementsTest.record("A", "B"),
+      PostgresStatementsTest.record("B", "A"),
+      PostgresStatementsTest.record("A", "B")));
+
+    assertEquals(Arrays.asList("A", "B", "B", "A", "A", "B"), PostgresStatementsTest.getSql(grouped));
+
+    grouped = PostgresStatements.groupBySql(Arrays.asList(
+      PostgresStatementsTest.record("A", "B", "A"),
+      PostgresStatementsTest.record("A", "B")));
+
+    assertEquals(Arrays.asList("A", "B", "A", "A", "B"), PostgresStatementsTest.getSql(grouped));
+  }
+
+  private static PostgresStatements record(String... sql) {
+    PostgresStatements statements = new PostgresStatements();
+    Arrays.stream(sql).forEach(statements::append);
+
+    return statements;
+  }
+
+  private static List<String> getSql(PostgresStatements statements) {
+    return statements.getAllStatements().stream().map(PostgresStatement::getSql).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,56 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.SqlConstants;
+import org.junit.Test;
+
+public class QueryMetricsTest extends PostgresTest {
+
+  private static final String SELECT_NODE = String.format(SqlConstants.SELECT_STAR_BY_SOURCE_KEY, "node");
+  private static final String INSERT_NODE = String.format(SqlConstants.INSERT_GENERIC_ITEM, "node");
+
+  public QueryMetricsTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testStatementsAreRecordedByTemplate() throws GroundException {
+    long inserts = QueryMetrics.getCount(INSERT_NODE);
+    PostgresTest.createNode("testNode");
+
+    assertEquals(inserts + 1, QueryMetrics.getCount(INSERT_NODE));
+
+    GroundCache.invalidateAllNamespaces();
+    long selects = QueryMetrics.getCount(SELECT_NODE);
+    long rows = QueryMetrics.getRows(SELECT_NODE);
+
+    PostgresTest.nodeDao.retrieveFromDatabase("testNode");
+
+    assertEquals(selects + 1, QueryMetrics.getCount(SELECT_NODE));
+    assertEquals(rows + 1, QueryMetrics.getRows(SELECT_NODE));
+
+    PrometheusWriter writer = new PrometheusWriter();
+    QueryMetrics.write(writer);
+
+    assertTrue(writer.toString().contains("ground_db_statement_duration_seconds_count{statement=\"" + SELECT_NODE + "\"}"));
+  }
+
+  @Test
+  public void testDbStatsCountWorkOnThisThread() throws GroundException {
+    PostgresTest.createNode("testNode");
+    GroundCache.invalidateAllNamespaces();
+
+    DbStats stats = DbStats.collect(() -> PostgresTest.nodeDao.retrieveFromDatabase("testNode"));
+
+    assertTrue(stats.getStatements() > 0);
+    assertEquals(stats.getStatements(), stats.getConnections());
+    assertTrue(stats.getRows() > 0);
+
+    // the node is cached now
+    PostgresTest.assertStatementsAtMost(0, () -> PostgresTest.nodeDao.retrieveFromDatabase("testNode"));
+  }
+}
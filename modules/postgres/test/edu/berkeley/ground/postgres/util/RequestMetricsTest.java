@@ -0,0 +1,59 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RequestMetricsTest {
+
+  @Test
+  public void testWriteRequestMetrics() {
+    RequestMetrics requestMetrics = new RequestMetrics();
+
+    for (int i = 1; i <= 1000; i++) {
+      requestMetrics.record("GET", "/nodes/$sourceKey<[^/]+>", 200, TimeUnit.MILLISECONDS.toNanos(i));
+    }
+
+    requestMetrics.record("GET", "/nodes/$sourceKey<[^/]+>", 400, TimeUnit.MILLISECONDS.toNanos(1));
+    requestMetrics.record("GET", null, 404, TimeUnit.MILLISECONDS.toNanos(1));
+
+    PrometheusWriter writer = new PrometheusWriter();
+    requestMetrics.write(writer);
+    List<String> lines = Arrays.asList(writer.toString().split("\n"));
+
+    assertTrue(lines.contains("# TYPE ground_http_requests_total counter"));
+    assertTrue(lines.contains("ground_http_requests_total{method=\"GET\",route=\"/nodes/:sourceKey\",status=\"2xx\"} 1000"));
+    assertTrue(lines.contains("ground_http_requests_total{method=\"GET\",route=\"/nodes/:sourceKey\",status=\"4xx\"} 1"));
+    assertTrue(lines.contains("ground_http_requests_total{method=\"GET\",route=\"unmatched\",status=\"4xx\"} 1"));
+    assertTrue(lines.contains("ground_http_request_duration_seconds_count{method=\"GET\",route=\"/nodes/:sourceKey\"} 1001"));
+
+    // the median of 1 to 1000 milliseconds, to within the histogram's precision
+    double median = RequestMetricsTest.getValue(lines,
+      "ground_http_request_duration_seconds{method=\"GET\",route=\"/nodes/:sourceKey\",quantile=\"0.5\"}");
+    assertEquals(0.5, median, 0.01);
+
+    double p999 = RequestMetricsTest.getValue(lines,
+      "ground_http_request_duration_seconds{method=\"GET\",route=\"/nodes/:sourceKey\",quantile=\"0.999\"}");
+    assertEquals(1.0, p999, 0.02);
+  }
+
+  @Test
+  public void testEscapeLabelValues() {
+    PrometheusWriter writer = new PrometheusWriter();
+    writer.sample("metric", 1.5, "label", "a \"quoted\\ value\n");
+
+    assertEquals("metric{label=\"a \\\"quoted\\\\ value\\n\"} 1.5\n", writer.toString());
+  }
+
+  private static double getValue(List<String> lines, String sample) {
+    return lines.stream()
+             .filter(line -> line.startsWith(sample + " "))
+             .mapToDouble(line -> Double.parseDouble(line.substring(sample.length() + 1)))
+             .findFirst()
+             .orElseThrow(() -> new AssertionError("Missing sample " + sample));
+  }
+}
@@ -0,0 +1,158 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.common.model.core.Node;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import edu.berkeley.ground.postgres.dao.core.PostgresNodeDao;
+import edu.berkeley.ground.postgres.dao.version.PostgresVersionHistoryDagDao;
+import edu.berkeley.ground.postgres.dao.version.VersionHistoryDagCache;
+import edu.berkeley.ground.postgres.dao.version.mock.TestCountingDatabase;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SingleFlightTest extends PostgresTest {
+
+  private static final int NUM_REQUESTS = 1000;
+  private static final int NUM_THREADS = 50;
+
+  public SingleFlightTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testConcurrentReadsShareOneLoad() throws Exception {
+    PostgresTest.createNode("testNode");
+
+    TestCountingDatabase countingDatabase = new TestCountingDatabase(PostgresTest.dbSource);
+    PostgresNodeDao countingNodeDao = new PostgresNodeDao(countingDatabase, PostgresTest.idGenerator);
+
+    // the number of statements one uncached read takes
+    countingNodeDao.retrieveFromDatabase("testNode");
+    int statementsPerLoad = countingDatabase.getStatementCount();
+    assertTrue(statementsPerLoad > 0);
+
+    GroundCache.invalidateAllNamespaces();
+    countingDatabase.resetStatementCount();
+
+    SingleFlight<String, Node> singleFlight = new SingleFlight<>();
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch allRequested = new CountDownLatch(NUM_REQUESTS);
+    ExecutorService requests = Executors.newFixedThreadPool(NUM_THREADS);
+    ExecutorService database = Executors.newSingleThreadExecutor();
+
+    try {
+      List<Future<CompletionStage<Node>>> results = new ArrayList<>();
+
+      for (int i = 0; i < NUM_REQUESTS; i++) {
+        results.add(requests.submit(() -> {
+          CompletionStage<Node> result = singleFlight.load("testNode", () -> CompletableFuture.supplyAsync(() -> {
+            loads.incrementAndGet();
+
+            try {
+              // hold the load open until every request has asked for it
+              allRequested.await();
+              return countingNodeDao.retrieveFromDatabase("testNode");
+            } catch (InterruptedException | GroundException e) {
+              throw new CompletionException(e);
+            }
+          }, database));
+
+          allRequested.countDown();
+          return result;
+        }));
+      }
+
+      for (Future<CompletionStage<Node>> result : results) {
+        assertEquals("testNode", result.get().toCompletableFuture().get(30, TimeUnit.SECONDS).getSourceKey());
+      }
+    } finally {
+      requests.shutdown();
+      database.shutdown();
+    }
+
+    assertEquals(1, loads.get());
+    assertEquals(statementsPerLoad, countingDatabase.getStatementCount());
+    assertEquals(0, singleFlight.size());
+  }
+
+  @Test
+  public void testConcurrentDaoReadsShareOneLoad() throws Exception {
+    long nodeId = PostgresTest.createNode("testNode").getId();
+    long parentId = PostgresTest.createNodeVersion(nodeId).getId();
+    long childId = PostgresTest.createNodeVersion(nodeId, new ArrayList<>(Arrays.asList(parentId))).getId();
+
+    TestCountingDatabase countingDatabase = new TestCountingDatabase(PostgresTest.dbSource);
+    PostgresNodeDao countingNodeDao = new PostgresNodeDao(countingDatabase, PostgresTest.idGenerator);
+    PostgresVersionHistoryDagDao countingDagDao = new PostgresVersionHistoryDagDao(countingDatabase, PostgresTest.idGenerator);
+
+    // the number of statements one uncached read of the DAG, leaves and history takes
+    SingleFlightTest.invalidateCaches();
+    countingDagDao.retrieveFromDatabase(nodeId);
+    countingNodeDao.getLeaves(nodeId);
+    countingNodeDao.getHistory(nodeId);
+    int statementsPerLoad = countingDatabase.getStatementCount();
+
+    SingleFlightTest.invalidateCaches();
+    countingDatabase.resetStatementCount();
+
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService requests = Executors.newFixedThreadPool(NUM_THREADS);
+
+    try {
+      List<Future<List<Long>>> results = new ArrayList<>();
+
+      for (int i = 0; i < NUM_THREADS; i++) {
+        results.add(requests.submit(() -> {
+          start.await();
+
+          countingDagDao.retrieveFromDatabase(nodeId);
+          countingNodeDao.getHistory(nodeId);
+          return countingNodeDao.getLeaves(nodeId);
+        }));
+      }
+
+      start.countDown();
+
+      for (Future<List<Long>> result : results) {
+        assertEquals(Arrays.asList(childId), result.get(30, TimeUnit.SECONDS));
+      }
+    } finally {
+      requests.shutdown();
+    }
+
+    assertEquals(statementsPerLoad, countingDatabase.getStatementCount());
+  }
+
+  private static void invalidateCaches() {
+    GroundCache.invalidateAllNamespaces();
+    VersionHistoryDagCache.invalidateAll();
+  }
+
+  @Test
+  public void testLoadIsNotKeptAfterItCompletes() throws Exception {
+    SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+    AtomicInteger loads = new AtomicInteger();
+
+    for (int i = 1; i <= 3; i++) {
+      int value = singleFlight.load("key", () -> CompletableFuture.completedFuture(loads.incrementAndGet()))
+                    .toCompletableFuture().get();
+      assertEquals(i, value);
+    }
+
+    assertEquals(0, singleFlight.size());
+  }
+}
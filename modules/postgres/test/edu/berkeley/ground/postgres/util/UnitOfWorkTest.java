@@ -0,0 +1,165 @@
+package edu.berkeley.ground.postgres.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.postgres.dao.PostgresTest;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class UnitOfWorkTest extends PostgresTest {
+
+  private static final String SELECT_ONE = "SELECT 1";
+
+  private static final int STATEMENTS_PER_REQUEST = 3;
+
+  public UnitOfWorkTest() throws GroundException {
+    super();
+  }
+
+  @Test
+  public void testUnitOfWorkSharesOneConnection() throws GroundException {
+    PostgresTest.createNode("testNode");
+    GroundCache.invalidateAllNamespaces();
+
+    DbStats stats = DbStats.collect(() -> {
+      UnitOfWork unit = UnitOfWork.begin();
+
+      try {
+        PostgresTest.nodeDao.retrieveFromDatabase("testNode");
+        GroundCache.invalidateAllNamespaces();
+        PostgresTest.nodeDao.retrieveFromDatabase("testNode");
+      } finally {
+        unit.close();
+      }
+    });
+
+    assertTrue(stats.getStatements() >= 2);
+    assertEquals(1, stats.getConnections());
+  }
+
+  @Test
+  public void testWritesAreCommittedInsideUnitOfWork() throws GroundException {
+    DbStats stats = DbStats.collect(() -> {
+      UnitOfWork unit = UnitOfWork.begin();
+
+      try {
+        PostgresTest.createNode("testNode");
+        PostgresTest.createNode("otherNode");
+      } finally {
+        unit.close();
+      }
+    });
+
+    assertEquals(1, stats.getConnections());
+
+    // read back on new connections, so the writes must have been committed
+    GroundCache.invalidateAllNamespaces();
+    assertEquals("testNode", PostgresTest.nodeDao.retrieveFromDatabase("testNode").getSourceKey());
+    assertEquals("otherNode", PostgresTest.nodeDao.retrieveFromDatabase("otherNode").getSourceKey());
+  }
+
+  @Test
+  public void testRuntimeExceptionsRollBackSharedConnection() throws GroundException {
+    PostgresStatements statements = new PostgresStatements();
+    statements.append("INSERT INTO version (id) VALUES (?)", 1L);
+
+    // binding this collection fails with an unchecked exception after the insert has run
+    statements.append("SELECT ?", new AbstractList<Long>() {
+      @Override
+      public Long get(int index) {
+        throw new IllegalStateException();
+      }
+
+      @Override
+      public int size() {
+        return 1;
+      }
+    });
+
+    UnitOfWork unit = UnitOfWork.begin();
+
+    try {
+      PostgresUtils.executeSqlList(PostgresTest.dbSource, statements);
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    } finally {
+      unit.close();
+    }
+
+    assertEquals(0, (long) PostgresUtils.executeQuery(PostgresTest.dbSource, "SELECT count(*) FROM version WHERE id = 1",
+      resultSet -> resultSet.getLong(1)).get(0));
+  }
+
+  @Test
+  public void testFailedTransactionCommitsNothing() throws GroundException {
+    try {
+      UnitOfWork.transactional(() -> {
+        try {
+          long nodeId = PostgresTest.createNode("testNode").getId();
+
+          // the parent does not exist, so this fails after the node has been written
+          return PostgresTest.createNodeVersion(nodeId, Collections.singletonList(-1L));
+        } catch (GroundException e) {
+          throw new CompletionException(e);
+        }
+      }).get();
+
+      fail();
+    } catch (CompletionException e) {
+      // expected
+    }
+
+    try {
+      PostgresTest.nodeDao.retrieveFromDatabase("testNode");
+      fail();
+    } catch (GroundException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCommitHooksWaitForTransaction() throws GroundException {
+    AtomicBoolean committed = new AtomicBoolean(false);
+
+    UnitOfWork.transactional(() -> {
+      PostgresStatements statements = new PostgresStatements();
+      statements.append("INSERT INTO version (id) VALUES (?)", 1L);
+      statements.onCommit(() -> committed.set(true));
+
+      try {
+        PostgresUtils.executeSqlList(PostgresTest.dbSource, statements);
+      } catch (GroundException e) {
+        throw new CompletionException(e);
+      }
+
+      assertFalse(committed.get());
+      return null;
+    }).get();
+
+    assertTrue(committed.get());
+    assertEquals(1, (long) PostgresUtils.executeQuery(PostgresTest.dbSource, "SELECT count(*) FROM version WHERE id = 1",
+      resultSet -> resultSet.getLong(1)).get(0));
+  }
+
+  @Test
+  public void testLeasesOutsideUnitOfWorkAreNotShared() throws GroundException {
+    DbStats stats = DbStats.collect(UnitOfWorkTest::runRequest);
+
+    assertEquals(STATEMENTS_PER_REQUEST, stats.getStatements());
+    assertEquals(STATEMENTS_PER_REQUEST, stats.getConnections());
+  }
+
+  private static void runRequest() throws GroundException {
+    for (int i = 0; i < STATEMENTS_PER_REQUEST; i++) {
+      PostgresUtils.executeQuery(PostgresTest.dbSource, SELECT_ONE, resultSet -> resultSet.getInt(1));
+    }
+  }
+}
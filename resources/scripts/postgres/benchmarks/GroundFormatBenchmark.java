@@ -0,0 +1,74 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.fasterxml.jackson.databind.JsonNode;
+import edu.berkeley.ground.common.model.core.GraphVersion;
+import edu.berkeley.ground.postgres.util.GroundFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import play.libs.Json;
+
+/**
+ * Compares the size and encode and decode speed of every response format on a large graph
+ * version. Run it from the repository root against the postgres module's classpath:
+ *
+ * <p>CP=$(sbt -error "export postgres/test:fullClasspath")
+ * javac -cp "$CP" -d /tmp/benchmarks resources/scripts/postgres/benchmarks/GroundFormatBenchmark.java
+ * java -cp "/tmp/benchmarks:$CP" GroundFormatBenchmark
+ */
+public class GroundFormatBenchmark {
+
+  // edge version ids in the benchmarked graph version
+  private static final int NUM_EDGES = 100000;
+
+  private static final int WARMUP_ITERATIONS = 10;
+  private static final int ITERATIONS = 20;
+
+  // ids handed out by the IdGenerator are large, so the benchmark uses ids of the same size
+  private static final long FIRST_ID = 1L << 50;
+
+  public static void main(String[] args) throws Exception {
+    List<Long> edgeVersionIds = new ArrayList<>();
+
+    for (int i = 0; i < NUM_EDGES; i++) {
+      edgeVersionIds.add(FIRST_ID + i);
+    }
+
+    JsonNode json = Json.toJson(new GraphVersion(FIRST_ID, new HashMap<>(), -1, null, new HashMap<>(), FIRST_ID + NUM_EDGES, edgeVersionIds));
+    int jsonSize = GroundFormat.JSON.write(json).length;
+
+    for (GroundFormat format : GroundFormat.values()) {
+      int size = format.write(json).length;
+
+      for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+        format.read(format.write(json));
+      }
+
+      long encodeNanos = 0;
+      long decodeNanos = 0;
+
+      for (int i = 0; i < ITERATIONS; i++) {
+        long start = System.nanoTime();
+        byte[] bytes = format.write(json);
+        encodeNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        format.read(bytes);
+        decodeNanos += System.nanoTime() - start;
+      }
+
+      System.out.println(String.format("%s: %d bytes (%.0f%% of JSON), encode %.2f ms, decode %.2f ms", format, size,
+        100.0 * size / jsonSize, encodeNanos / 1e6 / ITERATIONS, decodeNanos / 1e6 / ITERATIONS));
+    }
+  }
+}
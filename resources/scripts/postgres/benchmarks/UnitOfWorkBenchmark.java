@@ -0,0 +1,132 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.ImmutableMap;
+import edu.berkeley.ground.common.exception.GroundException;
+import edu.berkeley.ground.postgres.util.DbStats;
+import edu.berkeley.ground.postgres.util.PostgresUtils;
+import edu.berkeley.ground.postgres.util.UnitOfWork;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import play.db.Database;
+import play.db.Databases;
+
+/**
+ * Compares pool pressure and latency with and without units of work, for 200 concurrent clients
+ * whose requests each run three statements on a pool of 20 connections, the size the application
+ * is configured with. Run it from the repository root against the postgres module's classpath and
+ * any database, by default the one the tests use:
+ *
+ * <p>CP=$(sbt -error "export postgres/test:fullClasspath")
+ * javac -cp "$CP" -d /tmp/benchmarks resources/scripts/postgres/benchmarks/UnitOfWorkBenchmark.java
+ * java -cp "/tmp/benchmarks:$CP" UnitOfWorkBenchmark [jdbc url] [user] [password]
+ */
+public class UnitOfWorkBenchmark {
+
+  private static final String SELECT_ONE = "SELECT 1";
+
+  private static final int POOL_SIZE = 20;
+  private static final int NUM_CLIENTS = 200;
+  private static final int NUM_REQUESTS = 20000;
+  private static final int STATEMENTS_PER_REQUEST = 3;
+
+  public static void main(String[] args) throws Exception {
+    Database dbSource = Databases.createFrom(
+      "org.postgresql.Driver",
+      args.length > 0 ? args[0] : "jdbc:postgresql://localhost:5432/test",
+      ImmutableMap.of(
+        "username", args.length > 1 ? args[1] : "test",
+        "password", args.length > 2 ? args[2] : "test",
+        "hikaricp.minimumIdle", POOL_SIZE,
+        "hikaricp.maximumPoolSize", POOL_SIZE
+      ));
+
+    try {
+      // warm the pool and the JIT up so neither run pays for them
+      UnitOfWorkBenchmark.runRequests(dbSource, false);
+      UnitOfWorkBenchmark.runRequests(dbSource, true);
+
+      UnitOfWorkBenchmark.runRequests(dbSource, false).print("without units of work");
+      UnitOfWorkBenchmark.runRequests(dbSource, true).print("with units of work");
+    } finally {
+      dbSource.shutdown();
+    }
+  }
+
+  private static final class Run {
+
+    private long checkouts = 0;
+    private long millis;
+    private final long[] latencies = new long[NUM_REQUESTS];
+
+    private void print(String name) {
+      Arrays.sort(this.latencies);
+
+      System.out.println(String.format("%s: %d requests from %d clients, %d checkouts, %d ms, %.0f requests/s, latency p50 %.2f ms, "
+        + "p99 %.2f ms, max %.2f ms", name, NUM_REQUESTS, NUM_CLIENTS, this.checkouts, this.millis, NUM_REQUESTS * 1000.0 / this.millis,
+        this.latencies[NUM_REQUESTS / 2] / 1e6, this.latencies[NUM_REQUESTS * 99 / 100] / 1e6, this.latencies[NUM_REQUESTS - 1] / 1e6));
+    }
+  }
+
+  private static void runRequest(Database dbSource) throws GroundException {
+    for (int i = 0; i < STATEMENTS_PER_REQUEST; i++) {
+      PostgresUtils.executeQuery(dbSource, SELECT_ONE, resultSet -> resultSet.getInt(1));
+    }
+  }
+
+  private static Run runRequests(Database dbSource, boolean unitOfWork) throws Exception {
+    Run run = new Run();
+    ExecutorService clients = Executors.newFixedThreadPool(NUM_CLIENTS);
+    long start = System.nanoTime();
+
+    try {
+      List<Future<Long>> results = new ArrayList<>();
+
+      for (int i = 0; i < NUM_REQUESTS; i++) {
+        int request = i;
+
+        results.add(clients.submit(() -> {
+          long requestStart = System.nanoTime();
+
+          DbStats stats = DbStats.collect(() -> {
+            UnitOfWork unit = unitOfWork ? UnitOfWork.begin() : null;
+
+            try {
+              UnitOfWorkBenchmark.runRequest(dbSource);
+            } finally {
+              if (unit != null) {
+                unit.close();
+              }
+            }
+          });
+
+          run.latencies[request] = System.nanoTime() - requestStart;
+          return stats.getConnections();
+        }));
+      }
+
+      for (Future<Long> result : results) {
+        run.checkouts += result.get(1, TimeUnit.MINUTES);
+      }
+    } finally {
+      clients.shutdown();
+    }
+
+    run.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    return run;
+  }
+}
@@ -0,0 +1,49 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Benchmark for the lineage traversal endpoints on a random lineage graph. Run it against an empty
+-- database set up by postgres_setup.py:
+--
+--    psql -U <user> -d <database> -f benchmarks/lineage_traversal.sql
+--
+-- Everything runs in one transaction that is rolled back, so the database is left empty. The
+-- queries are SqlConstants.SELECT_LINEAGE with the upstream and downstream columns filled in. The
+-- DAO stops reading once it has one distinct edge more than its limit; the LIMIT stands in for that.
+
+\set versions 1000000
+\set edges 10000000
+\set depth 10
+\set fan_out 100
+\set max_edges 10000
+\timing on
+
+BEGIN;
+
+INSERT INTO version (id) SELECT i FROM generate_series(1, :versions + :edges) i;
+INSERT INTO rich_version (id) SELECT i FROM generate_series(1, :versions + :edges) i;
+INSERT INTO item (id) VALUES (1);
+INSERT INTO lineage_edge (item_id, source_key, name) VALUES (1, 'benchmark', 'benchmark');
+
+-- every edge points forward by at most 100 versions, so the graph is acyclic with 10 edges per version on average
+INSERT INTO lineage_edge_version (id, lineage_edge_id, from_rich_version_id, to_rich_version_id)
+  SELECT :versions + i, 1, from_id, least(:versions, from_id + 1 + floor(random() * 100)::bigint)
+  FROM (SELECT i, 1 + floor(random() * (:versions - 1))::bigint AS from_id FROM generate_series(1, :edges) i) edges;
+
+ANALYZE lineage_edge_version;
+
+-- upstream of a version in the middle of the graph
+EXPLAIN (ANALYZE, BUFFERS) WITH RECURSIVE lineage(from_id, to_id, depth, rank) AS ((SELECT from_rich_version_id, to_rich_version_id, 1, row_number() OVER (ORDER BY id) FROM lineage_edge_version WHERE to_rich_version_id = :versions / 2 ORDER BY id LIMIT :fan_out + 1) UNION SELECT e.from_rich_version_id, e.to_rich_version_id, l.depth + 1, e.rank FROM lineage l CROSS JOIN LATERAL (SELECT from_rich_version_id, to_rich_version_id, row_number() OVER (ORDER BY id) AS rank FROM lineage_edge_version WHERE to_rich_version_id = l.from_id ORDER BY id LIMIT :fan_out + 1) e WHERE l.depth < :depth AND l.rank <= :fan_out) SELECT from_id, to_id, rank FROM lineage LIMIT :max_edges;
+
+-- downstream of the same version
+EXPLAIN (ANALYZE, BUFFERS) WITH RECURSIVE lineage(from_id, to_id, depth, rank) AS ((SELECT from_rich_version_id, to_rich_version_id, 1, row_number() OVER (ORDER BY id) FROM lineage_edge_version WHERE from_rich_version_id = :versions / 2 ORDER BY id LIMIT :fan_out + 1) UNION SELECT e.from_rich_version_id, e.to_rich_version_id, l.depth + 1, e.rank FROM lineage l CROSS JOIN LATERAL (SELECT from_rich_version_id, to_rich_version_id, row_number() OVER (ORDER BY id) AS rank FROM lineage_edge_version WHERE from_rich_version_id = l.to_id ORDER BY id LIMIT :fan_out + 1) e WHERE l.depth < :depth AND l.rank <= :fan_out) SELECT from_id, to_id, rank FROM lineage LIMIT :max_edges;
+
+ROLLBACK;
@@ -10,12 +10,17 @@
 -- See the License for the specific language governing permissions and
 -- limitations under the License.
 
+DROP TABLE IF EXISTS schema_migration;
+DROP TABLE IF EXISTS id_lease;
 DROP TABLE lineage_graph_version_edge;
 DROP TABLE lineage_graph_version;
 DROP TABLE lineage_graph;
 DROP TABLE lineage_edge_version;
 DROP TABLE lineage_edge;
 DROP TABLE principal;
+DROP VIEW IF EXISTS graph_version_edge_set;
+DROP FUNCTION IF EXISTS graph_version_edges(bigint);
+DROP TABLE IF EXISTS graph_version_edge_delta;
 DROP TABLE graph_version_edge;
 DROP TABLE graph_version;
 DROP TABLE edge_version;
@@ -23,6 +28,8 @@ DROP TABLE node_version;
 DROP TABLE graph;
 DROP TABLE edge;
 DROP TABLE node;
+DROP FUNCTION IF EXISTS rich_version_tags(bigint);
+DROP TABLE IF EXISTS rich_version_tag_removal;
 DROP TABLE rich_version_tag;
 DROP TABLE rich_version_external_parameter;
 DROP TABLE rich_version;
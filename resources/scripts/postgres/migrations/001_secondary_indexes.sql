@@ -0,0 +1,31 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Indexes for lookups that do not lead with a primary key column.
+
+CREATE INDEX IF NOT EXISTS version_successor_to_version_id_idx ON version_successor (to_version_id);
+CREATE INDEX IF NOT EXISTS version_history_dag_version_successor_id_idx ON version_history_dag (version_successor_id);
+CREATE INDEX IF NOT EXISTS edge_from_node_id_idx ON edge (from_node_id);
+CREATE INDEX IF NOT EXISTS edge_to_node_id_idx ON edge (to_node_id);
+CREATE INDEX IF NOT EXISTS lineage_edge_version_from_rich_version_id_idx ON lineage_edge_version (from_rich_version_id);
+CREATE INDEX IF NOT EXISTS lineage_edge_version_to_rich_version_id_idx ON lineage_edge_version (to_rich_version_id);
+
+-- Tag searches only return ids, so these cover them and allow index-only scans.
+
+CREATE INDEX IF NOT EXISTS item_tag_key_idx ON item_tag (key, item_id);
+CREATE INDEX IF NOT EXISTS rich_version_tag_key_idx ON rich_version_tag (key, rich_version_id);
+
+-- Most rich versions have no structure version, so only the ones that do are indexed.
+
+CREATE INDEX IF NOT EXISTS rich_version_structure_version_id_idx ON rich_version (structure_version_id) WHERE structure_version_id IS NOT NULL;
+
+INSERT INTO schema_migration(version) values (1);
@@ -0,0 +1,32 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Typed tag values for search. Integer and long values are copied into a bigint column so that
+-- range predicates can use an index instead of casting every value. The 'long' data type is added
+-- by 006_long_data_type.no_transaction.sql, since before PostgreSQL 12 a type cannot gain a value
+-- inside a transaction.
+
+ALTER TABLE item_tag ADD COLUMN IF NOT EXISTS long_value bigint;
+ALTER TABLE rich_version_tag ADD COLUMN IF NOT EXISTS long_value bigint;
+
+UPDATE item_tag SET long_value = value::bigint WHERE type = 'integer';
+UPDATE rich_version_tag SET long_value = value::bigint WHERE type = 'integer';
+
+-- Composite (key, typed value) indexes, ending with the id so searches can page through ids
+-- without reading the tables.
+
+CREATE INDEX IF NOT EXISTS item_tag_key_value_idx ON item_tag (key, value, item_id);
+CREATE INDEX IF NOT EXISTS item_tag_key_long_value_idx ON item_tag (key, long_value, item_id) WHERE long_value IS NOT NULL;
+CREATE INDEX IF NOT EXISTS rich_version_tag_key_value_idx ON rich_version_tag (key, value, rich_version_id);
+CREATE INDEX IF NOT EXISTS rich_version_tag_key_long_value_idx ON rich_version_tag (key, long_value, rich_version_id) WHERE long_value IS NOT NULL;
+
+INSERT INTO schema_migration(version) values (2);
@@ -0,0 +1,55 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Delta-encoded graph version edges. A graph version is either a checkpoint, whose edges are all
+-- listed in graph_version_edge, or a delta against its parent (delta_base_id), listing only the
+-- edges it added or removed in graph_version_edge_delta. delta_depth counts the deltas between a
+-- version and its checkpoint, so that chains can be cut short with a new checkpoint. Versions
+-- written before this migration are checkpoints.
+
+ALTER TABLE graph_version ADD COLUMN IF NOT EXISTS delta_base_id bigint REFERENCES graph_version(id);
+ALTER TABLE graph_version ADD COLUMN IF NOT EXISTS delta_depth int NOT NULL DEFAULT 0;
+
+CREATE INDEX IF NOT EXISTS graph_version_delta_base_id_idx ON graph_version (delta_base_id) WHERE delta_base_id IS NOT NULL;
+
+CREATE TABLE IF NOT EXISTS graph_version_edge_delta (
+    graph_version_id bigint NOT NULL REFERENCES graph_version(id),
+    edge_version_id bigint NOT NULL REFERENCES edge_version(id),
+    added boolean NOT NULL,
+    CONSTRAINT graph_version_edge_delta_pkey PRIMARY KEY (graph_version_id, edge_version_id)
+);
+
+-- The edge set of a graph version: walk back to its checkpoint, and keep each edge's most recent
+-- change. The body has no semicolons and every line is indented, so that the test harness, which
+-- splits scripts on semicolons and joins their lines, runs it as one statement.
+
+CREATE OR REPLACE FUNCTION graph_version_edges(bigint) RETURNS TABLE (edge_version_id bigint) AS $$
+    WITH RECURSIVE chain (id, delta_base_id, depth) AS (
+        SELECT g.id, g.delta_base_id, 0 FROM graph_version g WHERE g.id = $1
+      UNION ALL
+        SELECT g.id, g.delta_base_id, c.depth + 1 FROM chain c JOIN graph_version g ON g.id = c.delta_base_id
+    ), changes (edge_version_id, added, depth) AS (
+        SELECT d.edge_version_id, d.added, c.depth FROM chain c JOIN graph_version_edge_delta d ON d.graph_version_id = c.id
+      UNION ALL
+        SELECT e.edge_version_id, true, c.depth FROM chain c JOIN graph_version_edge e ON e.graph_version_id = c.id
+        WHERE c.delta_base_id IS NULL
+    )
+    SELECT latest.edge_version_id FROM (
+        SELECT DISTINCT ON (changes.edge_version_id) changes.edge_version_id, changes.added FROM changes
+        ORDER BY changes.edge_version_id, changes.depth
+    ) latest WHERE latest.added ORDER BY latest.edge_version_id
+    $$ LANGUAGE sql STABLE;
+
+CREATE OR REPLACE VIEW graph_version_edge_set AS
+    SELECT g.id AS graph_version_id, e.edge_version_id FROM graph_version g CROSS JOIN LATERAL graph_version_edges(g.id) e;
+
+INSERT INTO schema_migration(version) values (3);
@@ -0,0 +1,50 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Delta-encoded rich version tags. A rich version is either a snapshot, whose tags are all listed
+-- in rich_version_tag, or a delta against its first parent (tag_base_id). A delta lists only the
+-- tags it adds or changes in rich_version_tag, and the keys it removes in rich_version_tag_removal.
+-- tag_depth counts the deltas between a version and its snapshot. Versions written before this
+-- migration are snapshots.
+
+ALTER TABLE rich_version ADD COLUMN IF NOT EXISTS tag_base_id bigint REFERENCES rich_version(id);
+ALTER TABLE rich_version ADD COLUMN IF NOT EXISTS tag_depth int NOT NULL DEFAULT 0;
+
+CREATE INDEX IF NOT EXISTS rich_version_tag_base_id_idx ON rich_version (tag_base_id) WHERE tag_base_id IS NOT NULL;
+
+CREATE TABLE IF NOT EXISTS rich_version_tag_removal (
+    rich_version_id bigint NOT NULL REFERENCES rich_version(id),
+    key varchar NOT NULL,
+    CONSTRAINT rich_version_tag_removal_pkey PRIMARY KEY (rich_version_id, key)
+);
+
+-- The tags of a rich version: walk back to its snapshot, and keep each key's most recent change.
+-- Like graph_version_edges, the body has no semicolons and every line is indented.
+
+CREATE OR REPLACE FUNCTION rich_version_tags(bigint)
+    RETURNS TABLE (rich_version_id bigint, key varchar, value varchar, type data_type, long_value bigint) AS $$
+    WITH RECURSIVE chain (id, tag_base_id, depth) AS (
+        SELECT r.id, r.tag_base_id, 0 FROM rich_version r WHERE r.id = $1
+      UNION ALL
+        SELECT r.id, r.tag_base_id, c.depth + 1 FROM chain c JOIN rich_version r ON r.id = c.tag_base_id
+    ), changes (key, value, type, long_value, removed, depth) AS (
+        SELECT t.key, t.value, t.type, t.long_value, false, c.depth FROM chain c JOIN rich_version_tag t ON t.rich_version_id = c.id
+      UNION ALL
+        SELECT x.key, NULL, NULL, NULL, true, c.depth FROM chain c JOIN rich_version_tag_removal x ON x.rich_version_id = c.id
+    )
+    SELECT $1, latest.key, latest.value, latest.type, latest.long_value FROM (
+        SELECT DISTINCT ON (changes.key) changes.key, changes.value, changes.type, changes.long_value, changes.removed FROM changes
+        ORDER BY changes.key, changes.depth
+    ) latest WHERE NOT latest.removed ORDER BY latest.key
+    $$ LANGUAGE sql STABLE;
+
+INSERT INTO schema_migration(version) values (4);
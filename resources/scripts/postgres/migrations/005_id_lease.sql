@@ -0,0 +1,29 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Databases created before ids were leased have no id_lease table, and already hold ids that a
+-- lease starting from 1 would hand out again. Every counter starts past the largest id of any
+-- kind, since a globally unique IdGenerator draws versions, successors and items from one counter.
+-- Ids carry the machine id in their top bits, so only the low 48 bits hold the counter's value.
+
+CREATE TABLE IF NOT EXISTS id_lease (
+    counter varchar NOT NULL PRIMARY KEY,
+    high_water_mark bigint NOT NULL
+);
+
+INSERT INTO id_lease(counter, high_water_mark)
+    SELECT counter, greatest(1, (SELECT max(id & 281474976710655) FROM (
+        SELECT id FROM version UNION ALL SELECT id FROM version_successor UNION ALL SELECT id FROM item) ids) + 1)
+    FROM (VALUES ('version'), ('successor'), ('item')) counters(counter)
+    ON CONFLICT (counter) DO UPDATE SET high_water_mark = greatest(id_lease.high_water_mark, EXCLUDED.high_water_mark);
+
+INSERT INTO schema_migration(version) values (5);
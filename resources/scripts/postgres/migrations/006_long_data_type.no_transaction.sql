@@ -0,0 +1,18 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Adds the 'long' data type for tag values. Before PostgreSQL 12 a type cannot gain a value inside
+-- a transaction, so this migration runs statement by statement rather than in one transaction.
+
+ALTER TYPE data_type ADD VALUE IF NOT EXISTS 'long';
+
+INSERT INTO schema_migration(version) values (6);
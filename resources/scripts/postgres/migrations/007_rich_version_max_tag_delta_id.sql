@@ -0,0 +1,29 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--    http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- The largest id among the tag deltas based on a rich version, directly or through other deltas,
+-- or null if there are none. Ids do not grow along a delta chain when versions come from several
+-- machines, so a tag search can only skip the versions a chain leads to once it knows that none of
+-- them is past its cursor. Deleting a delta leaves the value too large, which only costs pruning.
+
+ALTER TABLE rich_version ADD COLUMN IF NOT EXISTS max_tag_delta_id bigint;
+
+WITH RECURSIVE descent (ancestor_id, id) AS (
+        SELECT r.tag_base_id, r.id FROM rich_version r WHERE r.tag_base_id IS NOT NULL
+      UNION ALL
+        SELECT r.tag_base_id, d.id FROM descent d JOIN rich_version r ON r.id = d.ancestor_id WHERE r.tag_base_id IS NOT NULL
+    )
+    UPDATE rich_version v SET max_tag_delta_id = m.max_id
+    FROM (SELECT descent.ancestor_id, max(descent.id) AS max_id FROM descent GROUP BY descent.ancestor_id) m
+    WHERE v.id = m.ancestor_id;
+
+INSERT INTO schema_migration(version) values (7);
@@ -172,6 +172,22 @@ CREATE TABLE IF NOT EXISTS lineage_graph_version_edge (
     CONSTRAINT lineage_graph_version_edge_pkey PRIMARY KEY (lineage_graph_version_id, lineage_edge_version_id)
 );
 
+-- SCHEMA MIGRATIONS
+
+CREATE TABLE IF NOT EXISTS schema_migration (
+    version integer NOT NULL PRIMARY KEY,
+    applied_at timestamp NOT NULL DEFAULT now()
+);
+
+-- ID LEASES
+
+CREATE TABLE IF NOT EXISTS id_lease (
+    counter varchar NOT NULL PRIMARY KEY,
+    high_water_mark bigint NOT NULL
+);
+
+INSERT INTO id_lease(counter, high_water_mark) values ('version', 1), ('successor', 1), ('item', 1);
+
 -- CREATE EMPTY VERSION
 
 INSERT INTO version(id) values (0);
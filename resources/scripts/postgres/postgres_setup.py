@@ -26,3 +26,15 @@ if drop:
 
 create_string = "psql -U " + str(user) + " -d " + str(dbname) + " -f postgres.sql"
 os.system(create_string)
+
+# apply any migrations that have not been applied yet, in order of their version number. Each one
+# runs in a single transaction, except those named *.no_transaction.sql, which hold statements
+# such as ALTER TYPE ... ADD VALUE that cannot run inside a transaction before PostgreSQL 12
+applied_string = "psql -U " + str(user) + " -d " + str(dbname) + " -tAc 'SELECT version FROM schema_migration'"
+applied = set(int(version) for version in os.popen(applied_string).read().split())
+
+for migration in sorted(os.listdir("migrations")):
+    if migration.endswith(".sql") and int(migration.split("_")[0]) not in applied:
+        single_transaction = "" if migration.endswith(".no_transaction.sql") else " -1"
+        migrate_string = "psql -U " + str(user) + " -d " + str(dbname) + single_transaction + " -v ON_ERROR_STOP=1 -f migrations/" + migration
+        os.system(migrate_string)